@@ -0,0 +1,83 @@
+#!/usr/bin/env bash
+# Measures the startup time of HTMLNotepadFX with and without the class
+# data sharing archive. Every run starts the packaged program with a fresh
+# home directory whose settings reopen the same generated document, waits
+# until the document is displayed and prints the median time of each
+# startup phase, in milliseconds since the process was started.
+#
+# Build the jar and the archive first (JDK 13 or later, needs a display):
+#   mvn -Pappcds package
+# then run:
+#   scripts/startup-benchmark.sh [runs] [document size in KB]
+
+set -euo pipefail
+
+runs=${1:-10}
+size_kb=${2:-512}
+cd "$(dirname "$0")/.."
+
+jar=$(ls target/HTMLNotepadFX-*.jar 2>/dev/null | grep -v original | head -n 1 || true)
+if [[ -z "$jar" ]]; then
+    echo "No jar found in target/, build it with: mvn -Pappcds package" >&2
+    exit 1
+fi
+archive=${jar%.jar}.jsa
+
+work=$(mktemp -d)
+trap 'rm -rf "$work"' EXIT
+
+# the same document is reopened by every run
+document="$work/document.html"
+{
+    echo "<html><head><title>Startup benchmark</title></head><body>"
+    paragraph="<p>The quick brown fox jumps over the <b>lazy</b> dog, <i>again</i> and again.</p>"
+    for ((i = 0; i < size_kb * 1024 / ${#paragraph}; i++)); do echo "$paragraph"; done
+    echo "</body></html>"
+} > "$document"
+
+# runs the program once with these JVM options, prints its phase lines
+run_once() {
+    local home="$work/home"
+    rm -rf "$home" && mkdir -p "$home"
+    cat > "$home/.HTMLNotepadFX_settings.conf" <<EOF
+config_version=15013.0
+last_file=$document
+recent_files=$document
+EOF
+    java "$@" -Duser.home="$home" -Dhtmlnotepad.startup.log=true -Dhtmlnotepad.startup.exit=true \
+        -jar "$jar" 2>&1 >/dev/null | grep '^startup: ' || true
+}
+
+# runs the program repeatedly and prints the median of every phase
+measure() {
+    local label=$1
+    shift
+    for ((run = 0; run < runs; run++)); do run_once "$@"; done | awk -F'[:=]' -v label="$label" '
+        {
+            phase = substr($2, 2)
+            if (!(phase in count)) order[++phases] = phase
+            times[phase, ++count[phase]] = $3
+        }
+        END {
+            printf "%s\n", label
+            for (p = 1; p <= phases; p++) {
+                phase = order[p]; n = count[phase]
+                for (i = 1; i <= n; i++) sorted[i] = times[phase, i]
+                for (i = 2; i <= n; i++)            # insertion sort, n is small
+                    for (j = i; j > 1 && sorted[j - 1] > sorted[j]; j--) {
+                        t = sorted[j]; sorted[j] = sorted[j - 1]; sorted[j - 1] = t
+                    }
+                median = n % 2 ? sorted[(n + 1) / 2] : (sorted[n / 2] + sorted[n / 2 + 1]) / 2
+                printf "  %-16s %6d ms  (%d runs)\n", phase ":", median, n
+            }
+        }'
+}
+
+echo "Startup of $jar, $runs runs, ${size_kb} KB document"
+run_once >/dev/null     # warm up the file system cache
+measure "Without class data sharing:" -Xshare:auto
+if [[ -f "$archive" ]]; then
+    measure "With $archive:" -XX:SharedArchiveFile="$archive"
+else
+    echo "No archive at $archive, build it with: mvn -Pappcds package" >&2
+fi
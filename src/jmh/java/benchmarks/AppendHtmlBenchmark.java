@@ -0,0 +1,52 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import util.DocumentLoader;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the string part of the old append-by-round-trip insertion
+ * (still the fallback in Controller.insertHtmlText when the editor isn't
+ * displayed): the whole document is concatenated with the inserted
+ * snippet for every insert. The WebKit serialisation and re-parse around
+ * it need a running JavaFX toolkit and are not included; the DOM
+ * insertion that replaced it reports its own timings under Help >
+ * Diagnostics.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class AppendHtmlBenchmark {
+
+    @Param({"10KB", "1MB", "50MB", "500MB"})
+    public String size;
+
+    private String document;
+    private final String snippet = "<img src=\"https://example.org/logo.png\" alt=\"logo\"/>";
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        document = DocumentLoader.load(Corpus.document(size)).getText();
+    }
+
+    @Benchmark
+    public String appendRoundTrip() {
+        return document + snippet;
+    }
+}
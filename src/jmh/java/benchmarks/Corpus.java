@@ -0,0 +1,157 @@
+package benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Base64;
+import java.util.Random;
+
+/**
+ * Generates the benchmark documents. Files are generated once into
+ * target/jmh-corpus and reused by later runs and forks; the content is
+ * seeded, so every run measures the same input.
+ */
+final class Corpus {
+
+    /**
+     * Non-instantiable
+     */
+    private Corpus() {
+    }
+
+    /**
+     * The directory the generated files are kept in
+     */
+    private static final Path DIRECTORY = Paths.get(System.getProperty(
+            "corpus.dir", "target/jmh-corpus"));
+
+    private static final String[] WORDS = {"lorem", "ipsum", "dolor", "sit", "amet",
+            "consectetur", "adipiscing", "elit", "sed", "do", "eiusmod", "tempor",
+            "incididunt", "ut", "labore", "et", "dolore", "magna", "aliqua", "äöü",
+            "naïve", "café", "&lt;tag&gt;", "\"quoted\"", "a&b", "–"};
+
+    /**
+     * Parses a size such as "10KB", "50MB" or "1048576"
+     *
+     * @param size the size string
+     * @return the size in bytes
+     */
+    static long parseSize(String size) {
+        String s = size.trim().toUpperCase();
+        if (s.endsWith("KB")) return Long.parseLong(s.substring(0, s.length() - 2)) << 10;
+        if (s.endsWith("MB")) return Long.parseLong(s.substring(0, s.length() - 2)) << 20;
+        if (s.endsWith("GB")) return Long.parseLong(s.substring(0, s.length() - 2)) << 30;
+        return Long.parseLong(s);
+    }
+
+    /**
+     * Returns an HTML document of (roughly) this size, generating it if
+     * it doesn't exist yet
+     *
+     * @param size the size string, see {@link #parseSize}
+     * @return the document path
+     * @throws IOException on write errors
+     */
+    static synchronized Path document(String size) throws IOException {
+        Path file = DIRECTORY.resolve("document-" + size + ".html");
+        if (Files.exists(file)) return file;
+        Files.createDirectories(DIRECTORY);
+
+        long bytes = parseSize(size);
+        Random random = new Random(bytes);
+        Path temp = Files.createTempFile(DIRECTORY, "document", ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            out.write("<html dir=\"ltr\"><head><meta charset=\"utf-8\"></head>"
+                    + "<body contenteditable=\"true\">\n");
+            long written = 0;
+            StringBuilder block = new StringBuilder();
+            while (written < bytes) {
+                block.setLength(0);
+                appendBlock(block, random);
+                out.append(block);
+                written += block.length();
+            }
+            out.write("</body></html>\n");
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        return file;
+    }
+
+    /**
+     * Returns a binary file of this size, standing in for an image
+     *
+     * @param size the size string, see {@link #parseSize}
+     * @return the file path
+     * @throws IOException on write errors
+     */
+    static synchronized Path binary(String size) throws IOException {
+        Path file = DIRECTORY.resolve("image-" + size + ".png");
+        if (Files.exists(file)) return file;
+        Files.createDirectories(DIRECTORY);
+
+        long bytes = parseSize(size);
+        Random random = new Random(bytes);
+        Path temp = Files.createTempFile(DIRECTORY, "image", ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            byte[] buffer = new byte[64 << 10];
+            for (long written = 0; written < bytes; written += buffer.length) {
+                random.nextBytes(buffer);
+                out.write(buffer, 0, (int) Math.min(buffer.length, bytes - written));
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        return file;
+    }
+
+    /**
+     * Appends a random top-level block, mixing the kinds of markup the
+     * editor produces
+     */
+    private static void appendBlock(StringBuilder sb, Random random) {
+        switch (random.nextInt(10)) {
+            case 0:
+                sb.append("<h2>");
+                appendWords(sb, random, 6);
+                sb.append("</h2>\n");
+                break;
+            case 1:
+                sb.append("<ul>");
+                for (int i = 0; i < 4; i++) {
+                    sb.append("<li>");
+                    appendWords(sb, random, 8);
+                    sb.append("</li>");
+                }
+                sb.append("</ul>\n");
+                break;
+            case 2:
+                byte[] pixels = new byte[96];
+                random.nextBytes(pixels);
+                sb.append("<p><img src=\"data:image/png;base64,")
+                        .append(Base64.getEncoder().encodeToString(pixels))
+                        .append("\" alt=\"icon\"></p>\n");
+                break;
+            case 3:
+                sb.append("<pre>  indented\n    code &lt;here&gt;\n</pre>\n");
+                break;
+            default:
+                sb.append("<p style=\"margin: 0\">");
+                appendWords(sb, random, 40);
+                sb.append(" <a href=\"https://example.org/").append(random.nextInt(1000))
+                        .append("\">link</a> <b>");
+                appendWords(sb, random, 3);
+                sb.append("</b></p>\r\n");
+        }
+    }
+
+    private static void appendWords(StringBuilder sb, Random random, int count) {
+        for (int i = 0; i < count; i++) {
+            if (i > 0) sb.append(' ');
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+    }
+}
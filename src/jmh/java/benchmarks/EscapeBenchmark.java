@@ -0,0 +1,47 @@
+package benchmarks;
+
+import dialogs.DialogUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import util.DocumentLoader;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures escaping document-sized text (as pasted into the code and
+ * script dialogs)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class EscapeBenchmark {
+
+    @Param({"10KB", "1MB", "50MB", "500MB"})
+    public String size;
+
+    private String text;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        text = DocumentLoader.load(Corpus.document(size)).getText();
+    }
+
+    @Benchmark
+    public String escapeHtmlText() {
+        return DialogUtils.escapeHtmlText(text);
+    }
+}
@@ -0,0 +1,70 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import util.DocumentLoader;
+import util.ExportPipeline;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures exporting documents through the streaming export stages,
+ * compared to writing them as they are. The stages shouldn't need more
+ * memory for larger documents, run with a small heap to check it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class ExportBenchmark {
+
+    @Param({"10KB", "1MB", "50MB", "500MB"})
+    public String size;
+
+    private String contents;
+    private Path target;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Path document = Corpus.document(size);
+        contents = DocumentLoader.load(document).getText();
+        target = Files.createTempFile(document.getParent(), "export", ".html");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(target);
+    }
+
+    @Benchmark
+    public long asIs() throws IOException {
+        return ExportPipeline.AS_IS.export(contents, target, StandardCharsets.UTF_8, false).getBytes();
+    }
+
+    @Benchmark
+    public long minified() throws IOException {
+        return ExportPipeline.MINIFIED.export(contents, target, StandardCharsets.UTF_8, false).getBytes();
+    }
+
+    @Benchmark
+    public long formatted() throws IOException {
+        return ExportPipeline.FORMATTED.export(contents, target, StandardCharsets.UTF_8, false).getBytes();
+    }
+}
@@ -0,0 +1,63 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import util.FileIO;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures opening and saving documents through FileIO
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class FileIOBenchmark {
+
+    @Param({"10KB", "1MB", "50MB", "500MB"})
+    public String size;
+
+    private File document, target;
+    private String contents;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        document = Corpus.document(size).toFile();
+        contents = FileIO.loadFile(document);
+        Path temp = Files.createTempFile(document.toPath().getParent(), "save", ".html");
+        target = temp.toFile();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(target.toPath());
+    }
+
+    @Benchmark
+    public String loadFile() {
+        return FileIO.loadFile(document);
+    }
+
+    @Benchmark
+    public void saveFile() {
+        FileIO.saveFile(target, contents);
+    }
+}
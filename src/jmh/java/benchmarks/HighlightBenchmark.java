@@ -0,0 +1,133 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import util.DocumentLoader;
+import util.IncrementalLexer;
+import util.LineBuffer;
+import util.TextDiff;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how the source view follows an edit: updating the line index
+ * and re-lexing the damaged lines, each invocation makes an edit in the
+ * middle of the document and undoes it again. The full lex is the cost
+ * of highlighting from scratch, which incremental lexing avoids.
+ * <p>
+ * The target is staying below a millisecond per edit on 10 MB
+ * documents, run with <code>-Djmh.sizes=10MB</code>. The single line
+ * layout joins the whole document into one line, as minified pages are,
+ * which the line buffer splits into segments.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class HighlightBenchmark {
+
+    @Param({"10MB"})
+    public String size;
+
+    @Param({"lines", "single"})
+    public String layout;
+
+    private static final String SCRIPT = "<script>\nvar total = 0; /* a comment\n spanning lines */\n"
+            + "function add(x) { return total += x * 2; }\nvar s = `template\nliteral`;\n</script>\n"
+            + "<style>\np { margin: 0 4px; /* note */ }\n</style>\n";
+
+    private String original, typed, commented;
+    private TextDiff typeChar, untypeChar, openComment, closeComment;
+    private LineBuffer buffer;
+    private IncrementalLexer lexer;
+    private int visibleLine;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        // mix some scripts and styles into the document
+        String text = DocumentLoader.load(Corpus.document(size)).getText();
+        StringBuilder sb = new StringBuilder(text.length() + text.length() / 50);
+        for (int i = 0, next; i < text.length(); i = next) {
+            next = text.indexOf('\n', i + 4096);
+            next = next < 0 ? text.length() : next + 1;
+            sb.append(text, i, next).append(SCRIPT);
+        }
+        original = sb.toString();
+        if (layout.equals("single")) original = original.replaceAll("\r\n?|\n", " ");
+
+        int middle = original.indexOf("<p style", original.length() / 2);
+        int position = original.indexOf('>', middle) + 1;
+        typed = original.substring(0, position) + "x" + original.substring(position);
+        commented = original.substring(0, position) + "<!--" + original.substring(position);
+        typeChar = TextDiff.compute(original, typed);
+        untypeChar = TextDiff.compute(typed, original);
+        openComment = TextDiff.compute(original, commented);
+        closeComment = TextDiff.compute(commented, original);
+
+        buffer = new LineBuffer(original);
+        lexer = new IncrementalLexer(buffer);
+        lexer.stateAt(buffer.getLineCount() - 1);
+        visibleLine = buffer.getLineOfOffset(position);
+    }
+
+    /**
+     * Typing and deleting a character, the common case: the damage
+     * ends with the edited line
+     */
+    @Benchmark
+    public int typeCharacter() {
+        edit(typed, typeChar);
+        edit(original, untypeChar);
+        return lexer.getValidLines();
+    }
+
+    /**
+     * Opening and removing a comment, which changes the state of every
+     * line after it: only the lines near the edit are lexed right away
+     */
+    @Benchmark
+    public int toggleComment() {
+        edit(commented, openComment);
+        edit(original, closeComment);
+        return lexer.getValidLines();
+    }
+
+    /**
+     * The tokens of a screenful of lines, as drawn by the source view
+     */
+    @Benchmark
+    public void visibleLines(Blackhole blackhole) {
+        for (int line = visibleLine; line < visibleLine + 60; line++)
+            lexer.tokens(line, Integer.MAX_VALUE, (start, end, type) -> blackhole.consume(type));
+    }
+
+    /**
+     * Lexing the whole document, the cost of a non-incremental
+     * highlighter on every edit
+     */
+    @Benchmark
+    public int fullLex() {
+        IncrementalLexer fresh = new IncrementalLexer(buffer);
+        return fresh.stateAt(buffer.getLineCount() - 1);
+    }
+
+    private void edit(String text, TextDiff diff) {
+        LineBuffer changed = buffer.update(text, diff);
+        lexer.update(changed, diff);
+        buffer = changed;
+    }
+}
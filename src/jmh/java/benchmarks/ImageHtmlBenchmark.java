@@ -0,0 +1,56 @@
+package benchmarks;
+
+import dialogs.ImageDialog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import util.ImageEmbedder;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures embedding a local image as a base64 data URI, through the
+ * image cache (a memory hit after the first invocation) and encoded
+ * from scratch
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class ImageHtmlBenchmark {
+
+    @Param({"10KB", "1MB", "50MB", "500MB"})
+    public String size;
+
+    private String path;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        path = Corpus.binary(size).toString();
+    }
+
+    @Benchmark
+    public String localImageHtml() {
+        return ImageDialog.getImageHtml(path, "benchmark", true);
+    }
+
+    @Benchmark
+    public String uncachedDataUri() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        ImageEmbedder.appendDataUri(Paths.get(path), ImageEmbedder.Options.NONE, sb);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,101 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import util.DocumentLoader;
+import util.TextSearch;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures finding and replacing in the whole document: a literal query
+ * with and without the case, a regular expression and a replace all.
+ * String.indexOf is the baseline of the literal search.
+ * <p>
+ * The target is searching a 100 MB document in well under a second,
+ * run with <code>-Djmh.sizes=100MB</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class SearchBenchmark {
+
+    @Param({"100MB"})
+    public String size;
+
+    private static final String WORD = "consectetur";
+
+    private String text;
+    private TextSearch.Query literal, ignoreCase, regex;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        text = DocumentLoader.load(Corpus.document(size)).getText();
+        literal = new TextSearch.Query(WORD, true, false);
+        ignoreCase = new TextSearch.Query(WORD.toUpperCase(), false, false);
+        regex = new TextSearch.Query("consec\\w+r\\b", true, true);
+    }
+
+    @Benchmark
+    public int literal() {
+        return count(literal);
+    }
+
+    @Benchmark
+    public int ignoreCase() {
+        return count(ignoreCase);
+    }
+
+    @Benchmark
+    public int regex() {
+        return count(regex);
+    }
+
+    /**
+     * String.indexOf over the whole text
+     */
+    @Benchmark
+    public int indexOf() {
+        int count = 0;
+        for (int i = text.indexOf(WORD); i >= 0; i = text.indexOf(WORD, i + WORD.length())) count++;
+        return count;
+    }
+
+    @Benchmark
+    public int replaceAll() {
+        return TextSearch.replace(text, literal, "adipiscing", new TextSearch.Search()).getCount();
+    }
+
+    private int count(TextSearch.Query query) {
+        int[] total = {0};
+        TextSearch.find(text, query, new TextSearch.Search(), new TextSearch.Listener() {
+            @Override
+            public void found(int[] matches) {
+                total[0] += matches.length / 2;
+            }
+
+            @Override
+            public void finished(int count, boolean complete) {
+            }
+
+            @Override
+            public void failed(String reason) {
+            }
+        });
+        return total[0];
+    }
+}
@@ -0,0 +1,78 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import util.DocumentLoader;
+import util.DocumentStatistics;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how the document statistics follow an edit: each invocation
+ * counts a snapshot with a character typed in the middle of the document
+ * and one with it deleted again. The full count is the cost of counting
+ * from scratch on every change.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+public class StatisticsBenchmark {
+
+    @Param({"10MB"})
+    public String size;
+
+    private String original, typed, commented;
+    private DocumentStatistics statistics;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        original = DocumentLoader.load(Corpus.document(size)).getText();
+        int middle = original.indexOf("<p style", original.length() / 2);
+        int position = original.indexOf('>', middle) + 1;
+        typed = original.substring(0, position) + "x" + original.substring(position);
+        commented = original.substring(0, position) + "<!--" + original.substring(position);
+        statistics = new DocumentStatistics(counts -> { });
+        statistics.update(original);
+    }
+
+    /**
+     * Typing and deleting a character, only the segment around it is
+     * counted again
+     */
+    @Benchmark
+    public long typeCharacter() {
+        statistics.update(typed);
+        return statistics.update(original).getWords();
+    }
+
+    /**
+     * Opening and removing a comment, which hides everything after it
+     */
+    @Benchmark
+    public long toggleComment() {
+        statistics.update(commented);
+        return statistics.update(original).getWords();
+    }
+
+    /**
+     * Counting the whole document, the cost of recounting on every edit
+     */
+    @Benchmark
+    public long fullCount() {
+        return DocumentStatistics.count(original).getWords();
+    }
+}
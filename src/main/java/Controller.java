@@ -1,4 +1,5 @@
 import dialogs.ImageDialog;
+import dialogs.LargeDocumentDialog;
 import dialogs.LinkDialog;
 import dialogs.ScriptDialog;
 import dialogs.WebsiteDialog;
@@ -6,10 +7,19 @@ import dialogs.simple.CodeDialog;
 import dialogs.simple.CustomTagDialog;
 import dialogs.simple.MarqueeDialog;
 import dialogs.simple.QuoteDialog;
+import editor.ChangeTracker;
+import editor.ChunkPager;
+import editor.DomInserter;
+import editor.LinkPanel;
+import editor.StatisticsBar;
+import editor.TabStatusPanel;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.application.Platform;
+import javafx.beans.InvalidationListener;
+import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.print.PrinterJob;
-import javafx.scene.Cursor;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
@@ -17,31 +27,49 @@ import javafx.scene.control.CheckMenuItem;
 import javafx.scene.control.Menu;
 import javafx.scene.control.MenuItem;
 import javafx.scene.control.Slider;
+import javafx.scene.control.Tab;
+import javafx.scene.control.TabPane;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.web.HTMLEditor;
-import javafx.scene.web.WebView;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
+import javafx.util.Duration;
+import javafx.util.Pair;
+import util.Diagnostics;
 import util.Dialogs;
+import util.DocumentTabs;
 import util.FileIO;
+import util.HttpCache;
+import util.ImageCache;
+import util.ImageEmbedder;
+import util.LinkChecker;
+import util.LoadedDocument;
+import util.PageFetcher;
+import util.RecentFiles;
+import util.RecoveryJournal;
+import util.Settings;
 import util.VersionData;
 
 import java.awt.Component;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Calendar;
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
-import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Controller class for MainWindow.fxml
@@ -52,105 +80,142 @@ public class Controller extends Component {
     public HTMLEditor textEdit = new HTMLEditor();
     public Menu recentMenu = new Menu();
     public Slider opacitySlider = new Slider();
+    public StatisticsBar statisticsBar = new StatisticsBar();
     public CheckMenuItem disableMouseBox = new CheckMenuItem(),
             reloadLastBox = new CheckMenuItem(),
             saveSettingsBox = new CheckMenuItem(),
-            oldUiBox = new CheckMenuItem();
+            oldUiBox = new CheckMenuItem(),
+            imageCacheBox = new CheckMenuItem();
 
-    private double confVersion = VersionData.CONFIG_VERSION;
-    private List<String> recentFiles = new ArrayList<>();
+    private Settings settings;
+    private final RecentFiles recentFiles =
+            new RecentFiles(10, () -> Platform.runLater(this::updateRecentMenu));
+    private String lastFileName;
     private final String stylesheet = "Styles.css";
 
     /**
-     * Loads settings from the config file
+     * Performs initialization
+     */
+    @FXML
+    protected void initialize() {
+        startChangeTracking();
+        startAutosave();
+        startTabs();
+        statisticsBar.follow(tracker, this::documentSnapshot);
+    }
+
+    /**
+     * Loads settings from the config file. The last used file is only
+     * opened by {@link #restoreSession(Runnable)}, once the window is
+     * shown. From then on every change of the settings is written to the
+     * config file a moment later.
      *
      * @see VersionData#CONFIG_LOCATION
      */
     void loadSettings() {
-        Properties settings = new Properties();
-        try {
-            settings.loadFromXML(new FileInputStream(VersionData.CONFIG_LOCATION));
-            confVersion = Double.parseDouble(settings.getProperty("config_version"));
-            if (confVersion > VersionData.CONFIG_VERSION) {
-                Dialogs.alert("Error", "Config file version mismatch",
-                        "The config file reports the version " + confVersion +
-                                " while this program is still using " +
-                                VersionData.CONFIG_VERSION +
-                                "\nSettings will not be loaded.", Alert.AlertType.ERROR);
-                return;
-            }
+        settings = Settings.load(Paths.get(VersionData.CONFIG_LOCATION),
+                Paths.get(VersionData.LEGACY_CONFIG_LOCATION));
+        if (settings.isNewerVersion())
+            Dialogs.alert("Error", "Config file version mismatch",
+                    "The config file reports the version " + settings.getFileVersion() +
+                            " while this program is still using " +
+                            VersionData.CONFIG_VERSION +
+                            "\nSettings will not be loaded.", Alert.AlertType.ERROR);
 
-            textEdit.setMouseTransparent(Boolean.parseBoolean(settings.getProperty("mouse_disabled")));
-            opacitySlider.setValue(Float.parseFloat(settings.getProperty("opacity")) * 100);
-            oldUiBox.setSelected(Boolean.parseBoolean(settings.getProperty("old_ui")));
-            toggleOldUi();
-
-            // attempt to reload the last used file
-            String lastFileName = settings.getProperty("last_file");
-            if (lastFileName != null) openFile(new File(lastFileName));
-            reloadLastBox.setSelected(lastFileName != null);
-
-            String recent = settings.getProperty("recent_files");
-            recentFiles.addAll(Arrays.asList(recent.split(";")));
-
-            for (String s : recentFiles) {
-                MenuItem recentFile = new MenuItem(s);
-                recentFile.setOnAction(e -> {
-                    try {
-                        openFile(new File(recentFile.getText()));
-                    } catch (Exception ignored) { }
-                });
-                recentMenu.getItems().add(recentFile);
-            }
-        } catch (Exception e) {
-            System.err.println("Loading settings failed: " + e.getMessage());
+        disableMouseBox.setSelected(settings.get(Settings.MOUSE_DISABLED));
+        disableMouse();
+        opacitySlider.setValue(Math.max(settings.get(Settings.OPACITY) * 100, 0.1f));
+        setOpacity();
+        oldUiBox.setSelected(settings.get(Settings.OLD_UI));
+        toggleOldUi();
+        largeDocThreshold = settings.get(Settings.LARGE_DOC_THRESHOLD);
+        largeDocBudget = settings.get(Settings.LARGE_DOC_BUDGET);
+        imageCacheBox.setSelected(settings.get(Settings.IMAGE_DISK_CACHE));
+        toggleImageCache();
+        importConnectTimeout = settings.get(Settings.IMPORT_CONNECT_TIMEOUT);
+        importTimeout = settings.get(Settings.IMPORT_TIMEOUT);
+        tabs.setBudget(settings.get(Settings.TAB_MEMORY_BUDGET));
+
+        reloadLastBox.setSelected(settings.get(Settings.RELOAD_LAST));
+        if (reloadLastBox.isSelected()) lastFileName = settings.get(Settings.LAST_FILE);
+
+        List<Path> recent = new ArrayList<>();
+        for (String s : settings.get(Settings.RECENT_FILES)) {
+            try {
+                recent.add(Paths.get(s));
+            } catch (InvalidPathException ignored) { }
         }
-        if (opacitySlider.getValue() < 0.1f) opacitySlider.setValue(0.1f);
+        recentFiles.setAll(recent);     // also starts reading the last file
+
+        InvalidationListener changed = o -> storeSettings();
+        for (CheckMenuItem box : List.of(disableMouseBox, reloadLastBox, oldUiBox, imageCacheBox))
+            box.selectedProperty().addListener(changed);
+        opacitySlider.valueProperty().addListener(changed);
     }
 
     /**
-     * Saves settings to the config file
+     * Offers to recover unsaved changes left behind by a crash, or else
+     * reopens the last used file in the background. The spill files of
+     * the tabs of crashed programs are deleted once recovery was offered.
+     *
+     * @param onRestored called on the JavaFX application thread once the
+     *                   document is displayed; not called if the last
+     *                   file can't be read
+     */
+    void restoreSession(Runnable onRestored) {
+        boolean recovered = offerRecovery();
+        tabs.deleteAbandoned();
+        if (recovered || lastFileName == null) onRestored.run();
+        else openFile(new File(lastFileName), onRestored);
+    }
+
+    /**
+     * Passes the current settings to the settings store, which writes
+     * them to the config file a moment later
      *
      * @see VersionData#CONFIG_LOCATION
      */
-    void saveSettings() {
-        if (!saveSettingsBox.isSelected()) return;
-        Properties settings = new Properties();
-        settings.setProperty("config_version", String.valueOf(confVersion));
-        settings.setProperty("mouse_disabled", String.valueOf(textEdit.isMouseTransparent()));
-        settings.setProperty("opacity", String.valueOf(MainFX.currentStage.getOpacity()));
-        settings.setProperty("old_ui", String.valueOf(oldUiBox.isSelected()));
+    private void storeSettings() {
+        if (settings == null || !saveSettingsBox.isSelected()) return;
+        settings.set(Settings.MOUSE_DISABLED, disableMouseBox.isSelected());
+        settings.set(Settings.OPACITY, Math.max(opacitySlider.getValue() / 100, 0.01));
+        settings.set(Settings.OLD_UI, oldUiBox.isSelected());
+        settings.set(Settings.LARGE_DOC_THRESHOLD, largeDocThreshold);
+        settings.set(Settings.LARGE_DOC_BUDGET, largeDocBudget);
+        settings.set(Settings.IMAGE_DISK_CACHE, imageCacheBox.isSelected());
+        settings.set(Settings.IMPORT_CONNECT_TIMEOUT, importConnectTimeout);
+        settings.set(Settings.IMPORT_TIMEOUT, importTimeout);
+        settings.set(Settings.TAB_MEMORY_BUDGET, tabs.getBudget());
 
         // save the current file name
-        if (file != null && reloadLastBox.isSelected())
-            settings.setProperty("last_file", file.getAbsolutePath());
-
-        StringBuilder recent = new StringBuilder();
-        for (int i = 0; i < 10; i++) {
-            if (i == recentFiles.size()) break;
-            recent.append(';').append(recentFiles.get(i));
-        }
-        settings.setProperty("recent_files", recent.toString());
+        settings.set(Settings.RELOAD_LAST, reloadLastBox.isSelected());
+        settings.set(Settings.LAST_FILE, file != null && reloadLastBox.isSelected()
+                ? file.getAbsolutePath() : null);
+        settings.set(Settings.RECENT_FILES, recentFiles.getPaths());
+    }
 
-        try {
-            var fileOut = new FileOutputStream(new File(VersionData.CONFIG_LOCATION));
-            settings.storeToXML(fileOut, "");
-            fileOut.close();
-
-            // manually hide the properties file on windows
-            if (System.getProperty("os.name").toLowerCase().contains("win")) {
-                Path path = Paths.get(VersionData.CONFIG_LOCATION);
-                Files.setAttribute(path, "dos:hidden", true);
-            }
-        } catch (IOException e) {
-            System.err.println("Saving settings failed: " + e.getMessage());
-        }
+    /**
+     * Writes the settings to the config file now, called on exit
+     *
+     * @see VersionData#CONFIG_LOCATION
+     */
+    void saveSettings() {
+        storeSettings();
+        if (settings != null) settings.flush();
     }
 
     /// FILE MANAGEMENT /////////////////////////////////////////////////////////////////
 
     private File file;
+
+    // whether the title bar shows the document as modified, kept up to
+    // date by the change tracker
     private boolean modified;
+    private ChangeTracker tracker;
+
+    // the encoding of the current file, used when saving it
+    private Charset fileCharset = StandardCharsets.UTF_8;
+    private boolean fileBom;
 
     /**
      * Creates a blank file by emptying textEdit
@@ -162,10 +227,15 @@ public class Controller extends Component {
                     "All unsaved changes will be lost! Continue?");
             if (!confirmedNewFile) return;
         }
-        textEdit.setHtmlText("");
-        MainFX.setTitle("Untitled - HTMLNotepadFX", MainFX.currentStage);
+        tracker.documentReplaced(true);
+        setDocument("", 0);
         modified = false;
         file = null;
+        updateTitle();
+        fileCharset = StandardCharsets.UTF_8;
+        fileBom = false;
+        journal.discard(activeTab.getId());
+        storeSettings();
     }
 
     /**
@@ -176,57 +246,127 @@ public class Controller extends Component {
         chooser.getExtensionFilters().addAll(   // set file extensions filter
                 new FileChooser.ExtensionFilter("HTML files (*.html)", "*.html"),
                 new FileChooser.ExtensionFilter("All files (*.*)", "*.*"));
-        file = chooser.showOpenDialog(MainFX.currentStage);
-        if (file != null) openFile(file);
+        File selected = chooser.showOpenDialog(MainFX.currentStage);
+        if (selected != null) openFile(selected);
     }
 
     /**
-     * Opens this file and renders its content in textEdit
+     * Opens this file and renders its content in textEdit. The file is
+     * read on a background thread.
      *
      * @param file the file to open
      */
     private void openFile(File file) {
-        if (!modified) {
-            textEdit.setHtmlText(FileIO.loadFile(file));
-            MainFX.setTitle(file.getName() + " - HTMLNotepadFX", MainFX.currentStage);
-            modified = false;
-        } else {    // if the file has been modified
-            boolean confirmed = Dialogs.confirmationDialog(
-                    "Confirmation", "Warning",
-                    "All unsaved changes will be lost! Continue?");
-            if (confirmed) {
-                textEdit.setHtmlText(FileIO.loadFile(file));
-                MainFX.setTitle(file.getName() + " - HTMLNotepadFX", MainFX.currentStage);
-                modified = false;
-            }
+        openFile(file, () -> { });
+    }
+
+    /**
+     * Opens this file on a background thread, or displays it right away
+     * if it was already read into memory as the most recently used file.
+     * The file is opened in a new tab unless the current one is blank, or
+     * its tab is selected if it's already open.
+     *
+     * @param file     the file to open
+     * @param onOpened called once the file is displayed
+     */
+    private void openFile(File file, Runnable onOpened) {
+        Tab open = findTab(file);
+        if (open != null) {
+            tabBar.getSelectionModel().select(open);
+            onOpened.run();
+            return;
+        }
+        if (this.file != null || modified) newTab();
+        DocumentTabs.Tab target = activeTab;
+        recentFiles.takePrefetched(file.toPath().toAbsolutePath()).thenAccept(prefetched -> Platform.runLater(() -> {
+            if (prefetched != null) fileOpened(target, file, prefetched, onOpened);
+            else FileIO.loadFileAsync(file, document -> fileOpened(target, file, document, onOpened));
+        }));
+    }
+
+    /**
+     * Displays an opened file, or stores it in its tab if another tab
+     * was selected meanwhile
+     *
+     * @param target   the tab the file was opened in
+     * @param file     the file
+     * @param document the content of the file
+     * @param onOpened called once the file is displayed
+     */
+    private void fileOpened(DocumentTabs.Tab target, File file, LoadedDocument document, Runnable onOpened) {
+        Tab tab = findTab(target);
+        if (tab == null) return;    // closed meanwhile
+        recentFiles.use(file.toPath().toAbsolutePath());
+        if (target != activeTab) {
+            target.setDocument(file, document.getCharset(), document.hasBom(), false);
+            tabs.park(target, document.getText());
+            tab.setText(target.getName());
+            storeSettings();
+            onOpened.run();
+            return;
         }
+        tracker.documentReplaced(true);
+        setDocument(document.getText(), document.getSize());
+        this.file = file;
+        modified = false;
+        updateTitle();
+        fileCharset = document.getCharset();
+        fileBom = document.hasBom();
+        journal.discard(target.getId());
+        storeSettings();
+        onOpened.run();
     }
 
     /**
-     * Saves the current file
+     * Saves the current file on a background thread. The title bar is
+     * updated once the data is safely on disk.
      */
     public void saveFile() {
         if (file == null) {
             saveAs();
             return;
         }
-        FileIO.saveFile(file, textEdit.getHtmlText());
-        // remove "modified" from the title bar
-        MainFX.setTitle(file.getName() + " - HTMLNotepadFX", MainFX.currentStage);
-        modified = false;
+        File target = file;
+        String text = documentHtml();
+        long version = tracker.getVersion();
+        int hash = tracker.getHash();
+        FileIO.saveFileAsync(target, text, fileCharset, fileBom,
+                () -> fileSaved(target, version, hash, text), () -> saveInUtf8(target));
+    }
 
-        boolean recent = recentFiles.stream().anyMatch(s -> s.equals(file.getAbsolutePath()));
-        if (recent) return;
+    /**
+     * Saves the file in UTF-8 after it couldn't be saved in its charset,
+     * changing the charset the document declares to match
+     *
+     * @param target the file that wasn't saved
+     */
+    private void saveInUtf8(File target) {
+        if (!target.equals(file)) return;   // another document is shown now
+        fileCharset = StandardCharsets.UTF_8;
+        fileBom = false;
+        tracker.declareCharset("UTF-8");
+        saveFile();
+    }
 
-        recentFiles.add(file.getAbsolutePath());
-        MenuItem recentFile = new MenuItem(file.getAbsolutePath()); // add the menu item
-        recentFile.setOnAction(e -> {
-            try {
-                openFile(new File(recentFile.getText()));
-            } catch (Exception ignored) { }
-        });
-        recentMenu.getItems().add(recentFile);
+    /**
+     * Updates the title bar and the recent files list after a save
+     *
+     * @param target  the saved file
+     * @param version the document version at the time of the save
+     * @param hash    the content hash at the time of the save
+     * @param text    the saved text
+     */
+    private void fileSaved(File target, long version, int hash, String text) {
+        if (target.equals(file)) {
+            // stays "modified" if the document changed during the save
+            tracker.markSaved(version, hash, text);
+            documentChanged();
+            if (!modified) journal.discard(activeTab.getId());
+            updateTitle();
+        }
 
+        recentFiles.use(target.toPath().toAbsolutePath());
+        storeSettings();
     }
 
     /**
@@ -242,44 +382,376 @@ public class Controller extends Component {
     }
 
     /**
-     * Exports the HTML code into a plain text file
+     * Exports the HTML code into a plain text file, as it is, minified or
+     * formatted depending on the selected file type
      */
     public void exportSource() {
         FileChooser chooser = new FileChooser();
         chooser.setTitle("Export HTML source to a file");
-        chooser.getExtensionFilters().addAll(   // set extension filters
-                new FileChooser.ExtensionFilter("Text files (*.txt)", "*.txt"),
-                new FileChooser.ExtensionFilter("All files (*.*)", "*.*"));
+        FileIO.addExportFilters(chooser, "Text files", "*.txt"); // as is, minified and formatted
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("All files (*.*)", "*.*"));
 
         if (file != null) // original filename + .txt
             chooser.setInitialFileName(file.getName() + ".txt");
 
         File sourceFile = chooser.showSaveDialog(MainFX.currentStage);
-        if (sourceFile != null) FileIO.saveFile(sourceFile, textEdit.getHtmlText());
+        if (sourceFile != null)
+            FileIO.exportFileAsync(sourceFile, documentHtml(), chooser.getSelectedExtensionFilter());
+    }
+
+    /**
+     * Starts tracking the changes of the document
+     */
+    private void startChangeTracking() {
+        tracker = new ChangeTracker(textEdit);
+        tracker.addListener(this::documentChanged);
+    }
+
+    /**
+     * Called after every change of the document, updates the modified
+     * state and the title bar
+     */
+    private void documentChanged() {
+        lastEditTime = System.nanoTime();
+        if (replacedText != null && replacedVersion < 0) replacedVersion = tracker.getVersion();
+        boolean changed = tracker.isModified(this::documentHtml);
+        if (changed == modified) return;
+        modified = changed;
+        updateTitle();
+    }
+
+    /**
+     * Shows the file name and the modified state in the title bar
+     */
+    private void updateTitle() {
+        MainFX.setTitle((file == null ? "Untitled" : file.getName())
+                + (modified ? " (Modified)" : "") + " - HTMLNotepadFX", MainFX.currentStage);
+        Tab selected = tabBar.getSelectionModel().getSelectedItem();
+        if (selected != null)
+            selected.setText((file == null ? "Untitled" : file.getName()) + (modified ? " *" : ""));
+    }
+
+    /// TABS ////////////////////////////////////////////////////////////////////////////
+
+    public TabPane tabBar = new TabPane();
+
+    // the documents of the tabs; the editor displays the document of the
+    // active tab once it's shown, the others are kept by the tab store
+    private final DocumentTabs tabs = new DocumentTabs(Settings.TAB_MEMORY_BUDGET.getDefaultValue(),
+            Paths.get(VersionData.CACHE_LOCATION, "tabs"));
+    private DocumentTabs.Tab activeTab, shownTab;
+
+    /**
+     * Opens the first tab, with the blank document the editor starts with
+     */
+    private void startTabs() {
+        activeTab = shownTab = tabs.add();
+        tabs.activate(activeTab);
+        tabBar.getTabs().add(createTab(activeTab));
+        tabBar.getSelectionModel().selectedItemProperty().addListener((o, old, selected) ->
+                tabSelected(old, selected));
+    }
+
+    /**
+     * Opens a new tab with a blank document
+     */
+    public void newTab() {
+        Tab tab = createTab(tabs.add());
+        tabBar.getTabs().add(tab);
+        tabBar.getSelectionModel().select(tab);
+    }
+
+    /**
+     * Closes the selected tab, asking for confirmation if its document
+     * has unsaved changes
+     */
+    public void closeTab() {
+        Tab tab = tabBar.getSelectionModel().getSelectedItem();
+        if (tab == null || !canClose(tab)) return;
+        tabBar.getTabs().remove(tab);
+        tabClosed(tab);
+    }
+
+    private Tab createTab(DocumentTabs.Tab document) {
+        Tab tab = new Tab(document.getName());
+        tab.setUserData(document);
+        tab.setOnCloseRequest(e -> {
+            if (!canClose(tab)) e.consume();
+        });
+        tab.setOnClosed(e -> tabClosed(tab));
+        return tab;
+    }
+
+    private boolean canClose(Tab tab) {
+        DocumentTabs.Tab document = (DocumentTabs.Tab) tab.getUserData();
+        boolean unsaved = document == activeTab ? modified : document.isModified();
+        return !unsaved || Dialogs.confirmationDialog("Confirmation", "Warning",
+                "All unsaved changes of " + document.getName() + " will be lost! Continue?");
+    }
+
+    private void tabClosed(Tab tab) {
+        DocumentTabs.Tab document = (DocumentTabs.Tab) tab.getUserData();
+        tabs.close(document);
+        journal.discard(document.getId());
+        if (tabBar.getTabs().isEmpty()) newTab();
+    }
+
+    /**
+     * Stores the document of the previously selected tab and displays the
+     * document of the selected one, once the tab store returns it. A
+     * document with unsaved changes is journaled as it's stored, so its
+     * journal covers it while it's in memory or evicted.
+     */
+    private void tabSelected(Tab old, Tab selected) {
+        if (old != null && tabBar.getTabs().contains(old) && old.getUserData() == shownTab) {
+            String html = documentHtml();
+            shownTab.setDocument(file, fileCharset, fileBom, modified);
+            tabs.park(shownTab, html);
+            if (modified) journal.record(shownTab.getId(), file == null ? null : file.getAbsolutePath(), html);
+        }
+        shownTab = null;
+        if (selected == null) return;
+
+        DocumentTabs.Tab document = (DocumentTabs.Tab) selected.getUserData();
+        activeTab = document;
+        file = document.getFile();
+        fileCharset = document.getCharset();
+        fileBom = document.hasBom();
+        modified = document.isModified();
+        updateTitle();
+        textEdit.setDisable(true);  // until the document is displayed
+        tabs.activate(document).whenComplete((html, error) -> Platform.runLater(() -> {
+            String text = html;
+            if (error != null) {
+                Dialogs.alert("Error", "Reading the document failed", "The document of the tab "
+                        + document.getName() + " couldn't be read back:\n" + error.getMessage(),
+                        Alert.AlertType.ERROR);
+                text = "";
+            }
+            if (document != activeTab) {    // another tab was selected meanwhile
+                tabs.park(document, text);
+                return;
+            }
+            tracker.documentReplaced(!document.isModified());
+            setDocument(text, text.length());
+            shownTab = document;
+            textEdit.setDisable(false);
+        }));
     }
 
     /**
-     * Appends "(Modified)" to the title bar
+     * Finds the tab of a document
+     *
+     * @return the tab or <code>null</code> if it was closed
      */
-    public void fileModified() {
-        if (modified) return;
-        MainFX.setTitle(MainFX.currentStage.getTitle() + " (Modified)", MainFX.currentStage);
+    private Tab findTab(DocumentTabs.Tab document) {
+        for (Tab tab : tabBar.getTabs())
+            if (tab.getUserData() == document) return tab;
+        return null;
+    }
+
+    /**
+     * Finds the tab a file is open in
+     *
+     * @return the tab or <code>null</code> if the file isn't open
+     */
+    private Tab findTab(File file) {
+        File wanted = file.getAbsoluteFile();
+        for (Tab tab : tabBar.getTabs()) {
+            DocumentTabs.Tab document = (DocumentTabs.Tab) tab.getUserData();
+            File open = document == activeTab ? this.file : document.getFile();
+            if (open != null && wanted.equals(open.getAbsoluteFile())) return tab;
+        }
+        return null;
+    }
+
+    /**
+     * Opens the tab status window, which lists the memory use of the
+     * documents of the tabs
+     */
+    public void showTabStatus() {
+        TabStatusPanel panel = new TabStatusPanel(tabs);
+        Stage stage = new Stage();
+        stage.setTitle("Tabs");
+        stage.setOnHidden(e -> panel.stop());
+        panel.start();
+        toggleNewUi(stage, new Scene(panel, 660, 300));
+    }
+
+    /// CRASH RECOVERY //////////////////////////////////////////////////////////////////
+
+    private final RecoveryJournal journal =
+            new RecoveryJournal(new File(VersionData.JOURNAL_LOCATION));
+
+    // a snapshot is journaled once typing pauses for IDLE, but at least
+    // every MAX_INTERVAL while typing continues
+    private static final long IDLE = 1_500_000_000L, MAX_INTERVAL = 15_000_000_000L;
+    private long journaledGeneration, lastEditTime, lastSnapshotTime;
+
+    /**
+     * Starts checking for unjournaled changes once per second
+     */
+    private void startAutosave() {
+        Timeline autosave = new Timeline(new KeyFrame(Duration.seconds(1), e -> autosave()));
+        autosave.setCycleCount(Timeline.INDEFINITE);
+        autosave.play();
+    }
+
+    /**
+     * Passes a snapshot of the document to the recovery journal if there
+     * are new changes and the user isn't in the middle of typing. Only
+     * the parts of the document changed since the last snapshot are
+     * serialised, so this stays cheap on large documents.
+     */
+    private void autosave() {
+        // while a selected tab is read back, the editor still shows the previous one
+        if (!modified || shownTab != activeTab || tracker.getVersion() == journaledGeneration) return;
+        long now = System.nanoTime();
+        if (now - lastEditTime < IDLE && now - lastSnapshotTime < MAX_INTERVAL) return;
+        journal.record(activeTab.getId(), file == null ? null : file.getAbsolutePath(), documentSnapshot());
+        journaledGeneration = tracker.getVersion();
+        lastSnapshotTime = now;
+    }
+
+    // the document before the last replace all, so it can be restored
+    private String replacedText;
+    private DocumentTabs.Tab replacedTab;
+    private long replacedVersion;   // once the replaced document was loaded
+
+    /**
+     * Replaces the whole document with an edited version of it, such as
+     * the result of a replace all in the source window. Reloading the
+     * document clears the editor's undo history, so the previous
+     * document is kept for {@link #undoReplace()}.
+     *
+     * @param html the new document
+     */
+    private void replaceDocument(String html) {
+        replacedText = documentHtml();
+        replacedTab = activeTab;
+        replacedVersion = -1;
+        tracker.documentReplaced(false);
+        setDocument(html, html.length());
         modified = true;
+        updateTitle();
+    }
+
+    /**
+     * Restores the document as it was before the last replace all, after
+     * asking if it was edited since
+     *
+     * @return <code>false</code> if there's no replacement to undo in
+     * this document
+     */
+    private boolean undoReplace() {
+        if (replacedText == null || replacedTab != activeTab) return false;
+        if (tracker.getVersion() != replacedVersion && !Dialogs.confirmationDialog("Undo replace",
+                "The document was edited after the replacement",
+                "Restoring the document as it was before the replacement discards these edits.\nContinue?"))
+            return true;
+        String html = replacedText;
+        replacedText = null;
+        replacedTab = null;
+        tracker.documentReplaced(false);
+        setDocument(html, html.length());
+        modified = true;
+        updateTitle();
+        return true;
+    }
+
+    /**
+     * Offers to restore the documents from the recovery journals left
+     * behind by crashed programs. The first document is displayed in the
+     * current tab, the others are opened in new tabs.
+     *
+     * @return <code>true</code> if the documents were restored
+     */
+    private boolean offerRecovery() {
+        List<RecoveryJournal.Recovery> recovered =
+                RecoveryJournal.recoverAbandoned(new File(VersionData.JOURNAL_LOCATION));
+        if (recovered.isEmpty()) return false;
+        StringBuilder names = new StringBuilder();
+        for (RecoveryJournal.Recovery recovery : recovered)
+            names.append("\n    ").append(recovery.getPath() == null ? "Untitled" : recovery.getPath());
+        boolean confirmed = Dialogs.confirmationDialog("Recovery",
+                "Unsaved changes found",
+                "HTMLNotepadFX wasn't closed properly and these documents have unsaved changes:"
+                        + names + "\nWould you like to recover them?");
+        if (!confirmed) {
+            recovered.forEach(RecoveryJournal.Recovery::discard);
+            return false;
+        }
+
+        for (RecoveryJournal.Recovery recovery : recovered) {
+            File recoveredFile = recovery.getPath() == null ? null : new File(recovery.getPath());
+            DocumentTabs.Tab document;
+            if (recovery == recovered.get(0)) {
+                document = activeTab;
+                tracker.documentReplaced(false);
+                setDocument(recovery.getText(), recovery.getText().length());
+                file = recoveredFile;
+                modified = true;
+                updateTitle();
+            } else {
+                document = tabs.add();
+                document.setDocument(recoveredFile, StandardCharsets.UTF_8, false, true);
+                tabs.park(document, recovery.getText());
+                Tab tab = createTab(document);
+                tab.setText(document.getName() + " *");
+                tabBar.getTabs().add(tab);
+            }
+            journal.restore(document.getId(), recovery);
+        }
+        return true;
     }
 
     /**
      * Empties the Recent Files menu and recentFiles list
      */
-    @SuppressWarnings("SuspiciousListRemoveInLoop")
     public void clearRecentMenu() {
-        for (int i = 2; i < recentMenu.getItems().size(); i++)
-            recentMenu.getItems().remove(i);
-        recentFiles = new ArrayList<>();
+        recentFiles.clear();
+        storeSettings();
     }
 
     /**
-     * Fetches an existing web page from the web and renders
-     * it in textEdit
+     * Lists the recently used files in the Recent Files menu, after the
+     * Clear item and the separator. Files that no longer exist are
+     * disabled.
+     */
+    private void updateRecentMenu() {
+        recentMenu.getItems().remove(Math.min(2, recentMenu.getItems().size()), recentMenu.getItems().size());
+        SimpleDateFormat date = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+        for (RecentFiles.Entry entry : recentFiles.getEntries()) {
+            String text = entry.getPath().toString();
+            if (entry.getTitle() != null) text = entry.getTitle() + " - " + text;
+            if (entry.isKnown()) text += entry.exists() ? "  (" + ImageEmbedder.formatSize(entry.getSize())
+                    + ", " + date.format(entry.getModified()) + ")" : "  (not found)";
+            MenuItem recentFile = new MenuItem(text);
+            recentFile.setMnemonicParsing(false);
+            recentFile.setDisable(entry.isKnown() && !entry.exists());
+            recentFile.setOnAction(e -> {
+                try {
+                    openFile(entry.getPath().toFile());
+                } catch (Exception ignored) { }
+            });
+            recentMenu.getItems().add(recentFile);
+        }
+    }
+
+    /// WEB PAGE IMPORT /////////////////////////////////////////////////////////////////
+
+    private static final Pattern BASE_TAG = Pattern.compile("(?i)<base\\s"),
+            HEAD_TAG = Pattern.compile("(?i)<head(\\s[^>]*)?>");
+
+    // the timeouts in seconds for connecting and for downloading a page
+    private long importConnectTimeout = PageFetcher.CONNECT_TIMEOUT.getSeconds(),
+            importTimeout = PageFetcher.TIMEOUT.getSeconds();
+    private PageFetcher pageFetcher;
+
+    /**
+     * Downloads an existing web page on a background thread and renders
+     * it in textEdit. Pages downloaded before are only downloaded again
+     * if they changed.
      */
     public void loadWebPage() {
         WebsiteDialog dlg = new WebsiteDialog("Download web page",
@@ -289,32 +761,179 @@ public class Controller extends Component {
                         "to the current file will be lost!\n\n", stylesheet);
         Optional<String> input = dlg.run();
         if (input.isEmpty()) return;
-        Platform.runLater(() -> textEdit.getScene().getWindow().getScene()
-                .setCursor(Cursor.WAIT));
 
-        WebView webView = (WebView) textEdit.lookup("WebView");
-        if (webView != null) {
-            webView.getEngine().load(input.get());
-            MainFX.setTitle("Untitled - HTMLNotepadFX", MainFX.currentStage);
+        URI uri;
+        try {
+            uri = webAddress(input.get());
+        } catch (URISyntaxException e) {
+            Dialogs.alert("Error", "Invalid web address", e.getMessage(), Alert.AlertType.ERROR);
+            return;
+        }
+        FileIO.loadPageAsync(pageFetcher(), uri, page -> {
+            LoadedDocument document = page.getDocument();
+            tracker.documentReplaced(true);
+            setDocument(withBase(document.getText(), page.getUri()), document.getSize());
             modified = false;
             file = null;
+            fileCharset = document.getCharset();
+            fileBom = false;
+            updateTitle();
+            storeSettings();
+        });
+    }
+
+    /**
+     * Returns the page downloader, created on first use with the
+     * configured timeouts and the page cache
+     *
+     * @return the page downloader
+     */
+    private PageFetcher pageFetcher() {
+        if (pageFetcher == null) {
+            HttpCache cache = null;
+            try {
+                cache = new HttpCache(HttpCache.defaultDirectory());
+            } catch (IOException e) {
+                System.err.println("Opening the page cache failed: " + e.getMessage());
+            }
+            pageFetcher = new PageFetcher(java.time.Duration.ofSeconds(importConnectTimeout),
+                    java.time.Duration.ofSeconds(importTimeout), cache);
+            Diagnostics.register("Web import", pageFetcher::getStatistics);
+        }
+        return pageFetcher;
+    }
+
+    /**
+     * Turns the entered address into a web address, "www.example.org"
+     * becomes "https://www.example.org"
+     *
+     * @param address the entered address
+     * @return the web address
+     * @throws URISyntaxException if it isn't a valid web address
+     */
+    private static URI webAddress(String address) throws URISyntaxException {
+        String trimmed = address.trim();
+        if (!trimmed.contains("://")) trimmed = "https://" + trimmed;
+        URI uri = new URI(trimmed);
+        String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+        if (uri.getHost() == null || !(scheme.equals("http") || scheme.equals("https")))
+            throw new URISyntaxException(address, "Not a web address");
+        return uri;
+    }
+
+    /**
+     * Adds a base element to the page, so its relative links and images
+     * still point to the web server
+     *
+     * @param html the page
+     * @param uri  the address of the page
+     * @return the page with a base element
+     */
+    private static String withBase(String html, URI uri) {
+        if (BASE_TAG.matcher(html).find()) return html;
+        String base = "<base href=\"" + uri.toASCIIString() + "\">";
+        Matcher head = HEAD_TAG.matcher(html);
+        if (head.find()) return html.substring(0, head.end()) + base + html.substring(head.end());
+        return base + html;
+    }
+
+    /// LARGE DOCUMENT MODE /////////////////////////////////////////////////////////////
+
+    // documents of this size (in bytes) or larger are shown a few chunks
+    // at a time, keeping at most largeDocBudget characters in the editor
+    private long largeDocThreshold = 8L << 20, largeDocBudget = 8L << 20;
+    private ChunkPager pager;
+    private String cachedHtml;
+    private long cachedVersion;
+
+    /**
+     * Shows this document in textEdit, in large document mode if it's
+     * over the threshold
+     *
+     * @param html the document
+     * @param size the document size in bytes
+     */
+    private void setDocument(String html, long size) {
+        closePager();
+        statisticsBar.documentLoaded(html);
+        if (size >= largeDocThreshold) {
+            pager = new ChunkPager(textEdit, html, largeDocBudget);
+            pager.install();
+        } else textEdit.setHtmlText(html);
+    }
+
+    /**
+     * Leaves large document mode
+     */
+    private void closePager() {
+        if (pager == null) return;
+        pager.uninstall();
+        pager = null;
+    }
+
+    /**
+     * Returns the document HTML, assembling it from the chunks in large
+     * document mode
+     *
+     * @return the document HTML
+     */
+    private String documentHtml() {
+        if (pager != null) return pager.getHtml();
+        // the serialised document is reused until the next change
+        if (cachedHtml == null || cachedVersion != tracker.getVersion()) {
+            cachedHtml = textEdit.getHtmlText();
+            cachedVersion = tracker.getVersion();
         }
+        return cachedHtml;
+    }
+
+    /**
+     * Returns the document HTML for the views that follow the document
+     * while it's edited. Only the parts of the document changed since the
+     * last snapshot are serialised, see {@link ChangeTracker#snapshot()}.
+     *
+     * @return the document HTML
+     */
+    private String documentSnapshot() {
+        if (pager != null) return pager.getHtml();
+        String snapshot = tracker.snapshot();
+        return snapshot == null ? documentHtml() : snapshot;
+    }
 
-        Platform.runLater(() -> textEdit.getScene().getWindow().getScene()
-                .setCursor(Cursor.DEFAULT));
+    /**
+     * Configures the large document mode
+     */
+    public void configureLargeDocuments() {
+        LargeDocumentDialog dlg = new LargeDocumentDialog("Options",
+                "Large document mode", "Large documents are shown a few parts" +
+                " at a time to keep the editor responsive.\nThe changes apply" +
+                " to documents opened from now on.", stylesheet,
+                (int) (largeDocThreshold >> 20), (int) (largeDocBudget >> 20));
+        Optional<Pair<Integer, Integer>> input = dlg.run();
+        if (input.isEmpty()) return;
+        largeDocThreshold = (long) input.get().getKey() << 20;
+        largeDocBudget = (long) input.get().getValue() << 20;
+        storeSettings();
     }
 
     /// EDITING AND INSERTING OBJECTS ///////////////////////////////////////////////////
 
+    private DomInserter inserter;
+
     /**
-     * Appends the provided HTML text to this editor
+     * Inserts the provided HTML text at the caret, or appends it to the
+     * document if there's no caret in it
      *
-     * @param editor the editor that'll get the text
-     * @param text   the text to append
+     * @param text the text to insert
      */
-    private void appendHtmlText(HTMLEditor editor, String text) {
-        editor.setHtmlText(editor.getHtmlText() + text);
-        fileModified();
+    private void insertHtmlText(String text) {
+        if (inserter == null) inserter = new DomInserter(textEdit);
+        // in large document mode, text outside the chunk containers would
+        // be lost, so without a caret it goes to the last chunk instead
+        if (inserter.insert(text, pager == null)) return;    // the tracker sees the change
+        if (pager != null) pager.append(text);
+        else textEdit.setHtmlText(textEdit.getHtmlText() + text);
+        tracker.touch();
     }
 
     /**
@@ -324,7 +943,7 @@ public class Controller extends Component {
         ImageDialog dlg = new ImageDialog("Insert", "Insert an image",
                 "Insert an image to the document", stylesheet);
         Optional<String> input = dlg.run();
-        input.ifPresent(s -> appendHtmlText(textEdit, s));
+        input.ifPresent(s -> insertHtmlText(s));
     }
 
     /**
@@ -334,7 +953,7 @@ public class Controller extends Component {
         LinkDialog dlg = new LinkDialog("Insert", "Insert a hyperlink",
                 "Insert a hyperlink to the document", stylesheet);
         Optional<String> input = dlg.run();
-        input.ifPresent(s -> appendHtmlText(textEdit, s));
+        input.ifPresent(s -> insertHtmlText(s));
     }
 
     /**
@@ -344,7 +963,7 @@ public class Controller extends Component {
         ScriptDialog dlg = new ScriptDialog("Insert", "Insert a script",
                 "Insert a JavaScript script to the document", stylesheet);
         Optional<String> input = dlg.run();
-        input.ifPresent(s -> appendHtmlText(textEdit, s));
+        input.ifPresent(s -> insertHtmlText(s));
     }
 
     /**
@@ -354,7 +973,7 @@ public class Controller extends Component {
         QuoteDialog dlg = new QuoteDialog("Insert", "Insert a quote",
                 "Enter a quote to insert:", stylesheet);
         Optional<String> input = dlg.run();
-        input.ifPresent(s -> appendHtmlText(textEdit, s));
+        input.ifPresent(s -> insertHtmlText(s));
     }
 
     /**
@@ -364,7 +983,7 @@ public class Controller extends Component {
         MarqueeDialog dlg = new MarqueeDialog("Insert", "Insert scrolling text",
                 "Enter the text to insert:", stylesheet);
         Optional<String> input = dlg.run();
-        input.ifPresent(s -> appendHtmlText(textEdit, s));
+        input.ifPresent(s -> insertHtmlText(s));
     }
 
     /**
@@ -377,7 +996,7 @@ public class Controller extends Component {
                 "Enter a symbol code to insert:\n" +
                         "Symbol codes must end with a semicolon!",
                 "&symbol;");
-        if (symbolCode != null) appendHtmlText(textEdit, symbolCode);
+        if (symbolCode != null) insertHtmlText(symbolCode);
     }
 
     /**
@@ -388,14 +1007,14 @@ public class Controller extends Component {
                 "Insert code", "Enter code to be displayed within" +
                 " <code> tags:", stylesheet);
         Optional<String> input = dlg.run();
-        input.ifPresent(s -> appendHtmlText(textEdit, s));
+        input.ifPresent(s -> insertHtmlText(s));
     }
 
     /**
      * Insert the current system date and time
      */
     public void insertDateTime() {
-        appendHtmlText(textEdit, new SimpleDateFormat(("yyyy-MM-dd HH:mm:ss"))
+        insertHtmlText(new SimpleDateFormat(("yyyy-MM-dd HH:mm:ss"))
                 .format(Calendar.getInstance().getTime()));
     }
 
@@ -407,7 +1026,7 @@ public class Controller extends Component {
                 "Embed a website", "Enter the web address of an existing" +
                 " website to embed into the\ndocument:", stylesheet);
         Optional<String> input = dlg.run();
-        input.ifPresent(s -> appendHtmlText(textEdit, "<iframe src=\""
+        input.ifPresent(s -> insertHtmlText("<iframe src=\""
                 + s + "\" height=\"300\" " + "width=\"500\"></iframe>"));
     }
 
@@ -422,7 +1041,7 @@ public class Controller extends Component {
                 stylesheet);
         Optional<String> input = dlg.run();
         if (input.isEmpty()) return;
-        appendHtmlText(textEdit, input.get());
+        insertHtmlText(input.get());
     }
 
     /// PRINTING ////////////////////////////////////////////////////////////////////////
@@ -445,17 +1064,40 @@ public class Controller extends Component {
      */
     public void openSource() {
         try {
-            Parent root = FXMLLoader.load(getClass().getResource("HTMLSource.fxml"));
+            FXMLLoader loader = new FXMLLoader(getClass().getResource("HTMLSource.fxml"));
+            Parent root = loader.load();
             Stage stage = new Stage();
             stage.setTitle("HTML Source Code");
             if (file != null) stage.setTitle("HTML Source Code - " + file.getName());
-            HTMLSource.htmlSourceText = textEdit.getHtmlText();
+            HTMLSource source = loader.getController();
+            source.follow(tracker, this::documentSnapshot, this::replaceDocument, this::undoReplace);
+            stage.setOnHidden(e -> source.stop());
             toggleNewUi(stage, new Scene(root, 822, 562));
         } catch (IOException e) {
             System.err.println("Failed loading HTML source code window: " + e.getMessage());
         }
     }
 
+    private LinkChecker linkChecker;
+
+    /**
+     * Opens the broken links window, which checks the links of the
+     * document in the background while it's being edited
+     */
+    public void checkLinks() {
+        if (linkChecker == null) {
+            linkChecker = new LinkChecker();
+            Diagnostics.register("Link checking", linkChecker::getStatistics);
+        }
+        LinkPanel panel = new LinkPanel(linkChecker);
+        Stage stage = new Stage();
+        stage.setTitle("Broken links");
+        if (file != null) stage.setTitle("Broken links - " + file.getName());
+        panel.follow(tracker, this::documentSnapshot, () -> file == null ? null : file.toURI());
+        stage.setOnHidden(e -> panel.stop());
+        toggleNewUi(stage, new Scene(panel, 660, 400));
+    }
+
     /**
      * Toggles between the default and non-styled UI
      */
@@ -469,16 +1111,27 @@ public class Controller extends Component {
      * Toggles saving settings
      */
     public void toggleSaveSettings() {
-        if (saveSettingsBox.isSelected()) return;
+        if (saveSettingsBox.isSelected()) {
+            storeSettings();
+            return;
+        }
         // ask to delete the settings file when saving is disabled
         boolean doDeleteFile = Dialogs.confirmationDialog(
                 "Confirmation", "Confirmation",
                 "Would you also like to delete the settings file?");
         if (!doDeleteFile) return;
-        if (new File(VersionData.CONFIG_LOCATION).delete())
+        if (settings.delete())
             System.out.println("Removing settings file done.");
     }
 
+    /**
+     * Enables or disables keeping encoded images on disk between sessions
+     */
+    public void toggleImageCache() {
+        ImageCache.getDefault().setDirectory(imageCacheBox.isSelected()
+                ? ImageCache.defaultDirectory() : null);
+    }
+
     /**
      * Disables mouse interaction
      */
@@ -527,6 +1180,13 @@ public class Controller extends Component {
         }
     }
 
+    /**
+     * Displays the runtime statistics of the background subsystems
+     */
+    public void showDiagnostics() {
+        Dialogs.textDialog("Diagnostics", "Runtime statistics", Diagnostics.report());
+    }
+
     /// CLOSING AND EXITING THE PROGRAM /////////////////////////////////////////////////
 
     /**
@@ -534,11 +1194,23 @@ public class Controller extends Component {
      */
     public void close() {
         boolean confirmedClose = true;
-        if (modified) confirmedClose = Dialogs.confirmationDialog(
+        boolean unsaved = modified || tabs.getTabs().stream().anyMatch(t -> t != activeTab && t.isModified());
+        if (unsaved) confirmedClose = Dialogs.confirmationDialog(
                 "Confirmation", "Warning",
                 "All unsaved changes will be lost! Continue?");
         if (!confirmedClose) return;
+        exit();
+    }
+
+    /**
+     * Saves the settings, finishes the background saves, removes the
+     * recovery journals and exits
+     */
+    void exit() {
         saveSettings();
+        FileIO.finishPendingSaves();
+        journal.discardAll();
+        journal.shutdown(5);
         System.exit(0);
     }
 }
@@ -1,32 +1,347 @@
+import editor.ChangeTracker;
+import editor.SourceView;
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
 import javafx.fxml.FXML;
-import javafx.scene.control.TextArea;
+import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
+import javafx.scene.control.Label;
+import javafx.scene.control.TextField;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
+import javafx.util.Duration;
+import util.Diagnostics;
+import util.Dialogs;
 import util.FileIO;
+import util.LatencyStats;
+import util.LineBuffer;
 import util.Printing;
+import util.TextDiff;
+import util.TextSearch;
+import util.Threads;
 
 import java.io.File;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * Controller class for HTMLSource.fxml
+ * <p>
+ * The source code follows the document while the window is open: changes
+ * are picked up at most every {@link #INTERVAL}, the difference to the
+ * displayed text and the new line index are computed on a background
+ * thread and the view keeps the caret, the selection and the scroll
+ * position. The {@link SourceView} only draws the visible lines, so
+ * large documents open quickly.
+ * <p>
+ * The search bar finds text in the source code with {@link TextSearch}
+ * on a background thread. The matches are highlighted as they're found,
+ * a changed query cancels the running search. Replace all replaces the
+ * matches in the document as one edit, which reloads the document (and
+ * clears the editor's undo history), so it can be undone from the search
+ * bar instead.
  */
 public class HTMLSource {
 
+    /**
+     * The minimum time between two updates of the source code
+     */
+    private static final Duration INTERVAL = Duration.millis(300);
+
+    /**
+     * The time the query has to stay unchanged before it's searched
+     */
+    private static final Duration SEARCH_DELAY = Duration.millis(150);
+
+    /**
+     * Computes the differences for all source windows
+     */
+    private static final ExecutorService differ =
+            Executors.newSingleThreadExecutor(Threads.daemonFactory("source-sync"));
+
+    private static final LatencyStats diffStats = new LatencyStats(),
+            applyStats = new LatencyStats();
+    private static long updates, unchanged, changedChars;
+
+    static {
+        Diagnostics.register("Source view", HTMLSource::getStatistics);
+    }
+
     // initialize controls
-    public TextArea sourceText; // text area for the source code
-    static String htmlSourceText;
+    public SourceView sourceText; // the source code viewer
+    public TextField searchField, replaceField;
+    public CheckBox matchCaseBox, regexBox;
+    public Label searchStatus;
+    public Button undoReplaceButton;
+
+    private final PauseTransition throttle = new PauseTransition(INTERVAL);
+    private final Runnable changeListener = this::documentChanged;
+    private ChangeTracker tracker;
+    private Supplier<String> html;
+    private LineBuffer shown = new LineBuffer("");
+    private long shownVersion = -1;
+    private boolean busy, stale;
+
+    private final PauseTransition searchDelay = new PauseTransition(SEARCH_DELAY);
+    private Consumer<String> replace;
+    private BooleanSupplier undoReplace;
+    private TextSearch.Query query;
+    private TextSearch.Search search;    // the running search or replacement
+    private long generation;            // tells the results of older searches apart
+    private int matches;
+    private String notice = "";         // shown before the number of matches
 
     /**
      * Performs initialization
      */
     @FXML
     protected void initialize() {
-        refreshHTML();
-        sourceText.setStyle("-fx-border-color: #ffffff");
+        throttle.setOnFinished(e -> update());
+        searchDelay.setOnFinished(e -> search(true));
+        searchField.textProperty().addListener((obs, oldVal, newVal) -> queryChanged());
+        matchCaseBox.selectedProperty().addListener((obs, oldVal, newVal) -> queryChanged());
+        regexBox.selectedProperty().addListener((obs, oldVal, newVal) -> queryChanged());
+        searchField.setOnAction(e -> findNext());
+        sourceText.getParent().addEventHandler(KeyEvent.KEY_PRESSED, e -> {
+            if (e.isShortcutDown() && e.getCode() == KeyCode.F) {
+                searchField.requestFocus();
+                searchField.selectAll();
+                e.consume();
+            }
+        });
+    }
+
+    /**
+     * Shows the source code of the document and keeps it up to date
+     * until {@link #stop()} is called
+     *
+     * @param tracker reports the changes of the document
+     * @param html    takes a snapshot of the document, called on the
+     *                application thread
+     * @param replace replaces the document with the result of a replace
+     *                all
+     * @param undo    restores the document as it was before the last
+     *                replace all, returns <code>false</code> if there's
+     *                none
+     */
+    void follow(ChangeTracker tracker, Supplier<String> html, Consumer<String> replace,
+                BooleanSupplier undo) {
+        this.tracker = tracker;
+        this.html = html;
+        this.replace = replace;
+        this.undoReplace = undo;
+        tracker.addListener(changeListener);
+        update();
+    }
+
+    /**
+     * Stops following the document, called when the window closes
+     */
+    void stop() {
+        throttle.stop();
+        searchDelay.stop();
+        if (search != null) search.cancel();
+        if (tracker != null) tracker.removeListener(changeListener);
+        tracker = null;
+    }
+
+    /**
+     * Schedules an update, unless one is already scheduled
+     */
+    private void documentChanged() {
+        if (busy) stale = true;
+        else if (throttle.getStatus() != PauseTransition.Status.RUNNING) throttle.playFromStart();
     }
 
     /**
-     * Saves the source code to a text file
+     * Serialises the document and computes the difference to the shown
+     * source code in the background
+     */
+    private void update() {
+        if (tracker == null || tracker.getVersion() == shownVersion) return;
+        long version = tracker.getVersion();
+        LineBuffer old = shown;
+        String newText = html.get();
+        busy = true;
+        differ.execute(() -> {
+            long start = System.nanoTime();
+            TextDiff diff = TextDiff.compute(old.getText(), newText);
+            LineBuffer changed = old.update(newText, diff);
+            diffStats.recordSince(start);
+            Platform.runLater(() -> apply(diff, changed, version));
+        });
+    }
+
+    /**
+     * Shows the changed text, then schedules the next update if the
+     * document changed in the meantime
+     */
+    private void apply(TextDiff diff, LineBuffer changed, long version) {
+        busy = false;
+        if (tracker == null) return;
+        shown = changed;
+        shownVersion = version;
+        synchronized (HTMLSource.class) {
+            updates++;
+            if (diff.isEmpty()) unchanged++;
+            else changedChars += diff.getRemoved() + diff.getInserted().length();
+        }
+        if (!diff.isEmpty()) {
+            long start = System.nanoTime();
+            sourceText.update(changed, diff);
+            applyStats.recordSince(start);
+            if (query != null) search(false);   // the matches were removed
+        }
+        if (stale) {
+            stale = false;
+            throttle.playFromStart();
+        }
+    }
+
+    /// SEARCH //////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Cancels the running search and searches again a moment later
+     */
+    private void queryChanged() {
+        if (search != null) search.cancel();
+        notice = "";
+        searchDelay.playFromStart();
+    }
+
+    /**
+     * Searches the shown source code for the query
+     *
+     * @param select <code>true</code> to select the first match after the
+     *               caret once it's found
+     */
+    private void search(boolean select) {
+        searchDelay.stop();
+        if (search != null) search.cancel();
+        search = null;
+        query = null;
+        matches = 0;
+        sourceText.clearMatches();
+        if (searchField.getText().isEmpty()) {
+            searchStatus.setText(notice);
+            return;
+        }
+        try {
+            query = new TextSearch.Query(searchField.getText(), matchCaseBox.isSelected(), regexBox.isSelected());
+        } catch (PatternSyntaxException e) {
+            searchStatus.setText("Invalid expression: " + e.getDescription());
+            return;
+        }
+
+        searchStatus.setText(notice + "Searching...");
+        long current = ++generation;
+        search = TextSearch.start(shown.getText(), query, new TextSearch.Listener() {
+            @Override
+            public void found(int[] found) {
+                Platform.runLater(() -> {
+                    if (current != generation) return;
+                    sourceText.addMatches(found);
+                    if (matches == 0 && select) sourceText.selectMatch(true);
+                    matches += found.length / 2;
+                    searchStatus.setText(notice + "Searching... " + matches + " found");
+                });
+            }
+
+            @Override
+            public void finished(int total, boolean complete) {
+                Platform.runLater(() -> {
+                    if (current != generation) return;
+                    searchStatus.setText(notice + (total == 0 ? "No matches"
+                            : (complete ? "" : "The first ") + total + (total == 1 ? " match" : " matches")));
+                });
+            }
+
+            @Override
+            public void failed(String reason) {
+                Platform.runLater(() -> {
+                    if (current == generation) searchStatus.setText(reason);
+                });
+            }
+        });
+    }
+
+    /**
+     * Selects the next match
+     */
+    public void findNext() {
+        findMatch(true);
+    }
+
+    /**
+     * Selects the previous match
+     */
+    public void findPrevious() {
+        findMatch(false);
+    }
+
+    private void findMatch(boolean forward) {
+        if (searchDelay.getStatus() == PauseTransition.Status.RUNNING) search(true);     // typed just now
+        else if (sourceText.selectMatch(forward) >= 0) sourceText.requestFocus();
+    }
+
+    /**
+     * Replaces every match in the document on a background thread, the
+     * document is replaced at once when it's done
+     */
+    public void replaceAll() {
+        if (searchDelay.getStatus() == PauseTransition.Status.RUNNING) search(false);
+        if (query == null || tracker == null) return;
+        if (search != null) search.cancel();
+        long version = tracker.getVersion();
+        String replacement = replaceField.getText();
+        long current = ++generation;
+        search = new TextSearch.Search();
+        searchStatus.setText("Replacing...");
+        TextSearch.replaceAll(html.get(), query, replacement, search).whenComplete((result, error) ->
+                Platform.runLater(() -> {
+                    if (current != generation || tracker == null) return;
+                    search = null;
+                    if (error != null) {
+                        Throwable cause = error.getCause() == null ? error : error.getCause();
+                        if (cause instanceof CancellationException) return;
+                        searchStatus.setText(cause instanceof StackOverflowError
+                                ? "The expression is too complex for this text"
+                                : "Replacing failed: " + cause.getMessage());
+                    } else if (tracker.getVersion() != version) {
+                        searchStatus.setText("The document changed meanwhile, nothing was replaced");
+                    } else if (result.getCount() == 0) {
+                        searchStatus.setText("No matches");
+                    } else {
+                        notice = "Replaced " + result.getCount() + ", ";
+                        replace.accept(result.getText());
+                        undoReplaceButton.setDisable(false);
+                        searchStatus.setText(notice.substring(0, notice.length() - 2));
+                    }
+                }));
+    }
+
+    /**
+     * Restores the document as it was before the last replace all
+     */
+    public void undoReplace() {
+        if (undoReplace == null) return;
+        if (search != null) search.cancel();
+        generation++;
+        undoReplaceButton.setDisable(true);
+        notice = "";
+        searchStatus.setText(undoReplace.getAsBoolean() ? "" : "Nothing to undo in this document");
+    }
+
+    /**
+     * Saves the source code to a file, as it is, minified or formatted
+     * depending on the selected file type
      */
     public void saveToFile() {
         // don't stay on top while the save as dialog is displayed
@@ -34,20 +349,38 @@ public class HTMLSource {
         stage.setAlwaysOnTop(false);
 
         FileChooser chooser = new FileChooser();
-        chooser.getExtensionFilters().addAll(
-                new FileChooser.ExtensionFilter("HTML files (*.html)", "*.html"),
-                new FileChooser.ExtensionFilter("All files (*.*)", "*.*"));
+        FileIO.addExportFilters(chooser, "HTML files", "*.html");
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("All files (*.*)", "*.*"));
         File file = chooser.showSaveDialog(MainFX.currentStage);
-        if (file != null) FileIO.saveFile(file, sourceText.getText());
+        if (file != null) FileIO.exportFileAsync(file, sourceText.getText(), chooser.getSelectedExtensionFilter());
 
         stage.setAlwaysOnTop(true);
     }
 
     /**
-     * Reloads the source code
+     * Updates the source code right away
      */
     public void refreshHTML() {
-        sourceText.setText(htmlSourceText);
+        throttle.stop();
+        if (busy) stale = true;
+        else update();
+    }
+
+    /**
+     * Jumps to a line of the source code
+     */
+    public void gotoLine() {
+        Stage stage = (Stage) sourceText.getScene().getWindow();
+        stage.setAlwaysOnTop(false);
+        String input = Dialogs.inputDialog("Go to line", "Go to line",
+                "Line number (1 - " + shown.getPhysicalLineCount() + "):",
+                String.valueOf(sourceText.getCaretLine()));
+        stage.setAlwaysOnTop(true);
+        if (input == null) return;
+        try {
+            sourceText.gotoLine(Integer.parseInt(input.trim()));
+        } catch (NumberFormatException ignored) {
+        }
     }
 
     /**
@@ -63,4 +396,14 @@ public class HTMLSource {
     public void closeSource() {
         ((Stage) sourceText.getScene().getWindow()).close();
     }
+
+    /**
+     * @return a summary of the source view updates
+     */
+    private static synchronized String getStatistics() {
+        return "Updates: " + updates + " (unchanged: " + unchanged + "), changed characters: "
+                + changedChars + "\n"
+                + "Diff time: " + diffStats + "\n"
+                + "Apply time: " + applyStats;
+    }
 }
@@ -1,12 +1,24 @@
+import batch.BatchMode;
+import util.StartupTimer;
+
+import java.util.Arrays;
+
 /**
  * The actual entry point is in MainFX class, this one is here just
  * to make building jars possible.
+ * <p>
+ * Also starts the headless batch mode when the first argument is
+ * <code>--batch</code>, without loading JavaFX.
  *
  * @see MainFX
+ * @see BatchMode
  */
 public class Main {
 
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--batch"))
+            System.exit(BatchMode.run(Arrays.copyOfRange(args, 1, args.length)));
+        StartupTimer.mark("JVM up");     // before MainFX loads the JavaFX classes
         MainFX.main(args);
     }
 }
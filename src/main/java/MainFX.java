@@ -1,13 +1,15 @@
+import dialogs.WebViewPool;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.fxml.FXMLLoader;
+import javafx.geometry.Rectangle2D;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
+import javafx.stage.Screen;
 import javafx.stage.Stage;
 import javafx.util.Pair;
 import util.Dialogs;
-
-import java.awt.Dimension;
-import java.awt.Toolkit;
+import util.StartupTimer;
 
 /**
  * Main application class for HTMLNotepadFX
@@ -27,44 +29,65 @@ public class MainFX extends Application {
     static Stage currentStage;
 
     /**
-     * Starts the UI
+     * Starts the UI. The window is shown as soon as the settings are
+     * applied, the last used file is only opened after the first frame
+     * so reading it doesn't delay the window.
      *
      * @param primaryStage the main window
      * @throws Exception on fatal errors
      */
     @Override
     public void start(Stage primaryStage) throws Exception {
-        Parent root = FXMLLoader.load(getClass().getResource("MainWindow.fxml"));
+        FXMLLoader loader = new FXMLLoader(getClass().getResource("MainWindow.fxml"));
+        Parent root = loader.load();
+        StartupTimer.mark("FXML loaded");
         primaryStage.setTitle("Untitled - HTMLNotepadFX");
 
         // adjust the window size to still make it visible on smaller screens
         Pair<Double, Double> screenSize = getScreenSize();
         double width = 1135, height = 700;
-        if (screenSize.getKey() < width) width = screenSize.getValue();
-        if (screenSize.getValue() < height) height = screenSize.getKey();
+        if (screenSize.getKey() < width) width = screenSize.getKey();
+        if (screenSize.getValue() < height) height = screenSize.getValue();
 
-        primaryStage.setScene(new Scene(root, width, height));
+        Scene scene = new Scene(root, width, height);
+        primaryStage.setScene(scene);
         currentStage = primaryStage;
 
-        controller = new Controller();
+        controller = loader.getController();
         controller.loadSettings();
         controller.toggleOldUi();   // otherwise the stylesheets don't get loaded
+        StartupTimer.mark("settings loaded");
+
+        scene.addPostLayoutPulseListener(new Runnable() {
+            @Override
+            public void run() {     // the first frame is about to be rendered
+                scene.removePostLayoutPulseListener(this);
+                StartupTimer.mark("first frame");
+                Platform.runLater(() -> controller.restoreSession(MainFX::startupFinished));
+            }
+        });
         primaryStage.show();
+        WebViewPool.prefill();
 
         primaryStage.setOnCloseRequest(event -> {   // ask for confirmation before closing
             boolean confirmed = Dialogs.confirmationDialog(
                     "HTMLNotepadFX", "Warning",
                     "All unsaved changes will be lost! Continue?");
-            if (confirmed) {
-                controller.saveSettings();
-                System.exit(0);
-            } else event.consume(); // don't close on Cancel
+            if (confirmed) controller.exit();
+            else event.consume(); // don't close on Cancel
         });
+    }
 
-        System.gc();
+    /**
+     * Called once the last used file is displayed
+     */
+    private static void startupFinished() {
+        StartupTimer.mark("file loaded");
+        if (StartupTimer.finish()) System.exit(0);
     }
 
     public static void main(String[] args) {
+        StartupTimer.mark("JVM up");
         launch(args);
     }
 
@@ -85,7 +108,7 @@ public class MainFX extends Application {
      * (key is screen width, value is screen height)
      */
     private static Pair<Double, Double> getScreenSize() {
-        Dimension size = Toolkit.getDefaultToolkit().getScreenSize();
+        Rectangle2D size = Screen.getPrimary().getVisualBounds();  // AWT would take a while to load
         return new Pair<>(size.getWidth(), size.getHeight());
     }
 
@@ -0,0 +1,278 @@
+package batch;
+
+import util.DocumentLoader;
+import util.LoadedDocument;
+import util.Threads;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * The headless command line mode, started with <code>--batch</code>:
+ * processes HTML files and directories of them in parallel, without a
+ * display. Uses only the headless document classes, so JavaFX is never
+ * loaded.
+ * <p>
+ * The files are found while they're being processed and at most a
+ * bounded number of them are queued, so memory use doesn't grow with
+ * the number of files.
+ */
+public final class BatchMode {
+
+    // exit codes
+    private static final int OK = 0, FAILURES = 1, USAGE = 2;
+
+    /**
+     * How often the progress is reported, in nanoseconds
+     */
+    private static final long REPORT_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+
+    /**
+     * The number of failures listed in the summary
+     */
+    private static final int LISTED_FAILURES = 50;
+
+    private static final String USAGE_TEXT = String.join("\n",
+            "Usage: --batch <operation> [options] <file or directory>...",
+            "",
+            "Operations:",
+            "  normalise    rewrite as UTF-8 with \\n line endings and no trailing whitespace",
+            "  minify       remove comments and collapse whitespace",
+            "  format       put every block element on its own, indented line",
+            "  export-txt   export the HTML source to <name>.txt",
+            "  stats        print the word, character, tag, image and embedded byte counts",
+            "",
+            "Options:",
+            "  --out <dir>        write the results to this directory, keeping the",
+            "                     directory structure of the inputs",
+            "  --in-place         replace the input files (normalise, minify and format)",
+            "  --threads <n>      the number of worker threads (default: all cores)",
+            "  --queue <n>        the number of files queued per thread (default: 4)",
+            "  --ext <list>       the file extensions to process (default: html,htm)",
+            "  --verbose          list every processed file");
+
+    private final Operation operation;
+    private final List<Path> inputs = new ArrayList<>();
+    private Path out;
+    private boolean inPlace, verbose;
+    private int threads = Runtime.getRuntime().availableProcessors(), queue = 4;
+    private String[] extensions = {".html", ".htm"};
+
+    private final AtomicLong processed = new AtomicLong(), failed = new AtomicLong(),
+            bytesIn = new AtomicLong(), bytesOut = new AtomicLong();
+    private final Queue<String> failures = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Constructs a new BatchMode instance
+     *
+     * @param operation what to do with the files
+     */
+    private BatchMode(Operation operation) {
+        this.operation = operation;
+    }
+
+    /**
+     * Runs the batch mode
+     *
+     * @param args the command line arguments after <code>--batch</code>
+     * @return the exit code: 0 on success, 1 if some files failed and 2
+     * on invalid arguments
+     */
+    public static int run(String[] args) {
+        Operation operation = args.length > 0 ? Operation.forName(args[0]) : null;
+        if (operation == null) return usage(args.length > 0 ? "Unknown operation: " + args[0] : null);
+
+        BatchMode batch = new BatchMode(operation);
+        try {
+            for (int i = 1; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--out":
+                        batch.out = Paths.get(argument(args, ++i)).toAbsolutePath().normalize();
+                        break;
+                    case "--in-place":
+                        batch.inPlace = true;
+                        break;
+                    case "--threads":
+                        batch.threads = Math.max(1, Integer.parseInt(argument(args, ++i)));
+                        break;
+                    case "--queue":
+                        batch.queue = Math.max(1, Integer.parseInt(argument(args, ++i)));
+                        break;
+                    case "--ext":
+                        batch.extensions = argument(args, ++i).split(",");
+                        for (int j = 0; j < batch.extensions.length; j++)
+                            batch.extensions[j] = "." + batch.extensions[j].trim().replaceFirst("^\\.", "")
+                                    .toLowerCase(Locale.ROOT);
+                        break;
+                    case "--verbose":
+                        batch.verbose = true;
+                        break;
+                    default:
+                        if (args[i].startsWith("--")) return usage("Unknown option: " + args[i]);
+                        batch.inputs.add(Paths.get(args[i]).toAbsolutePath().normalize());
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            return usage(e.getMessage());
+        }
+
+        if (batch.inputs.isEmpty()) return usage("No input files");
+        if (batch.out == null && !batch.inPlace && operation.replacesInput() && operation.writesOutput())
+            return usage(operation.getName() + " needs --out <dir> or --in-place");
+        for (Path input : batch.inputs)
+            if (!Files.exists(input)) return usage("Not found: " + input);
+        return batch.process();
+    }
+
+    private static String argument(String[] args, int index) {
+        if (index >= args.length) throw new IllegalArgumentException(args[index - 1] + " needs a value");
+        return args[index];
+    }
+
+    private static int usage(String error) {
+        if (error != null) System.err.println(error + "\n");
+        System.err.println(USAGE_TEXT);
+        return USAGE;
+    }
+
+    /**
+     * Processes all inputs and prints the summary
+     */
+    private int process() {
+        ExecutorService workers = Executors.newFixedThreadPool(threads, Threads.daemonFactory("batch"));
+        Semaphore slots = new Semaphore(threads * (queue + 1));   // the running and the queued files
+        long start = System.nanoTime();
+        long[] nextReport = {start + REPORT_INTERVAL};
+
+        try {
+            for (Path input : inputs) {
+                Path root = Files.isDirectory(input) ? input : input.getParent();
+                try (Stream<Path> files = Files.isDirectory(input) ? Files.walk(input) : Stream.of(input)) {
+                    files.filter(this::accepts).forEach(file -> {
+                        slots.acquireUninterruptibly();
+                        workers.execute(() -> {
+                            try {
+                                processFile(root, file);
+                            } finally {
+                                slots.release();
+                            }
+                        });
+                        if (System.nanoTime() - nextReport[0] > 0) {
+                            System.err.println(progress(start));
+                            nextReport[0] = System.nanoTime() + REPORT_INTERVAL;
+                        }
+                    });
+                } catch (IOException | UncheckedIOException e) {
+                    fail(input, e);
+                }
+            }
+        } finally {
+            workers.shutdown();
+            try {
+                workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        printSummary(System.out, start);
+        return failed.get() == 0 ? OK : FAILURES;
+    }
+
+    /**
+     * Tells whether the file should be processed
+     */
+    private boolean accepts(Path file) {
+        if (!Files.isRegularFile(file)) return false;
+        if (out != null && file.startsWith(out)) return false;     // earlier results
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        for (String extension : extensions)
+            if (name.endsWith(extension)) return true;
+        return false;
+    }
+
+    /**
+     * Loads, processes and writes one file
+     *
+     * @param root the input directory the file was found in
+     * @param file the file
+     */
+    private void processFile(Path root, Path file) {
+        try {
+            LoadedDocument document = DocumentLoader.load(file);
+            if (!operation.writesOutput()) {
+                String report = operation.report(document);
+                processed.incrementAndGet();
+                bytesIn.addAndGet(document.getSize());
+                System.out.println(file + ": " + report);
+                return;
+            }
+            Path directory = out == null ? file.getParent() : out.resolve(root.relativize(file.getParent()));
+            Path target = directory.resolve(operation.outputName(file.getFileName().toString()));
+            Files.createDirectories(directory);
+            long written = operation.write(document, target);
+
+            processed.incrementAndGet();
+            bytesIn.addAndGet(document.getSize());
+            bytesOut.addAndGet(written);
+            if (verbose) System.out.println(file + " -> " + target);
+        } catch (IOException | RuntimeException e) {
+            fail(file, e);
+        }
+    }
+
+    private void fail(Path file, Exception e) {
+        failed.incrementAndGet();
+        String message = file + ": " + e;
+        System.err.println("Failed: " + message);
+        if (failures.size() < LISTED_FAILURES) failures.add(message);
+    }
+
+    /**
+     * @return a line with the progress so far
+     */
+    private String progress(long start) {
+        double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+        return String.format(Locale.ROOT, "%d files, %s, %.0f files/s, %.1f MB/s, %d failed",
+                processed.get(), formatSize(bytesIn.get()), processed.get() / seconds,
+                bytesIn.get() / seconds / (1 << 20), failed.get());
+    }
+
+    private void printSummary(PrintStream stream, long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        stream.println();
+        stream.printf(Locale.ROOT, "%s: %d files processed, %d failed in %.2f s (%d threads)%n",
+                operation.getName(), processed.get(), failed.get(), seconds, threads);
+        stream.println("Throughput: " + progress(start).replaceFirst(", \\d+ failed$", ""));
+        long in = bytesIn.get(), written = bytesOut.get();
+        if (in > 0 && operation.writesOutput())
+            stream.printf(Locale.ROOT, "Size: %s -> %s (%+.1f%%)%n", formatSize(in), formatSize(written),
+                    (written - in) * 100.0 / in);
+        if (!failures.isEmpty()) {
+            stream.println("Failures:");
+            for (String failure : failures) stream.println("  " + failure);
+            if (failed.get() > failures.size())
+                stream.println("  ... and " + (failed.get() - failures.size()) + " more");
+        }
+    }
+
+    private static String formatSize(long bytes) {
+        if (bytes < 1 << 20) return String.format(Locale.ROOT, "%.1f KB", bytes / 1024.0);
+        return String.format(Locale.ROOT, "%.1f MB", bytes / (double) (1 << 20));
+    }
+}
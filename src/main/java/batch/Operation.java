@@ -0,0 +1,219 @@
+package batch;
+
+import util.DocumentStatistics;
+import util.DocumentWriter;
+import util.ExportPipeline;
+import util.LoadedDocument;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * What the batch mode does with each document
+ */
+enum Operation {
+
+    /**
+     * Rewrites the document as UTF-8 without a BOM, with <code>\n</code>
+     * line endings, no trailing whitespace and a final line ending
+     */
+    NORMALISE("normalise", "") {
+        @Override
+        String apply(LoadedDocument document) {
+            String text = document.getText();
+            StringBuilder out = new StringBuilder(text.length() + 1);
+            int length = text.length(), lineStart = 0;
+            for (int i = 0; i <= length; i++) {
+                char c = i < length ? text.charAt(i) : '\n';
+                if (c != '\n' && c != '\r') continue;
+                int end = i;
+                while (end > lineStart && Character.isWhitespace(text.charAt(end - 1))) end--;
+                out.append(text, lineStart, end).append('\n');
+                if (c == '\r' && i + 1 < length && text.charAt(i + 1) == '\n') i++;
+                lineStart = i + 1;
+            }
+            // a single line ending at the end
+            int end = out.length();
+            while (end > 1 && out.charAt(end - 2) == '\n') end--;
+            out.setLength(end);
+            return out.toString();
+        }
+
+        @Override
+        Charset charset(LoadedDocument document) {
+            return StandardCharsets.UTF_8;
+        }
+
+        @Override
+        boolean bom(LoadedDocument document) {
+            return false;
+        }
+    },
+
+    /**
+     * Removes the whitespace and the comments that don't affect how the
+     * document renders
+     */
+    MINIFY("minify", "") {
+        @Override
+        long write(LoadedDocument document, Path target) throws IOException {
+            return ExportPipeline.MINIFIED.export(document.getText(), target, charset(document),
+                    bom(document)).getBytes();
+        }
+    },
+
+    /**
+     * Puts every block element on its own, indented line
+     */
+    FORMAT("format", "") {
+        @Override
+        long write(LoadedDocument document, Path target) throws IOException {
+            return ExportPipeline.FORMATTED.export(document.getText(), target, charset(document),
+                    bom(document)).getBytes();
+        }
+    },
+
+    /**
+     * Exports the HTML source to a text file, like File > Export source
+     */
+    EXPORT_TXT("export-txt", ".txt") {
+        @Override
+        Charset charset(LoadedDocument document) {
+            return StandardCharsets.UTF_8;
+        }
+
+        @Override
+        boolean bom(LoadedDocument document) {
+            return false;
+        }
+    },
+
+    /**
+     * Prints the word, character, tag, image and embedded byte counts of
+     * the document, writes nothing
+     */
+    STATS("stats", "") {
+        @Override
+        long write(LoadedDocument document, Path target) {
+            return 0;
+        }
+
+        @Override
+        String report(LoadedDocument document) {
+            return DocumentStatistics.count(document.getText()).toString();
+        }
+
+        @Override
+        boolean writesOutput() {
+            return false;
+        }
+    };
+
+    private final String name, suffix;
+
+    Operation(String name, String suffix) {
+        this.name = name;
+        this.suffix = suffix;
+    }
+
+    /**
+     * Finds the operation with this command line name
+     *
+     * @param name the name, such as "minify"
+     * @return the operation or <code>null</code> if there is none
+     */
+    static Operation forName(String name) {
+        for (Operation operation : values())
+            if (operation.name.equalsIgnoreCase(name)) return operation;
+        return null;
+    }
+
+    /**
+     * Processes a document and writes the result
+     *
+     * @param document the loaded document
+     * @param target   the output file
+     * @return the number of bytes written
+     * @throws IOException on write errors
+     */
+    long write(LoadedDocument document, Path target) throws IOException {
+        return DocumentWriter.writeAtomically(target, apply(document), charset(document), bom(document));
+    }
+
+    /**
+     * Processes a document, returns it unchanged by default
+     *
+     * @param document the loaded document
+     * @return the output text
+     */
+    String apply(LoadedDocument document) {
+        return document.getText();
+    }
+
+    /**
+     * Returns the encoding of the output, the one of the input by default
+     *
+     * @param document the loaded document
+     * @return the output encoding
+     */
+    Charset charset(LoadedDocument document) {
+        return document.getCharset();
+    }
+
+    /**
+     * Tells whether the output starts with a byte order mark, if the
+     * input does by default
+     *
+     * @param document the loaded document
+     * @return <code>true</code> to write a BOM
+     */
+    boolean bom(LoadedDocument document) {
+        return document.hasBom();
+    }
+
+    /**
+     * Describes a document instead of writing it, for the operations that
+     * don't write anything
+     *
+     * @param document the loaded document
+     * @return the description or <code>null</code> if there is none
+     */
+    String report(LoadedDocument document) {
+        return null;
+    }
+
+    /**
+     * @return <code>false</code> if the operation only reports on the
+     * documents
+     */
+    boolean writesOutput() {
+        return true;
+    }
+
+    /**
+     * Returns the name of the output file
+     *
+     * @param fileName the name of the input file
+     * @return the output file name
+     */
+    String outputName(String fileName) {
+        return fileName + suffix;
+    }
+
+    /**
+     * @return <code>true</code> if the output would replace the input
+     * when written next to it
+     */
+    boolean replacesInput() {
+        return suffix.isEmpty();
+    }
+
+    /**
+     * @return the command line name
+     */
+    String getName() {
+        return name;
+    }
+}
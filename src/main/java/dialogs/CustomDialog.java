@@ -2,7 +2,10 @@ package dialogs;
 
 import javafx.scene.control.ButtonType;
 import javafx.scene.control.Dialog;
+import javafx.scene.web.WebView;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -22,6 +25,11 @@ public abstract class CustomDialog<R> {
      */
     ButtonType mainButtonType;
 
+    private final long createdAt = System.nanoTime();
+    private final List<WebView> borrowedViews = new ArrayList<>();
+    private final List<PreviewScheduler> schedulers = new ArrayList<>();
+    private boolean pooled = true;
+
     /**
      * Constructs a new CustomDialog instance
      *
@@ -42,6 +50,39 @@ public abstract class CustomDialog<R> {
         setResultConverter();
     }
 
+    /**
+     * Borrows a WebView from the pool, it's returned when the dialog
+     * closes
+     *
+     * @return the WebView
+     */
+    WebView borrowWebView() {
+        WebViewPool.Borrowed borrowed = WebViewPool.borrow();
+        borrowedViews.add(borrowed.view);
+        pooled &= borrowed.pooled;
+        return borrowed.view;
+    }
+
+    /**
+     * Creates a preview scheduler for this dialog, its pending updates
+     * are discarded when the dialog closes
+     *
+     * @param preview    the preview WebView
+     * @param expandable <code>true</code> if the preview is in the
+     *                   expandable content (and skipped while it's
+     *                   collapsed)
+     * @return the preview scheduler
+     */
+    PreviewScheduler createPreviewScheduler(WebView preview, boolean expandable) {
+        PreviewScheduler scheduler = new PreviewScheduler(preview,
+                expandable ? dialog.getDialogPane().expandedProperty() : null);
+        dialog.showingProperty().addListener((obs, oldVal, newVal) -> {
+            if (!newVal) scheduler.cancel();
+        });
+        schedulers.add(scheduler);
+        return scheduler;
+    }
+
     /**
      * Initializes the controls
      */
@@ -59,7 +100,17 @@ public abstract class CustomDialog<R> {
      * cancelled
      */
     public Optional<R> run() {
-        return dialog.showAndWait();
+        dialog.setOnShown(e -> {
+            if (!borrowedViews.isEmpty())
+                WebViewPool.recordVisible(System.nanoTime() - createdAt, pooled);
+        });
+        try {
+            return dialog.showAndWait();
+        } finally {
+            schedulers.forEach(PreviewScheduler::dispose);
+            borrowedViews.forEach(WebViewPool::release);
+            borrowedViews.clear();
+        }
     }
 
 }
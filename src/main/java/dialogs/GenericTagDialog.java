@@ -41,7 +41,7 @@ public abstract class GenericTagDialog extends CustomDialog<String> {
         GridPane pane = new GridPane(), textPane = new GridPane(),
                 controlPane = new GridPane(), previewPane = new GridPane();
         textField = new TextArea();
-        WebView preview = new WebView();
+        WebView preview = borrowWebView();
 
         textPane.setHgap(10);
         DialogUtils.setGridInsets(controlPane);
@@ -60,9 +60,10 @@ public abstract class GenericTagDialog extends CustomDialog<String> {
         pane.add(controlPane, 0, 1);
         dialog.getDialogPane().setExpandableContent(previewPane);
 
-        // reload the preview when Check is clicked
+        // update the preview once the text stops changing
+        PreviewScheduler scheduler = createPreviewScheduler(preview, true);
         textField.textProperty().addListener((obs, oldVal, newVal)
-                -> preview.getEngine().loadContent(getHtmlCode(textField.getText())));
+                -> scheduler.request(() -> getHtmlCode(newVal)));
 
         // disable the main button until some text is entered into the fields
         Node mainButton = dialog.getDialogPane().lookupButton(mainButtonType);
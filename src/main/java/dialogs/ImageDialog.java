@@ -5,6 +5,7 @@ import javafx.scene.Node;
 import javafx.scene.control.Button;
 import javafx.scene.control.ButtonBar;
 import javafx.scene.control.ButtonType;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.RadioButton;
 import javafx.scene.control.TextField;
@@ -12,11 +13,12 @@ import javafx.scene.control.ToggleGroup;
 import javafx.scene.layout.GridPane;
 import javafx.scene.web.WebView;
 import javafx.stage.FileChooser;
+import util.ImageCache;
+import util.ImageEmbedder;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.util.Base64;
-import java.util.Optional;
+import java.io.IOException;
+import java.nio.file.Paths;
 
 /**
  * A basic image insertion dialog box with preview
@@ -36,8 +38,17 @@ public class ImageDialog extends CustomDialog<String> {
         super(caption, header, body, stylesheet);
     }
 
+    /**
+     * The maximum width and height of the preview thumbnail
+     */
+    private static final int PREVIEW_SIZE = 480;
+
     private String input1, input2;
     private boolean local;
+    private CheckBox recompressBox;
+    private TextField dimensionField, sizeField;
+    private Label sizeLabel;
+    private PreviewScheduler previews;
 
     /**
      * Initializes the controls
@@ -51,11 +62,16 @@ public class ImageDialog extends CustomDialog<String> {
         GridPane pane = new GridPane(), controlPane = new GridPane(),
                 imgBoxPane = new GridPane(), selectionPane = new GridPane();
         TextField field1 = new TextField(), field2 = new TextField();
-        WebView imgBox = new WebView();
+        WebView imgBox = borrowWebView();
         RadioButton localBtn = new RadioButton("From this computer"),
                 webBtn = new RadioButton("From the Internet");
         ToggleGroup mainGroup = new ToggleGroup();
+        recompressBox = new CheckBox("Downsize and recompress");
+        dimensionField = new TextField("1920");
+        sizeField = new TextField("500");
+        sizeLabel = new Label();
 
+        previews = createPreviewScheduler(imgBox, false);
         imgBox.setMaxSize(250, 220);
         imgBox.setZoom(0.5);
         localBtn.setToggleGroup(mainGroup);
@@ -77,6 +93,22 @@ public class ImageDialog extends CustomDialog<String> {
         selectionPane.add(new Label("Alt text:"), 0, 1);
         selectionPane.add(field2, 1, 1);
         controlPane.add(selectionPane, 0, 3);
+
+        // optional recompression of local images
+        GridPane recompressPane = new GridPane();
+        DialogUtils.setGridInsets(recompressPane);
+        dimensionField.setPrefColumnCount(5);
+        sizeField.setPrefColumnCount(5);
+        recompressPane.add(recompressBox, 0, 0, 2, 1);
+        recompressPane.add(new Label("Max. width/height (px):"), 0, 1);
+        recompressPane.add(dimensionField, 1, 1);
+        recompressPane.add(new Label("Max. size (KB):"), 0, 2);
+        recompressPane.add(sizeField, 1, 2);
+        recompressPane.add(sizeLabel, 0, 3, 2, 1);
+        dimensionField.disableProperty().bind(recompressBox.selectedProperty().not());
+        sizeField.disableProperty().bind(recompressBox.selectedProperty().not());
+        recompressPane.disableProperty().bind(localBtn.selectedProperty().not());
+        controlPane.add(recompressPane, 0, 4);
         imgBoxPane.add(imgBox, 0, 0);
 
         pane.add(controlPane, 0, 1);
@@ -88,9 +120,8 @@ public class ImageDialog extends CustomDialog<String> {
         field1.textProperty().addListener((obs, oldVal, newVal) -> {
             field2.setText(field1.getText());
             mainBtn.setDisable(newVal.trim().isEmpty());
-            imgBox.getEngine().loadContent(getImageHtml(field1.getText(), field2.getText(),
-                    localBtn.isSelected()));
             this.input1 = newVal;
+            updatePreview();
         });
 
         // add the browse button
@@ -107,8 +138,7 @@ public class ImageDialog extends CustomDialog<String> {
             field1.setText(f.getAbsolutePath());
             field2.setText(f.getName());
             localBtn.setSelected(true);
-            imgBox.getEngine().loadContent(getImageHtml(f.getAbsolutePath(),
-                    f.getName(), true));
+            updatePreview();
         });
 
         field2.textProperty().addListener((obs, oldVal, newVal)
@@ -118,6 +148,14 @@ public class ImageDialog extends CustomDialog<String> {
         localBtn.selectedProperty().addListener((obs, oldVal, newVal) -> {
             addressLabel.setText(newVal ? "Path:" : "Address:");
             local = newVal;
+            updatePreview();
+        });
+        recompressBox.selectedProperty().addListener((obs, oldVal, newVal) -> updatePreview());
+        dimensionField.focusedProperty().addListener((obs, oldVal, newVal) -> {
+            if (!newVal) updatePreview();
+        });
+        sizeField.focusedProperty().addListener((obs, oldVal, newVal) -> {
+            if (!newVal) updatePreview();
         });
 
         // add controls, add border to the preview box, request focus
@@ -132,7 +170,56 @@ public class ImageDialog extends CustomDialog<String> {
     @Override
     public void setResultConverter() {
         this.dialog.setResultConverter(btn -> btn == mainButtonType
-                ? getImageHtml(input1, input2, local) : null);
+                ? getImageHtml(input1, input2, local, getOptions()) : null);
+    }
+
+    /**
+     * Shows the image in the preview box along with the embedded size.
+     * Local images are previewed from a cached thumbnail.
+     */
+    private void updatePreview() {
+        if (input1 == null) return;
+        String location = input1, alt = input2;
+        if (!local) {
+            sizeLabel.setText("");
+            previews.request(() -> getImageHtml(location, alt, false));
+            return;
+        }
+
+        ImageEmbedder.Options options = getOptions();
+        previews.request(() -> {
+            String size, html;
+            try {
+                ImageCache cache = ImageCache.getDefault();
+                if (options.isEnabled())    // the recompressed size is only known after encoding
+                    size = cache.dataUri(Paths.get(location), options).getResult().toString();
+                else size = "Size: " + ImageEmbedder.formatSize(new File(location).length());
+                html = "<img src=\"" + cache.thumbnail(Paths.get(location), PREVIEW_SIZE)
+                        .getDataUri() + "\" style=\"max-width: 100%\"/>";
+            } catch (IOException | RuntimeException e) {
+                size = "";
+                html = "<h1><i>Image not found</i></h1>";
+            }
+            String text = size;
+            Platform.runLater(() -> sizeLabel.setText(text));
+            return html;
+        });
+    }
+
+    /**
+     * Returns the recompression limits entered by the user
+     */
+    private ImageEmbedder.Options getOptions() {
+        if (!recompressBox.isSelected()) return ImageEmbedder.Options.NONE;
+        return new ImageEmbedder.Options(parse(dimensionField.getText()),
+                parse(sizeField.getText()) * 1024L);
+    }
+
+    /**
+     * Parses a positive number, returns 0 (no limit) if it's invalid
+     */
+    private static int parse(String text) {
+        return text.trim().matches("[1-9][0-9]{0,6}") ? Integer.parseInt(text.trim()) : 0;
     }
 
     /**
@@ -163,30 +250,38 @@ public class ImageDialog extends CustomDialog<String> {
      * @return the HTML code of the image (if the image is loaded from
      * local filesystem, it'll be read and base64 encoded into html)
      */
-    @SuppressWarnings("ResultOfMethodCallIgnored")
-    private static String getImageHtml(String location, String alt, boolean local) {
-        location.replace("\"", "");
+    public static String getImageHtml(String location, String alt, boolean local) {
+        return getImageHtml(location, alt, local, ImageEmbedder.Options.NONE);
+    }
+
+    /**
+     * Returns the HTML code for the image in this location, downsizing
+     * and recompressing local images to fit the limits
+     *
+     * @param location image path (either a web location or a local
+     *                 filesystem path)
+     * @param alt      image alt text
+     * @param local    set to <code>true</code> if location points to a
+     *                 local filesystem location
+     * @param options  the recompression limits for local images
+     * @return the HTML code of the image (local images are served from
+     * the image cache when they haven't changed)
+     */
+    public static String getImageHtml(String location, String alt, boolean local,
+                                      ImageEmbedder.Options options) {
+        alt = alt == null ? "" : alt.replace("\"", "&quot;");
         if (local) {
-            String base64;
-            File file = new File(location);
-            try (FileInputStream stream = new FileInputStream(file)) {
-                byte[] contents = new byte[(int) file.length()];
-                stream.read(contents);
-                base64 = Base64.getEncoder().encodeToString(contents);
-            } catch (Exception ignored) {
+            ImageCache.Entry image;
+            try {
+                image = ImageCache.getDefault().dataUri(Paths.get(location), options);
+            } catch (IOException | RuntimeException ignored) {
                 return "<h1><i>Image not found</i></h1>";
             }
-
-            Optional<String> extension = Optional.of(file.getName())
-                    .filter(f -> f.contains("."))
-                    .map(f -> f.substring(file.getName().lastIndexOf(".") + 1));
-            if (extension.isEmpty())    // assume it's png if there's no extension
-                extension = Optional.of("png");
-
-            return "<img src=\"data:image/" + extension.get() + ";base64,"
-                    + base64 + "\" alt=\"" + alt + "\"</img>";
+            return new StringBuilder(image.getDataUri().length() + alt.length() + 24)
+                    .append("<img src=\"").append(image.getDataUri()).append("\" alt=\"")
+                    .append(alt).append("\"/>").toString();
         }
-        return "<img src=\"" + location + "\" alt=\"" + alt + "\"/>";
+        return "<img src=\"" + location.replace("\"", "") + "\" alt=\"" + alt + "\"/>";
     }
 
 }
@@ -0,0 +1,87 @@
+package dialogs;
+
+import javafx.application.Platform;
+import javafx.scene.Node;
+import javafx.scene.control.ButtonBar;
+import javafx.scene.control.ButtonType;
+import javafx.scene.control.Label;
+import javafx.scene.control.TextField;
+import javafx.scene.layout.GridPane;
+import javafx.util.Pair;
+
+/**
+ * A dialog for configuring the large document mode: the file size above
+ * which it kicks in and the amount of the document kept in the editor
+ * at once. Both values are entered and returned in megabytes.
+ */
+public class LargeDocumentDialog extends CustomDialog<Pair<Integer, Integer>> {
+
+    /**
+     * Constructs a new LargeDocumentDialog instance
+     *
+     * @param caption    the title bar text
+     * @param header     the dialog box header text
+     * @param body       the dialog box body text / content
+     * @param stylesheet the stylesheet to use or <code>null</code>
+     * @param threshold  the current threshold in megabytes
+     * @param budget     the current memory budget in megabytes
+     */
+    public LargeDocumentDialog(String caption, String header, String body, String stylesheet,
+                               int threshold, int budget) {
+        super(caption, header, body, stylesheet);
+        thresholdField.setText(String.valueOf(threshold));
+        budgetField.setText(String.valueOf(budget));
+    }
+
+    private TextField thresholdField, budgetField;
+
+    /**
+     * Initializes the controls
+     */
+    @Override
+    public void setControls() {
+        // set button types
+        mainButtonType = new ButtonType("OK", ButtonBar.ButtonData.OK_DONE);
+        dialog.getDialogPane().getButtonTypes().addAll(mainButtonType, ButtonType.CANCEL);
+
+        GridPane pane = new GridPane(), controlPane = new GridPane();
+        thresholdField = new TextField();
+        budgetField = new TextField();
+        DialogUtils.setGridInsets(controlPane);
+
+        controlPane.add(new Label("Use for files larger than (MB):"), 0, 0);
+        controlPane.add(thresholdField, 1, 0);
+        controlPane.add(new Label("Keep in the editor at most (MB):"), 0, 1);
+        controlPane.add(budgetField, 1, 1);
+        pane.add(new Label(dialog.getContentText()), 0, 0);
+        pane.add(controlPane, 0, 1);
+
+        // only accept positive whole numbers
+        Node mainButton = dialog.getDialogPane().lookupButton(mainButtonType);
+        thresholdField.textProperty().addListener((obs, oldVal, newVal)
+                -> mainButton.setDisable(!isValid()));
+        budgetField.textProperty().addListener((obs, oldVal, newVal)
+                -> mainButton.setDisable(!isValid()));
+
+        dialog.getDialogPane().setContent(pane);
+        Platform.runLater(thresholdField::requestFocus);
+    }
+
+    /**
+     * Sets the result converter
+     */
+    @Override
+    public void setResultConverter() {
+        dialog.setResultConverter(btn -> btn == mainButtonType && isValid()
+                ? new Pair<>(Integer.parseInt(thresholdField.getText().trim()),
+                Integer.parseInt(budgetField.getText().trim())) : null);
+    }
+
+    /**
+     * @return <code>true</code> if both fields contain positive numbers
+     */
+    private boolean isValid() {
+        return thresholdField.getText().trim().matches("[1-9][0-9]{0,5}")
+                && budgetField.getText().trim().matches("[1-9][0-9]{0,5}");
+    }
+}
@@ -1,9 +1,7 @@
 package dialogs;
 
 import javafx.application.Platform;
-import javafx.scene.Cursor;
 import javafx.scene.Node;
-import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.ButtonBar;
 import javafx.scene.control.ButtonType;
@@ -46,7 +44,7 @@ public class LinkDialog extends CustomDialog<String> {
                 controlPane = new GridPane(), previewPane = new GridPane();
         field1 = new TextField();
         field2 = new TextField();
-        WebView preview = new WebView();
+        WebView preview = borrowWebView();
 
         textPane.setHgap(10);
         DialogUtils.setGridInsets(controlPane);
@@ -72,13 +70,10 @@ public class LinkDialog extends CustomDialog<String> {
         dialog.getDialogPane().setExpandableContent(previewPane);
 
         // reload the preview when Check is clicked
+        PreviewScheduler scheduler = createPreviewScheduler(preview, true);
         checkBtn.setOnMouseClicked(e -> {
-            Scene s = checkBtn.getScene().getWindow().getScene();
-            s.setCursor(Cursor.WAIT);
-            try {
-                preview.getEngine().load(field1.getText());
-            } catch (Exception ignored) { }
-            s.setCursor(Cursor.DEFAULT);
+            dialog.getDialogPane().setExpanded(true);
+            scheduler.requestUrlNow(field1.getText());
         });
 
         // disable the main button until some text is entered into the fields
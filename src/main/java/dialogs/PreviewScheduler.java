@@ -0,0 +1,234 @@
+package dialogs;
+
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableBooleanValue;
+import javafx.concurrent.Worker;
+import javafx.scene.web.WebView;
+import javafx.util.Duration;
+import util.Diagnostics;
+import util.LatencyStats;
+import util.Threads;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Schedules the preview updates of a dialog. Requests are debounced, so
+ * a burst of keystrokes (or a paste) results in a single update; the
+ * preview HTML is generated on a background thread and only loaded into
+ * the WebView if it differs from what's already shown (explicit
+ * refreshes are always loaded, e.g. to run a script again). While the
+ * preview pane is collapsed nothing is generated, the latest request is
+ * rendered once the pane is expanded.
+ * <p>
+ * All methods must be called on the JavaFX application thread.
+ */
+public class PreviewScheduler {
+
+    /**
+     * How long the input has to stay unchanged before the preview is
+     * updated
+     */
+    private static final Duration DELAY = Duration.millis(200);
+
+    /**
+     * Generates the preview HTML for all dialogs, one request at a time
+     */
+    private static final ExecutorService generator =
+            Executors.newSingleThreadExecutor(Threads.daemonFactory("dialog-preview"));
+
+    private static final LatencyStats generateStats = new LatencyStats(),
+            renderStats = new LatencyStats();
+    private static long requests, coalesced, unchanged, deferred;
+
+    static {
+        Diagnostics.register("Dialog previews", PreviewScheduler::getStatistics);
+    }
+
+    private final WebView view;
+    private final ObservableBooleanValue visible;
+    private final PauseTransition timer = new PauseTransition(DELAY);
+    private final ChangeListener<Boolean> visibleListener;
+    private final ChangeListener<Worker.State> loadListener;
+    private Callable<String> pending;
+    private boolean pendingUrl, pendingForced, renderedUrl;
+    private String rendered;
+    private long generation, renderStart = -1;
+
+    /**
+     * Constructs a new PreviewScheduler instance
+     *
+     * @param view    the preview WebView
+     * @param visible <code>true</code> while the preview is shown or
+     *                <code>null</code> if it's always shown
+     */
+    public PreviewScheduler(WebView view, ObservableBooleanValue visible) {
+        this.view = view;
+        this.visible = visible;
+        timer.setOnFinished(e -> dispatch());
+        visibleListener = (obs, oldVal, newVal) -> {
+            if (newVal) dispatch();
+        };
+        loadListener = (obs, oldVal, newVal) -> {
+            if (renderStart < 0 || newVal == Worker.State.RUNNING || newVal == Worker.State.SCHEDULED
+                    || newVal == Worker.State.READY) return;
+            renderStats.recordSince(renderStart);
+            renderStart = -1;
+        };
+        if (visible != null) visible.addListener(visibleListener);
+        view.getEngine().getLoadWorker().stateProperty().addListener(loadListener);
+    }
+
+    /**
+     * Requests a preview of the HTML produced by this generator, once
+     * the input settles. The generator runs on a background thread, so
+     * it must only use values captured when the request was made.
+     *
+     * @param html generates the preview HTML, may return
+     *             <code>null</code> to keep the current preview
+     */
+    public void request(Callable<String> html) {
+        schedule(html, false, false);
+        timer.playFromStart();
+    }
+
+    /**
+     * Requests a preview of the HTML produced by this generator right
+     * away, used for explicit refreshes. The preview is loaded again
+     * even if it didn't change.
+     *
+     * @param html generates the preview HTML
+     */
+    public void requestNow(Callable<String> html) {
+        schedule(html, false, true);
+        timer.stop();
+        dispatch();
+    }
+
+    /**
+     * Requests loading this web address into the preview, once the
+     * input settles
+     *
+     * @param url the web address
+     */
+    public void requestUrl(String url) {
+        schedule(() -> url, true, false);
+        timer.playFromStart();
+    }
+
+    /**
+     * Loads this web address into the preview right away, used for
+     * explicit refreshes. The page is loaded again even if it's already
+     * shown.
+     *
+     * @param url the web address
+     */
+    public void requestUrlNow(String url) {
+        schedule(() -> url, true, true);
+        timer.stop();
+        dispatch();
+    }
+
+    /**
+     * Replaces the pending request
+     *
+     * @param forced <code>true</code> to load the result even if it's
+     *               already shown
+     */
+    private void schedule(Callable<String> producer, boolean url, boolean forced) {
+        synchronized (PreviewScheduler.class) {
+            requests++;
+            if (pending != null) coalesced++;
+        }
+        pending = producer;
+        pendingUrl = url;
+        pendingForced = forced;
+    }
+
+    /**
+     * Discards the pending request and any preview still being
+     * generated, called when the dialog closes
+     */
+    public void cancel() {
+        timer.stop();
+        pending = null;
+        generation++;
+    }
+
+    /**
+     * Cancels the pending work and detaches the scheduler from the
+     * WebView, so that the WebView can be reused
+     */
+    public void dispose() {
+        cancel();
+        if (visible != null) visible.removeListener(visibleListener);
+        view.getEngine().getLoadWorker().stateProperty().removeListener(loadListener);
+    }
+
+    /**
+     * Hands the pending request to the generator thread, unless the
+     * preview is hidden
+     */
+    private void dispatch() {
+        if (pending == null) return;
+        if (visible != null && !visible.get()) {
+            synchronized (PreviewScheduler.class) {
+                deferred++;
+            }
+            return;
+        }
+
+        Callable<String> producer = pending;
+        boolean url = pendingUrl, forced = pendingForced;
+        long id = ++generation;
+        pending = null;
+        generator.execute(() -> {
+            long start = System.nanoTime();
+            String content;
+            try {
+                content = producer.call();
+            } catch (Exception e) {
+                content = "<h1><i>Preview failed</i></h1>";
+            }
+            generateStats.recordSince(start);
+            String result = content;
+            Platform.runLater(() -> render(id, result, url, forced));
+        });
+    }
+
+    /**
+     * Loads the generated content unless a newer request superseded it
+     * or it's already shown and the request wasn't explicit
+     */
+    private void render(long id, String content, boolean url, boolean forced) {
+        if (id != generation || content == null) return;
+        if (!forced && url == renderedUrl && content.equals(rendered)) {
+            synchronized (PreviewScheduler.class) {
+                unchanged++;
+            }
+            return;
+        }
+        rendered = content;
+        renderedUrl = url;
+        renderStart = System.nanoTime();
+        try {
+            if (url) view.getEngine().load(content);
+            else view.getEngine().loadContent(content);
+        } catch (RuntimeException ignored) {
+            renderStart = -1;
+        }
+    }
+
+    /**
+     * @return a summary of the preview activity of all dialogs
+     */
+    private static synchronized String getStatistics() {
+        return "Requests: " + requests + ", coalesced: " + coalesced + ", unchanged: " + unchanged
+                + ", deferred while hidden: " + deferred + "\n"
+                + "Generation time: " + generateStats + "\n"
+                + "Render time: " + renderStats;
+    }
+}
@@ -56,7 +56,7 @@ public class ScriptDialog extends CustomDialog<String> {
                 buttonPane = new GridPane();
         scriptBox = new TextArea();
         altTextField = new TextField();
-        WebView preview = new WebView();
+        WebView preview = borrowWebView();
 
         DialogUtils.setGridInsets(editingPane);
         DialogUtils.setGridInsets(testingPane);
@@ -93,12 +93,12 @@ public class ScriptDialog extends CustomDialog<String> {
         pane.add(editingPane, 0, 1);
         dialog.getDialogPane().setExpandableContent(testingPane);
 
-        // reload the preview when Check is clicked
+        // run the script in the testing pane when Test is clicked
+        PreviewScheduler scheduler = createPreviewScheduler(preview, true);
         testBtn.setOnMouseClicked(e -> {
-            try {
-                preview.getEngine().load(getScriptHtml(scriptBox.getText(),
-                        altTextField.getText()));
-            } catch (Exception ignored) { }
+            String script = scriptBox.getText(), alt = altTextField.getText();
+            dialog.getDialogPane().setExpanded(true);
+            scheduler.requestNow(() -> getScriptHtml(script, alt));
         });
 
         altCheckBox.selectedProperty().addListener((obs, oldVal, newVal)
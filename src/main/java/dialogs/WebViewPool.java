@@ -0,0 +1,224 @@
+package dialogs;
+
+import javafx.animation.KeyFrame;
+import javafx.animation.PauseTransition;
+import javafx.animation.Timeline;
+import javafx.scene.Parent;
+import javafx.scene.layout.Pane;
+import javafx.scene.text.FontSmoothingType;
+import javafx.scene.web.WebEngine;
+import javafx.scene.web.WebView;
+import javafx.util.Duration;
+import util.Diagnostics;
+import util.LatencyStats;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+/**
+ * A pool of pre-warmed WebViews for the dialog previews. Creating the
+ * first WebView of a dialog initialises WebKit, which is noticeable when
+ * the dialog opens; the pool creates a few in advance, after startup,
+ * and the dialogs borrow them and return them once they close.
+ * <p>
+ * WebViews can only be created on the JavaFX application thread, so
+ * "in the background" means one at a time in idle moments after the
+ * main window is shown. All methods must be called on that thread.
+ * <p>
+ * The pool size can be set with the <code>htmlnotepad.webviewPool</code>
+ * system property, 0 disables the pool.
+ */
+public final class WebViewPool {
+
+    /**
+     * Non-instantiable
+     */
+    private WebViewPool() {
+    }
+
+    /**
+     * The maximum number of idle WebViews kept
+     */
+    private static final int MAX_SIZE = Integer.getInteger("htmlnotepad.webviewPool", 2);
+
+    /**
+     * WebViews idle for longer than this are released
+     */
+    private static final Duration IDLE_TIMEOUT = Duration.minutes(5);
+
+    /**
+     * The delay before the pool starts filling, so the main window gets
+     * to draw its first frames undisturbed
+     */
+    private static final Duration START_DELAY = Duration.seconds(1);
+
+    /**
+     * The delay between creating pooled WebViews, so that filling the
+     * pool doesn't stall the UI
+     */
+    private static final Duration FILL_DELAY = Duration.millis(300);
+
+    /**
+     * An idle WebView
+     */
+    private static final class Idle {
+        final WebView view;
+        final long since = System.nanoTime();
+
+        Idle(WebView view) {
+            this.view = view;
+        }
+    }
+
+    private static final Deque<Idle> idle = new ArrayDeque<>();
+    private static final LatencyStats createStats = new LatencyStats(),
+            pooledVisible = new LatencyStats(), unpooledVisible = new LatencyStats();
+    private static long hits, misses, evictions;
+    private static Timeline evictor;
+
+    static {
+        Diagnostics.register("WebView pool", WebViewPool::getStatistics);
+    }
+
+    /**
+     * Fills the pool one WebView at a time and starts evicting the ones
+     * that stay idle for too long, called once the main window is shown
+     */
+    public static void prefill() {
+        if (MAX_SIZE <= 0) return;
+        if (evictor == null) {
+            evictor = new Timeline(new KeyFrame(Duration.minutes(1), e -> evictIdle()));
+            evictor.setCycleCount(Timeline.INDEFINITE);
+            evictor.play();
+        }
+        later(START_DELAY, WebViewPool::fillOne);
+    }
+
+    /**
+     * Creates one pooled WebView and schedules the next one
+     */
+    private static void fillOne() {
+        if (idle.size() >= MAX_SIZE) return;
+        idle.push(new Idle(create()));
+        later(FILL_DELAY, WebViewPool::fillOne);
+    }
+
+    /**
+     * Runs the action on the application thread after this delay
+     */
+    private static void later(Duration delay, Runnable action) {
+        PauseTransition pause = new PauseTransition(delay);
+        pause.setOnFinished(e -> action.run());
+        pause.play();
+    }
+
+    /**
+     * Creates a new WebView, initialising its engine
+     */
+    private static WebView create() {
+        long start = System.nanoTime();
+        WebView view = new WebView();
+        view.getEngine().loadContent("");
+        createStats.recordSince(start);
+        return view;
+    }
+
+    /**
+     * Borrows a WebView from the pool, creating a new one if it's empty
+     *
+     * @return the WebView and <code>true</code> if it came from the pool
+     */
+    static Borrowed borrow() {
+        Idle pooled = idle.poll();
+        if (pooled != null) {
+            hits++;
+            return new Borrowed(pooled.view, true);
+        }
+        misses++;
+        return new Borrowed(create(), false);
+    }
+
+    /**
+     * A borrowed WebView
+     */
+    static final class Borrowed {
+        final WebView view;
+        final boolean pooled;
+
+        Borrowed(WebView view, boolean pooled) {
+            this.view = view;
+            this.pooled = pooled;
+        }
+    }
+
+    /**
+     * Resets a borrowed WebView and returns it to the pool, or lets it
+     * go if the pool is full
+     *
+     * @param view the WebView
+     */
+    static void release(WebView view) {
+        Parent parent = view.getParent();
+        if (parent instanceof Pane) ((Pane) parent).getChildren().remove(view);
+        if (idle.size() >= MAX_SIZE) {
+            view.getEngine().load(null);
+            return;
+        }
+
+        WebEngine engine = view.getEngine();
+        engine.getLoadWorker().cancel();
+        engine.loadContent("");
+        engine.setJavaScriptEnabled(true);
+        engine.setUserStyleSheetLocation(null);
+        engine.setOnAlert(null);
+        engine.setConfirmHandler(null);
+        engine.setPromptHandler(null);
+        view.setZoom(1);
+        view.setFontScale(1);
+        view.setFontSmoothingType(FontSmoothingType.LCD);
+        view.setContextMenuEnabled(true);
+        view.setMinSize(0, 0);    // the WebView defaults
+        view.setPrefSize(800, 600);
+        view.setMaxSize(Double.MAX_VALUE, Double.MAX_VALUE);
+        view.setStyle(null);
+        idle.push(new Idle(view));
+    }
+
+    /**
+     * Releases the WebViews that have been idle for too long
+     */
+    private static void evictIdle() {
+        long limit = System.nanoTime() - (long) (IDLE_TIMEOUT.toMillis() * 1e6);
+        for (Iterator<Idle> it = idle.iterator(); it.hasNext(); ) {
+            Idle entry = it.next();
+            if (entry.since - limit >= 0) continue;
+            entry.view.getEngine().load(null);
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Records the time it took a dialog to appear
+     *
+     * @param nanos  the time from the dialog's construction until it
+     *               was shown
+     * @param pooled <code>true</code> if all its WebViews came from the
+     *               pool
+     */
+    static void recordVisible(long nanos, boolean pooled) {
+        (pooled ? pooledVisible : unpooledVisible).record(nanos);
+    }
+
+    /**
+     * @return a summary of the pool activity
+     */
+    private static String getStatistics() {
+        return "Idle: " + idle.size() + " of " + MAX_SIZE + ", hits: " + hits + ", misses: "
+                + misses + ", evicted: " + evictions + "\n"
+                + "WebView creation: " + createStats + "\n"
+                + "Dialog visible (pooled): " + pooledVisible + "\n"
+                + "Dialog visible (not pooled): " + unpooledVisible;
+    }
+}
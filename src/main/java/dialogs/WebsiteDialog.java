@@ -38,7 +38,7 @@ public class WebsiteDialog extends CustomDialog<String> {
         GridPane pane = new GridPane(), textPane = new GridPane(),
                 controlPane = new GridPane(), previewPane = new GridPane();
         textField = new TextField();
-        WebView preview = new WebView();
+        WebView preview = borrowWebView();
 
         textPane.setHgap(10);
         DialogUtils.setGridInsets(controlPane);
@@ -57,11 +57,10 @@ public class WebsiteDialog extends CustomDialog<String> {
         pane.add(controlPane, 0, 1);
         dialog.getDialogPane().setExpandableContent(previewPane);
 
-        // reload the preview when the address changes
+        // reload the preview once the address stops changing
+        PreviewScheduler scheduler = createPreviewScheduler(preview, true);
         textField.textProperty().addListener((obs, oldVal, newVal) -> {
-            try {
-                preview.getEngine().load(textField.getText());
-            } catch (Exception ignored) { }
+            scheduler.requestUrl(newVal);
             Platform.runLater(textField::requestFocus);
         });
 
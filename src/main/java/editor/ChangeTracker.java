@@ -0,0 +1,537 @@
+package editor;
+
+import javafx.concurrent.Worker;
+import javafx.scene.web.HTMLEditor;
+import javafx.scene.web.WebEngine;
+import javafx.scene.web.WebView;
+import netscape.javascript.JSObject;
+import util.Diagnostics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Tracks changes to the editor's document through DOM mutation events,
+ * so whether the document was modified can be told without serialising
+ * it. Every batch of mutations increments a version counter and updates
+ * a hash of the content: every node contributes a hash of its own name,
+ * attributes and text, and the contributions are summed, so a mutation
+ * only rehashes the nodes it touched.
+ * <p>
+ * The document is unmodified when the version matches the saved one. If
+ * it doesn't but the hash does (the edits were undone, or the content
+ * only changed outside the DOM), the document is serialised once to
+ * make sure. The hash ignores the node order, so it is only ever used to
+ * tell that the document <i>has</i> changed.
+ * <p>
+ * Changes made by code that only changes the presentation (such as the
+ * large document pager) can be excluded with
+ * <code>window.htmlNotepadTracker.quiet(function)</code>.
+ * <p>
+ * The observer also remembers which top-level blocks of the body the
+ * mutations touched, so {@link #snapshot()} only serialises those again
+ * and reuses the rest from the previous snapshot.
+ */
+public class ChangeTracker {
+
+    /**
+     * The name of the Java bridge object in the page
+     */
+    private static final String BRIDGE = "htmlNotepadChangeBridge";
+
+    /**
+     * Observes the document and maintains the content hash
+     */
+    private static final String SCRIPT = "(function () {\n"
+            + "  var bridge = window." + BRIDGE + ", stored = new WeakMap(), hash = 0;\n"
+            + "  var nextId = 0, dirty = new Set(), moves = [], full = true, pending = true;\n"
+            + "  function fnv(s, h) {\n"
+            + "    for (var i = 0; i < s.length; i++) h = Math.imul(h ^ s.charCodeAt(i), 16777619);\n"
+            + "    return h;\n"
+            + "  }\n"
+            + "  function contribution(n) {\n"
+            + "    var h = fnv(n.nodeName, 0x811c9dc5 ^ n.nodeType);\n"
+            + "    if (n.nodeType === 1) {\n"
+            + "      for (var i = 0; i < n.attributes.length; i++) {\n"
+            + "        var a = n.attributes[i];\n"
+            + "        if (a.name !== 'contenteditable') h = fnv(a.value, fnv(a.name, h));\n"
+            + "      }\n"
+            + "    } else if (n.nodeValue !== null) h = fnv(n.nodeValue, h);\n"
+            + "    return Math.imul(h ^ (h >>> 15), 0x2c1b3c6d) | 0;\n"
+            + "  }\n"
+            + "  function update(n) {\n"
+            + "    if (stored.has(n)) hash = (hash - stored.get(n)) | 0;\n"
+            + "    var c = contribution(n);\n"
+            + "    stored.set(n, c);\n"
+            + "    hash = (hash + c) | 0;\n"
+            + "  }\n"
+            + "  function add(root) {\n"
+            + "    var walker = document.createTreeWalker(root, NodeFilter.SHOW_ALL, null, false);\n"
+            + "    for (var n = root; n; n = walker.nextNode()) update(n);\n"
+            + "  }\n"
+            + "  function remove(root) {\n"
+            + "    var walker = document.createTreeWalker(root, NodeFilter.SHOW_ALL, null, false);\n"
+            + "    for (var n = root; n; n = walker.nextNode())\n"
+            + "      if (stored.has(n)) { hash = (hash - stored.get(n)) | 0; stored.delete(n); }\n"
+            + "  }\n"
+            + "  function touched(n) {\n"
+            + "    var body = document.body;\n"
+            + "    if (!body || n === body) return;\n"
+            + "    while (n && n.parentNode !== body) n = n.parentNode;\n"
+            + "    if (n) dirty.add(n);\n"
+            + "  }\n"
+            + "  function moved(r) {\n"
+            + "    if (full) return;\n"
+            + "    var j, n, previous = r.previousSibling;\n"
+            + "    for (j = 0; j < r.removedNodes.length; j++) {\n"
+            + "      n = r.removedNodes[j];\n"
+            + "      if (n.htmlNotepadBlock === undefined) full = true;\n"
+            + "      moves.push('-' + n.htmlNotepadBlock);\n"
+            + "      delete n.htmlNotepadBlock;\n"
+            + "    }\n"
+            + "    for (j = 0; j < r.addedNodes.length; j++) {\n"
+            + "      n = r.addedNodes[j];\n"
+            + "      if (previous && previous.htmlNotepadBlock === undefined) full = true;\n"
+            + "      n.htmlNotepadBlock = nextId++;\n"
+            + "      moves.push('+' + n.htmlNotepadBlock + (previous ? ',' + previous.htmlNotepadBlock : ''));\n"
+            + "      dirty.add(n);\n"
+            + "      previous = n;\n"
+            + "    }\n"
+            + "    if (moves.length > 10000) full = true;\n"
+            + "  }\n"
+            + "  function process(records) {\n"
+            + "    var counted = false;\n"
+            + "    for (var i = 0; i < records.length; i++) {\n"
+            + "      var r = records[i], j;\n"
+            + "      if (r.type === 'childList') {\n"
+            + "        for (j = 0; j < r.removedNodes.length; j++) remove(r.removedNodes[j]);\n"
+            + "        for (j = 0; j < r.addedNodes.length; j++) add(r.addedNodes[j]);\n"
+            + "      } else if (r.type === 'attributes' && r.attributeName === 'contenteditable') continue;\n"
+            + "      else if (stored.has(r.target)) update(r.target);\n"
+            + "      if (r.type !== 'childList') touched(r.target);\n"
+            + "      else if (r.target === document.body) moved(r);\n"
+            + "      else if (r.target === document || r.target === document.documentElement) full = true;\n"
+            + "      else touched(r.target);\n"
+            + "      counted = pending = true;\n"
+            + "    }\n"
+            + "    return counted;\n"
+            + "  }\n"
+            + "  function escape(s, attribute) {\n"
+            + "    s = s.replace(/&/g, '&amp;').replace(/\\u00a0/g, '&nbsp;');\n"
+            + "    return attribute ? s.replace(/\"/g, '&quot;')\n"
+            + "        : s.replace(/</g, '&lt;').replace(/>/g, '&gt;');\n"
+            + "  }\n"
+            + "  function startTag(e) {\n"
+            + "    var s = '<' + e.localName;\n"
+            + "    for (var i = 0; i < e.attributes.length; i++)\n"
+            + "      s += ' ' + e.attributes[i].name + '=\"' + escape(e.attributes[i].value, true) + '\"';\n"
+            + "    return s + '>';\n"
+            + "  }\n"
+            + "  function serialize(n) {\n"
+            + "    if (n.nodeType === 1) return n.outerHTML;\n"
+            + "    if (n.nodeType === 3) return escape(n.nodeValue, false);\n"
+            + "    if (n.nodeType === 8) return '<!--' + n.nodeValue + '-->';\n"
+            + "    return '';\n"
+            + "  }\n"
+            + "  function snapshot() {\n"
+            + "    if (!pending) return '';\n"
+            + "    var root = document.documentElement, body = document.body, out = [], n;\n"
+            + "    var list = [], changed = [], lengths = [], html = [];\n"
+            + "    function field(s) { out.push(s.length + ':' + s); }\n"
+            + "    function serialized(n) {\n"
+            + "      var s = serialize(n);\n"
+            + "      changed.push(n.htmlNotepadBlock); lengths.push(s.length); html.push(s);\n"
+            + "    }\n"
+            + "    pending = false;\n"
+            + "    if (!body) {\n"
+            + "      full = true; moves = []; dirty.clear();\n"
+            + "      field(root.outerHTML); field(''); field('='); field(''); field('');\n"
+            + "      return out.join('');\n"
+            + "    }\n"
+            + "    field(startTag(root) + (document.head ? document.head.outerHTML : '') + startTag(body));\n"
+            + "    field('</body></html>');\n"
+            + "    if (full) {\n"
+            + "      for (n = body.firstChild; n; n = n.nextSibling) {\n"
+            + "        if (n.htmlNotepadBlock === undefined) n.htmlNotepadBlock = nextId++;\n"
+            + "        list.push(n.htmlNotepadBlock);\n"
+            + "        serialized(n);\n"
+            + "      }\n"
+            + "      field('=' + list.join(','));\n"
+            + "    } else {\n"
+            + "      field(moves.join(';'));\n"
+            + "      dirty.forEach(function (n) {\n"
+            + "        if (n.parentNode === body && n.htmlNotepadBlock !== undefined) serialized(n);\n"
+            + "      });\n"
+            + "    }\n"
+            + "    full = false; moves = []; dirty.clear();\n"
+            + "    field(changed.join(','));\n"
+            + "    field(lengths.join(','));\n"
+            + "    out.push(html.join(''));\n"
+            + "    return out.join('');\n"
+            + "  }\n"
+            + "  var observer = new MutationObserver(function (records) {\n"
+            + "    if (process(records)) bridge.changed(hash);\n"
+            + "  });\n"
+            + "  add(document.documentElement);\n"
+            + "  observer.observe(document, {childList: true, attributes: true, characterData: true, subtree: true});\n"
+            + "  window.htmlNotepadTracker = {\n"
+            + "    hash: function () { return hash; },\n"
+            + "    quiet: function (change) {\n"
+            + "      if (process(observer.takeRecords())) bridge.changed(hash);\n"
+            + "      var before = hash, result = change();\n"
+            + "      process(observer.takeRecords());\n"
+            + "      bridge.shifted(hash, (hash - before) | 0);\n"
+            + "      return result;\n"
+            + "    },\n"
+            + "    snapshot: function () {\n"
+            + "      if (process(observer.takeRecords())) bridge.changed(hash);\n"
+            + "      return snapshot();\n"
+            + "    },\n"
+            + "    declareCharset: function (charset) {\n"
+            + "      var metas = document.getElementsByTagName('meta');\n"
+            + "      for (var i = 0; i < metas.length; i++) {\n"
+            + "        var m = metas[i], content = m.getAttribute('content');\n"
+            + "        if (m.hasAttribute('charset')) m.setAttribute('charset', charset);\n"
+            + "        else if (/^content-type$/i.test(m.getAttribute('http-equiv') || '') && content)\n"
+            + "          m.setAttribute('content', content.replace(/charset\\s*=\\s*[\\w.:-]+/i, 'charset=' + charset));\n"
+            + "      }\n"
+            + "      if (process(observer.takeRecords())) bridge.changed(hash);\n"
+            + "    }\n"
+            + "  };\n"
+            + "  bridge.installed(hash);\n"
+            + "})();";
+
+    /**
+     * A serialised top-level block of the body
+     */
+    private static final class Block {
+        final int id;
+        String html;
+        Block previous = this, next = this;
+
+        Block(int id) {
+            this.id = id;
+        }
+
+        void insertAfter(Block block) {
+            previous = block;
+            next = block.next;
+            block.next.previous = this;
+            block.next = this;
+        }
+
+        void unlink() {
+            previous.next = next;
+            next.previous = previous;
+        }
+    }
+
+    private final List<Runnable> listeners = new ArrayList<>();
+    private WebEngine engine;
+    private long version, savedVersion, mutations, confirmations;
+    private int hash, savedHash, savedTextHash;
+    private boolean savedTextKnown, cleanAfterLoad = true;
+
+    // the top-level blocks of the last snapshot by id, linked in document order
+    private final Map<Integer, Block> blocks = new HashMap<>();
+    private final Block first = new Block(-1);
+    private String snapshot;
+    private long snapshots, blocksSerialised;
+    private boolean loading = true;
+
+    /**
+     * Constructs a new ChangeTracker instance and starts observing the
+     * editor, the observer is reinstalled whenever a document is loaded
+     *
+     * @param editor the editor to track
+     */
+    public ChangeTracker(HTMLEditor editor) {
+        // the WebView only exists once the editor's skin is created
+        if (editor.lookup("WebView") != null) attach(editor);
+        else editor.skinProperty().addListener((obs, oldVal, newVal) -> {
+            if (engine == null && newVal != null) attach(editor);
+        });
+        Diagnostics.register("Change tracking", this::getStatistics);
+    }
+
+    /**
+     * Starts watching the editor's page loads
+     */
+    private void attach(HTMLEditor editor) {
+        engine = ((WebView) editor.lookup("WebView")).getEngine();
+        engine.getLoadWorker().stateProperty().addListener((obs, oldVal, newVal) -> {
+            if (newVal == Worker.State.SUCCEEDED) install();
+        });
+        if (engine.getLoadWorker().getState() == Worker.State.SUCCEEDED) install();
+    }
+
+    /**
+     * Injects the observer into the loaded document
+     */
+    private void install() {
+        JSObject window = (JSObject) engine.executeScript("window");
+        window.setMember(BRIDGE, this);
+        engine.executeScript(SCRIPT);
+    }
+
+    /**
+     * Announces that the editor is about to load another document
+     *
+     * @param clean <code>true</code> if the new document is unmodified
+     *              (opened from a file or blank)
+     */
+    public void documentReplaced(boolean clean) {
+        cleanAfterLoad = clean;
+        loading = true;
+        version++;
+    }
+
+    /**
+     * Called from the page once the observer is installed. Not meant to
+     * be called from Java code.
+     *
+     * @param hash the content hash of the loaded document
+     */
+    public void installed(int hash) {
+        this.hash = hash;
+        version++;
+        loading = false;
+        blocks.clear();
+        first.next = first.previous = first;
+        snapshot = null;
+        if (cleanAfterLoad) {
+            savedVersion = version;
+            savedHash = hash;
+            savedTextKnown = false;
+            cleanAfterLoad = false;
+        }
+        notifyListeners();
+    }
+
+    /**
+     * Called from the page after a batch of mutations. Not meant to be
+     * called from Java code.
+     *
+     * @param hash the new content hash
+     */
+    public void changed(int hash) {
+        this.hash = hash;
+        version++;
+        mutations++;
+        notifyListeners();
+    }
+
+    /**
+     * Called from the page after a quiet change, which alters the hash
+     * without changing the document. Not meant to be called from Java
+     * code.
+     *
+     * @param hash  the new content hash
+     * @param delta the change of the hash
+     */
+    public void shifted(int hash, int delta) {
+        this.hash = hash;
+        savedHash += delta;
+    }
+
+    /**
+     * Changes the charset the document declares in its meta tags, if it
+     * declares one. The change is recorded right away, so the next
+     * serialisation includes it.
+     *
+     * @param charset the name of the charset
+     */
+    public void declareCharset(String charset) {
+        if (engine == null || loading) return;
+        JSObject tracker = (JSObject) engine.executeScript("window.htmlNotepadTracker");
+        tracker.call("declareCharset", charset);
+    }
+
+    /**
+     * Records a change made outside the editor DOM
+     */
+    public void touch() {
+        version++;
+        notifyListeners();
+    }
+
+    /**
+     * Marks the document as saved as it was at this version
+     *
+     * @param version the version at the time the document was serialised
+     * @param hash    the content hash at that time
+     * @param text    the saved document text
+     */
+    public void markSaved(long version, int hash, String text) {
+        savedVersion = version;
+        savedHash = hash;
+        savedTextHash = text.hashCode();
+        savedTextKnown = true;
+    }
+
+    /**
+     * Tells whether the document differs from the saved one
+     *
+     * @param text serialises the document, only called when the version
+     *             changed but the hash didn't
+     * @return <code>true</code> if the document was modified
+     */
+    public boolean isModified(Supplier<String> text) {
+        if (version == savedVersion) return false;
+        if (hash != savedHash || !savedTextKnown) return true;
+        confirmations++;
+        if (text.get().hashCode() != savedTextHash) return true;
+        savedVersion = version;     // back to the saved content
+        return false;
+    }
+
+    /**
+     * Serialises the document. Only the top-level blocks of the body
+     * that changed since the previous snapshot are serialised again, so
+     * after a small edit this is much cheaper than serialising the whole
+     * document. The markup is the same as the DOM's own serialisation
+     * but may differ in details from {@link HTMLEditor#getHtmlText()},
+     * so it's meant for autosaving and statistics rather than saving.
+     *
+     * @return the document HTML or <code>null</code> while a document is
+     * being loaded
+     */
+    public String snapshot() {
+        if (engine == null || loading) return null;
+        String fields = (String) engine.executeScript("window.htmlNotepadTracker.snapshot()");
+        if (fields.isEmpty()) return snapshot;   // unchanged
+
+        int[] position = {0};
+        String prefix = field(fields, position), suffix = field(fields, position),
+                structure = field(fields, position);
+        if (structure.startsWith("=")) {    // the whole order
+            Map<Integer, Block> previous = new HashMap<>(blocks);
+            blocks.clear();
+            first.next = first.previous = first;
+            for (int id : numbers(structure, 1)) {
+                Block block = previous.get(id);
+                if (block == null) block = new Block(id);
+                block.insertAfter(first.previous);
+                blocks.put(id, block);
+            }
+        } else if (!structure.isEmpty()) {  // the blocks moved since the last snapshot
+            for (String move : structure.split(";")) {
+                int comma = move.indexOf(',');
+                if (move.charAt(0) == '-') {
+                    Block block = blocks.remove(Integer.valueOf(move.substring(1)));
+                    if (block != null) block.unlink();
+                } else {
+                    Block block = new Block(Integer.parseInt(move.substring(1, comma < 0 ? move.length() : comma)));
+                    Block previous = comma < 0 ? first : blocks.get(Integer.valueOf(move.substring(comma + 1)));
+                    block.insertAfter(previous == null ? first.previous : previous);
+                    blocks.put(block.id, block);
+                }
+            }
+        }
+        String changed = field(fields, position), lengths = field(fields, position);
+        int[] ids = numbers(changed, 0), sizes = numbers(lengths, 0);
+        for (int i = 0, start = position[0]; i < ids.length; i++) {
+            Block block = blocks.get(ids[i]);
+            if (block != null) block.html = fields.substring(start, start + sizes[i]);
+            start += sizes[i];
+        }
+        blocksSerialised += ids.length;
+
+        long length = prefix.length() + suffix.length();
+        for (Block block = first.next; block != first; block = block.next)
+            if (block.html != null) length += block.html.length();
+        StringBuilder text = new StringBuilder((int) Math.min(length, Integer.MAX_VALUE - 8));
+        text.append(prefix);
+        for (Block block = first.next; block != first; block = block.next)
+            if (block.html != null) text.append(block.html);
+        snapshot = text.append(suffix).toString();
+        snapshots++;
+        return snapshot;
+    }
+
+    /**
+     * Parses a comma-separated list of numbers
+     *
+     * @param start the index of the first number
+     */
+    private static int[] numbers(String list, int start) {
+        if (list.length() <= start) return new int[0];
+        int count = 1;
+        for (int i = start; i < list.length(); i++)
+            if (list.charAt(i) == ',') count++;
+        int[] numbers = new int[count];
+        for (int i = start, n = 0, value = 0; i <= list.length(); i++) {
+            char c = i < list.length() ? list.charAt(i) : ',';
+            if (c == ',') {
+                numbers[n++] = value;
+                value = 0;
+            } else value = value * 10 + c - '0';
+        }
+        return numbers;
+    }
+
+    /**
+     * Reads a length-prefixed field of the page's snapshot
+     */
+    private static String field(String fields, int[] position) {
+        int colon = fields.indexOf(':', position[0]);
+        int start = colon + 1, end = start + Integer.parseInt(fields.substring(position[0], colon));
+        position[0] = end;
+        return fields.substring(start, end);
+    }
+
+    /**
+     * @return the document version, incremented on every change
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the content hash
+     */
+    public int getHash() {
+        return hash;
+    }
+
+    /**
+     * Registers a listener called on the application thread after every
+     * change
+     *
+     * @param listener the listener
+     */
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Removes a change listener
+     *
+     * @param listener the listener
+     */
+    public void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Calls the change listeners
+     */
+    private void notifyListeners() {
+        for (Runnable listener : listeners) listener.run();
+    }
+
+    /**
+     * @return a summary of the tracked changes
+     */
+    private String getStatistics() {
+        return "Version: " + version + " (saved: " + savedVersion + "), mutation batches: "
+                + mutations + "\n"
+                + String.format("Content hash: %08x (saved: %08x), full comparisons: %d",
+                hash, savedHash, confirmations) + "\n"
+                + "Snapshots: " + snapshots + ", blocks serialised: " + blocksSerialised
+                + " (" + blocks.size() + " in the document)";
+    }
+}
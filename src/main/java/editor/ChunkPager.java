@@ -0,0 +1,313 @@
+package editor;
+
+import javafx.beans.value.ChangeListener;
+import javafx.concurrent.Worker;
+import javafx.scene.web.HTMLEditor;
+import javafx.scene.web.WebEngine;
+import javafx.scene.web.WebView;
+import netscape.javascript.JSObject;
+import util.HtmlChunker;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Shows a large document in an HTMLEditor a few chunks at a time. Every
+ * chunk gets an empty container element sized to its (estimated, later
+ * measured) height; only the chunks in and around the viewport are
+ * materialised, the rest are paged out as the user scrolls. The number
+ * of characters materialised at once is kept under a memory budget.
+ * <p>
+ * While a pager is installed, the editor's own getHtmlText() returns the
+ * container markup; use {@link #getHtml()} to get the document. It
+ * follows the containers in the page, so deleting them (and typing
+ * between them) is kept. Paging
+ * chunks in and out is done quietly, so it isn't counted as a change by
+ * the {@link ChangeTracker}.
+ *
+ * @see HtmlChunker
+ */
+public class ChunkPager {
+
+    /**
+     * The preferred chunk size in characters
+     */
+    public static final int CHUNK_SIZE = 64 << 10;
+
+    /**
+     * The number of chunks materialised on each side of the viewport
+     * (if the budget allows)
+     */
+    private static final int MARGIN = 2;
+
+    /**
+     * The name of the Java bridge object in the page
+     */
+    private static final String BRIDGE = "htmlNotepadPager";
+
+    /**
+     * The comment an empty container holds while its chunk is stored in
+     * memory. If it's gone, the user edited the container (such as
+     * deleting it along with a selection) and the chunk isn't used.
+     */
+    private static final String PLACEHOLDER = "<!--chunk-->";
+
+    /**
+     * Tracks the viewport and exposes the container operations to Java
+     */
+    private static final String SCRIPT = "(function () {\n"
+            + "  var byChunk = Array.prototype.slice.call(document.querySelectorAll('div[data-chunk]'));\n"
+            + "  var index = new Map(), filled = new Set(), scheduled = false;\n"
+            + "  byChunk.forEach(function (c, i) { index.set(c, i); });\n"
+            + "  function attached(c) { return document.body.contains(c); }\n"
+            + "  function placeholder(c) {\n"
+            + "    return c.childNodes.length === 1 && c.firstChild.nodeType === 8 && c.firstChild.nodeValue === 'chunk';\n"
+            + "  }\n"
+            + "  function update() {\n"
+            + "    scheduled = false;\n"
+            + "    var list = byChunk.filter(attached);\n"
+            + "    if (!list.length) return;\n"
+            + "    var top = window.scrollY, bottom = top + window.innerHeight;\n"
+            + "    var lo = 0, hi = list.length - 1, first = list.length - 1;\n"
+            + "    while (lo <= hi) {\n"
+            + "      var mid = (lo + hi) >> 1;\n"
+            + "      if (list[mid].offsetTop + list[mid].offsetHeight >= top) { first = mid; hi = mid - 1; }\n"
+            + "      else lo = mid + 1;\n"
+            + "    }\n"
+            + "    var last = first;\n"
+            + "    while (last + 1 < list.length && list[last + 1].offsetTop <= bottom) last++;\n"
+            + "    window." + BRIDGE + ".visible(index.get(list[first]), index.get(list[last]));\n"
+            + "  }\n"
+            + "  function schedule() {\n"
+            + "    if (!scheduled) { scheduled = true; window.requestAnimationFrame(update); }\n"
+            + "  }\n"
+            + "  function keepAnchor(c, change) {\n"
+            + "    var before = c.offsetHeight, above = c.offsetTop + before <= window.scrollY;\n"
+            + "    change();\n"
+            + "    if (above) window.scrollBy(0, c.offsetHeight - before);\n"
+            + "  }\n"
+            + "  function quietly(change) {\n"
+            + "    return window.htmlNotepadTracker ? window.htmlNotepadTracker.quiet(change) : change();\n"
+            + "  }\n"
+            + "  function escape(s) {\n"
+            + "    return s.replace(/&/g, '&amp;').replace(/\\u00a0/g, '&nbsp;')\n"
+            + "        .replace(/</g, '&lt;').replace(/>/g, '&gt;');\n"
+            + "  }\n"
+            + "  function assemble(parent, out) {\n"
+            + "    for (var n = parent.firstChild; n; n = n.nextSibling) {\n"
+            + "      if (index.has(n)) out.push(filled.has(n) || !placeholder(n) ? n.innerHTML : index.get(n));\n"
+            + "      else if (n.nodeType === 1 && n.querySelector('div[data-chunk]')) {\n"
+            + "        var shallow = n.cloneNode(false).outerHTML, end = '</' + n.localName + '>';\n"
+            + "        var closed = shallow.slice(-end.length) === end;\n"
+            + "        out.push(closed ? shallow.slice(0, -end.length) : shallow);\n"
+            + "        assemble(n, out);\n"
+            + "        if (closed) out.push(end);\n"
+            + "      } else if (n.nodeType === 1) out.push(n.outerHTML);\n"
+            + "      else if (n.nodeType === 3) out.push(escape(n.nodeValue));\n"
+            + "      else if (n.nodeType === 8) out.push('<!--' + n.nodeValue + '-->');\n"
+            + "    }\n"
+            + "    return out;\n"
+            + "  }\n"
+            + "  window.addEventListener('scroll', schedule);\n"
+            + "  window.addEventListener('resize', schedule);\n"
+            + "  window.htmlNotepadChunks = {\n"
+            + "    fill: function (i, html) {\n"
+            + "      var c = byChunk[i];\n"
+            + "      if (!attached(c) || !placeholder(c)) return false;\n"
+            + "      quietly(function () {\n"
+            + "        keepAnchor(c, function () { c.innerHTML = html; c.style.height = ''; });\n"
+            + "      });\n"
+            + "      filled.add(c);\n"
+            + "      return true;\n"
+            + "    },\n"
+            + "    release: function (i) {\n"
+            + "      var c = byChunk[i], html = c.innerHTML;\n"
+            + "      filled.delete(c);\n"
+            + "      quietly(function () {\n"
+            + "        keepAnchor(c, function () {\n"
+            + "          if (attached(c)) c.style.height = c.offsetHeight + 'px';\n"
+            + "          c.innerHTML = '" + PLACEHOLDER + "';\n"
+            + "        });\n"
+            + "      });\n"
+            + "      return html;\n"
+            + "    },\n"
+            + "    html: function (i) { return byChunk[i].innerHTML; },\n"
+            + "    attached: function (i) { return attached(byChunk[i]); },\n"
+            + "    append: function (html) { document.body.insertAdjacentHTML('beforeend', html); },\n"
+            + "    assemble: function () { return assemble(document.body, []); },\n"
+            + "    update: update\n"
+            + "  };\n"
+            + "})();";
+
+    private final HTMLEditor editor;
+    private final WebEngine engine;
+    private final String head, wrapperStart, wrapperEnd, tail;
+    private final List<String> chunks;
+    private final BitSet materialized = new BitSet();
+    private final long budget;
+    private long materializedSize;
+    private JSObject containers;
+    private ChangeListener<Worker.State> loadListener;
+
+    /**
+     * Constructs a new ChunkPager instance
+     *
+     * @param editor the editor to show the document in
+     * @param html   the document
+     * @param budget the maximum number of characters to materialise at
+     *               once (the visible chunks are always materialised)
+     */
+    public ChunkPager(HTMLEditor editor, String html, long budget) {
+        HtmlChunker.ChunkedDocument document = HtmlChunker.split(html, CHUNK_SIZE);
+        this.editor = editor;
+        this.engine = ((WebView) editor.lookup("WebView")).getEngine();
+        this.head = document.getHead();
+        this.wrapperStart = document.getWrapperStart();
+        this.wrapperEnd = document.getWrapperEnd();
+        this.tail = document.getTail();
+        this.chunks = document.getChunks();
+        this.budget = budget;
+    }
+
+    /**
+     * Loads the container skeleton into the editor, the visible chunks
+     * are filled in once the page has loaded
+     */
+    public void install() {
+        StringBuilder sb = new StringBuilder(head.length() + wrapperStart.length() + wrapperEnd.length()
+                + tail.length() + chunks.size() * 64);
+        sb.append(head).append(wrapperStart);
+        for (int i = 0; i < chunks.size(); i++)     // roughly 4 characters per pixel
+            sb.append("<div data-chunk=\"").append(i).append("\" style=\"height: ")
+                    .append(Math.max(20, chunks.get(i).length() / 4)).append("px\">")
+                    .append(PLACEHOLDER).append("</div>");
+        sb.append(wrapperEnd).append(tail);
+
+        loadListener = (obs, oldVal, newVal) -> {
+            if (newVal != Worker.State.SUCCEEDED) return;
+            engine.getLoadWorker().stateProperty().removeListener(loadListener);
+            JSObject window = (JSObject) engine.executeScript("window");
+            window.setMember(BRIDGE, this);
+            engine.executeScript(SCRIPT);
+            containers = (JSObject) engine.executeScript("window.htmlNotepadChunks");
+            containers.call("update");
+        };
+        engine.getLoadWorker().stateProperty().addListener(loadListener);
+        editor.setHtmlText(sb.toString());
+    }
+
+    /**
+     * Detaches the pager from the editor, called before another document
+     * is loaded
+     */
+    public void uninstall() {
+        if (loadListener != null)
+            engine.getLoadWorker().stateProperty().removeListener(loadListener);
+        if (containers != null) ((JSObject) engine.executeScript("window")).removeMember(BRIDGE);
+        containers = null;
+    }
+
+    /**
+     * Called from the page whenever the viewport changes. Not meant to
+     * be called from Java code.
+     *
+     * @param first the first visible chunk
+     * @param last  the last visible chunk
+     */
+    public void visible(int first, int last) {
+        if (containers == null || chunks.isEmpty()) return;
+        int from = Math.max(0, first - MARGIN), to = Math.min(chunks.size() - 1, last + MARGIN);
+        while ((from < first || to > last) && size(from, to) > budget) {
+            if (first - from >= to - last) from++;
+            else to--;
+        }
+
+        for (int i = materialized.nextSetBit(0); i >= 0; i = materialized.nextSetBit(i + 1))
+            if (i < from || i > to) release(i);
+        for (int i = from; i <= to; i++)
+            if (!materialized.get(i) && Boolean.TRUE.equals(containers.call("fill", i, chunks.get(i)))) {
+                materialized.set(i);
+                materializedSize += chunks.get(i).length();
+            }
+    }
+
+    /**
+     * Reads the chunk back from the page and empties its container. The
+     * content of a container the user deleted is kept too, in case the
+     * deletion is undone.
+     */
+    private void release(int i) {
+        materializedSize -= chunks.get(i).length();
+        chunks.set(i, (String) containers.call("release", i));
+        materialized.clear(i);
+    }
+
+    /**
+     * Returns the total size of these chunks
+     */
+    private long size(int from, int to) {
+        long size = 0;
+        for (int i = from; i <= to; i++) size += chunks.get(i).length();
+        return size;
+    }
+
+    /**
+     * Appends HTML to the end of the document
+     *
+     * @param html the HTML code to append
+     */
+    public void append(String html) {
+        int last = chunks.size() - 1;
+        if (containers != null && !Boolean.TRUE.equals(containers.call("attached", last))) {
+            containers.call("append", html);    // the last chunk was deleted
+        } else if (materialized.get(last) && containers != null) {
+            String updated = containers.call("html", last) + html;
+            containers.call("fill", last, updated);
+            materializedSize += updated.length() - chunks.get(last).length();
+            chunks.set(last, updated);
+        } else chunks.set(last, chunks.get(last) + html);
+    }
+
+    /**
+     * Assembles the document in the order of the page: the chunks that
+     * are stored in memory are used as they are, everything else (the
+     * materialised chunks, containers the user edited, the elements
+     * wrapping the containers and whatever was added outside of the
+     * containers) is serialised. Chunks whose
+     * containers the user deleted are left out.
+     *
+     * @return the document HTML
+     */
+    public String getHtml() {
+        long length = head.length() + wrapperStart.length() + wrapperEnd.length() + tail.length();
+        for (String chunk : chunks) length += chunk.length();
+        StringBuilder sb = new StringBuilder((int) Math.min(Integer.MAX_VALUE - 8, length));
+        sb.append(head);
+        if (containers == null) {   // not loaded yet
+            sb.append(wrapperStart);
+            for (String chunk : chunks) sb.append(chunk);
+            return sb.append(wrapperEnd).append(tail).toString();
+        }
+        JSObject parts = (JSObject) containers.call("assemble");
+        int count = ((Number) parts.getMember("length")).intValue();
+        for (int i = 0; i < count; i++) {
+            Object part = parts.getSlot(i);
+            sb.append(part instanceof Number ? chunks.get(((Number) part).intValue()) : (String) part);
+        }
+        return sb.append(tail).toString();
+    }
+
+    /**
+     * @return the number of chunks
+     */
+    public int getChunkCount() {
+        return chunks.size();
+    }
+
+    /**
+     * @return the number of characters currently materialised
+     */
+    public long getMaterializedSize() {
+        return materializedSize;
+    }
+}
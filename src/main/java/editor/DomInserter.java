@@ -0,0 +1,122 @@
+package editor;
+
+import javafx.scene.web.HTMLEditor;
+import javafx.scene.web.WebView;
+import netscape.javascript.JSException;
+import netscape.javascript.JSObject;
+import util.Diagnostics;
+import util.LatencyStats;
+
+import java.util.List;
+
+/**
+ * Inserts HTML snippets straight into the editor's DOM at the caret (or
+ * in place of the selection), instead of serialising the document,
+ * appending to it and parsing it again. The cost depends only on the
+ * size of the snippet, and the caret and undo history are kept.
+ */
+public class DomInserter {
+
+    /**
+     * Inserts the joined snippets at the caret. Uses the editing command
+     * where possible so the insert can be undone; scripts are inserted
+     * as a DOM fragment since the editing command drops them.
+     * Returns false if there's no caret in the document and appending
+     * wasn't requested.
+     */
+    private static final String SCRIPT = "window.htmlNotepadInsert = function (snippets, append) {\n"
+            + "  var html = snippets.join(''), sel = window.getSelection(), body = document.body;\n"
+            + "  if (!body) return false;\n"
+            + "  if (!sel.rangeCount || !body.contains(sel.getRangeAt(0).commonAncestorContainer)) {\n"
+            + "    if (!append) return false;\n"
+            + "    var end = document.createRange();\n"
+            + "    end.selectNodeContents(body);\n"
+            + "    end.collapse(false);\n"
+            + "    sel.removeAllRanges();\n"
+            + "    sel.addRange(end);\n"
+            + "  }\n"
+            + "  if (!/<script/i.test(html) && document.execCommand('insertHTML', false, html))\n"
+            + "    return true;\n"
+            + "  var range = sel.getRangeAt(0);\n"
+            + "  range.deleteContents();\n"
+            + "  var fragment = range.createContextualFragment(html), last = fragment.lastChild;\n"
+            + "  range.insertNode(fragment);\n"
+            + "  if (last) {\n"
+            + "    range.setStartAfter(last);\n"
+            + "    range.collapse(true);\n"
+            + "    sel.removeAllRanges();\n"
+            + "    sel.addRange(range);\n"
+            + "  }\n"
+            + "  return true;\n"
+            + "};";
+
+    private final HTMLEditor editor;
+    private final LatencyStats stats = new LatencyStats();
+    private long snippets, characters;
+
+    /**
+     * Constructs a new DomInserter instance
+     *
+     * @param editor the editor to insert into
+     */
+    public DomInserter(HTMLEditor editor) {
+        this.editor = editor;
+        Diagnostics.register("Insertion", this::getStatistics);
+    }
+
+    /**
+     * Inserts a snippet at the caret
+     *
+     * @param html   the HTML code to insert
+     * @param append <code>true</code> to append to the document if there
+     *               is no caret in it
+     * @return <code>false</code> if the snippet wasn't inserted (no caret
+     * and not appending, or the editor isn't displayed yet)
+     */
+    public boolean insert(String html, boolean append) {
+        return insertAll(List.of(html), append);
+    }
+
+    /**
+     * Inserts several snippets at the caret as a single edit
+     *
+     * @param html   the HTML snippets to insert, in order
+     * @param append <code>true</code> to append to the document if there
+     *               is no caret in it
+     * @return <code>false</code> if the snippets weren't inserted (no
+     * caret and not appending, or the editor isn't displayed yet)
+     */
+    public boolean insertAll(List<String> html, boolean append) {
+        WebView view = (WebView) editor.lookup("WebView");
+        if (view == null) return false;
+        long start = System.nanoTime();
+        try {
+            JSObject window = (JSObject) view.getEngine().executeScript("window");
+            if ("undefined".equals(view.getEngine().executeScript("typeof window.htmlNotepadInsert")))
+                view.getEngine().executeScript(SCRIPT);
+
+            JSObject array = (JSObject) view.getEngine().executeScript("[]");
+            for (int i = 0; i < html.size(); i++) array.setSlot(i, html.get(i));
+            if (!Boolean.TRUE.equals(window.call("htmlNotepadInsert", array, append)))
+                return false;
+        } catch (JSException e) {
+            System.err.println("Inserting HTML failed: " + e.getMessage());
+            return false;
+        }
+
+        stats.recordSince(start);
+        synchronized (this) {
+            snippets += html.size();
+            for (String s : html) characters += s.length();
+        }
+        return true;
+    }
+
+    /**
+     * @return a summary of the inserts performed so far
+     */
+    private synchronized String getStatistics() {
+        return "Snippets inserted: " + snippets + " (" + characters + " characters)\n"
+                + "Insert time: " + stats;
+    }
+}
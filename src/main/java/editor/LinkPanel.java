@@ -0,0 +1,188 @@
+package editor;
+
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.beans.property.ReadOnlyStringWrapper;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.geometry.Insets;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.input.Clipboard;
+import javafx.scene.input.ClipboardContent;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
+import javafx.util.Duration;
+import util.LinkChecker;
+import util.Threads;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Lists the broken links of the document. The links are checked in the
+ * background while the user keeps editing, and checked again a moment
+ * after the document changes; thanks to the checker's remembered results
+ * only the new links are requested then.
+ */
+public class LinkPanel extends BorderPane {
+
+    /**
+     * The time the document has to stay unchanged before its links are
+     * checked again
+     */
+    private static final Duration INTERVAL = Duration.seconds(2);
+
+    /**
+     * Extracts the links of the documents
+     */
+    private static final ExecutorService extractor =
+            Executors.newSingleThreadExecutor(Threads.daemonFactory("link-extract"));
+
+    /**
+     * A broken link
+     */
+    private static final class Row {
+        final LinkChecker.Result result;
+        final int occurrences;
+
+        Row(LinkChecker.Result result, int occurrences) {
+            this.result = result;
+            this.occurrences = occurrences;
+        }
+    }
+
+    private final LinkChecker checker;
+    private final ObservableList<Row> broken = FXCollections.observableArrayList();
+    private final TableView<Row> table = new TableView<>(broken);
+    private final Label summary = new Label("Not checked yet");
+    private final PauseTransition throttle = new PauseTransition(INTERVAL);
+    private final Runnable changeListener = throttle::playFromStart;
+
+    private ChangeTracker tracker;
+    private Supplier<String> html;
+    private Supplier<URI> base;
+    private LinkChecker.Run run;
+    private long generation;
+    private int total, done;
+
+    /**
+     * Constructs a new LinkPanel instance
+     *
+     * @param checker checks the links
+     */
+    public LinkPanel(LinkChecker checker) {
+        this.checker = checker;
+
+        TableColumn<Row, String> status = new TableColumn<>("Problem");
+        status.setCellValueFactory(c -> new ReadOnlyStringWrapper(c.getValue().result.getDescription()));
+        status.setPrefWidth(140);
+        TableColumn<Row, String> link = new TableColumn<>("Link");
+        link.setCellValueFactory(c -> new ReadOnlyStringWrapper(c.getValue().result.getUri().toString()));
+        link.setPrefWidth(420);
+        TableColumn<Row, Integer> count = new TableColumn<>("Uses");
+        count.setCellValueFactory(c -> new ReadOnlyObjectWrapper<>(c.getValue().occurrences));
+        count.setPrefWidth(60);
+        table.getColumns().add(status);
+        table.getColumns().add(link);
+        table.getColumns().add(count);
+        table.setPlaceholder(new Label("No broken links found"));
+
+        Button again = new Button("Check again");
+        again.setOnAction(e -> {
+            checker.clear();
+            check();
+        });
+        Button copy = new Button("Copy link");
+        copy.disableProperty().bind(table.getSelectionModel().selectedItemProperty().isNull());
+        copy.setOnAction(e -> {
+            Row row = table.getSelectionModel().getSelectedItem();
+            ClipboardContent content = new ClipboardContent();
+            content.putString(row.result.getUri().toString());
+            Clipboard.getSystemClipboard().setContent(content);
+        });
+        HBox buttons = new HBox(10, again, copy);
+
+        setTop(summary);
+        setCenter(table);
+        setBottom(buttons);
+        setPadding(new Insets(10));
+        setMargin(table, new Insets(10, 0, 10, 0));
+        throttle.setOnFinished(e -> check());
+    }
+
+    /**
+     * Checks the links of the document and checks them again after every
+     * change until {@link #stop()} is called
+     *
+     * @param tracker reports the changes of the document
+     * @param html    takes a snapshot of the document, called on the
+     *                application thread
+     * @param base    returns the address relative links are resolved
+     *                against, or <code>null</code> if there is none
+     */
+    public void follow(ChangeTracker tracker, Supplier<String> html, Supplier<URI> base) {
+        stop();
+        this.tracker = tracker;
+        this.html = html;
+        this.base = base;
+        tracker.addListener(changeListener);
+        check();
+    }
+
+    /**
+     * Stops following the document and cancels the running check
+     */
+    public void stop() {
+        throttle.stop();
+        if (tracker != null) tracker.removeListener(changeListener);
+        tracker = null;
+        if (run != null) run.cancel();
+        run = null;
+    }
+
+    /**
+     * Extracts the links in the background, then checks them
+     */
+    private void check() {
+        if (tracker == null) return;
+        if (run != null) run.cancel();
+        long current = ++generation;
+        String text = html.get();
+        URI baseUri = base.get();
+        summary.setText("Looking for links...");
+        extractor.execute(() -> {
+            Map<URI, Integer> links = LinkChecker.extractLinks(text, baseUri);
+            Platform.runLater(() -> start(current, links));
+        });
+    }
+
+    /**
+     * Starts checking the extracted links, unless a newer check started
+     */
+    private void start(long current, Map<URI, Integer> links) {
+        if (current != generation || tracker == null) return;
+        broken.clear();
+        total = links.size();
+        done = 0;
+        updateSummary();
+        run = checker.checkAll(links.keySet(), result -> Platform.runLater(() -> {
+            if (current != generation) return;
+            done++;
+            if (result.isBroken()) broken.add(new Row(result, links.getOrDefault(result.getUri(), 1)));
+            updateSummary();
+        }));
+    }
+
+    private void updateSummary() {
+        String progress = done < total ? "Checking links: " + done + " of " + total
+                : total + (total == 1 ? " link" : " links") + " checked";
+        summary.setText(progress + ", " + broken.size() + " broken");
+    }
+}
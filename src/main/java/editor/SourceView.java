@@ -0,0 +1,629 @@
+package editor;
+
+import javafx.geometry.Orientation;
+import javafx.geometry.VPos;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.ScrollBar;
+import javafx.scene.input.Clipboard;
+import javafx.scene.input.ClipboardContent;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.layout.Region;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+import util.HtmlLexer;
+import util.IncrementalLexer;
+import util.LineBuffer;
+import util.TextDiff;
+
+import java.util.Arrays;
+
+/**
+ * A read-only viewer for large texts. The text is kept in a
+ * {@link LineBuffer} and only the visible lines are drawn, so the cost of
+ * showing, scrolling and selecting doesn't depend on the size of the
+ * text. Lines aren't wrapped, except for the segments the buffer splits
+ * very long lines into, which are shown as lines of their own without a
+ * line number. HTML, CSS and JavaScript are highlighted
+ * with an {@link IncrementalLexer}, which follows the changes without
+ * lexing the whole text again.
+ * <p>
+ * Supports selecting with the mouse and the keyboard, copying the
+ * selection and jumping to a line.
+ */
+public class SourceView extends Region {
+
+    private static final Font FONT = Font.font("Monospaced", 13);
+    private static final int TAB_SIZE = 4;
+    private static final double PADDING = 4;
+    private static final Color BACKGROUND = Color.WHITE, TEXT = Color.BLACK,
+            GUTTER = Color.rgb(245, 245, 245), LINE_NUMBER = Color.GRAY,
+            SELECTION = Color.rgb(179, 215, 255), MATCH = Color.rgb(255, 230, 120);
+
+    /**
+     * The text colour of every token type
+     */
+    private static final Color[] PALETTE = new Color[HtmlLexer.TYPE_COUNT];
+
+    static {
+        Arrays.fill(PALETTE, TEXT);
+        PALETTE[HtmlLexer.TAG] = Color.rgb(0, 0, 160);
+        PALETTE[HtmlLexer.ATTRIBUTE] = Color.rgb(160, 80, 0);
+        PALETTE[HtmlLexer.VALUE] = Color.rgb(0, 120, 0);
+        PALETTE[HtmlLexer.COMMENT] = Color.rgb(128, 128, 128);
+        PALETTE[HtmlLexer.ENTITY] = Color.rgb(140, 0, 140);
+        PALETTE[HtmlLexer.KEYWORD] = Color.rgb(0, 0, 255);
+        PALETTE[HtmlLexer.STRING] = Color.rgb(0, 120, 0);
+        PALETTE[HtmlLexer.NUMBER] = Color.rgb(0, 110, 160);
+    }
+
+    private final Canvas canvas = new Canvas();
+    private final ScrollBar vertical = new ScrollBar(), horizontal = new ScrollBar();
+    private final double lineHeight, charWidth;
+    private LineBuffer buffer = new LineBuffer("");
+    private IncrementalLexer lexer = new IncrementalLexer(buffer);
+    private final HtmlLexer.Sink spanCollector = this::addSpan;
+    private int[] spans = new int[48], offsets = new int[0];
+    private char[] visible = new char[0];
+    private int spanCount;
+    private int[] matches = new int[0];     // the start and the end of every search match
+    private int matchCount;
+    private boolean highlighting = true;
+    private int anchor, caret, longestLine;
+    private int preferredColumn = -1;   // kept while moving up and down
+
+    /**
+     * Constructs a new SourceView instance
+     */
+    public SourceView() {
+        Text sample = new Text("0123456789");
+        sample.setFont(FONT);
+        charWidth = sample.getLayoutBounds().getWidth() / 10;
+        lineHeight = Math.ceil(sample.getLayoutBounds().getHeight());
+
+        vertical.setOrientation(Orientation.VERTICAL);
+        vertical.valueProperty().addListener((obs, oldVal, newVal) -> draw());
+        horizontal.valueProperty().addListener((obs, oldVal, newVal) -> draw());
+        getChildren().addAll(canvas, vertical, horizontal);
+        setFocusTraversable(true);
+        setMinSize(0, 0);
+        setPrefSize(800, 600);
+
+        canvas.setOnMousePressed(this::mousePressed);
+        canvas.setOnMouseDragged(this::mouseDragged);
+        addEventHandler(ScrollEvent.SCROLL, this::scrolled);
+        addEventHandler(KeyEvent.KEY_PRESSED, this::keyPressed);
+        focusedProperty().addListener((obs, oldVal, newVal) -> draw());
+    }
+
+    /// CONTENT ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Replaces the text and scrolls to the top, the search matches are
+     * removed
+     *
+     * @param text the new text
+     */
+    public void setText(String text) {
+        matchCount = 0;
+        setBuffer(new LineBuffer(text));
+        lexer = new IncrementalLexer(buffer);
+        anchor = caret = 0;
+        vertical.setValue(0);
+        horizontal.setValue(0);
+        draw();
+    }
+
+    /**
+     * Replaces the text with its changed version, keeping the scroll
+     * position; the caret and the selection move along with the text
+     * around them, the search matches are removed
+     *
+     * @param changed the buffer of the changed text
+     * @param diff    the change from the current text
+     */
+    public void update(LineBuffer changed, TextDiff diff) {
+        matchCount = 0;
+        anchor = shift(anchor, diff);
+        caret = shift(caret, diff);
+        lexer.update(changed, diff);
+        setBuffer(changed);
+        draw();
+    }
+
+    /**
+     * Maps a position in the old text to the new one
+     */
+    private static int shift(int position, TextDiff diff) {
+        int end = diff.getStart() + diff.getRemoved();
+        if (position <= diff.getStart()) return position;
+        if (position >= end) return position - diff.getRemoved() + diff.getInserted().length();
+        return diff.getStart();     // inside the replaced region
+    }
+
+    private void setBuffer(LineBuffer buffer) {
+        this.buffer = buffer;
+        longestLine = buffer.getLongestLine();
+        updateScrollBars();
+    }
+
+    /**
+     * @return the shown text buffer
+     */
+    public LineBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return the shown text
+     */
+    public String getText() {
+        return buffer.getText();
+    }
+
+    /**
+     * @return the selected text
+     */
+    public String getSelectedText() {
+        return buffer.getText().substring(Math.min(anchor, caret), Math.max(anchor, caret));
+    }
+
+    /**
+     * Moves the caret to the start of a line and scrolls it into view
+     *
+     * @param line the one-based line number, clamped to the valid range
+     */
+    public void gotoLine(int line) {
+        int index = buffer.getLineOfPhysicalLine(Math.max(0, Math.min(buffer.getPhysicalLineCount() - 1, line - 1)));
+        anchor = caret = buffer.getLineStart(index);
+        preferredColumn = -1;
+        vertical.setValue(Math.max(0, index - visibleLines() / 3));
+        horizontal.setValue(0);
+        draw();
+        requestFocus();
+    }
+
+    /**
+     * @return the one-based line number of the caret
+     */
+    public int getCaretLine() {
+        return buffer.getPhysicalLine(buffer.getLineOfOffset(caret)) + 1;
+    }
+
+    /**
+     * Selects the whole text
+     */
+    public void selectAll() {
+        anchor = 0;
+        caret = buffer.length();
+        draw();
+    }
+
+    /**
+     * Copies the selected text to the clipboard
+     */
+    public void copy() {
+        if (anchor == caret) return;
+        ClipboardContent content = new ClipboardContent();
+        content.putString(getSelectedText());
+        Clipboard.getSystemClipboard().setContent(content);
+    }
+
+    /// SEARCH MATCHES ////////////////////////////////////////////////////////////////////
+
+    /**
+     * Removes the highlighted search matches
+     */
+    public void clearMatches() {
+        matchCount = 0;
+        draw();
+    }
+
+    /**
+     * Highlights more search matches, all of them after the ones added
+     * before
+     *
+     * @param found the start and the end offset of every match
+     */
+    public void addMatches(int[] found) {
+        if (matchCount * 2 + found.length > matches.length)
+            matches = Arrays.copyOf(matches, Math.max(matches.length * 2, matchCount * 2 + found.length));
+        System.arraycopy(found, 0, matches, matchCount * 2, found.length);
+        matchCount += found.length / 2;
+        draw();
+    }
+
+    /**
+     * Selects the next or the previous match after the selection and
+     * scrolls it into view, starting over at the other end of the text
+     *
+     * @param forward <code>true</code> for the next match
+     * @return the zero-based index of the match, or -1 if there are no
+     * matches
+     */
+    public int selectMatch(boolean forward) {
+        if (matchCount == 0) return -1;
+        int index = forward ? firstMatchStartingFrom(Math.max(anchor, caret))
+                : firstMatchStartingFrom(Math.min(anchor, caret)) - 1;
+        index = (index + matchCount) % matchCount;
+        anchor = matches[index * 2];
+        caret = matches[index * 2 + 1];
+        preferredColumn = -1;
+        scrollToCaret();
+        draw();
+        return index;
+    }
+
+    /**
+     * @return the index of the first match that starts at or after the
+     * offset, or the number of matches if there is none
+     */
+    private int firstMatchStartingFrom(int offset) {
+        int low = 0, high = matchCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (matches[middle * 2] < offset) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * @return the index of the first match that ends after the offset,
+     * or the number of matches if there is none
+     */
+    private int firstMatchEndingAfter(int offset) {
+        int low = 0, high = matchCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (matches[middle * 2 + 1] <= offset) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /// LAYOUT ////////////////////////////////////////////////////////////////////////////
+
+    @Override
+    protected void layoutChildren() {
+        double barWidth = vertical.prefWidth(-1), barHeight = horizontal.prefHeight(-1);
+        double width = Math.max(0, getWidth() - barWidth), height = Math.max(0, getHeight() - barHeight);
+        canvas.setWidth(width);
+        canvas.setHeight(height);
+        canvas.relocate(0, 0);
+        vertical.resizeRelocate(width, 0, barWidth, height);
+        horizontal.resizeRelocate(0, height, width, barHeight);
+        updateScrollBars();
+        draw();
+    }
+
+    private void updateScrollBars() {
+        int visible = visibleLines();
+        vertical.setMax(Math.max(0, buffer.getLineCount() - visible + 1));
+        vertical.setVisibleAmount(Math.max(1, visible));
+        vertical.setBlockIncrement(Math.max(1, visible - 1));
+        vertical.setUnitIncrement(3);
+
+        double textWidth = canvas.getWidth() - gutterWidth();
+        horizontal.setMax(Math.max(0, longestLine * charWidth + 2 * PADDING - textWidth));
+        horizontal.setVisibleAmount(Math.max(1, textWidth));
+        horizontal.setBlockIncrement(Math.max(1, textWidth - charWidth));
+        horizontal.setUnitIncrement(charWidth * 4);
+    }
+
+    private int visibleLines() {
+        return (int) (canvas.getHeight() / lineHeight);
+    }
+
+    private int firstLine() {
+        return (int) vertical.getValue();
+    }
+
+    private double gutterWidth() {
+        return (String.valueOf(buffer.getPhysicalLineCount()).length() + 1) * charWidth + 2 * PADDING;
+    }
+
+    /// DRAWING ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Draws the visible lines
+     */
+    private void draw() {
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        double width = canvas.getWidth(), height = canvas.getHeight();
+        gc.setFill(BACKGROUND);
+        gc.fillRect(0, 0, width, height);
+        gc.setFont(FONT);
+        gc.setTextBaseline(VPos.TOP);
+
+        double gutter = gutterWidth(), scroll = horizontal.getValue();
+        int firstColumn = (int) (scroll / charWidth);
+        int lastColumn = firstColumn + (int) ((width - gutter) / charWidth) + 2;
+        double textX = gutter + PADDING + firstColumn * charWidth - scroll;
+        int selectionStart = Math.min(anchor, caret), selectionEnd = Math.max(anchor, caret);
+
+        int first = firstLine(), last = Math.min(buffer.getLineCount(), first + visibleLines() + 1);
+        for (int line = first; line < last; line++) {
+            double y = (line - first) * lineHeight;
+            int start = buffer.getLineStart(line), end = buffer.getLineEnd(line);
+            // a tab takes at least one column, so the matches further right aren't visible
+            for (int k = firstMatchEndingAfter(start); k < matchCount && matches[k * 2] <= end
+                    && matches[k * 2] - start < lastColumn; k++)
+                fillRange(gc, line, matches[k * 2], matches[k * 2 + 1], y, MATCH);
+            if (selectionStart < selectionEnd) fillRange(gc, line, selectionStart, selectionEnd, y, SELECTION);
+            drawLine(gc, line, firstColumn, lastColumn, textX, y);
+        }
+
+        if (isFocused()) {
+            int line = buffer.getLineOfOffset(caret);
+            if (line >= first && line < last) {
+                double x = gutter + PADDING + column(line, caret) * charWidth - scroll;
+                if (x >= gutter) {
+                    gc.setStroke(TEXT);
+                    gc.strokeLine(x + 0.5, (line - first) * lineHeight, x + 0.5, (line - first + 1) * lineHeight);
+                }
+            }
+        }
+
+        gc.setFill(GUTTER);
+        gc.fillRect(0, 0, gutter, height);
+        gc.setFill(LINE_NUMBER);
+        for (int line = first; line < last; line++) {
+            if (buffer.isSegment(line)) continue;
+            String number = String.valueOf(buffer.getPhysicalLine(line) + 1);
+            gc.fillText(number, gutter - PADDING - number.length() * charWidth,
+                    (line - first) * lineHeight);
+        }
+    }
+
+    /**
+     * Fills the background of the part of a range that's on a line,
+     * including the line break if the range continues on the next line
+     */
+    private void fillRange(GraphicsContext gc, int line, int rangeStart, int rangeEnd, double y, Color color) {
+        int start = buffer.getLineStart(line), end = buffer.getLineEnd(line);
+        if (rangeStart > end || rangeEnd <= start) return;
+        double gutter = gutterWidth(), scroll = horizontal.getValue();
+        double from = column(line, Math.max(rangeStart, start)),
+                to = column(line, Math.min(rangeEnd, end)) + (rangeEnd > end ? 1 : 0);
+        double x = gutter + PADDING + from * charWidth - scroll;
+        gc.setFill(color);
+        gc.fillRect(Math.max(gutter, x), y, gutter + PADDING + to * charWidth - scroll
+                - Math.max(gutter, x), lineHeight);
+    }
+
+    /**
+     * Draws the visible part of a line, coloured by token type
+     *
+     * @param gc          the canvas
+     * @param line        the zero-based line number
+     * @param firstColumn the first visible column
+     * @param lastColumn  the column after the last visible one
+     * @param x           where the first visible column starts
+     * @param y           the top of the line
+     */
+    private void drawLine(GraphicsContext gc, int line, int firstColumn, int lastColumn, double x, double y) {
+        // collect the visible characters, with the tabs expanded
+        String text = buffer.getText();
+        int end = buffer.getLineEnd(line), column = 0, count = 0, i = buffer.getLineStart(line);
+        if (visible.length < lastColumn - firstColumn) {
+            visible = new char[lastColumn - firstColumn];
+            offsets = new int[lastColumn - firstColumn];
+        }
+        for (; i < end && column < lastColumn; i++) {
+            char c = text.charAt(i);
+            int next = c == '\t' ? (column / TAB_SIZE + 1) * TAB_SIZE : column + 1;
+            for (int col = Math.max(column, firstColumn); col < next && col < lastColumn; col++) {
+                visible[count] = c == '\t' ? ' ' : c;
+                offsets[count++] = i;
+            }
+            column = next;
+        }
+        if (count == 0) return;
+        if (!highlighting) {
+            gc.setFill(TEXT);
+            gc.fillText(new String(visible, 0, count), x, y);
+            return;
+        }
+
+        // draw runs of the same token type
+        spanCount = 0;
+        lexer.tokens(line, i, spanCollector);
+        int span = 0, runStart = 0, runType = -1;
+        for (int k = 0; k <= count; k++) {
+            int type = 0;
+            if (k < count) {
+                while (span < spanCount && spans[span * 3 + 1] <= offsets[k]) span++;
+                if (span < spanCount && spans[span * 3] <= offsets[k]) type = spans[span * 3 + 2];
+            }
+            if (k < count && type == runType) continue;
+            if (k > runStart) {
+                gc.setFill(PALETTE[runType]);
+                gc.fillText(new String(visible, runStart, k - runStart), x + runStart * charWidth, y);
+            }
+            runStart = k;
+            runType = type;
+        }
+    }
+
+    /**
+     * Collects the token spans of the drawn line
+     */
+    private void addSpan(int start, int end, int type) {
+        if (spanCount * 3 == spans.length) spans = Arrays.copyOf(spans, spans.length * 2);
+        spans[spanCount * 3] = start;
+        spans[spanCount * 3 + 1] = end;
+        spans[spanCount * 3 + 2] = type;
+        spanCount++;
+    }
+
+    /**
+     * Turns syntax highlighting on or off
+     *
+     * @param highlighting <code>true</code> to colour the HTML tokens
+     */
+    public void setHighlighting(boolean highlighting) {
+        this.highlighting = highlighting;
+        draw();
+    }
+
+    /**
+     * Returns the column of an offset in a line, counting tabs as
+     * reaching the next tab stop
+     */
+    private int column(int line, int offset) {
+        String text = buffer.getText();
+        int column = 0;
+        for (int i = buffer.getLineStart(line); i < offset; i++)
+            column = text.charAt(i) == '\t' ? (column / TAB_SIZE + 1) * TAB_SIZE : column + 1;
+        return column;
+    }
+
+    /**
+     * Returns the offset closest to a column in a line
+     */
+    private int offsetAtColumn(int line, int column) {
+        String text = buffer.getText();
+        int end = buffer.getLineEnd(line), current = 0, i = buffer.getLineStart(line);
+        for (; i < end; i++) {
+            int next = text.charAt(i) == '\t' ? (current / TAB_SIZE + 1) * TAB_SIZE : current + 1;
+            if (column < next && column - current <= next - column) break;
+            if (column < next) return i + 1;
+            current = next;
+        }
+        return i;
+    }
+
+    /// INPUT /////////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Returns the offset under a point of the canvas
+     */
+    private int offsetAt(double x, double y) {
+        int line = firstLine() + (int) Math.floor(y / lineHeight);
+        if (line < 0) return 0;
+        if (line >= buffer.getLineCount()) return buffer.length();
+        double textX = x - gutterWidth() - PADDING + horizontal.getValue();
+        return offsetAtColumn(line, (int) Math.max(0, Math.round(textX / charWidth)));
+    }
+
+    private void mousePressed(MouseEvent e) {
+        requestFocus();
+        int offset = offsetAt(e.getX(), e.getY());
+        preferredColumn = -1;
+        if (e.getClickCount() == 3) {
+            int line = buffer.getPhysicalLine(buffer.getLineOfOffset(offset));
+            anchor = buffer.getLineStart(buffer.getLineOfPhysicalLine(line));
+            caret = line + 1 < buffer.getPhysicalLineCount()
+                    ? buffer.getLineStart(buffer.getLineOfPhysicalLine(line + 1)) : buffer.length();
+        } else if (e.getClickCount() == 2) {
+            selectWord(offset);
+        } else {
+            caret = offset;
+            if (!e.isShiftDown()) anchor = offset;
+        }
+        draw();
+    }
+
+    private void mouseDragged(MouseEvent e) {
+        // scroll while dragging outside the text
+        if (e.getY() < 0) vertical.setValue(Math.max(0, vertical.getValue() - 1));
+        else if (e.getY() > canvas.getHeight())
+            vertical.setValue(Math.min(vertical.getMax(), vertical.getValue() + 1));
+        caret = offsetAt(e.getX(), Math.max(0, Math.min(canvas.getHeight() - 1, e.getY())));
+        draw();
+    }
+
+    private void selectWord(int offset) {
+        String text = buffer.getText();
+        int start = offset, end = offset;
+        while (start > 0 && Character.isLetterOrDigit(text.charAt(start - 1))) start--;
+        while (end < text.length() && Character.isLetterOrDigit(text.charAt(end))) end++;
+        anchor = start;
+        caret = end;
+    }
+
+    private void scrolled(ScrollEvent e) {
+        vertical.setValue(Math.max(0, Math.min(vertical.getMax(),
+                vertical.getValue() - e.getDeltaY() / lineHeight)));
+        horizontal.setValue(Math.max(0, Math.min(horizontal.getMax(),
+                horizontal.getValue() - e.getDeltaX())));
+        e.consume();
+    }
+
+    private void keyPressed(KeyEvent e) {
+        boolean shortcut = e.isShortcutDown();
+        if (shortcut && e.getCode() == KeyCode.A) selectAll();
+        else if (shortcut && (e.getCode() == KeyCode.C || e.getCode() == KeyCode.INSERT)) copy();
+        else if (!moveCaret(e.getCode(), shortcut, e.isShiftDown())) return;
+        e.consume();
+    }
+
+    /**
+     * Moves the caret with a navigation key
+     *
+     * @return <code>false</code> if it's not a navigation key
+     */
+    private boolean moveCaret(KeyCode code, boolean shortcut, boolean select) {
+        int line = buffer.getLineOfOffset(caret), target;
+        int column = preferredColumn >= 0 ? preferredColumn : column(line, caret);
+        boolean vertical = false;
+        switch (code) {
+            case LEFT:
+                target = Math.max(0, caret - 1);
+                break;
+            case RIGHT:
+                target = Math.min(buffer.length(), caret + 1);
+                break;
+            case UP:
+                target = line == 0 ? 0 : offsetAtColumn(line - 1, column);
+                vertical = true;
+                break;
+            case DOWN:
+                target = line + 1 >= buffer.getLineCount() ? buffer.length()
+                        : offsetAtColumn(line + 1, column);
+                vertical = true;
+                break;
+            case PAGE_UP:
+                target = offsetAtColumn(Math.max(0, line - visibleLines()), column);
+                vertical = true;
+                break;
+            case PAGE_DOWN:
+                target = offsetAtColumn(Math.min(buffer.getLineCount() - 1, line + visibleLines()), column);
+                vertical = true;
+                break;
+            case HOME:
+                target = shortcut ? 0 : buffer.getLineStart(line);
+                break;
+            case END:
+                target = shortcut ? buffer.length() : buffer.getLineEnd(line);
+                break;
+            default:
+                return false;
+        }
+        preferredColumn = vertical ? column : -1;
+        caret = target;
+        if (!select) anchor = target;
+        scrollToCaret();
+        draw();
+        return true;
+    }
+
+    /**
+     * Scrolls the caret into view
+     */
+    private void scrollToCaret() {
+        int line = buffer.getLineOfOffset(caret), first = firstLine(), visible = Math.max(1, visibleLines());
+        if (line < first) vertical.setValue(line);
+        else if (line >= first + visible) vertical.setValue(line - visible + 1);
+
+        double x = column(line, caret) * charWidth, textWidth = canvas.getWidth() - gutterWidth() - 2 * PADDING;
+        if (x < horizontal.getValue()) horizontal.setValue(Math.max(0, x - textWidth / 2));
+        else if (x > horizontal.getValue() + textWidth)
+            horizontal.setValue(Math.min(horizontal.getMax(), x - textWidth / 2));
+    }
+}
@@ -0,0 +1,140 @@
+package editor;
+
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
+import javafx.geometry.Insets;
+import javafx.scene.control.Label;
+import javafx.scene.control.Tooltip;
+import javafx.scene.layout.HBox;
+import javafx.util.Duration;
+import util.DocumentStatistics;
+import util.ImageEmbedder;
+
+import java.util.function.Supplier;
+
+/**
+ * Shows the word, character, tag, image and embedded byte counts of the
+ * document below the editor. A snapshot of the document is taken once
+ * the user stops typing for a moment (or every {@link #MAX_INTERVAL}
+ * while typing continues) and counted on a background thread, where only
+ * the changed parts are counted again. The snapshot only serialises the
+ * blocks the edits touched (see {@link ChangeTracker#snapshot()}), so
+ * taking it doesn't stall the editor on large documents.
+ */
+public class StatisticsBar extends HBox {
+
+    /**
+     * The time the document has to stay unchanged before it's counted
+     */
+    private static final Duration INTERVAL = Duration.seconds(1);
+
+    /**
+     * The longest time changes stay uncounted while typing continues, in
+     * nanoseconds
+     */
+    private static final long MAX_INTERVAL = 10_000_000_000L;
+
+    private final DocumentStatistics statistics =
+            new DocumentStatistics(counts -> Platform.runLater(() -> show(counts)));
+    private final Label words = new Label(), characters = new Label(), tags = new Label(),
+            images = new Label(), embedded = new Label();
+    private final PauseTransition throttle = new PauseTransition(INTERVAL);
+    private final Runnable changeListener = this::changed;
+
+    private ChangeTracker tracker;
+    private Supplier<String> html;
+    private boolean loading, waiting;
+    private long countedVersion = -1, firstChange;
+
+    /**
+     * Constructs a new StatisticsBar instance
+     */
+    public StatisticsBar() {
+        characters.setTooltip(new Tooltip("Visible characters, without whitespace"));
+        embedded.setTooltip(new Tooltip("The size of the images and other files embedded in the document"));
+        getChildren().addAll(words, characters, tags, images, embedded);
+        setSpacing(16);
+        setPadding(new Insets(2, 8, 2, 8));
+        throttle.setOnFinished(e -> count());
+        show(DocumentStatistics.Counts.EMPTY);
+    }
+
+    /**
+     * Starts counting the document whenever it changes
+     *
+     * @param tracker reports the changes of the document
+     * @param html    takes a snapshot of the document, called on the
+     *                application thread
+     */
+    public void follow(ChangeTracker tracker, Supplier<String> html) {
+        stop();
+        this.tracker = tracker;
+        this.html = html;
+        tracker.addListener(changeListener);
+    }
+
+    /**
+     * Stops following the document
+     */
+    public void stop() {
+        throttle.stop();
+        waiting = false;
+        if (tracker != null) tracker.removeListener(changeListener);
+        tracker = null;
+    }
+
+    /**
+     * Counts a document that's being loaded into the editor, so it
+     * doesn't have to be serialised once it's displayed
+     *
+     * @param text the document
+     */
+    public void documentLoaded(String text) {
+        throttle.stop();
+        waiting = false;
+        loading = true;     // the next change notification is the load
+        statistics.submit(text);
+    }
+
+    /**
+     * @return the counting engine
+     */
+    public DocumentStatistics getStatistics() {
+        return statistics;
+    }
+
+    private void changed() {
+        if (loading) {
+            loading = false;
+            countedVersion = tracker.getVersion();
+            return;
+        }
+        long now = System.nanoTime();
+        if (!waiting) {
+            waiting = true;
+            firstChange = now;
+        }
+        if (now - firstChange > MAX_INTERVAL) count();
+        else throttle.playFromStart();
+    }
+
+    /**
+     * Passes a snapshot of the document to the counting engine, unless
+     * it didn't change since the last one
+     */
+    private void count() {
+        throttle.stop();
+        waiting = false;
+        if (tracker == null || tracker.getVersion() == countedVersion) return;
+        countedVersion = tracker.getVersion();
+        statistics.submit(html.get());
+    }
+
+    private void show(DocumentStatistics.Counts counts) {
+        words.setText(String.format("%,d words", counts.getWords()));
+        characters.setText(String.format("%,d characters", counts.getCharacters()));
+        tags.setText(String.format("%,d tags", counts.getTags()));
+        images.setText(String.format("%,d images", counts.getImages()));
+        embedded.setText(ImageEmbedder.formatSize(counts.getEmbeddedBytes()) + " embedded");
+    }
+}
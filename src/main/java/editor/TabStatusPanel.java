@@ -0,0 +1,88 @@
+package editor;
+
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.beans.property.ReadOnlyStringWrapper;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.geometry.Insets;
+import javafx.scene.control.Label;
+import javafx.scene.control.TableColumn;
+import javafx.scene.control.TableView;
+import javafx.scene.layout.BorderPane;
+import javafx.util.Duration;
+import util.DocumentTabs;
+import util.ImageEmbedder;
+import util.LatencyStats;
+
+import java.util.function.Function;
+
+/**
+ * Lists the open tabs with the memory their documents take and how long
+ * it took to read the evicted ones back, refreshed every second while
+ * it's displayed
+ */
+public class TabStatusPanel extends BorderPane {
+
+    private final DocumentTabs tabs;
+    private final ObservableList<DocumentTabs.Tab> rows = FXCollections.observableArrayList();
+    private final TableView<DocumentTabs.Tab> table = new TableView<>(rows);
+    private final Label summary = new Label();
+    private final Timeline refresher = new Timeline(new KeyFrame(Duration.seconds(1), e -> refresh()));
+
+    /**
+     * Constructs a new TabStatusPanel instance
+     *
+     * @param tabs the open tabs
+     */
+    public TabStatusPanel(DocumentTabs tabs) {
+        this.tabs = tabs;
+
+        table.getColumns().add(column("Document", 200, t -> t.getName() + (t.isModified() ? " *" : "")));
+        table.getColumns().add(column("State", 90, t -> t.getState().toString().toLowerCase()));
+        table.getColumns().add(column("Memory", 90, t -> ImageEmbedder.formatSize(t.getBytes())));
+        table.getColumns().add(column("Evictions", 70, t -> String.valueOf(t.getEvictions())));
+        table.getColumns().add(column("Rehydration", 170, t -> {
+            LatencyStats stats = t.getRehydration();
+            return stats.getCount() == 0 ? "-" : String.format("%.1f ms avg, %.1f ms max",
+                    stats.getAverageMillis(), stats.getMaxMillis());
+        }));
+        table.setPlaceholder(new Label("No open tabs"));
+
+        setTop(summary);
+        setCenter(table);
+        setPadding(new Insets(10));
+        setMargin(table, new Insets(10, 0, 0, 0));
+        refresher.setCycleCount(Timeline.INDEFINITE);
+        refresh();
+    }
+
+    private static TableColumn<DocumentTabs.Tab, String> column(
+            String name, double width, Function<DocumentTabs.Tab, String> value) {
+        TableColumn<DocumentTabs.Tab, String> column = new TableColumn<>(name);
+        column.setCellValueFactory(c -> new ReadOnlyStringWrapper(value.apply(c.getValue())));
+        column.setPrefWidth(width);
+        return column;
+    }
+
+    /**
+     * Starts refreshing the list every second
+     */
+    public void start() {
+        refresher.play();
+    }
+
+    /**
+     * Stops refreshing the list
+     */
+    public void stop() {
+        refresher.stop();
+    }
+
+    private void refresh() {
+        rows.setAll(tabs.getTabs());
+        table.refresh();
+        summary.setText(String.format("%d tabs, %s of %s in memory", rows.size(),
+                ImageEmbedder.formatSize(tabs.getBytes()), ImageEmbedder.formatSize(tabs.getBudget())));
+    }
+}
@@ -0,0 +1,51 @@
+package util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Supplier;
+
+/**
+ * A registry of runtime statistics reported by the background
+ * subsystems, displayed in the Diagnostics window
+ */
+public final class Diagnostics {
+
+    /**
+     * Non-instantiable
+     */
+    private Diagnostics() {
+    }
+
+    /**
+     * The registered report sections, sorted by name
+     */
+    private static final Map<String, Supplier<String>> sections = new ConcurrentSkipListMap<>();
+
+    /**
+     * Registers a report section, replacing any existing section with
+     * the same name
+     *
+     * @param name   the section name
+     * @param report produces the section text, called every time the
+     *               report is displayed
+     */
+    public static void register(String name, Supplier<String> report) {
+        sections.put(name, report);
+    }
+
+    /**
+     * Builds the full report
+     *
+     * @return the report text
+     */
+    public static String report() {
+        StringBuilder sb = new StringBuilder();
+        sections.forEach((name, report) -> {
+            sb.append(name).append('\n');
+            for (String line : report.get().split("\n"))
+                sb.append("    ").append(line).append('\n');
+            sb.append('\n');
+        });
+        return sb.length() == 0 ? "No statistics collected yet." : sb.toString();
+    }
+}
@@ -1,12 +1,17 @@
 package util;
 
+import javafx.animation.PauseTransition;
+import javafx.concurrent.Worker;
 import javafx.scene.control.Alert;
 import javafx.scene.control.ButtonType;
+import javafx.scene.control.Dialog;
 import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.TextArea;
 import javafx.scene.control.TextInputDialog;
 import javafx.scene.layout.GridPane;
 import javafx.scene.layout.Priority;
+import javafx.util.Duration;
 
 import java.util.Optional;
 
@@ -69,6 +74,68 @@ public final class Dialogs {
         return input.getResult();
     }
 
+    /**
+     * Displays a dialog with this (read-only) text in a scrollable box
+     *
+     * @param caption the title bar text
+     * @param header  the dialog box header text
+     * @param text    the text to display
+     */
+    public static void textDialog(String caption, String header, String text) {
+        Alert alert = new Alert(Alert.AlertType.INFORMATION);
+        alert.setTitle(caption);
+        alert.setHeaderText(header);
+
+        TextArea area = new TextArea(text);
+        area.setEditable(false);
+        area.setPrefSize(560, 360);
+        alert.getDialogPane().setContent(area);
+        alert.setResizable(true);
+        alert.showAndWait();
+    }
+
+    /**
+     * Displays a non-blocking progress dialog for this background task
+     * with a Cancel button. The dialog only appears if the task is still
+     * running after a short delay and closes itself once it's done.
+     *
+     * @param caption the title bar text
+     * @param header  the dialog box header text
+     * @param task    the task to track
+     */
+    public static void progressDialog(String caption, String header, Worker<?> task) {
+        Dialog<Void> dialog = new Dialog<>();
+        dialog.setTitle(caption);
+        dialog.setHeaderText(header);
+        dialog.getDialogPane().getButtonTypes().add(ButtonType.CANCEL);
+
+        ProgressBar bar = new ProgressBar();
+        bar.setPrefWidth(320);
+        bar.progressProperty().bind(task.progressProperty());
+        Label message = new Label();
+        message.textProperty().bind(task.messageProperty());
+        GridPane content = new GridPane();
+        content.setVgap(10);
+        content.add(message, 0, 0);
+        content.add(bar, 0, 1);
+        dialog.getDialogPane().setContent(content);
+
+        // closing the dialog while the task is still running cancels it
+        dialog.setOnHidden(e -> {
+            if (task.isRunning()) task.cancel();
+        });
+        task.runningProperty().addListener((obs, oldVal, newVal) -> {
+            if (!newVal && dialog.isShowing()) dialog.close();
+        });
+
+        // don't flash the dialog for quick tasks
+        PauseTransition delay = new PauseTransition(Duration.millis(400));
+        delay.setOnFinished(e -> {
+            if (task.getState() == Worker.State.READY || task.isRunning()) dialog.show();
+        });
+        delay.play();
+    }
+
     /**
      * Displays a generic error dialog with a Details sub pane containing
      * exception stacktrace.
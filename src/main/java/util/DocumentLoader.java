@@ -0,0 +1,282 @@
+package util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads documents from disk through a FileChannel. Small files are read
+ * through a heap buffer, large ones are memory-mapped in windows. The
+ * file is decoded in a single pass and the original line endings are
+ * kept.
+ * <p>
+ * Contains no JavaFX code so it can be used from headless tools.
+ */
+public final class DocumentLoader {
+
+    /**
+     * Non-instantiable
+     */
+    private DocumentLoader() {
+    }
+
+    /**
+     * Files of this size (in bytes) or larger are memory-mapped
+     */
+    public static final long MAP_THRESHOLD = 8L << 20;
+
+    /**
+     * The size of a single mapped window
+     */
+    private static final int MAP_WINDOW = 64 << 20;
+
+    /**
+     * The size of the read buffer used for smaller files
+     */
+    private static final int READ_BUFFER = 256 << 10;
+
+    /**
+     * The size of the decoded character buffer
+     */
+    private static final int CHAR_BUFFER = 128 << 10;
+
+    /**
+     * The number of leading bytes searched for a charset declaration
+     */
+    private static final int SNIFF_LENGTH = 1024;
+
+    /**
+     * Matches <code>charset=...</code> in meta tags and
+     * <code>encoding="..."</code> in XML declarations
+     */
+    private static final Pattern CHARSET_DECLARATION = Pattern.compile(
+            "(?i)(?:charset\\s*=\\s*[\"']?|encoding\\s*=\\s*[\"'])([\\w.:-]+)");
+
+    /**
+     * Receives progress updates while a file is being loaded
+     */
+    public interface ProgressListener {
+
+        /**
+         * Called after each chunk of the file has been decoded
+         *
+         * @param bytesRead  the number of bytes processed so far
+         * @param totalBytes the file size
+         */
+        void progress(long bytesRead, long totalBytes);
+    }
+
+    /**
+     * Loads this file
+     *
+     * @param path the file to load
+     * @return the loaded document
+     * @throws IOException on read errors
+     */
+    public static LoadedDocument load(Path path) throws IOException {
+        return load(path, null, null);
+    }
+
+    /**
+     * Loads this file, reporting progress and checking for cancellation
+     * after each chunk
+     *
+     * @param path      the file to load
+     * @param listener  the progress listener or <code>null</code>
+     * @param cancelled returns <code>true</code> when loading should be
+     *                  abandoned, may be <code>null</code>
+     * @return the loaded document
+     * @throws IOException           on read errors
+     * @throws CancellationException if loading was cancelled or the
+     *                               thread was interrupted
+     */
+    public static LoadedDocument load(Path path, ProgressListener listener,
+                                      BooleanSupplier cancelled) throws IOException {
+        return load(path, null, listener, cancelled);
+    }
+
+    /**
+     * Loads this file with a known charset, such as the one sent by a web
+     * server. A byte order mark still takes precedence.
+     *
+     * @param path      the file to load
+     * @param charset   the charset of the file or <code>null</code> to
+     *                  use the one declared in the document
+     * @param listener  the progress listener or <code>null</code>
+     * @param cancelled returns <code>true</code> when loading should be
+     *                  abandoned, may be <code>null</code>
+     * @return the loaded document
+     * @throws IOException           on read errors
+     * @throws CancellationException if loading was cancelled or the
+     *                               thread was interrupted
+     */
+    public static LoadedDocument load(Path path, Charset charset, ProgressListener listener,
+                                      BooleanSupplier cancelled) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer head = ByteBuffer.allocate((int) Math.min(size, SNIFF_LENGTH));
+            while (head.hasRemaining())
+                if (channel.read(head, head.position()) < 0) break;
+            head.flip();
+
+            int bomLength = bomLength(head);
+            if (bomLength > 0) charset = bomCharset(head);
+            else if (charset == null) charset = declaredCharset(head);
+            try {
+                String text = decode(channel, size, bomLength, charset, listener, cancelled);
+                return new LoadedDocument(text, charset, bomLength > 0, size);
+            } catch (CharacterCodingException e) {
+                // not what it claims to be, fall back to a charset that
+                // maps every byte so the content survives a round trip
+                String text = decode(channel, size, bomLength,
+                        StandardCharsets.ISO_8859_1, listener, cancelled);
+                return new LoadedDocument(text, StandardCharsets.ISO_8859_1, bomLength > 0, size);
+            }
+        } catch (ClosedByInterruptException e) {
+            throw new CancellationException("Loading " + path + " was interrupted");
+        }
+    }
+
+    /**
+     * Decodes the file from this offset on
+     */
+    private static String decode(FileChannel channel, long size, long offset, Charset charset,
+                                 ProgressListener listener, BooleanSupplier cancelled)
+            throws IOException {
+        if ((size - offset) * charset.newDecoder().maxCharsPerByte() > Integer.MAX_VALUE - 8)
+            throw new IOException("The file is too large to be loaded (" + size + " bytes)");
+
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        StringBuilder out = new StringBuilder((int) Math.min(Integer.MAX_VALUE - 8,
+                (long) ((size - offset) * decoder.averageCharsPerByte()) + 16));
+        CharBuffer chars = CharBuffer.allocate(CHAR_BUFFER);
+
+        long position = offset;
+        if (size >= MAP_THRESHOLD) {
+            while (position < size) {
+                checkCancelled(cancelled);
+                ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY,
+                        position, Math.min(MAP_WINDOW, size - position));
+                boolean last = position + window.capacity() >= size;
+                decodeChunk(decoder, window, chars, out, last);
+                // a character split across the window boundary is left
+                // unconsumed and decoded again at the start of the next one
+                position += window.position();
+                if (listener != null) listener.progress(position, size);
+                if (!last && window.position() == 0)
+                    throw new IOException("Could not decode " + charset + " input at " + position);
+            }
+        } else {
+            ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER);
+            channel.position(offset);
+            boolean eof = false;
+            while (!eof) {
+                checkCancelled(cancelled);
+                eof = channel.read(buffer) < 0;
+                buffer.flip();
+                decodeChunk(decoder, buffer, chars, out, eof);
+                position += buffer.position();
+                buffer.compact();
+                if (listener != null) listener.progress(position, size);
+            }
+        }
+
+        CoderResult result = decoder.flush(chars);
+        if (result.isError()) result.throwException();
+        drain(chars, out);
+        return out.toString();
+    }
+
+    /**
+     * Decodes as much of this byte buffer as possible into the output
+     */
+    private static void decodeChunk(CharsetDecoder decoder, ByteBuffer in, CharBuffer chars,
+                                    StringBuilder out, boolean endOfInput)
+            throws CharacterCodingException {
+        while (true) {
+            CoderResult result = decoder.decode(in, chars, endOfInput);
+            if (result.isError()) result.throwException();
+            if (result.isOverflow()) drain(chars, out);
+            else break;    // underflow, more input is needed
+        }
+        drain(chars, out);
+    }
+
+    /**
+     * Appends the decoded characters to the output and clears the buffer
+     */
+    private static void drain(CharBuffer chars, StringBuilder out) {
+        chars.flip();
+        out.append(chars);
+        chars.clear();
+    }
+
+    /**
+     * Throws CancellationException if loading should stop
+     */
+    private static void checkCancelled(BooleanSupplier cancelled) {
+        if (Thread.currentThread().isInterrupted()
+                || (cancelled != null && cancelled.getAsBoolean()))
+            throw new CancellationException("Loading was cancelled");
+    }
+
+    /**
+     * Returns the length of the byte order mark at the start of this
+     * buffer, or 0 if there isn't one
+     */
+    private static int bomLength(ByteBuffer head) {
+        if (head.remaining() >= 3 && (head.get(0) & 0xFF) == 0xEF
+                && (head.get(1) & 0xFF) == 0xBB && (head.get(2) & 0xFF) == 0xBF)
+            return 3;
+        if (head.remaining() >= 2) {
+            int first = head.get(0) & 0xFF, second = head.get(1) & 0xFF;
+            if ((first == 0xFE && second == 0xFF) || (first == 0xFF && second == 0xFE))
+                return 2;
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the charset indicated by the byte order mark
+     */
+    private static Charset bomCharset(ByteBuffer head) {
+        switch (head.get(0) & 0xFF) {
+            case 0xFE:
+                return StandardCharsets.UTF_16BE;
+            case 0xFF:
+                return StandardCharsets.UTF_16LE;
+            default:
+                return StandardCharsets.UTF_8;
+        }
+    }
+
+    /**
+     * Returns the charset declared in the document head, or UTF-8 if
+     * there is no (supported) declaration
+     */
+    private static Charset declaredCharset(ByteBuffer head) {
+        Matcher m = CHARSET_DECLARATION.matcher(StandardCharsets.ISO_8859_1.decode(head.duplicate()));
+        if (m.find()) {
+            try {
+                if (Charset.isSupported(m.group(1))) return Charset.forName(m.group(1));
+            } catch (IllegalArgumentException ignored) { }
+        }
+        return StandardCharsets.UTF_8;
+    }
+}
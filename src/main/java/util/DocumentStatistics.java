@@ -0,0 +1,500 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Counts the words, characters, tags, images and embedded bytes of an
+ * HTML document and keeps the counts up to date as the document changes.
+ * <p>
+ * The document is split into segments of about {@link #SEGMENT_SIZE}
+ * characters, cut between tags or at whitespace, and the counts of each
+ * segment are kept. A new version of the document is compared with the
+ * previous one and only the segments touched by the change are counted
+ * again, along with the following ones until the segment boundaries
+ * line up again (an opened comment, for example, swallows everything
+ * after it). The totals are then summed from the segments.
+ * <p>
+ * Words are runs of visible characters that aren't whitespace, inline
+ * tags don't separate them but block tags do. The characters don't
+ * include whitespace, an entity is one character. Embedded bytes are
+ * the decoded size of the <code>data:</code> URIs in tags and style
+ * sheets. The text of scripts, style sheets, comments and the title
+ * isn't counted.
+ * <p>
+ * Snapshots passed to {@link #submit(String)} are counted on a
+ * background thread; when several arrive while one is being counted,
+ * only the newest one is. Contains no JavaFX code so it can be used
+ * from headless tools.
+ */
+public final class DocumentStatistics {
+
+    /**
+     * The length after which a segment is cut at the next tag or
+     * whitespace
+     */
+    static final int SEGMENT_SIZE = 4096;
+
+    /**
+     * Elements that separate words
+     */
+    private static final Set<String> BREAKS = Set.of("address", "article", "aside", "blockquote",
+            "body", "br", "caption", "center", "dd", "details", "div", "dl", "dt", "figcaption",
+            "figure", "footer", "form", "h1", "h2", "h3", "h4", "h5", "h6", "head", "header", "hr",
+            "html", "li", "main", "nav", "ol", "p", "pre", "section", "summary", "table", "tbody",
+            "td", "tfoot", "th", "thead", "tr", "ul");
+
+    /**
+     * Elements whose content isn't counted
+     */
+    private static final Set<String> SKIPPED = Set.of("script", "style", "title");
+
+    /**
+     * Counts the submitted snapshots
+     */
+    private static final ExecutorService counter =
+            Executors.newSingleThreadExecutor(Threads.daemonFactory("statistics"));
+
+    /**
+     * The counts of a document
+     */
+    public static final class Counts {
+
+        /**
+         * The counts of an empty document
+         */
+        public static final Counts EMPTY = new Counts(0, 0, 0, 0, 0);
+
+        private final long words, characters, tags, images, embeddedBytes;
+
+        private Counts(long words, long characters, long tags, long images, long embeddedBytes) {
+            this.words = words;
+            this.characters = characters;
+            this.tags = tags;
+            this.images = images;
+            this.embeddedBytes = embeddedBytes;
+        }
+
+        /**
+         * @return the number of words
+         */
+        public long getWords() {
+            return words;
+        }
+
+        /**
+         * @return the number of visible characters, without whitespace
+         */
+        public long getCharacters() {
+            return characters;
+        }
+
+        /**
+         * @return the number of elements (start tags)
+         */
+        public long getTags() {
+            return tags;
+        }
+
+        /**
+         * @return the number of <code>img</code> elements
+         */
+        public long getImages() {
+            return images;
+        }
+
+        /**
+         * @return the decoded size of the embedded <code>data:</code> URIs
+         * in bytes
+         */
+        public long getEmbeddedBytes() {
+            return embeddedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d words, %d characters, %d tags, %d images, %s embedded",
+                    words, characters, tags, images, ImageEmbedder.formatSize(embeddedBytes));
+        }
+    }
+
+    /**
+     * The counts of a part of the document
+     */
+    private static final class Segment {
+        int length;
+        long words, characters, tags, images, embeddedBytes;
+        boolean seen;           // found a character or a word break
+        boolean startsInWord;   // the first of them was a character, which may continue a word
+        boolean inWord;         // the last of them was a character
+    }
+
+    private final Consumer<Counts> listener;
+    private final Object countLock = new Object();
+
+    // the last counted document, guarded by countLock
+    private String text = "";
+    private List<Segment> segments = new ArrayList<>();
+
+    private Counts counts = Counts.EMPTY;
+    private String pending;
+    private boolean scheduled;
+    private long updates, fullCounts, counted, total;
+    private final LatencyStats updateTime = new LatencyStats();
+
+    /**
+     * Constructs a new DocumentStatistics instance
+     *
+     * @param listener receives the counts of every counted snapshot, on a
+     *                 background thread
+     */
+    public DocumentStatistics(Consumer<Counts> listener) {
+        this.listener = listener;
+        Diagnostics.register("Statistics", this::getStatistics);
+    }
+
+    /**
+     * Counts a whole document at once, for headless tools
+     *
+     * @param html the document
+     * @return the counts
+     */
+    public static Counts count(String html) {
+        List<Segment> segments = new ArrayList<>();
+        Scanner scanner = new Scanner(html, 0);
+        while (scanner.pos < html.length()) {
+            scanner.step();
+            if (scanner.cuttable && scanner.pos - scanner.start >= SEGMENT_SIZE) segments.add(scanner.cut());
+        }
+        if (scanner.pos > scanner.start) segments.add(scanner.cut());
+        return sum(segments);
+    }
+
+    /**
+     * Queues a snapshot of the document to be counted in the background,
+     * replacing the one queued before if it wasn't counted yet
+     *
+     * @param html the document
+     */
+    public void submit(String html) {
+        synchronized (this) {
+            pending = html;
+            if (scheduled) return;
+            scheduled = true;
+        }
+        counter.execute(this::countPending);
+    }
+
+    /**
+     * Counts the queued snapshots until there are none left
+     */
+    private void countPending() {
+        while (true) {
+            String html;
+            synchronized (this) {
+                html = pending;
+                pending = null;
+                if (html == null) {
+                    scheduled = false;
+                    return;
+                }
+            }
+            listener.accept(update(html));
+        }
+    }
+
+    /**
+     * Counts a new version of the document, only counting the changed
+     * parts again
+     *
+     * @param html the document
+     * @return the counts
+     */
+    public Counts update(String html) {
+        synchronized (countLock) {
+            long start = System.nanoTime();
+            TextDiff diff = TextDiff.compute(text, html);
+            if (diff.isEmpty() && !segments.isEmpty()) return getCounts();
+
+            List<Segment> old = segments, result = new ArrayList<>(old.size() + 4);
+            int changeStart = diff.getStart(), oldChangeEnd = changeStart + diff.getRemoved();
+            int delta = html.length() - text.length();
+
+            // keep the segments before the change, the one touching it is counted again
+            int index = 0, offset = 0;
+            while (index < old.size() && offset + old.get(index).length < changeStart)
+                offset += old.get(index++).length;
+            result.addAll(old.subList(0, index));
+
+            // count until a boundary after the change is reached between tags, from
+            // there on everything is the same as before
+            Scanner scanner = new Scanner(html, offset);
+            int next = index, nextStart = offset;     // the next old boundary, in the old text
+            boolean synced = false;
+            while (scanner.pos < html.length()) {
+                scanner.step();
+                while (next < old.size() && nextStart + delta < scanner.pos)
+                    nextStart += old.get(next++).length;
+                if (next < old.size() && nextStart >= oldChangeEnd && nextStart + delta == scanner.pos) {
+                    synced = true;
+                    break;
+                }
+                if (scanner.cuttable && scanner.pos - scanner.start >= SEGMENT_SIZE) result.add(scanner.cut());
+            }
+            if (scanner.pos > scanner.start) result.add(scanner.cut());
+            if (synced) result.addAll(old.subList(next, old.size()));
+
+            text = html;
+            segments = result;
+            Counts sum = sum(result);
+            synchronized (this) {
+                counts = sum;
+                updates++;
+                if (offset == 0 && !synced) fullCounts++;
+                counted += scanner.pos - offset;
+                total += html.length();
+            }
+            updateTime.recordSince(start);
+            return sum;
+        }
+    }
+
+    /**
+     * Adds up the counts of the segments, joining the words split
+     * between them
+     */
+    private static Counts sum(List<Segment> segments) {
+        long words = 0, characters = 0, tags = 0, images = 0, embeddedBytes = 0;
+        boolean inWord = false;
+        for (Segment segment : segments) {
+            words += segment.words;
+            if (inWord && segment.startsInWord) words--;
+            if (segment.seen) inWord = segment.inWord;
+            characters += segment.characters;
+            tags += segment.tags;
+            images += segment.images;
+            embeddedBytes += segment.embeddedBytes;
+        }
+        return new Counts(words, characters, tags, images, embeddedBytes);
+    }
+
+    /**
+     * @return the counts of the last counted snapshot
+     */
+    public synchronized Counts getCounts() {
+        return counts;
+    }
+
+    /**
+     * @return a summary of the updates and how much of the documents was
+     * counted again
+     */
+    public synchronized String getStatistics() {
+        return "Counts: " + counts
+                + "\nUpdates: " + updates + ", full: " + fullCounts
+                + String.format(Locale.ROOT, ", %.1f%% of the text counted", total == 0 ? 0.0 : counted * 100.0 / total)
+                + "\nUpdate time: " + updateTime;
+    }
+
+    /// SCANNER /////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Counts a document from a segment boundary on, one character, entity,
+     * tag or comment at a time. Between the steps it's always outside of
+     * tags and comments.
+     */
+    private static final class Scanner {
+
+        private final String text;
+        private int start, pos;
+        private boolean cuttable;   // the last step ended a tag or was whitespace
+        private Segment segment = new Segment();
+
+        Scanner(String text, int from) {
+            this.text = text;
+            start = pos = from;
+        }
+
+        /**
+         * Ends the current segment at the current position
+         */
+        Segment cut() {
+            Segment done = segment;
+            done.length = pos - start;
+            segment = new Segment();
+            start = pos;
+            return done;
+        }
+
+        void step() {
+            int length = text.length();
+            char c = text.charAt(pos);
+            cuttable = false;
+            if (c == '<' && pos + 1 < length) {
+                char d = text.charAt(pos + 1);
+                if (d == '!' && text.startsWith("--", pos + 2)) {
+                    int end = text.indexOf("-->", pos + 4);
+                    pos = end < 0 ? length : end + 3;
+                    cuttable = true;
+                    return;
+                }
+                if (d == '/' && pos + 2 < length && isLetter(text.charAt(pos + 2))) {
+                    if (BREAKS.contains(tagName(pos + 2))) wordBreak();
+                    pos = tagEnd(pos + 2);
+                    cuttable = true;
+                    return;
+                }
+                if (isLetter(d)) {
+                    startTag();
+                    cuttable = true;
+                    return;
+                }
+                if (d == '!' || d == '?') {
+                    int end = text.indexOf('>', pos + 2);
+                    pos = end < 0 ? length : end + 1;
+                    cuttable = true;
+                    return;
+                }
+            }
+            if (c == '&') {
+                int end = entityEnd(pos + 1);
+                if (end > 0) {
+                    if (text.startsWith("&nbsp;", pos) || text.startsWith("&#160;", pos)
+                            || text.regionMatches(true, pos, "&#xa0;", 0, 6)) wordBreak();
+                    else character();
+                    pos = end;
+                    return;
+                }
+            }
+            if (Character.isWhitespace(c) || c == '\u00a0') {
+                wordBreak();
+                pos++;
+                cuttable = true;
+                return;
+            }
+            character();
+            pos += Character.isHighSurrogate(c) && pos + 1 < length
+                    && Character.isLowSurrogate(text.charAt(pos + 1)) ? 2 : 1;
+        }
+
+        private void character() {
+            segment.characters++;
+            if (!segment.inWord) {
+                segment.words++;
+                if (!segment.seen) segment.startsInWord = true;
+                segment.inWord = true;
+            }
+            segment.seen = true;
+        }
+
+        private void wordBreak() {
+            segment.inWord = false;
+            segment.seen = true;
+        }
+
+        /**
+         * Counts a start tag and skips it, along with the content of
+         * the elements that aren't counted
+         */
+        private void startTag() {
+            String name = tagName(pos + 1);
+            int end = tagEnd(pos + 1);
+            segment.tags++;
+            if (name.equals("img")) segment.images++;
+            segment.embeddedBytes += embeddedBytes(pos, end);
+            if (BREAKS.contains(name)) wordBreak();
+            pos = end;
+            if (!SKIPPED.contains(name) || text.charAt(end - 1) != '>' || text.charAt(end - 2) == '/') return;
+
+            int close = end;
+            while ((close = text.indexOf("</", close)) >= 0) {
+                int after = close + 2 + name.length();
+                if (text.regionMatches(true, close + 2, name, 0, name.length())
+                        && (after >= text.length() || !isLetter(text.charAt(after)))) break;
+                close += 2;
+            }
+            if (close < 0) close = text.length();
+            if (name.equals("style")) segment.embeddedBytes += embeddedBytes(end, close);
+            pos = close < text.length() ? tagEnd(close + 2) : close;
+        }
+
+        /**
+         * @return the lower case name of the tag whose name starts here
+         */
+        private String tagName(int from) {
+            int end = from;
+            while (end < text.length() && (isLetter(text.charAt(end)) || Character.isDigit(text.charAt(end))
+                    || text.charAt(end) == '-' || text.charAt(end) == ':')) end++;
+            return text.substring(from, end).toLowerCase(Locale.ROOT);
+        }
+
+        /**
+         * @return the position after the end of the tag, skipping quoted
+         * attribute values
+         */
+        private int tagEnd(int from) {
+            char last = 0;
+            for (int i = from; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '>') return i + 1;
+                if ((c == '"' || c == '\'') && last == '=') {
+                    int quote = text.indexOf(c, i + 1);
+                    if (quote < 0) return text.length();
+                    i = quote;
+                }
+                if (!Character.isWhitespace(c)) last = c;
+            }
+            return text.length();
+        }
+
+        /**
+         * @return the position after the entity starting here, or -1 if
+         * this isn't one
+         */
+        private int entityEnd(int from) {
+            int i = from, limit = Math.min(text.length(), from + 32);
+            if (i < limit && text.charAt(i) == '#') i++;
+            int nameStart = i;
+            while (i < limit && Character.isLetterOrDigit(text.charAt(i))) i++;
+            return i > nameStart && i < limit && text.charAt(i) == ';' ? i + 1 : -1;
+        }
+
+        /**
+         * @return the decoded size of the <code>data:</code> URIs in this
+         * part of the text
+         */
+        private long embeddedBytes(int from, int to) {
+            long bytes = 0;
+            for (int i = from; i + 5 < to; i++) {
+                if (text.charAt(i) != 'd' || !text.startsWith("data:", i)) continue;
+                int comma = i + 5;
+                while (comma < to && isHeaderCharacter(text.charAt(comma))) comma++;
+                if (comma >= to || text.charAt(comma) != ',') continue;
+                int end = comma + 1;
+                while (end < to && "\"'()<> \t\r\n".indexOf(text.charAt(end)) < 0) end++;
+                boolean base64 = comma - 7 >= i + 5 && text.regionMatches(true, comma - 7, ";base64", 0, 7);
+                int payload = end - comma - 1;
+                if (base64) {
+                    int padding = 0;
+                    while (padding < 2 && payload - padding > 0 && text.charAt(end - 1 - padding) == '=') padding++;
+                    bytes += payload / 4 * 3L + Math.max(0, payload % 4 - 1) - (payload % 4 == 0 ? padding : 0);
+                } else bytes += payload;
+                i = end - 1;
+            }
+            return bytes;
+        }
+
+        private static boolean isHeaderCharacter(char c) {
+            return isLetter(c) || Character.isDigit(c) || "/+.-;=_".indexOf(c) >= 0;
+        }
+
+        private static boolean isLetter(char c) {
+            return (c | 0x20) >= 'a' && (c | 0x20) <= 'z';
+        }
+    }
+}
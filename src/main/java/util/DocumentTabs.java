@@ -0,0 +1,415 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * The documents open in tabs. Only one of them is displayed by the editor
+ * at a time; the others are kept as serialised HTML, in memory as long as
+ * they fit into the memory budget. Once they don't, the least recently
+ * used ones are written to spill files on a background thread and
+ * released, and read back when their tab is activated again.
+ * <p>
+ * The memory use of a document is estimated as two bytes per character,
+ * the displayed one included, with the size it had when it was
+ * activated. Contains no JavaFX code so it can be used from headless
+ * tools.
+ */
+public final class DocumentTabs {
+
+    /**
+     * Where the document of a tab is
+     */
+    public enum State {
+        /**
+         * Displayed by the editor
+         */
+        ACTIVE,
+        /**
+         * Kept in memory
+         */
+        RESIDENT,
+        /**
+         * Written to a spill file
+         */
+        EVICTED
+    }
+
+    /**
+     * Writes and reads the spill files
+     */
+    private static final ExecutorService spiller =
+            Executors.newSingleThreadExecutor(Threads.daemonFactory("tab-spill"));
+
+    private final Path spillRoot, spillDirectory;
+    private final List<Tab> tabs = new ArrayList<>();
+    private long budget, nextId, evictions, rehydrations;
+    private final LatencyStats rehydrationStats = new LatencyStats();
+
+    /**
+     * An open document
+     */
+    public static final class Tab {
+
+        private final long id;
+        private File file;
+        private Charset charset = StandardCharsets.UTF_8;
+        private boolean bom, modified;
+
+        private State state = State.RESIDENT;
+        private String text = "";
+        private long bytes, lastUsed, evictions;
+        private final LatencyStats rehydration = new LatencyStats();
+
+        private Tab(long id) {
+            this.id = id;
+        }
+
+        /**
+         * @return the id of the tab, unique within the running program
+         */
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * @return the file of the document or <code>null</code> if it was
+         * never saved
+         */
+        public synchronized File getFile() {
+            return file;
+        }
+
+        /**
+         * @return the charset to save the document with
+         */
+        public synchronized Charset getCharset() {
+            return charset;
+        }
+
+        /**
+         * @return <code>true</code> to save the document with a byte
+         * order mark
+         */
+        public synchronized boolean hasBom() {
+            return bom;
+        }
+
+        /**
+         * @return <code>true</code> if the document has unsaved changes
+         */
+        public synchronized boolean isModified() {
+            return modified;
+        }
+
+        /**
+         * Stores the details of the document
+         *
+         * @param file     the file or <code>null</code>
+         * @param charset  the charset to save the document with
+         * @param bom      <code>true</code> to save it with a byte order
+         *                 mark
+         * @param modified <code>true</code> if it has unsaved changes
+         */
+        public synchronized void setDocument(File file, Charset charset, boolean bom, boolean modified) {
+            this.file = file;
+            this.charset = charset;
+            this.bom = bom;
+            this.modified = modified;
+        }
+
+        /**
+         * @return the name to display for the document
+         */
+        public synchronized String getName() {
+            return file == null ? "Untitled" : file.getName();
+        }
+
+        /**
+         * @return where the document is
+         */
+        public synchronized State getState() {
+            return state;
+        }
+
+        /**
+         * @return the estimated memory use of the document in bytes, 0 if
+         * it's evicted
+         */
+        public synchronized long getBytes() {
+            return state == State.EVICTED ? 0 : bytes;
+        }
+
+        /**
+         * @return the number of times the document was evicted
+         */
+        public synchronized long getEvictions() {
+            return evictions;
+        }
+
+        /**
+         * @return the time it took to read the document back after it was
+         * evicted
+         */
+        public LatencyStats getRehydration() {
+            return rehydration;
+        }
+
+        private Path spillFile(Path directory) {
+            return directory.resolve("tab-" + id + ".html");
+        }
+    }
+
+    /**
+     * Constructs a new DocumentTabs instance
+     *
+     * @param budget         the memory budget of the documents in bytes
+     * @param spillDirectory the directory for the evicted documents, each
+     *                       running program uses its own subdirectory
+     */
+    public DocumentTabs(long budget, Path spillDirectory) {
+        this.budget = budget;
+        this.spillRoot = spillDirectory;
+        this.spillDirectory = spillDirectory.resolve(String.valueOf(ProcessHandle.current().pid()));
+        Diagnostics.register("Tabs", this::getStatistics);
+    }
+
+    /**
+     * Deletes the spill files left behind by programs that didn't exit
+     * properly, on the spill thread. Called once the unsaved documents of
+     * these programs were offered for recovery from their journals.
+     */
+    public void deleteAbandoned() {
+        spiller.execute(() -> deleteAbandoned(spillRoot));
+    }
+
+    private static void deleteAbandoned(Path spillDirectory) {
+        if (!Files.isDirectory(spillDirectory)) return;
+        try (Stream<Path> dirs = Files.list(spillDirectory)) {
+            for (Path dir : (Iterable<Path>) dirs::iterator) {
+                try {
+                    if (ProcessHandle.of(Long.parseLong(dir.getFileName().toString())).isPresent()) continue;
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                try (Stream<Path> files = Files.list(dir)) {
+                    for (Path file : (Iterable<Path>) files::iterator)
+                        Files.deleteIfExists(file);
+                }
+                Files.deleteIfExists(dir);
+            }
+        } catch (IOException ignored) { }
+    }
+
+    /**
+     * Adds a tab with a blank document
+     *
+     * @return the new tab, not active yet
+     */
+    public synchronized Tab add() {
+        Tab tab = new Tab(++nextId);
+        tab.lastUsed = System.nanoTime();
+        tabs.add(tab);
+        return tab;
+    }
+
+    /**
+     * Stores the document of a tab that isn't displayed anymore, or
+     * replaces the document of a tab that isn't active
+     *
+     * @param tab  the tab
+     * @param html the serialised document
+     */
+    public void park(Tab tab, String html) {
+        synchronized (tab) {
+            tab.state = State.RESIDENT;
+            tab.text = html;
+            tab.bytes = html.length() * 2L;
+            tab.lastUsed = System.nanoTime();
+        }
+        spiller.execute(this::enforceBudget);
+    }
+
+    /**
+     * Makes this the displayed tab, reading its document back from the
+     * spill file if it was evicted
+     *
+     * @param tab the tab
+     * @return completes with the document, right away if it's in memory
+     */
+    public CompletableFuture<String> activate(Tab tab) {
+        synchronized (tab) {
+            tab.lastUsed = System.nanoTime();
+            if (tab.state != State.EVICTED) {
+                String html = tab.text;
+                tab.state = State.ACTIVE;
+                tab.text = null;    // the editor holds the document now
+                return CompletableFuture.completedFuture(html);
+            }
+        }
+        long start = System.nanoTime();
+        return CompletableFuture.supplyAsync(() -> {
+            Path spill = tab.spillFile(spillDirectory);
+            try {
+                // the file stays until the tab is closed or evicted again, in case it's
+                // activated again before this completes
+                String html = new String(Files.readAllBytes(spill), StandardCharsets.UTF_8);
+                synchronized (tab) {
+                    tab.state = State.ACTIVE;
+                    tab.bytes = html.length() * 2L;
+                }
+                tab.rehydration.recordSince(start);
+                rehydrationStats.recordSince(start);
+                synchronized (this) {
+                    rehydrations++;
+                }
+                spiller.execute(this::enforceBudget);   // the document takes memory again
+                return html;
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, spiller);
+    }
+
+    /**
+     * Closes a tab and deletes its spill file
+     *
+     * @param tab the tab
+     */
+    public void close(Tab tab) {
+        synchronized (this) {
+            tabs.remove(tab);
+        }
+        synchronized (tab) {
+            tab.text = null;
+        }
+        spiller.execute(() -> {
+            try {
+                Files.deleteIfExists(tab.spillFile(spillDirectory));
+            } catch (IOException ignored) { }
+        });
+    }
+
+    /**
+     * Evicts the least recently used documents in memory until the
+     * documents fit into the budget, on the spill thread
+     */
+    private void enforceBudget() {
+        while (true) {
+            Tab victim = null;
+            long total = 0;
+            for (Tab tab : getTabs()) {
+                synchronized (tab) {
+                    total += tab.getBytes();
+                    if (tab.state == State.RESIDENT && (victim == null || tab.lastUsed < victim.lastUsed))
+                        victim = tab;
+                }
+            }
+            if (total <= getBudget() || victim == null) return;
+            evict(victim);
+        }
+    }
+
+    /**
+     * Writes a document to its spill file and releases it, unless the
+     * tab was activated or changed meanwhile
+     */
+    private void evict(Tab tab) {
+        String html;
+        synchronized (tab) {
+            html = tab.text;
+        }
+        Path spill = tab.spillFile(spillDirectory);
+        try {
+            Files.createDirectories(spillDirectory);
+            DocumentWriter.writeAtomically(spill, html);
+        } catch (IOException e) {
+            System.err.println("Evicting a tab failed: " + e.getMessage());
+            synchronized (tab) {
+                tab.lastUsed = System.nanoTime();   // try the others first
+            }
+            return;
+        }
+        boolean evicted;
+        synchronized (tab) {
+            evicted = tab.state == State.RESIDENT && tab.text == html;
+            if (evicted) {
+                tab.state = State.EVICTED;
+                tab.text = null;
+                tab.evictions++;
+            }
+        }
+        if (evicted) {
+            synchronized (this) {
+                evictions++;
+            }
+            return;
+        }
+        try {
+            Files.deleteIfExists(spill);
+        } catch (IOException ignored) { }
+    }
+
+    /**
+     * @return the open tabs, in the order they were added
+     */
+    public synchronized List<Tab> getTabs() {
+        return new ArrayList<>(tabs);
+    }
+
+    /**
+     * @return the estimated memory use of all the documents in bytes
+     */
+    public long getBytes() {
+        long total = 0;
+        for (Tab tab : getTabs())
+            total += tab.getBytes();
+        return total;
+    }
+
+    /**
+     * @return the memory budget in bytes
+     */
+    public synchronized long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Changes the memory budget, evicting documents if they don't fit
+     * anymore
+     *
+     * @param budget the memory budget in bytes
+     */
+    public void setBudget(long budget) {
+        synchronized (this) {
+            this.budget = budget;
+        }
+        spiller.execute(this::enforceBudget);
+    }
+
+    /**
+     * @return a summary of the memory use and the evictions
+     */
+    public String getStatistics() {
+        List<Tab> all = getTabs();
+        long evicted = all.stream().filter(t -> t.getState() == State.EVICTED).count(), bytes = getBytes();
+        synchronized (this) {
+            return "Tabs: " + all.size() + ", evicted: " + evicted
+                    + "\nMemory: " + ImageEmbedder.formatSize(bytes) + " of "
+                    + ImageEmbedder.formatSize(budget)
+                    + "\nEvictions: " + evictions + ", rehydrations: " + rehydrations
+                    + "\nRehydration time: " + rehydrationStats;
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes documents to disk so that a crash in the middle of a save never
+ * leaves a half-written file behind: the text is written to a temporary
+ * file in the same directory, synced to disk and then atomically renamed
+ * over the original.
+ * <p>
+ * Contains no JavaFX code so it can be used from headless tools.
+ */
+public final class DocumentWriter {
+
+    /**
+     * Non-instantiable
+     */
+    private DocumentWriter() {
+    }
+
+    /**
+     * The size of the encoded output buffer
+     */
+    private static final int WRITE_BUFFER = 256 << 10;
+
+    /**
+     * Writes this text to this file in UTF-8
+     *
+     * @param target   the file to write
+     * @param contents the text to write
+     * @return the number of bytes written
+     * @throws IOException on write errors, the original file is left
+     *                     untouched in that case
+     */
+    public static long writeAtomically(Path target, CharSequence contents) throws IOException {
+        return writeAtomically(target, contents, StandardCharsets.UTF_8, false);
+    }
+
+    /**
+     * Thrown when the text can't be represented in the requested charset.
+     * Nothing is written, the caller decides whether to save in another
+     * charset, which also changes how the document declares its charset.
+     */
+    public static final class UnencodableException extends IOException {
+
+        private final Charset charset;
+
+        private UnencodableException(Charset charset, CharacterCodingException cause) {
+            super("The document contains characters that can't be written in " + charset.displayName(), cause);
+            this.charset = charset;
+        }
+
+        /**
+         * @return the charset the text couldn't be written in
+         */
+        public Charset getCharset() {
+            return charset;
+        }
+    }
+
+    /**
+     * Writes this text to this file
+     *
+     * @param target   the file to write
+     * @param contents the text to write
+     * @param charset  the charset to encode the text with
+     * @param bom      <code>true</code> to start the file with a byte
+     *                 order mark
+     * @return the number of bytes written
+     * @throws UnencodableException if the text can't be represented in
+     *                              the charset
+     * @throws IOException          on write errors, the original file is
+     *                              left untouched in that case
+     */
+    public static long writeAtomically(Path target, CharSequence contents, Charset charset,
+                                       boolean bom) throws IOException {
+        return replace(target, charset, (channel, encoding) -> encode(channel, contents, encoding, bom));
+    }
+
+    /**
+     * Writes streamed text to this file. The content is encoded while
+     * it's being written, so it's never held in memory as a whole.
+     *
+     * @param target  the file to write
+     * @param content writes the text
+     * @param charset the charset to encode the text with
+     * @param bom     <code>true</code> to start the file with a byte
+     *                order mark
+     * @return the number of bytes written
+     * @throws UnencodableException if the text can't be represented in
+     *                              the charset
+     * @throws IOException          on write errors, the original file is
+     *                              left untouched in that case
+     */
+    public static long writeAtomically(Path target, Content content, Charset charset,
+                                       boolean bom) throws IOException {
+        return replace(target, charset, (channel, encoding) -> {
+            ChannelWriter writer = new ChannelWriter(channel, encoding, bom);
+            content.writeTo(writer);
+            writer.close();
+            return writer.written;
+        });
+    }
+
+    /**
+     * Writes the text of a streamed file
+     */
+    public interface Content {
+
+        /**
+         * Writes the text, the writer is closed afterwards
+         *
+         * @param out the writer encoding into the file
+         * @throws IOException on write errors
+         */
+        void writeTo(Writer out) throws IOException;
+    }
+
+    /**
+     * Encodes text into a file channel
+     */
+    private interface Encoding {
+        long encode(FileChannel channel, Charset charset) throws IOException;
+    }
+
+    /**
+     * Encodes into a temporary file and renames it over the target
+     */
+    private static long replace(Path target, Charset charset, Encoding encoding) throws IOException {
+        Path absolute = target.toAbsolutePath();
+        Path directory = absolute.getParent();
+        Path temp = Files.createTempFile(directory, "." + absolute.getFileName() + ".", ".tmp");
+        try {
+            long written;
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                try {
+                    written = encoding.encode(channel, charset);
+                } catch (CharacterCodingException e) {
+                    // silently switching charsets would contradict the
+                    // document's charset declaration
+                    throw new UnencodableException(charset, e);
+                }
+                channel.force(true);
+            }
+            copyPermissions(absolute, temp);
+            try {
+                Files.move(temp, absolute, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING);
+            }
+            syncDirectory(directory);
+            return written;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Encodes the text into the channel in buffer-sized chunks, without
+     * building a byte array of the whole document
+     */
+    private static long encode(FileChannel channel, CharSequence contents, Charset charset,
+                               boolean bom) throws IOException {
+        CharsetEncoder encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        ByteBuffer out = ByteBuffer.allocateDirect(WRITE_BUFFER);
+        if (bom) out.put(byteOrderMark(charset));
+
+        long written = 0;
+        CharBuffer in = CharBuffer.wrap(contents);
+        while (true) {
+            CoderResult result = encoder.encode(in, out, true);
+            if (result.isError()) result.throwException();
+            written += flush(channel, out);
+            if (result.isUnderflow()) break;
+        }
+        while (encoder.flush(out).isOverflow()) written += flush(channel, out);
+        return written + flush(channel, out);
+    }
+
+    /**
+     * Writes the buffer content to the channel and clears the buffer
+     */
+    private static long flush(FileChannel channel, ByteBuffer out) throws IOException {
+        out.flip();
+        long count = out.remaining();
+        while (out.hasRemaining()) channel.write(out);
+        out.clear();
+        return count;
+    }
+
+    /**
+     * Returns the byte order mark for this charset
+     */
+    private static byte[] byteOrderMark(Charset charset) {
+        if (charset.equals(StandardCharsets.UTF_16BE))
+            return new byte[]{(byte) 0xFE, (byte) 0xFF};
+        if (charset.equals(StandardCharsets.UTF_16LE))
+            return new byte[]{(byte) 0xFF, (byte) 0xFE};
+        if (charset.equals(StandardCharsets.UTF_8))
+            return new byte[]{(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+        return new byte[0];
+    }
+
+    /**
+     * Encodes the characters written to it into a file channel through
+     * fixed-size buffers
+     */
+    private static final class ChannelWriter extends Writer {
+        private final FileChannel channel;
+        private final CharsetEncoder encoder;
+        private final CharBuffer chars = CharBuffer.allocate(8192);
+        private final ByteBuffer bytes = ByteBuffer.allocateDirect(WRITE_BUFFER);
+        private long written;
+        private boolean closed;
+
+        ChannelWriter(FileChannel channel, Charset charset, boolean bom) {
+            this.channel = channel;
+            this.encoder = charset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT);
+            if (bom) bytes.put(byteOrderMark(charset));
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            if (!chars.hasRemaining()) encodeChars(false);
+            chars.put((char) c);
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (!chars.hasRemaining()) encodeChars(false);
+                int count = Math.min(length, chars.remaining());
+                chars.put(buffer, offset, count);
+                offset += count;
+                length -= count;
+            }
+        }
+
+        @Override
+        public void write(String s, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (!chars.hasRemaining()) encodeChars(false);
+                int count = Math.min(length, chars.remaining());
+                chars.put(s, offset, offset + count);
+                offset += count;
+                length -= count;
+            }
+        }
+
+        /**
+         * Encodes the buffered characters, keeping an incomplete
+         * surrogate pair for the next call
+         */
+        private void encodeChars(boolean endOfInput) throws IOException {
+            chars.flip();
+            while (true) {
+                CoderResult result = encoder.encode(chars, bytes, endOfInput);
+                if (result.isError()) result.throwException();
+                if (result.isUnderflow()) break;
+                written += DocumentWriter.flush(channel, bytes);
+            }
+            chars.compact();
+        }
+
+        @Override
+        public void flush() {
+            // the channel is forced once everything is written
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            encodeChars(true);
+            while (encoder.flush(bytes).isOverflow()) written += DocumentWriter.flush(channel, bytes);
+            written += DocumentWriter.flush(channel, bytes);
+        }
+    }
+
+    /**
+     * Gives the temporary file the permissions of the file it replaces
+     * (temporary files are only readable by the owner)
+     */
+    private static void copyPermissions(Path original, Path temp) {
+        try {
+            if (Files.exists(original))
+                Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(original));
+        } catch (UnsupportedOperationException | IOException ignored) { }
+    }
+
+    /**
+     * Syncs the directory entry so the rename itself is durable. Not
+     * supported on every platform, failures are ignored.
+     */
+    static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) { }
+    }
+}
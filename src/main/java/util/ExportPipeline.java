@@ -0,0 +1,221 @@
+package util;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Exports HTML through a chain of {@link ExportStage}s. The document is
+ * fed to the first stage in chunks and the last one writes into the
+ * encoder of the output file, so the stages never hold more than a
+ * chunk of it and nothing but the file is built in memory. The file is
+ * replaced atomically once everything has been written.
+ * <p>
+ * Contains no JavaFX code so it can be used from headless tools.
+ */
+public final class ExportPipeline {
+
+    /**
+     * The number of characters fed to the stages at a time
+     */
+    private static final int CHUNK = 64 << 10;
+
+    /**
+     * Exports the HTML unchanged
+     */
+    public static final ExportPipeline AS_IS = new ExportPipeline("As is");
+
+    /**
+     * Removes the whitespace and the comments that don't affect how the
+     * document renders
+     */
+    public static final ExportPipeline MINIFIED = new ExportPipeline("Minified", HtmlMinifier::new);
+
+    /**
+     * Puts every block element on its own, indented line
+     */
+    public static final ExportPipeline FORMATTED = new ExportPipeline("Formatted", HtmlFormatter::new);
+
+    private final String name;
+    private final ExportStage[] stages;
+
+    /**
+     * Constructs a new ExportPipeline instance
+     *
+     * @param name   the name displayed to the user
+     * @param stages the stages, in the order the HTML passes them
+     */
+    public ExportPipeline(String name, ExportStage... stages) {
+        this.name = name;
+        this.stages = stages.clone();
+    }
+
+    /**
+     * Exports the HTML to a file
+     *
+     * @param html    the HTML
+     * @param target  the file to write
+     * @param charset the charset to encode the output with
+     * @param bom     <code>true</code> to start the file with a byte
+     *                order mark
+     * @return the sizes before and after the export
+     * @throws IOException on write errors, the original file is left
+     *                     untouched in that case
+     */
+    public Result export(CharSequence html, Path target, Charset charset, boolean bom) throws IOException {
+        return export(html, target, charset, bom, null, null);
+    }
+
+    /**
+     * Exports the HTML to a file
+     *
+     * @param html      the HTML
+     * @param target    the file to write
+     * @param charset   the charset to encode the output with
+     * @param bom       <code>true</code> to start the file with a byte
+     *                  order mark
+     * @param listener  receives the number of characters processed, may
+     *                  be <code>null</code>
+     * @param cancelled tells whether to stop, may be <code>null</code>
+     * @return the sizes before and after the export
+     * @throws IOException           on write errors, the original file is
+     *                               left untouched in that case
+     * @throws CancellationException if the export was cancelled, the
+     *                               original file is left untouched
+     */
+    public Result export(CharSequence html, Path target, Charset charset, boolean bom,
+                         DocumentLoader.ProgressListener listener, BooleanSupplier cancelled)
+            throws IOException {
+        long[] chars = new long[1];
+        long bytes = DocumentWriter.writeAtomically(target, out -> {
+            CountingWriter counter = new CountingWriter(out);
+            feed(html, counter, listener, cancelled);
+            chars[0] = counter.count;
+        }, charset, bom);
+        return new Result(html.length(), chars[0], bytes);
+    }
+
+    /**
+     * Passes the HTML through the stages into a writer
+     *
+     * @param html the HTML
+     * @param out  receives the output, closed afterwards
+     * @throws IOException if the writer fails
+     */
+    public void process(CharSequence html, Writer out) throws IOException {
+        feed(html, out, null, null);
+    }
+
+    private void feed(CharSequence html, Writer out, DocumentLoader.ProgressListener listener,
+                      BooleanSupplier cancelled) throws IOException {
+        Writer writer = out;
+        for (int i = stages.length - 1; i >= 0; i--) writer = stages[i].wrap(writer);
+
+        int length = html.length();
+        for (int start = 0; start < length; start += CHUNK) {
+            if (Thread.currentThread().isInterrupted()
+                    || (cancelled != null && cancelled.getAsBoolean()))
+                throw new CancellationException("Export was cancelled");
+            int end = Math.min(length, start + CHUNK);
+            if (html instanceof String) writer.write((String) html, start, end - start);
+            else writer.append(html, start, end);
+            if (listener != null) listener.progress(end, length);
+        }
+        writer.close();
+    }
+
+    /**
+     * @return the name displayed to the user
+     */
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * Counts the characters passing through
+     */
+    private static final class CountingWriter extends FilterWriter {
+        private long count;
+
+        CountingWriter(Writer out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            out.write(c);
+            count++;
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) throws IOException {
+            out.write(buffer, offset, length);
+            count += length;
+        }
+
+        @Override
+        public void write(String s, int offset, int length) throws IOException {
+            out.write(s, offset, length);
+            count += length;
+        }
+    }
+
+    /**
+     * The sizes of an exported document
+     */
+    public static final class Result {
+        private final long inputChars, outputChars, bytes;
+
+        Result(long inputChars, long outputChars, long bytes) {
+            this.inputChars = inputChars;
+            this.outputChars = outputChars;
+            this.bytes = bytes;
+        }
+
+        /**
+         * @return the number of characters of the HTML
+         */
+        public long getInputChars() {
+            return inputChars;
+        }
+
+        /**
+         * @return the number of characters written
+         */
+        public long getOutputChars() {
+            return outputChars;
+        }
+
+        /**
+         * @return the size of the written file in bytes
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return how much smaller the output is, in percent of the
+         * input, negative if it's larger
+         */
+        public double getReduction() {
+            return inputChars == 0 ? 0 : (inputChars - outputChars) * 100.0 / inputChars;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%,d -> %,d characters (%s%.1f%%), %,d bytes written",
+                    inputChars, outputChars, getReduction() >= 0 ? "-" : "+",
+                    Math.abs(getReduction()), bytes);
+        }
+    }
+}
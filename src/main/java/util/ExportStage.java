@@ -0,0 +1,20 @@
+package util;
+
+import java.io.Writer;
+
+/**
+ * A step of an {@link ExportPipeline}: transforms the HTML written to it
+ * and passes the result on to the next writer while it's being written,
+ * without holding the document in memory.
+ */
+public interface ExportStage {
+
+    /**
+     * Creates the writer of this stage
+     *
+     * @param out receives the transformed HTML, closed when the returned
+     *            writer is closed
+     * @return the writer transforming the HTML written to it
+     */
+    Writer wrap(Writer out);
+}
@@ -1,13 +1,25 @@
 package util;
 
-import java.io.BufferedWriter;
+import javafx.concurrent.Task;
+
+import javafx.application.Platform;
+import javafx.scene.control.Alert;
+import javafx.stage.FileChooser;
+
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
 import java.util.Arrays;
-import java.util.Scanner;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 /**
  * Contains utility methods for opening and saving files
@@ -20,6 +32,38 @@ public final class FileIO {
     private FileIO() {
     }
 
+    /**
+     * Runs background file loads, one at a time
+     */
+    private static final ExecutorService loader =
+            Executors.newSingleThreadExecutor(Threads.daemonFactory("document-loader"));
+
+    /**
+     * Runs web page imports, one at a time
+     */
+    private static final ExecutorService importer =
+            Executors.newSingleThreadExecutor(Threads.daemonFactory("page-import"));
+
+    /**
+     * Runs background exports, one at a time
+     */
+    private static final ExecutorService exporter =
+            Executors.newSingleThreadExecutor(Threads.daemonFactory("export"));
+
+    /**
+     * The export formats of the file chooser filters
+     */
+    private static final Map<FileChooser.ExtensionFilter, ExportPipeline> exportFilters = new WeakHashMap<>();
+
+    /**
+     * Runs background saves
+     */
+    private static final SaveEngine saveEngine = new SaveEngine();
+
+    static {
+        Diagnostics.register("Saving", saveEngine::getStatistics);
+    }
+
     /**
      * Opens this file and returns its content
      *
@@ -27,14 +71,79 @@ public final class FileIO {
      * @return the file content
      */
     public static String loadFile(File file) {
-        StringBuilder sb = new StringBuilder();
         try {
-            Scanner in = new Scanner(new FileReader(file.getAbsolutePath()));
-            while (in.hasNext()) sb.append(in.nextLine()).append("\n");
-        } catch (FileNotFoundException e) {
+            return DocumentLoader.load(file.toPath()).getText();
+        } catch (NoSuchFileException e) {
             ErrorHandler.fileNotFound(file.getAbsolutePath());
+        } catch (IOException e) {
+            ErrorHandler.fileIOError(file.getAbsolutePath(), Arrays.toString(e.getStackTrace()));
         }
-        return sb.toString();
+        return "";
+    }
+
+    /**
+     * Opens this file on a background thread. A progress dialog with a
+     * Cancel button is displayed if loading takes a while.
+     *
+     * @param file     the file to open
+     * @param onLoaded called on the JavaFX application thread with the
+     *                 loaded document, unless loading failed or was
+     *                 cancelled
+     * @return the loading task
+     */
+    public static Task<LoadedDocument> loadFileAsync(File file, Consumer<LoadedDocument> onLoaded) {
+        Task<LoadedDocument> task = new Task<>() {
+            @Override
+            protected LoadedDocument call() throws Exception {
+                updateMessage("Reading " + file.getName() + "...");
+                return DocumentLoader.load(file.toPath(),
+                        (done, total) -> updateProgress(done, total), this::isCancelled);
+            }
+        };
+        task.setOnSucceeded(e -> onLoaded.accept(task.getValue()));
+        task.setOnFailed(e -> {
+            Throwable t = task.getException();
+            if (t instanceof NoSuchFileException) ErrorHandler.fileNotFound(file.getAbsolutePath());
+            else ErrorHandler.fileIOError(file.getAbsolutePath(), Arrays.toString(t.getStackTrace()));
+        });
+        Dialogs.progressDialog("Opening", "Opening " + file.getName(), task);
+        loader.submit(task);
+        return task;
+    }
+
+    /**
+     * Downloads this web page on a background thread. A progress dialog
+     * with a Cancel button is displayed if downloading takes a while.
+     *
+     * @param fetcher  downloads the page
+     * @param uri      the address of the page
+     * @param onLoaded called on the JavaFX application thread with the
+     *                 page, unless downloading failed or was cancelled
+     * @return the downloading task
+     */
+    public static Task<PageFetcher.Page> loadPageAsync(PageFetcher fetcher, URI uri,
+                                                       Consumer<PageFetcher.Page> onLoaded) {
+        Task<PageFetcher.Page> task = new Task<>() {
+            @Override
+            protected PageFetcher.Page call() throws Exception {
+                updateMessage("Downloading " + uri.getHost() + "...");
+                return fetcher.fetch(uri, (done, total) -> {
+                    updateProgress(done, total);
+                    updateMessage("Downloading " + uri.getHost() + "... "
+                            + ImageEmbedder.formatSize(done));
+                }, this::isCancelled);
+            }
+        };
+        task.setOnSucceeded(e -> onLoaded.accept(task.getValue()));
+        task.setOnFailed(e -> {
+            Throwable t = task.getException();
+            if (!(t instanceof CancellationException))
+                Dialogs.alert("Error", "Downloading the web page failed",
+                        uri + "\n\n" + t.getMessage(), Alert.AlertType.ERROR);
+        });
+        Dialogs.progressDialog("Download web page", "Downloading " + uri, task);
+        importer.submit(task);
+        return task;
     }
 
     /**
@@ -45,11 +154,103 @@ public final class FileIO {
      */
     public static void saveFile(File file, String contents) {
         try {
-            BufferedWriter out = new BufferedWriter(new FileWriter(file.getAbsolutePath()));
-            out.write(contents);
-            out.close();
+            DocumentWriter.writeAtomically(file.toPath(), contents);
         } catch (IOException e) {
             ErrorHandler.fileIOError(file.getAbsolutePath(), Arrays.toString(e.getStackTrace()));
         }
     }
+
+    /**
+     * Saves this string to this file on a background thread. Saves of
+     * the same file requested before the previous one has finished are
+     * coalesced into a single write.
+     *
+     * @param file     the file to save
+     * @param contents the text to save
+     * @param charset  the charset to encode the text with
+     * @param bom      <code>true</code> to write a byte order mark
+     * @param onSaved  called on the JavaFX application thread once the
+     *                 data is safely on disk
+     * @param inUtf8   called on the JavaFX application thread if the text
+     *                 can't be represented in the charset and the user
+     *                 chose to save it in UTF-8 instead; nothing was
+     *                 written in that case
+     * @see SaveEngine
+     */
+    public static void saveFileAsync(File file, String contents, Charset charset, boolean bom,
+                                     Runnable onSaved, Runnable inUtf8) {
+        saveEngine.submit(file.toPath(), contents, charset, bom, result -> Platform.runLater(() -> {
+            IOException error = result.getError();
+            if (error == null) onSaved.run();
+            else if (error instanceof DocumentWriter.UnencodableException) {
+                if (Dialogs.confirmationDialog("Save", error.getMessage(), file.getName()
+                        + " wasn't saved. Save it in UTF-8 instead? The charset the document "
+                        + "declares is changed to UTF-8 as well.")) inUtf8.run();
+            } else ErrorHandler.fileIOError(file.getAbsolutePath(), Arrays.toString(error.getStackTrace()));
+        }));
+    }
+
+    /**
+     * Adds a filter for every export format to this file chooser: the
+     * HTML as it is, minified and formatted
+     *
+     * @param chooser     the file chooser
+     * @param description the description of the file type, such as
+     *                    "Text files"
+     * @param extension   the extension pattern, such as "*.txt"
+     */
+    public static void addExportFilters(FileChooser chooser, String description, String extension) {
+        for (ExportPipeline pipeline : new ExportPipeline[]{ExportPipeline.AS_IS, ExportPipeline.MINIFIED,
+                ExportPipeline.FORMATTED}) {
+            String name = pipeline == ExportPipeline.AS_IS ? description
+                    : description + ", " + pipeline.getName().toLowerCase(Locale.ROOT);
+            FileChooser.ExtensionFilter filter = new FileChooser.ExtensionFilter(
+                    name + " (" + extension + ")", extension);
+            exportFilters.put(filter, pipeline);
+            chooser.getExtensionFilters().add(filter);
+        }
+    }
+
+    /**
+     * Exports HTML to this file on a background thread, in the format of
+     * the selected file chooser filter. The HTML is streamed through the
+     * export stages into the file and the size reduction is displayed
+     * once it's done.
+     *
+     * @param file   the file to write
+     * @param html   the HTML to export
+     * @param filter the selected filter, added by
+     *               {@link #addExportFilters}, any other filter exports
+     *               the HTML as it is
+     */
+    public static void exportFileAsync(File file, String html, FileChooser.ExtensionFilter filter) {
+        ExportPipeline pipeline = exportFilters.getOrDefault(filter, ExportPipeline.AS_IS);
+        Task<ExportPipeline.Result> task = new Task<>() {
+            @Override
+            protected ExportPipeline.Result call() throws Exception {
+                updateMessage("Writing " + file.getName() + "...");
+                return pipeline.export(html, file.toPath(), StandardCharsets.UTF_8, false,
+                        (done, total) -> updateProgress(done, total), this::isCancelled);
+            }
+        };
+        task.setOnSucceeded(e -> {
+            if (pipeline != ExportPipeline.AS_IS)
+                Dialogs.alert("Export", "Exported " + file.getName(),
+                        pipeline.getName() + ": " + task.getValue(), Alert.AlertType.INFORMATION);
+        });
+        task.setOnFailed(e -> {
+            Throwable t = task.getException();
+            if (!(t instanceof CancellationException))
+                ErrorHandler.fileIOError(file.getAbsolutePath(), Arrays.toString(t.getStackTrace()));
+        });
+        Dialogs.progressDialog("Exporting", "Exporting " + file.getName(), task);
+        exporter.submit(task);
+    }
+
+    /**
+     * Waits for the background saves to finish, called before exiting
+     */
+    public static void finishPendingSaves() {
+        saveEngine.shutdown(30);
+    }
 }
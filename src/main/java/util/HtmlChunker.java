@@ -0,0 +1,284 @@
+package util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Splits an HTML document into chunks of whole top-level blocks, so that
+ * large documents can be shown a few chunks at a time. Adjacent small
+ * blocks are grouped until a chunk reaches the target size; a single
+ * block larger than that becomes a chunk of its own. If the whole body
+ * is a single wrapper element, as in many imported pages, the blocks
+ * inside the wrapper are chunked instead.
+ * <p>
+ * This is a lightweight tag scanner, not a full HTML parser. It keeps a
+ * stack of open elements and understands void elements, raw text
+ * elements, comments and the common implied end tags, which is enough
+ * to find top-level block boundaries in editor output.
+ * <p>
+ * Contains no JavaFX code so it can be used from headless tools.
+ */
+public final class HtmlChunker {
+
+    /**
+     * Non-instantiable
+     */
+    private HtmlChunker() {
+    }
+
+    /**
+     * Elements that never have content or an end tag
+     */
+    private static final Set<String> VOID_ELEMENTS = Set.of("area", "base", "br", "col",
+            "embed", "hr", "img", "input", "link", "meta", "param", "source", "track", "wbr");
+
+    /**
+     * Elements whose content is not parsed as markup
+     */
+    private static final Set<String> RAW_TEXT_ELEMENTS = Set.of("script", "style",
+            "textarea", "title", "xmp");
+
+    /**
+     * Elements that implicitly close an open paragraph
+     */
+    private static final Set<String> CLOSES_PARAGRAPH = Set.of("address", "article", "aside",
+            "blockquote", "div", "dl", "fieldset", "footer", "form", "h1", "h2", "h3", "h4",
+            "h5", "h6", "header", "hr", "main", "nav", "ol", "p", "pre", "section", "table", "ul");
+
+    /**
+     * Elements that can hold the chunk containers when they wrap the
+     * whole body
+     */
+    private static final Set<String> WRAPPERS = Set.of("article", "aside", "blockquote", "center",
+            "div", "footer", "form", "header", "main", "nav", "section");
+
+    /**
+     * A document split into chunks
+     */
+    public static final class ChunkedDocument {
+
+        private final String head, wrapperStart, wrapperEnd, tail;
+        private final List<String> chunks;
+
+        private ChunkedDocument(String head, String wrapperStart, List<String> chunks, String wrapperEnd,
+                                String tail) {
+            this.head = head;
+            this.wrapperStart = wrapperStart;
+            this.chunks = chunks;
+            this.wrapperEnd = wrapperEnd;
+            this.tail = tail;
+        }
+
+        /**
+         * @return everything up to and including the body start tag
+         */
+        public String getHead() {
+            return head;
+        }
+
+        /**
+         * @return the start tags of the elements wrapping every chunk,
+         * with the text around them, or an empty string
+         */
+        public String getWrapperStart() {
+            return wrapperStart;
+        }
+
+        /**
+         * @return the end tags matching {@link #getWrapperStart()}
+         */
+        public String getWrapperEnd() {
+            return wrapperEnd;
+        }
+
+        /**
+         * @return the body content chunks (a mutable list)
+         */
+        public List<String> getChunks() {
+            return chunks;
+        }
+
+        /**
+         * @return everything from the body end tag on
+         */
+        public String getTail() {
+            return tail;
+        }
+    }
+
+    /**
+     * Splits this document into chunks
+     *
+     * @param html       the document
+     * @param targetSize the preferred chunk size in characters
+     * @return the chunked document
+     */
+    public static ChunkedDocument split(String html, int targetSize) {
+        int bodyStart = indexOfIgnoreCase(html, "<body", 0);
+        bodyStart = bodyStart < 0 ? 0 : tagEnd(html, bodyStart) + 1;
+        int bodyEnd = lastIndexOfIgnoreCase(html, "</body", html.length() - 6);
+        if (bodyEnd < bodyStart) bodyEnd = html.length();
+
+        // descend into single wrapper elements, the chunks go inside them
+        int from = bodyStart, to = bodyEnd;
+        while (to - from > targetSize) {
+            int start = skipWhitespace(html, from, to);
+            if (start >= to || html.charAt(start) != '<' || start + 1 >= to
+                    || !Character.isLetter(html.charAt(start + 1))) break;
+            String name = tagName(html, start + 1);
+            if (!WRAPPERS.contains(name)) break;
+            int end = elementEnd(html, start, to, name);
+            if (end < 0 || skipWhitespace(html, end, to) < to) break;
+            from = tagEnd(html, start) + 1;
+            to = lastIndexOfIgnoreCase(html, "</" + name, end - 1);
+        }
+
+        List<String> chunks = new ArrayList<>();
+        Deque<String> open = new ArrayDeque<>();
+        int chunkStart = from, i = from;
+        while (i < to) {
+            i = step(html, i, to, open);
+            if (open.isEmpty() && i - chunkStart >= targetSize) {
+                chunks.add(html.substring(chunkStart, i));
+                chunkStart = i;
+            }
+        }
+        if (chunkStart < to || chunks.isEmpty())
+            chunks.add(html.substring(chunkStart, to));
+        return new ChunkedDocument(html.substring(0, bodyStart), html.substring(bodyStart, from), chunks,
+                html.substring(to, bodyEnd), html.substring(bodyEnd));
+    }
+
+    /**
+     * Reads the tag, comment or text starting at this index, updating the
+     * stack of open elements
+     *
+     * @return the index after it, at most <code>end</code>
+     */
+    private static int step(String html, int i, int end, Deque<String> open) {
+        int lt = html.indexOf('<', i);
+        if (lt < 0 || lt >= end) return end;
+
+        if (html.startsWith("<!--", lt)) {
+            int close = html.indexOf("-->", lt + 4);
+            i = close < 0 ? end : close + 3;
+        } else if (html.startsWith("</", lt)) {
+            String name = tagName(html, lt + 2);
+            if (open.contains(name)) {
+                String popped;
+                do popped = open.pop();
+                while (!popped.equals(name));
+            }
+            i = tagEnd(html, lt) + 1;
+        } else if (lt + 1 < end && Character.isLetter(html.charAt(lt + 1))) {
+            String name = tagName(html, lt + 1);
+            int tagEnd = tagEnd(html, lt);
+            closeImplied(open, name);
+            if (RAW_TEXT_ELEMENTS.contains(name)) {
+                int close = indexOfIgnoreCase(html, "</" + name, tagEnd);
+                i = close < 0 ? end : tagEnd(html, close) + 1;
+            } else {
+                if (!VOID_ELEMENTS.contains(name) && html.charAt(tagEnd - 1) != '/') open.push(name);
+                i = tagEnd + 1;
+            }
+        } else {
+            // "<!doctype", "<?" or a stray '<'
+            char next = lt + 1 < end ? html.charAt(lt + 1) : ' ';
+            i = next == '!' || next == '?' ? tagEnd(html, lt) + 1 : lt + 1;
+        }
+        return Math.min(i, end);
+    }
+
+    /**
+     * Returns the index after the end tag of the element starting at this
+     * index, or -1 if it isn't closed by its own end tag before
+     * <code>end</code>
+     */
+    private static int elementEnd(String html, int start, int end, String name) {
+        Deque<String> open = new ArrayDeque<>();
+        int i = start, tag;
+        do {
+            tag = html.indexOf('<', i);
+            i = step(html, i, end, open);
+        } while (!open.isEmpty() && i < end);
+        return open.isEmpty() && tag >= 0 && html.regionMatches(true, tag, "</" + name, 0, name.length() + 2)
+                ? i : -1;
+    }
+
+    /**
+     * Returns the index of the first character from this index on that
+     * isn't whitespace, or <code>end</code>
+     */
+    private static int skipWhitespace(String html, int i, int end) {
+        while (i < end && Character.isWhitespace(html.charAt(i))) i++;
+        return i;
+    }
+
+    /**
+     * Pops the elements closed by the start of this element
+     */
+    private static void closeImplied(Deque<String> open, String name) {
+        String top = open.peek();
+        if (top == null) return;
+        if ((top.equals("p") && CLOSES_PARAGRAPH.contains(name))
+                || (top.equals("li") && name.equals("li"))
+                || ((top.equals("dt") || top.equals("dd")) && (name.equals("dt") || name.equals("dd")))
+                || (top.equals("option") && name.equals("option")))
+            open.pop();
+    }
+
+    /**
+     * Reads the tag name starting at this index
+     */
+    private static String tagName(String html, int from) {
+        int end = from;
+        while (end < html.length() && (Character.isLetterOrDigit(html.charAt(end))
+                || html.charAt(end) == '-' || html.charAt(end) == ':')) end++;
+        return html.substring(from, end).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Case-insensitive indexOf for tag patterns (starting with '&lt;')
+     */
+    private static int indexOfIgnoreCase(String html, String pattern, int from) {
+        for (int i = Math.max(0, from); i <= html.length() - pattern.length(); i++) {
+            i = html.indexOf('<', i);
+            if (i < 0) return -1;
+            if (html.regionMatches(true, i, pattern, 0, pattern.length())) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Case-insensitive lastIndexOf for tag patterns (starting with '&lt;')
+     */
+    private static int lastIndexOfIgnoreCase(String html, String pattern, int from) {
+        for (int i = Math.min(from, html.length() - pattern.length()); i >= 0; i--) {
+            i = html.lastIndexOf('<', i);
+            if (i < 0) return -1;
+            if (html.regionMatches(true, i, pattern, 0, pattern.length())) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the '&gt;' ending the tag that starts at this
+     * index, skipping quoted attribute values
+     */
+    private static int tagEnd(String html, int from) {
+        char quote = 0, previous = 0;
+        for (int i = from; i < html.length(); i++) {
+            char c = html.charAt(i);
+            if (quote != 0) {
+                if (c == quote) quote = 0;
+            } else if ((c == '"' || c == '\'') && previous == '=') quote = c;
+            else if (c == '>') return i;
+            if (!Character.isWhitespace(c)) previous = c;
+        }
+        return html.length() - 1;
+    }
+}
@@ -0,0 +1,115 @@
+package util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * An export stage that pretty-prints HTML: every block element starts on
+ * its own line, indented by its nesting depth, and the whitespace runs
+ * between inline content are collapsed to a single space. The content of
+ * <code>pre</code>, <code>textarea</code>, <code>script</code> and
+ * <code>style</code> elements is kept as it is.
+ * <p>
+ * Line breaks are only added where whitespace doesn't affect the
+ * rendering, before and after block elements. The HTML is formatted while
+ * it's written, keeping only the nesting depth, so it can be streamed
+ * straight into a file. Contains no JavaFX code so it can be used from
+ * headless tools.
+ */
+public final class HtmlFormatter extends HtmlStreamWriter {
+
+    /**
+     * The indentation of one nesting level
+     */
+    private static final String INDENT = "  ";
+
+    /**
+     * Elements that start on their own line
+     */
+    private static final Set<String> BLOCK_ELEMENTS = new HashSet<>(Arrays.asList(
+            "!doctype", "?xml", "html", "head", "body", "title", "meta", "link", "base", "script",
+            "style", "noscript", "div", "p", "pre", "blockquote", "hr", "br", "h1", "h2", "h3", "h4",
+            "h5", "h6", "ul", "ol", "li", "dl", "dt", "dd", "table", "caption", "colgroup", "col",
+            "thead", "tbody", "tfoot", "tr", "th", "td", "form", "fieldset", "legend", "section",
+            "article", "aside", "header", "footer", "nav", "main", "figure", "figcaption",
+            "address", "details", "summary", "center"));
+
+    /**
+     * Elements without content or a closing tag
+     */
+    private static final Set<String> VOID_ELEMENTS = new HashSet<>(Arrays.asList(
+            "!doctype", "?xml", "meta", "link", "base", "hr", "br", "col", "img", "input",
+            "area", "embed", "param", "source", "track", "wbr"));
+
+    private int depth;
+    private boolean lineBreak;      // the next content starts on a new line
+    private boolean space;          // whitespace held back until the next content
+    private boolean blockStart;     // right after an opening block tag, leading whitespace is dropped
+
+    /**
+     * Constructs a new HtmlFormatter instance
+     *
+     * @param out receives the formatted HTML
+     */
+    public HtmlFormatter(Writer out) {
+        super(out);
+    }
+
+    @Override
+    void whitespace() {
+        space = true;
+    }
+
+    @Override
+    void beforeText() throws IOException {
+        if (lineBreak) newLine();
+        else if (space && !blockStart) emit(' ');
+        lineBreak = space = blockStart = false;
+    }
+
+    @Override
+    void beforeTag(String name, boolean closing) throws IOException {
+        if (!BLOCK_ELEMENTS.contains(name)) {
+            beforeText();
+            return;
+        }
+        if (closing) {
+            depth = Math.max(0, depth - 1);
+            if (lineBreak) newLine();   // "<p>Text</p>" stays on one line
+        } else if (last() != 0) {
+            newLine();
+        }
+        lineBreak = space = blockStart = false;
+    }
+
+    @Override
+    void afterTag(String name, boolean closing, boolean selfClosing) {
+        if (!BLOCK_ELEMENTS.contains(name)) return;
+        if (closing || selfClosing || VOID_ELEMENTS.contains(name)) {
+            lineBreak = true;
+        } else if (!isRaw(name)) {  // raw content starts right after the tag
+            depth++;
+            blockStart = true;
+        }
+    }
+
+    @Override
+    boolean beforeComment(boolean conditional) throws IOException {
+        if (blockStart) lineBreak = true;   // the whitespace there doesn't matter
+        beforeText();
+        return true;
+    }
+
+    @Override
+    void finish() throws IOException {
+        if (last() != 0 && last() != '\n') emit('\n');
+    }
+
+    private void newLine() throws IOException {
+        emit('\n');
+        for (int i = 0; i < depth; i++) emit(INDENT);
+    }
+}
@@ -0,0 +1,292 @@
+package util;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A line-by-line lexer for HTML with embedded CSS and JavaScript, used
+ * for syntax highlighting. Lexing a line starts from the state the
+ * previous line ended in, so any line can be lexed on its own once the
+ * state at its start is known (see {@link IncrementalLexer}).
+ * <p>
+ * The lexer is forgiving rather than exact: it never fails, it only
+ * classifies the ranges it recognises.
+ */
+public final class HtmlLexer {
+
+    /**
+     * Non-instantiable
+     */
+    private HtmlLexer() {
+    }
+
+    /**
+     * Receives the classified ranges of a line
+     */
+    public interface Sink {
+        /**
+         * Called for every recognised range, in order
+         *
+         * @param start the offset of the first character
+         * @param end   the offset after the last character
+         * @param type  the token type, one of the type constants
+         */
+        void span(int start, int end, int type);
+    }
+
+    // token types
+    public static final int TAG = 1, ATTRIBUTE = 2, VALUE = 3, COMMENT = 4, ENTITY = 5,
+            KEYWORD = 6, STRING = 7, NUMBER = 8;
+
+    /**
+     * The number of token types, including 0 for unclassified text
+     */
+    public static final int TYPE_COUNT = 9;
+
+    // lexer states, the tag states also store the kind of tag in the
+    // higher bits, so the lexer knows what follows the tag
+    public static final int INITIAL = 0;
+    private static final int TEXT = 0, IN_TAG = 1, TAG_DOUBLE = 2, TAG_SINGLE = 3, IN_COMMENT = 4,
+            SCRIPT = 5, SCRIPT_COMMENT = 6, SCRIPT_TEMPLATE = 7, STYLE = 8, STYLE_COMMENT = 9;
+    private static final int KIND_SHIFT = 4, MODE_MASK = (1 << KIND_SHIFT) - 1;
+    private static final int PLAIN_TAG = 0, SCRIPT_TAG = 1, STYLE_TAG = 2;
+
+    private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
+            "break", "case", "catch", "class", "const", "continue", "debugger", "default",
+            "delete", "do", "else", "export", "extends", "false", "finally", "for", "function",
+            "if", "import", "in", "instanceof", "let", "new", "null", "return", "super",
+            "switch", "this", "throw", "true", "try", "typeof", "undefined", "var", "void",
+            "while", "with", "yield", "async", "await", "of", "static"));
+
+    /**
+     * Lexes a line
+     *
+     * @param text  the text
+     * @param from  the offset where the line starts
+     * @param to    the offset where the line ends (excluding the line
+     *              ending)
+     * @param state the state at the start of the line, {@link #INITIAL}
+     *              for the first line
+     * @param sink  receives the ranges or <code>null</code> if only the
+     *              state at the end of the line is needed
+     * @return the state at the end of the line
+     */
+    public static int lexLine(CharSequence text, int from, int to, int state, Sink sink) {
+        int i = from;
+        while (i < to) {
+            int mode = state & MODE_MASK, kind = state >>> KIND_SHIFT;
+            switch (mode) {
+                case TEXT: {
+                    char c = text.charAt(i);
+                    if (c == '<') {
+                        if (matches(text, i, to, "<!--")) {
+                            int end = indexOf(text, i + 4, to, "-->");
+                            emit(sink, i, end < 0 ? to : end + 3, COMMENT);
+                            if (end < 0) return IN_COMMENT;
+                            i = end + 3;
+                            continue;
+                        }
+                        int j = i + 1;
+                        if (j < to && (text.charAt(j) == '/' || text.charAt(j) == '!' || text.charAt(j) == '?'))
+                            j++;
+                        if (j < to && isLetter(text.charAt(j))) {
+                            boolean closing = text.charAt(i + 1) == '/';
+                            int nameStart = j;
+                            while (j < to && isNameChar(text.charAt(j))) j++;
+                            emit(sink, i, j, TAG);
+                            int tagKind = PLAIN_TAG;
+                            if (!closing && matches(text, nameStart, j, "script") && j - nameStart == 6)
+                                tagKind = SCRIPT_TAG;
+                            else if (!closing && matches(text, nameStart, j, "style") && j - nameStart == 5)
+                                tagKind = STYLE_TAG;
+                            state = IN_TAG | tagKind << KIND_SHIFT;
+                            i = j;
+                            continue;
+                        }
+                    } else if (c == '&') {
+                        int j = i + 1;
+                        while (j < to && j - i < 12 && (isNameChar(text.charAt(j)) || text.charAt(j) == '#')) j++;
+                        if (j < to && j > i + 1 && text.charAt(j) == ';') {
+                            emit(sink, i, j + 1, ENTITY);
+                            i = j + 1;
+                            continue;
+                        }
+                    }
+                    i++;
+                    break;
+                }
+                case IN_TAG: {
+                    char c = text.charAt(i);
+                    if (c == '>' || c == '/' && i + 1 < to && text.charAt(i + 1) == '>') {
+                        int end = c == '>' ? i + 1 : i + 2;
+                        emit(sink, i, end, TAG);
+                        i = end;
+                        if (c == '/') state = TEXT;
+                        else state = kind == SCRIPT_TAG ? SCRIPT : kind == STYLE_TAG ? STYLE : TEXT;
+                    } else if (c == '"' || c == '\'') {
+                        int end = indexOf(text, i + 1, to, c);
+                        emit(sink, i, end < 0 ? to : end + 1, VALUE);
+                        if (end < 0) return (c == '"' ? TAG_DOUBLE : TAG_SINGLE) | kind << KIND_SHIFT;
+                        i = end + 1;
+                    } else if (isNameChar(c)) {
+                        int j = i;
+                        while (j < to && isAttributeChar(text.charAt(j))) j++;
+                        emit(sink, i, j, previousNonSpace(text, from, i) == '=' ? VALUE : ATTRIBUTE);
+                        i = j;
+                    } else i++;
+                    break;
+                }
+                case TAG_DOUBLE:
+                case TAG_SINGLE: {
+                    int end = indexOf(text, i, to, mode == TAG_DOUBLE ? '"' : '\'');
+                    emit(sink, i, end < 0 ? to : end + 1, VALUE);
+                    if (end < 0) return state;
+                    i = end + 1;
+                    state = IN_TAG | kind << KIND_SHIFT;
+                    break;
+                }
+                case IN_COMMENT: {
+                    int end = indexOf(text, i, to, "-->");
+                    emit(sink, i, end < 0 ? to : end + 3, COMMENT);
+                    if (end < 0) return state;
+                    i = end + 3;
+                    state = TEXT;
+                    break;
+                }
+                case SCRIPT:
+                case STYLE: {
+                    boolean script = mode == SCRIPT;
+                    char c = text.charAt(i);
+                    if (c == '<' && matches(text, i, to, script ? "</script" : "</style")) {
+                        state = TEXT;   // the closing tag is lexed as HTML
+                    } else if (c == '/' && i + 1 < to && text.charAt(i + 1) == '*') {
+                        int end = indexOf(text, i + 2, to, "*/");
+                        emit(sink, i, end < 0 ? to : end + 2, COMMENT);
+                        if (end < 0) return script ? SCRIPT_COMMENT : STYLE_COMMENT;
+                        i = end + 2;
+                    } else if (script && c == '/' && i + 1 < to && text.charAt(i + 1) == '/') {
+                        int end = indexOf(text, i, to, "</script");     // even in a comment
+                        emit(sink, i, end < 0 ? to : end, COMMENT);
+                        i = end < 0 ? to : end;
+                    } else if (c == '"' || c == '\'') {
+                        int end = stringEnd(text, i + 1, to, c);
+                        emit(sink, i, end < 0 ? to : end, STRING);
+                        i = end < 0 ? to : end;     // other strings end with the line
+                    } else if (script && c == '`') {
+                        int end = stringEnd(text, i + 1, to, '`');
+                        emit(sink, i, end < 0 ? to : end, STRING);
+                        if (end < 0) return SCRIPT_TEMPLATE;
+                        i = end;
+                    } else if (isDigit(c) && (i == from || !isIdentifierChar(text.charAt(i - 1)))) {
+                        int j = i + 1;
+                        while (j < to && (isIdentifierChar(text.charAt(j)) || text.charAt(j) == '.'
+                                || text.charAt(j) == '%')) j++;
+                        emit(sink, i, j, NUMBER);
+                        i = j;
+                    } else if (isIdentifierStart(c)) {
+                        int j = i + 1;
+                        while (j < to && isIdentifierChar(text.charAt(j))) j++;
+                        if (script && sink != null && KEYWORDS.contains(text.subSequence(i, j).toString()))
+                            sink.span(i, j, KEYWORD);
+                        i = j;
+                    } else i++;
+                    break;
+                }
+                case SCRIPT_COMMENT:
+                case STYLE_COMMENT: {
+                    int end = indexOf(text, i, to, "*/");
+                    emit(sink, i, end < 0 ? to : end + 2, COMMENT);
+                    if (end < 0) return state;
+                    i = end + 2;
+                    state = mode == SCRIPT_COMMENT ? SCRIPT : STYLE;
+                    break;
+                }
+                case SCRIPT_TEMPLATE: {
+                    int end = stringEnd(text, i, to, '`');
+                    emit(sink, i, end < 0 ? to : end, STRING);
+                    if (end < 0) return state;
+                    i = end;
+                    state = SCRIPT;
+                    break;
+                }
+                default:
+                    return TEXT;
+            }
+        }
+        return state;
+    }
+
+    private static void emit(Sink sink, int start, int end, int type) {
+        if (sink != null && end > start) sink.span(start, end, type);
+    }
+
+    /**
+     * Returns the offset after the closing quote, skipping escaped
+     * quotes, or -1 if the string isn't closed on this line
+     */
+    private static int stringEnd(CharSequence text, int from, int to, char quote) {
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c == '\\') i++;
+            else if (c == quote) return i + 1;
+        }
+        return -1;
+    }
+
+    private static int indexOf(CharSequence text, int from, int to, char c) {
+        for (int i = from; i < to; i++)
+            if (text.charAt(i) == c) return i;
+        return -1;
+    }
+
+    private static int indexOf(CharSequence text, int from, int to, String s) {
+        for (int i = from; i <= to - s.length(); i++)
+            if (matches(text, i, to, s)) return i;
+        return -1;
+    }
+
+    /**
+     * Tells whether the text at this offset starts with the string,
+     * ignoring the case of ASCII letters
+     */
+    private static boolean matches(CharSequence text, int at, int to, String s) {
+        if (to - at < s.length()) return false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = text.charAt(at + i);
+            if (c >= 'A' && c <= 'Z') c += 'a' - 'A';
+            if (c != s.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static char previousNonSpace(CharSequence text, int from, int at) {
+        for (int i = at - 1; i >= from; i--)
+            if (!Character.isWhitespace(text.charAt(i))) return text.charAt(i);
+        return 0;
+    }
+
+    private static boolean isLetter(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isNameChar(char c) {
+        return isLetter(c) || isDigit(c) || c == '-' || c == ':' || c == '_';
+    }
+
+    private static boolean isAttributeChar(char c) {
+        return c > ' ' && c != '=' && c != '>' && c != '/' && c != '"' && c != '\'';
+    }
+
+    private static boolean isIdentifierStart(char c) {
+        return isLetter(c) || c == '_' || c == '$';
+    }
+
+    private static boolean isIdentifierChar(char c) {
+        return isIdentifierStart(c) || isDigit(c);
+    }
+}
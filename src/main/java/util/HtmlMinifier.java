@@ -0,0 +1,66 @@
+package util;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * An export stage that makes HTML smaller without changing how it
+ * renders: whitespace runs are collapsed to a single space, whitespace
+ * inside tags is reduced to what separates the attributes and comments
+ * are removed (except conditional comments). The content of
+ * <code>pre</code>, <code>textarea</code>, <code>script</code> and
+ * <code>style</code> elements and quoted attribute values are kept as
+ * they are.
+ * <p>
+ * The HTML is minified while it's written, so it can be streamed
+ * straight into a file. A whitespace run is only written once the next
+ * text or tag follows it, so there's no space at the start or end of the
+ * output. Contains no JavaFX code so it can be used from headless tools.
+ */
+public final class HtmlMinifier extends HtmlStreamWriter {
+
+    private boolean space;  // a whitespace run waits for what follows it
+
+    /**
+     * Constructs a new HtmlMinifier instance
+     *
+     * @param out receives the minified HTML
+     */
+    public HtmlMinifier(Writer out) {
+        super(out);
+    }
+
+    @Override
+    void whitespace() {
+        space = true;
+    }
+
+    @Override
+    void beforeText() throws IOException {
+        separate();
+    }
+
+    @Override
+    void beforeTag(String name, boolean closing) throws IOException {
+        separate();
+    }
+
+    @Override
+    void afterTag(String name, boolean closing, boolean selfClosing) {
+    }
+
+    @Override
+    boolean beforeComment(boolean conditional) throws IOException {
+        if (conditional) separate();
+        return conditional;
+    }
+
+    /**
+     * Writes the space of a whitespace run, unless it's the start of the
+     * output or follows another space (e.g. around a removed comment)
+     */
+    private void separate() throws IOException {
+        if (space && last() != 0 && last() != ' ') emit(' ');
+        space = false;
+    }
+}
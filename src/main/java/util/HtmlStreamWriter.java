@@ -0,0 +1,357 @@
+package util;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * The base of the streaming HTML export stages: splits the characters
+ * written to it into text, tags and comments and passes them on to the
+ * next writer as they arrive, so any amount of HTML is processed with
+ * the same small amount of memory.
+ * <p>
+ * Whitespace inside tags is reduced to what separates the attributes,
+ * quoted attribute values are kept as they are and the content of
+ * <code>pre</code>, <code>textarea</code>, <code>script</code> and
+ * <code>style</code> elements is copied verbatim. Subclasses decide what
+ * happens to the whitespace between tags, the comments and the line
+ * breaks.
+ */
+abstract class HtmlStreamWriter extends Writer {
+
+    /**
+     * Elements whose content is copied verbatim
+     */
+    private static final String[] RAW_ELEMENTS = {"pre", "textarea", "script", "style"};
+
+    /**
+     * The longest tag start that is buffered, a longer tag name is cut
+     */
+    private static final int MAX_NAME = 32;
+
+    // states
+    private static final int TEXT = 0, TAG_OPEN = 1, TAG_NAME = 2, TAG = 3, QUOTED = 4,
+            COMMENT_START = 5, COMMENT = 6, RAW = 7, RAW_END = 8;
+
+    private final Writer out;
+    private final char[] buffer = new char[8192];   // the output not yet passed on
+    private int buffered;
+    private int state = TEXT;
+    private char last;                      // the last character written
+
+    private final StringBuilder tagStart = new StringBuilder(MAX_NAME + 2);
+    private final StringBuilder name = new StringBuilder(MAX_NAME);
+    private boolean closing, space, slash;  // space and slash are held back inside tags
+    private char quote;
+
+    private boolean keepComment;
+    private int dashes;
+
+    private String rawEnd;                  // "</name" of the raw element
+    private int rawMatched;
+
+    private boolean inWhitespace;
+
+    /**
+     * Constructs a new HtmlStreamWriter instance
+     *
+     * @param out receives the processed HTML
+     */
+    HtmlStreamWriter(Writer out) {
+        this.out = out;
+    }
+
+    /// HOOKS /////////////////////////////////////////////////////////////
+
+    /**
+     * Called for the first character of a whitespace run between tags
+     */
+    abstract void whitespace() throws IOException;
+
+    /**
+     * Called before a character of text is written
+     */
+    abstract void beforeText() throws IOException;
+
+    /**
+     * Called before a tag is written, except for the closing tags of raw
+     * elements which have to follow their content directly
+     *
+     * @param name    the lower case tag name, such as "p" or "!doctype"
+     * @param closing <code>true</code> for a closing tag
+     */
+    abstract void beforeTag(String name, boolean closing) throws IOException;
+
+    /**
+     * Called after a tag has been written
+     *
+     * @param name        the lower case tag name
+     * @param closing     <code>true</code> for a closing tag
+     * @param selfClosing <code>true</code> if the tag ends with
+     *                    <code>/&gt;</code>
+     */
+    abstract void afterTag(String name, boolean closing, boolean selfClosing) throws IOException;
+
+    /**
+     * Tells whether a comment is written, and prepares for writing it
+     *
+     * @param conditional <code>true</code> for conditional comments such
+     *                    as <code>&lt;!--[if IE]&gt;</code>
+     * @return <code>true</code> to keep the comment
+     */
+    abstract boolean beforeComment(boolean conditional) throws IOException;
+
+    /**
+     * Called once all input has been processed
+     */
+    void finish() throws IOException {
+    }
+
+    /// OUTPUT ////////////////////////////////////////////////////////////
+
+    /**
+     * Writes a character to the next writer
+     */
+    final void emit(char c) throws IOException {
+        if (buffered == buffer.length) drain();
+        buffer[buffered++] = c;
+        last = c;
+    }
+
+    /**
+     * Writes a string to the next writer
+     */
+    final void emit(CharSequence s) throws IOException {
+        for (int i = 0; i < s.length(); i++) emit(s.charAt(i));
+    }
+
+    /**
+     * @return the last character written, or 0 if nothing was written
+     */
+    final char last() {
+        return last;
+    }
+
+    /**
+     * Tells whether this element's content is copied verbatim
+     *
+     * @param name the lower case tag name
+     * @return <code>true</code> for raw elements
+     */
+    static boolean isRaw(String name) {
+        for (String raw : RAW_ELEMENTS)
+            if (raw.equals(name)) return true;
+        return false;
+    }
+
+    /// INPUT /////////////////////////////////////////////////////////////
+
+    @Override
+    public void write(char[] chars, int offset, int length) throws IOException {
+        for (int i = offset, end = offset + length; i < end; i++) process(chars[i]);
+    }
+
+    @Override
+    public void write(String s, int offset, int length) throws IOException {
+        for (int i = offset, end = offset + length; i < end; i++) process(s.charAt(i));
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        process((char) c);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    private void drain() throws IOException {
+        out.write(buffer, 0, buffered);
+        buffered = 0;
+    }
+
+    /**
+     * Writes out what's still held back and closes the next writer
+     */
+    @Override
+    public void close() throws IOException {
+        if (state == TAG_OPEN || state == TAG_NAME) startTag();
+        if (slash) emit('/');
+        state = TEXT;
+        finish();
+        drain();
+        out.close();
+    }
+
+    private void process(char c) throws IOException {
+        switch (state) {
+            case TEXT:
+                text(c);
+                break;
+            case TAG_OPEN:
+                if (c == '/' && !closing) {
+                    closing = true;
+                    tagStart.append(c);
+                } else if (isLetter(c) || !closing && (c == '!' || c == '?')) {
+                    state = TAG_NAME;
+                    process(c);
+                } else {    // not a tag, such as "a < b"
+                    state = TEXT;
+                    beforeText();
+                    emit(tagStart);
+                    text(c);
+                }
+                break;
+            case TAG_NAME:
+                if ((isNameChar(c) || name.length() == 0) && name.length() < MAX_NAME) {
+                    tagStart.append(c);
+                    name.append(Character.toLowerCase(c));
+                    if (!closing && name.length() == 3 && name.toString().equals("!--")) state = COMMENT_START;
+                } else {
+                    startTag();
+                    process(c);
+                }
+                break;
+            case TAG:
+                tag(c);
+                break;
+            case QUOTED:
+                emit(c);
+                if (c == quote) state = TAG;
+                break;
+            case COMMENT_START:
+                keepComment = beforeComment(c == '[');
+                if (keepComment) emit("<!--");
+                dashes = 0;
+                state = COMMENT;
+                process(c);
+                break;
+            case COMMENT:
+                if (keepComment) emit(c);
+                if (c == '>' && dashes >= 2) state = TEXT;
+                dashes = c == '-' ? dashes + 1 : 0;
+                break;
+            case RAW:
+                raw(c);
+                break;
+            case RAW_END:
+                if (isNameChar(c)) {    // a longer name, such as "</prefix"
+                    state = RAW;
+                    raw(c);
+                } else {
+                    state = TAG;
+                    tag(c);
+                }
+                break;
+        }
+    }
+
+    private void text(char c) throws IOException {
+        if (c == '<') {
+            state = TAG_OPEN;
+            inWhitespace = false;
+            closing = false;
+            tagStart.setLength(0);
+            tagStart.append(c);
+            name.setLength(0);
+        } else if (Character.isWhitespace(c)) {
+            if (!inWhitespace) whitespace();
+            inWhitespace = true;
+        } else {
+            inWhitespace = false;
+            beforeText();
+            emit(c);
+        }
+    }
+
+    /**
+     * Writes the buffered start of a tag once its name is known
+     */
+    private void startTag() throws IOException {
+        beforeTag(name.toString(), closing);
+        emit(tagStart);
+        space = slash = false;
+        state = TAG;
+    }
+
+    /**
+     * Copies a character of a tag, collapsing the whitespace outside of
+     * the quoted values
+     */
+    private void tag(char c) throws IOException {
+        if (slash) {    // no space before "/>"
+            slash = false;
+            if (c == '>') {
+                emit("/>");
+                endTag(true);
+                return;
+            }
+            separate();
+            emit('/');
+        }
+        if (Character.isWhitespace(c)) {
+            space = true;
+        } else if (c == '/') {
+            slash = true;
+        } else if (c == '>') {
+            space = false;
+            emit(c);
+            endTag(false);
+        } else {
+            if (c != '=') separate();   // no space around '='
+            space = false;
+            emit(c);
+            if (c == '"' || c == '\'') {
+                quote = c;
+                state = QUOTED;
+            }
+        }
+    }
+
+    /**
+     * Writes a held back space between two attributes
+     */
+    private void separate() throws IOException {
+        if (space && last != '=') emit(' ');
+        space = false;
+    }
+
+    private void endTag(boolean selfClosing) throws IOException {
+        String tag = name.toString();
+        afterTag(tag, closing, selfClosing);
+        if (!closing && !selfClosing && isRaw(tag)) {
+            state = RAW;
+            rawEnd = "</" + tag;
+            rawMatched = 0;
+        } else {
+            state = TEXT;
+        }
+    }
+
+    /**
+     * Copies the content of a raw element until its closing tag
+     */
+    private void raw(char c) throws IOException {
+        emit(c);
+        if (Character.toLowerCase(c) == rawEnd.charAt(rawMatched)) rawMatched++;
+        else rawMatched = c == '<' ? 1 : 0;
+        if (rawMatched == rawEnd.length()) {
+            rawMatched = 0;
+            closing = true;
+            name.setLength(0);
+            name.append(rawEnd, 2, rawEnd.length());
+            space = slash = false;
+            state = RAW_END;
+        }
+    }
+
+    private static boolean isLetter(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z';
+    }
+
+    private static boolean isNameChar(char c) {
+        return isLetter(c) || c >= '0' && c <= '9'
+                || c == '-' || c == '_' || c == ':' || c == '.';
+    }
+}
@@ -0,0 +1,254 @@
+package util;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Stream;
+
+/**
+ * An on-disk cache of downloaded web pages. Every page is stored with
+ * the validators the server sent for it (<code>ETag</code> and
+ * <code>Last-Modified</code>), so the next download of the same address
+ * can ask the server whether the page changed and reuse the stored copy
+ * if it didn't. Pages without validators, or that the server asked not to
+ * store, aren't cached.
+ * <p>
+ * An entry is a <code>.page</code> file with the response body and a
+ * <code>.meta</code> file with the headers, named after the hash of the
+ * address. The least recently used entries are deleted once the cache
+ * grows over its budget.
+ * <p>
+ * Contains no JavaFX code so it can be used from headless tools.
+ */
+public final class HttpCache {
+
+    /**
+     * The default disk budget in bytes
+     */
+    private static final long DISK_BUDGET = 128L << 20;
+
+    private final Path directory;
+    private final long budget;
+
+    /**
+     * A stored page
+     */
+    public static final class Entry {
+
+        private final Path body;
+        private final String etag, lastModified, contentType;
+
+        private Entry(Path body, String etag, String lastModified, String contentType) {
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.contentType = contentType;
+        }
+
+        /**
+         * @return the file with the response body
+         */
+        public Path getBody() {
+            return body;
+        }
+
+        /**
+         * @return the <code>ETag</code> header or <code>null</code>
+         */
+        public String getEtag() {
+            return etag;
+        }
+
+        /**
+         * @return the <code>Last-Modified</code> header or
+         * <code>null</code>
+         */
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * @return the <code>Content-Type</code> header or
+         * <code>null</code>
+         */
+        public String getContentType() {
+            return contentType;
+        }
+    }
+
+    /**
+     * Constructs a new HttpCache instance
+     *
+     * @param directory the cache directory, created if it doesn't exist
+     * @param budget    the maximum size of the stored pages in bytes
+     * @throws IOException if the directory can't be created
+     */
+    public HttpCache(Path directory, long budget) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.budget = budget;
+    }
+
+    /**
+     * Constructs a new HttpCache instance with the default budget
+     *
+     * @param directory the cache directory, created if it doesn't exist
+     * @throws IOException if the directory can't be created
+     */
+    public HttpCache(Path directory) throws IOException {
+        this(directory, DISK_BUDGET);
+    }
+
+    /**
+     * Finds the stored copy of this page
+     *
+     * @param uri the address of the page
+     * @return the entry or <code>null</code> if it isn't stored
+     */
+    public synchronized Entry lookup(URI uri) {
+        String key = key(uri);
+        Path meta = directory.resolve(key + ".meta"), body = directory.resolve(key + ".page");
+        if (!Files.isRegularFile(meta) || !Files.isRegularFile(body)) return null;
+        try {
+            Properties headers = new Properties();
+            headers.load(new StringReader(new String(Files.readAllBytes(meta), StandardCharsets.UTF_8)));
+            if (!uri.toString().equals(headers.getProperty("uri"))) return null;     // a hash collision
+            return new Entry(body, headers.getProperty("etag"), headers.getProperty("last-modified"),
+                    headers.getProperty("content-type"));
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Marks an entry as used, so it's deleted after the ones that
+     * weren't used since
+     *
+     * @param entry the entry
+     */
+    public synchronized void touch(Entry entry) {
+        try {
+            Files.setLastModifiedTime(entry.body, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignored) { }
+    }
+
+    /**
+     * Creates a file in the cache directory to download a page into, so
+     * it can be stored by renaming it
+     *
+     * @return the new empty file
+     * @throws IOException if it can't be created
+     */
+    public Path createDownloadFile() throws IOException {
+        return Files.createTempFile(directory, "download", ".tmp");
+    }
+
+    /**
+     * Stores a downloaded page, replacing the previous copy
+     *
+     * @param uri          the address of the page
+     * @param download     the downloaded body, created with
+     *                     {@link #createDownloadFile()}, moved into the
+     *                     cache
+     * @param etag         the <code>ETag</code> header or
+     *                     <code>null</code>
+     * @param lastModified the <code>Last-Modified</code> header or
+     *                     <code>null</code>
+     * @param contentType  the <code>Content-Type</code> header or
+     *                     <code>null</code>
+     * @return the stored entry
+     * @throws IOException on write errors
+     */
+    public synchronized Entry store(URI uri, Path download, String etag, String lastModified,
+                                    String contentType) throws IOException {
+        String key = key(uri);
+        Path meta = directory.resolve(key + ".meta"), body = directory.resolve(key + ".page");
+        Properties headers = new Properties();
+        headers.setProperty("uri", uri.toString());
+        if (etag != null) headers.setProperty("etag", etag);
+        if (lastModified != null) headers.setProperty("last-modified", lastModified);
+        if (contentType != null) headers.setProperty("content-type", contentType);
+        StringWriter text = new StringWriter();
+        headers.store(text, null);
+
+        Files.deleteIfExists(meta);     // a body without headers is never used
+        try {
+            Files.move(download, body, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(download, body, StandardCopyOption.REPLACE_EXISTING);
+        }
+        DocumentWriter.writeAtomically(meta, text.toString());
+        trim(body);
+        return new Entry(body, etag, lastModified, contentType);
+    }
+
+    /**
+     * Deletes the least recently used pages once the cache grows over its
+     * budget, except the one just stored
+     */
+    private void trim(Path keep) throws IOException {
+        List<Path> pages = new ArrayList<>();
+        long total = 0;
+        try (Stream<Path> list = Files.list(directory)) {
+            for (Path p : (Iterable<Path>) list::iterator) {
+                if (!p.getFileName().toString().endsWith(".page")) continue;
+                pages.add(p);
+                total += Files.size(p);
+            }
+        }
+        if (total <= budget) return;
+        pages.sort(Comparator.comparing(p -> p.toFile().lastModified()));
+        for (Path p : pages) {
+            if (total <= budget) break;
+            if (p.equals(keep)) continue;
+            total -= Files.size(p);
+            String name = p.getFileName().toString();
+            Files.deleteIfExists(p.resolveSibling(name.substring(0, name.length() - 5) + ".meta"));
+            Files.deleteIfExists(p);
+        }
+    }
+
+    /**
+     * @return the cache directory
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns the file name of the entry of this address, the SHA-256
+     * hash of the address
+     */
+    private static String key(URI uri) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        StringBuilder sb = new StringBuilder(64);
+        for (byte b : digest.digest(uri.toString().getBytes(StandardCharsets.UTF_8)))
+            sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    /**
+     * @return the default cache location
+     */
+    public static Path defaultDirectory() {
+        return Paths.get(VersionData.CACHE_LOCATION, "pages");
+    }
+}
@@ -0,0 +1,402 @@
+package util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * A content-addressed cache of encoded images. A file is identified by
+ * its path, modification time and size; the first time it's seen its
+ * content is hashed, and the encoded data URIs and preview thumbnails
+ * are stored under that hash. The same image at several paths is thus
+ * encoded only once, and a changed file gets a new hash.
+ * <p>
+ * Entries are kept in memory, least recently used first out once the
+ * byte budget is exceeded. An optional disk tier keeps them (and the
+ * path to hash index) across restarts; it's written in the background.
+ * <p>
+ * Contains no JavaFX code so it can be used from headless tools.
+ */
+public final class ImageCache {
+
+    /**
+     * The default in-memory budget in bytes
+     */
+    private static final long MEMORY_BUDGET = 64L << 20;
+
+    /**
+     * The default disk budget in bytes
+     */
+    private static final long DISK_BUDGET = 256L << 20;
+
+    /**
+     * The maximum number of remembered file identities
+     */
+    private static final int MAX_KEYS = 4096;
+
+    /**
+     * The name of the path to hash index file in the disk tier
+     */
+    private static final String INDEX = "keys.idx";
+
+    private static ImageCache defaultCache;
+
+    /**
+     * A cached data URI
+     */
+    public static final class Entry {
+
+        private final String dataUri;
+        private final ImageEmbedder.Result result;
+
+        private Entry(String dataUri, ImageEmbedder.Result result) {
+            this.dataUri = dataUri;
+            this.result = result;
+        }
+
+        /**
+         * @return the data URI of the image
+         */
+        public String getDataUri() {
+            return dataUri;
+        }
+
+        /**
+         * @return the description of the encoded image
+         */
+        public ImageEmbedder.Result getResult() {
+            return result;
+        }
+    }
+
+    private final long memoryBudget;
+    private final Map<String, String> hashes = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_KEYS;
+        }
+    };
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final ExecutorService diskWriter =
+            Executors.newSingleThreadExecutor(Threads.daemonFactory("image-cache"));
+    private Path directory;
+    private long memoryBytes;
+    private long hits, diskHits, misses, hashed, evictions;
+
+    /**
+     * Constructs a new ImageCache instance
+     *
+     * @param memoryBudget the maximum number of bytes kept in memory
+     * @param directory    the disk tier directory or <code>null</code>
+     *                     to keep everything in memory only
+     */
+    public ImageCache(long memoryBudget, Path directory) {
+        this.memoryBudget = memoryBudget;
+        setDirectory(directory);
+    }
+
+    /**
+     * Returns the cache shared by the whole program, memory-only until
+     * a disk tier is configured
+     *
+     * @return the shared cache
+     */
+    public static synchronized ImageCache getDefault() {
+        if (defaultCache == null) {
+            defaultCache = new ImageCache(MEMORY_BUDGET, null);
+            Diagnostics.register("Image cache", defaultCache::getStatistics);
+        }
+        return defaultCache;
+    }
+
+    /**
+     * Enables or disables the disk tier
+     *
+     * @param directory the disk tier directory or <code>null</code> to
+     *                  disable it
+     */
+    public synchronized void setDirectory(Path directory) {
+        this.directory = directory;
+        if (directory == null) return;
+        try {
+            Files.createDirectories(directory);
+            readIndex();
+        } catch (IOException e) {
+            System.err.println("Opening the image cache failed: " + e.getMessage());
+            this.directory = null;
+        }
+    }
+
+    /**
+     * Returns the data URI of this image, encoding it if it isn't cached
+     *
+     * @param file    the image file
+     * @param options the recompression limits
+     * @return the cached data URI
+     * @throws IOException if reading the image fails
+     */
+    public Entry dataUri(Path file, ImageEmbedder.Options options) throws IOException {
+        String variant = options.getMaxDimension() + "x" + options.getMaxBytes();
+        return get(file, variant, () -> {
+            StringBuilder sb = new StringBuilder();
+            ImageEmbedder.Result result = ImageEmbedder.appendDataUri(file, options, sb);
+            return new Entry(sb.toString(), result);
+        });
+    }
+
+    /**
+     * Returns a small preview of this image as a data URI
+     *
+     * @param file the image file
+     * @param size the maximum width and height in pixels
+     * @return the cached thumbnail
+     * @throws IOException if reading the image fails
+     */
+    public Entry thumbnail(Path file, int size) throws IOException {
+        return get(file, "thumb" + size, () -> {
+            StringBuilder sb = new StringBuilder();
+            ImageEmbedder.Result result = ImageEmbedder.encodeDataUri(file,
+                    new ImageEmbedder.Options(size, 0), sb);
+            return new Entry(sb.toString(), result);
+        });
+    }
+
+    /**
+     * Encodes an image on a cache miss
+     */
+    private interface Encoder {
+        Entry encode() throws IOException;
+    }
+
+    /**
+     * Looks the variant of this file up in memory, then on disk, and
+     * encodes it if neither has it
+     */
+    private Entry get(Path file, String variant, Encoder encoder) throws IOException {
+        file = file.toAbsolutePath();
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        String key = file + "|" + attributes.lastModifiedTime().toMillis() + "|" + attributes.size();
+
+        String hash;
+        synchronized (this) {
+            hash = hashes.get(key);
+        }
+        if (hash == null) {
+            hash = hash(file);
+            synchronized (this) {
+                hashes.put(key, hash);
+                hashed++;
+                if (directory != null) appendIndex(directory, key, hash);
+            }
+        }
+
+        String id = hash + "-" + variant;
+        Entry entry;
+        Path disk;
+        synchronized (this) {
+            entry = entries.get(id);
+            if (entry != null) {
+                hits++;
+                return entry;
+            }
+            disk = directory == null ? null : directory.resolve(id + ".uri");
+        }
+
+        entry = disk != null ? readEntry(disk) : null;
+        synchronized (this) {
+            if (entry != null) diskHits++;
+            else misses++;
+        }
+        if (entry == null) {
+            entry = encoder.encode();
+            if (disk != null) writeEntry(disk, entry);
+        }
+        put(id, entry);
+        return entry;
+    }
+
+    /**
+     * Stores the entry in memory, evicting the least recently used ones
+     * over the budget
+     */
+    private synchronized void put(String id, Entry entry) {
+        long size = entry.dataUri.length();
+        if (size > memoryBudget) return;
+        Entry previous = entries.put(id, entry);
+        if (previous != null) memoryBytes -= previous.dataUri.length();
+        memoryBytes += size;
+
+        var iterator = entries.values().iterator();
+        while (memoryBytes > memoryBudget && iterator.hasNext()) {
+            memoryBytes -= iterator.next().dataUri.length();
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Empties the in-memory tier
+     */
+    public synchronized void clear() {
+        entries.clear();
+        hashes.clear();
+        memoryBytes = 0;
+    }
+
+    /**
+     * Computes the SHA-256 hash of the file content
+     */
+    private static String hash(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        byte[] buffer = new byte[64 << 10];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) digest.update(buffer, 0, read);
+        }
+        StringBuilder sb = new StringBuilder(64);
+        for (byte b : digest.digest()) sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    /// DISK TIER ///////////////////////////////////////////////////////////////////////
+
+    /**
+     * Loads the path to hash index written by earlier sessions
+     */
+    private void readIndex() throws IOException {
+        Path index = directory.resolve(INDEX);
+        if (!Files.isRegularFile(index)) return;
+        List<String> lines = Files.readAllLines(index, StandardCharsets.UTF_8);
+        for (String line : lines) {
+            int tab = line.indexOf('\t');
+            if (tab == 64) hashes.put(line.substring(tab + 1), line.substring(0, tab));
+        }
+        // rewrite the index once it has collected many stale lines
+        if (lines.size() > 2 * MAX_KEYS) {
+            List<String> current = new ArrayList<>(hashes.size());
+            hashes.forEach((key, hash) -> current.add(hash + "\t" + key));
+            DocumentWriter.writeAtomically(index, String.join("\n", current) + "\n");
+        }
+    }
+
+    /**
+     * Appends a path to hash mapping to the index in the background
+     */
+    private void appendIndex(Path directory, String key, String hash) {
+        diskWriter.execute(() -> {
+            try (BufferedWriter out = Files.newBufferedWriter(directory.resolve(INDEX),
+                    StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                out.write(hash + "\t" + key + "\n");
+            } catch (IOException e) {
+                System.err.println("Writing the image cache index failed: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Reads an entry from the disk tier, the first line describes the
+     * image and the second is the data URI
+     *
+     * @return the entry or <code>null</code> if it's missing or damaged
+     */
+    private static Entry readEntry(Path path) {
+        if (!Files.isRegularFile(path)) return null;
+        try {
+            String content = new String(Files.readAllBytes(path), StandardCharsets.ISO_8859_1);
+            int newline = content.indexOf('\n');
+            String[] fields = content.substring(0, Math.max(0, newline)).split("\t");
+            if (fields.length != 4) return null;
+            ImageEmbedder.Result result = new ImageEmbedder.Result(fields[0],
+                    Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                    Boolean.parseBoolean(fields[3]));
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+            return new Entry(content.substring(newline + 1), result);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes an entry to the disk tier in the background and trims the
+     * tier to its budget
+     */
+    private void writeEntry(Path path, Entry entry) {
+        diskWriter.execute(() -> {
+            ImageEmbedder.Result r = entry.result;
+            String header = r.getMimeType() + "\t" + r.getOriginalSize() + "\t"
+                    + r.getEmbeddedSize() + "\t" + r.isRecompressed() + "\n";
+            try {
+                DocumentWriter.writeAtomically(path, header + entry.dataUri,
+                        StandardCharsets.ISO_8859_1, false);
+                trimDisk(path.getParent());
+            } catch (IOException e) {
+                System.err.println("Writing the image cache failed: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Deletes the least recently used entries once the disk tier grows
+     * over its budget
+     */
+    private static void trimDisk(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        long total = 0;
+        try (Stream<Path> list = Files.list(directory)) {
+            for (Path p : (Iterable<Path>) list::iterator) {
+                if (!p.getFileName().toString().endsWith(".uri")) continue;
+                files.add(p);
+                total += Files.size(p);
+            }
+        }
+        if (total <= DISK_BUDGET) return;
+        files.sort(Comparator.comparing(p -> p.toFile().lastModified()));
+        for (Path p : files) {
+            if (total <= DISK_BUDGET) break;
+            total -= Files.size(p);
+            Files.deleteIfExists(p);
+        }
+    }
+
+    /**
+     * @return a summary of the cache activity
+     */
+    private synchronized String getStatistics() {
+        long lookups = hits + diskHits + misses;
+        return String.format("Lookups: %d, memory hits: %d, disk hits: %d, misses: %d (%.0f%% hit rate)%n"
+                        + "Files hashed: %d, entries in memory: %d (%s of %s), evicted: %d%nDisk tier: %s",
+                lookups, hits, diskHits, misses, lookups == 0 ? 0 : (hits + diskHits) * 100.0 / lookups,
+                hashed, entries.size(), ImageEmbedder.formatSize(memoryBytes),
+                ImageEmbedder.formatSize(memoryBudget), evictions,
+                directory == null ? "disabled" : directory.toString());
+    }
+
+    /**
+     * @return the default disk tier location
+     */
+    public static Path defaultDirectory() {
+        return Paths.get(VersionData.CACHE_LOCATION, "images");
+    }
+}
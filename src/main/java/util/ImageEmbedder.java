@@ -0,0 +1,366 @@
+package util;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Locale;
+
+/**
+ * Embeds local images into documents as base64 data URIs. The file is
+ * streamed through the encoder in blocks straight into the output
+ * buffer, which is sized up front, so only the encoded text is held in
+ * memory. Optionally, images are downsized and recompressed to fit a
+ * pixel size and a byte budget before they're embedded.
+ * <p>
+ * Contains no JavaFX code so it can be used from headless tools.
+ */
+public final class ImageEmbedder {
+
+    /**
+     * Non-instantiable
+     */
+    private ImageEmbedder() {
+    }
+
+    /**
+     * The number of bytes encoded at once (a multiple of 3, so only the
+     * last block is padded)
+     */
+    private static final int BLOCK = 48 << 10;
+
+    /**
+     * JPEG qualities tried in turn until the image fits the byte budget
+     */
+    private static final float[] QUALITIES = {0.85f, 0.7f, 0.55f, 0.4f};
+
+    private static final LatencyStats embedStats = new LatencyStats();
+    private static long originalBytes, embeddedBytes, recompressed;
+
+    static {
+        Diagnostics.register("Images", ImageEmbedder::getStatistics);
+    }
+
+    /**
+     * Limits for the optional recompression stage
+     */
+    public static final class Options {
+
+        /**
+         * Embeds images as they are
+         */
+        public static final Options NONE = new Options(0, 0);
+
+        private final int maxDimension;
+        private final long maxBytes;
+
+        /**
+         * Constructs a new Options instance
+         *
+         * @param maxDimension the maximum width and height in pixels or
+         *                     0 for no limit
+         * @param maxBytes     the maximum image size in bytes or 0 for
+         *                     no limit
+         */
+        public Options(int maxDimension, long maxBytes) {
+            this.maxDimension = Math.max(0, maxDimension);
+            this.maxBytes = Math.max(0, maxBytes);
+        }
+
+        /**
+         * @return <code>true</code> if images may be recompressed
+         */
+        public boolean isEnabled() {
+            return maxDimension > 0 || maxBytes > 0;
+        }
+
+        /**
+         * @return the maximum width and height in pixels (0 = no limit)
+         */
+        public int getMaxDimension() {
+            return maxDimension;
+        }
+
+        /**
+         * @return the maximum image size in bytes (0 = no limit)
+         */
+        public long getMaxBytes() {
+            return maxBytes;
+        }
+    }
+
+    /**
+     * Describes an embedded image
+     */
+    public static final class Result {
+
+        private final String mimeType;
+        private final long originalSize, embeddedSize;
+        private final boolean recompressed;
+
+        Result(String mimeType, long originalSize, long embeddedSize, boolean recompressed) {
+            this.mimeType = mimeType;
+            this.originalSize = originalSize;
+            this.embeddedSize = embeddedSize;
+            this.recompressed = recompressed;
+        }
+
+        /**
+         * @return the MIME type of the embedded image
+         */
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        /**
+         * @return the size of the image file in bytes
+         */
+        public long getOriginalSize() {
+            return originalSize;
+        }
+
+        /**
+         * @return the size of the embedded image in bytes (before base64
+         * encoding)
+         */
+        public long getEmbeddedSize() {
+            return embeddedSize;
+        }
+
+        /**
+         * @return the number of bytes saved by recompressing the image
+         */
+        public long getSaved() {
+            return originalSize - embeddedSize;
+        }
+
+        /**
+         * @return <code>true</code> if the image was recompressed
+         */
+        public boolean isRecompressed() {
+            return recompressed;
+        }
+
+        @Override
+        public String toString() {
+            if (!recompressed) return "Embedded as is: " + formatSize(originalSize);
+            if (getSaved() < 0)
+                return "Downsized: " + formatSize(originalSize) + " to " + formatSize(embeddedSize);
+            return String.format("Recompressed: %s to %s (saved %s, %d%%)", formatSize(originalSize),
+                    formatSize(embeddedSize), formatSize(getSaved()), getSaved() * 100 / originalSize);
+        }
+    }
+
+    /**
+     * Appends the data URI of this image to the buffer
+     *
+     * @param file    the image file
+     * @param options the recompression limits
+     * @param out     the buffer to append to
+     * @return the description of the embedded image
+     * @throws IOException if reading the image fails or it's too large
+     *                     to embed
+     */
+    public static Result appendDataUri(Path file, Options options, StringBuilder out) throws IOException {
+        long start = System.nanoTime();
+        Result result = encodeDataUri(file, options, out);
+        embedStats.recordSince(start);
+        synchronized (ImageEmbedder.class) {
+            originalBytes += result.originalSize;
+            embeddedBytes += result.embeddedSize;
+            if (result.recompressed) recompressed++;
+        }
+        return result;
+    }
+
+    /**
+     * Appends the data URI of this image to the buffer without counting
+     * it in the statistics, used for previews
+     */
+    static Result encodeDataUri(Path file, Options options, StringBuilder out) throws IOException {
+        long size = Files.size(file);
+        String mimeType = mimeType(file.getFileName().toString());
+
+        byte[] smaller = null;
+        if (options.isEnabled() && !mimeType.equals("image/gif") && !mimeType.equals("image/svg+xml")) {
+            BufferedImage image = ImageIO.read(file.toFile());
+            if (image != null && (oversized(image, options)
+                    || (options.maxBytes > 0 && size > options.maxBytes))) {
+                boolean alpha = image.getColorModel().hasAlpha();
+                smaller = recompress(image, alpha, options);
+                // an oversized image is always downsized, otherwise only
+                // use the result if it's actually smaller
+                if (smaller != null && (smaller.length < size || oversized(image, options)))
+                    mimeType = alpha ? "image/png" : "image/jpeg";
+                else smaller = null;
+            }
+        }
+
+        long embedded = smaller == null ? size : smaller.length;
+        out.append("data:").append(mimeType).append(";base64,");
+        try (InputStream in = smaller == null ? Files.newInputStream(file)
+                : new ByteArrayInputStream(smaller)) {
+            encode(in, embedded, out);
+        }
+        return new Result(mimeType, size, embedded, smaller != null);
+    }
+
+    /**
+     * Base64-encodes the stream into the buffer, one block at a time
+     */
+    private static void encode(InputStream in, long size, StringBuilder out) throws IOException {
+        long encodedLength = (size + 2) / 3 * 4;
+        if (out.length() + encodedLength > Integer.MAX_VALUE - 64)
+            throw new IOException("The image is too large to embed");
+        out.ensureCapacity((int) (out.length() + encodedLength + 64));
+
+        Base64.Encoder encoder = Base64.getEncoder();
+        byte[] block = new byte[BLOCK], encoded = new byte[BLOCK / 3 * 4];
+        int read;
+        while ((read = in.readNBytes(block, 0, BLOCK)) > 0) {
+            int length = encoder.encode(read == BLOCK ? block : Arrays.copyOf(block, read), encoded);
+            out.append(new String(encoded, 0, length, StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the image exceeds the pixel limit
+     */
+    private static boolean oversized(BufferedImage image, Options options) {
+        return options.maxDimension > 0
+                && Math.max(image.getWidth(), image.getHeight()) > options.maxDimension;
+    }
+
+    /**
+     * Scales the image down to the pixel limit and encodes it, lowering
+     * the quality and then the size until it fits the byte budget
+     *
+     * @return the encoded image or <code>null</code> if it can't be
+     * encoded
+     */
+    private static byte[] recompress(BufferedImage image, boolean alpha, Options options) throws IOException {
+        int longest = Math.max(image.getWidth(), image.getHeight());
+        double scale = options.maxDimension > 0 ? Math.min(1, (double) options.maxDimension / longest) : 1;
+        byte[] data = null;
+        for (int attempt = 0; attempt < 6; attempt++) {
+            BufferedImage scaled = scale(image, scale, alpha);
+            if (alpha) data = write(scaled, "png", 0);
+            else for (float quality : QUALITIES) {
+                data = write(scaled, "jpeg", quality);
+                if (data == null || options.maxBytes == 0 || data.length <= options.maxBytes) break;
+            }
+            if (data == null || options.maxBytes == 0 || data.length <= options.maxBytes) break;
+
+            // the byte size grows roughly with the pixel count
+            scale *= Math.sqrt((double) options.maxBytes / data.length) * 0.9;
+            if (longest * scale < 16) break;
+        }
+        return data;
+    }
+
+    /**
+     * Scales the image, halving it in steps for a smoother result
+     */
+    private static BufferedImage scale(BufferedImage image, double scale, boolean alpha) {
+        int width = Math.max(1, (int) Math.round(image.getWidth() * scale)),
+                height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+        int type = alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage current = image;
+        do {
+            int w = Math.max(width, current.getWidth() / 2), h = Math.max(height, current.getHeight() / 2);
+            BufferedImage next = new BufferedImage(w, h, type);
+            Graphics2D g = next.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(current, 0, 0, w, h, null);
+            g.dispose();
+            current = next;
+        } while (current.getWidth() != width || current.getHeight() != height);
+        return current;
+    }
+
+    /**
+     * Encodes the image in this format
+     *
+     * @param quality the compression quality (ignored for lossless
+     *                formats)
+     * @return the encoded image or <code>null</code> if there's no writer
+     */
+    private static byte[] write(BufferedImage image, String format, float quality) throws IOException {
+        var writers = ImageIO.getImageWritersByFormatName(format);
+        if (!writers.hasNext()) return null;
+        ImageWriter writer = writers.next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (MemoryCacheImageOutputStream out = new MemoryCacheImageOutputStream(bytes)) {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (quality > 0 && param.canWriteCompressed()) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(quality);
+            }
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Guesses the MIME type of an image from its file name
+     *
+     * @param fileName the file name
+     * @return the MIME type, image/png if there's no extension
+     */
+    public static String mimeType(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        String extension = dot < 0 ? "png" : fileName.substring(dot + 1).toLowerCase(Locale.ROOT);
+        switch (extension) {
+            case "jpg":
+            case "jpe":
+            case "jpeg":
+                return "image/jpeg";
+            case "svg":
+                return "image/svg+xml";
+            case "ico":
+                return "image/x-icon";
+            case "tif":
+                return "image/tiff";
+            default:
+                return "image/" + extension;
+        }
+    }
+
+    /**
+     * Formats a byte count for display
+     *
+     * @param bytes the number of bytes
+     * @return the size in B, KB or MB
+     */
+    public static String formatSize(long bytes) {
+        if (Math.abs(bytes) < 1024) return bytes + " B";
+        if (Math.abs(bytes) < 1024 * 1024) return String.format("%.1f KB", bytes / 1024.0);
+        return String.format("%.1f MB", bytes / (1024.0 * 1024));
+    }
+
+    /**
+     * @return a summary of the images embedded so far
+     */
+    private static synchronized String getStatistics() {
+        return "Images encoded: " + embedStats.getCount() + " (" + recompressed + " recompressed)\n"
+                + "Original size: " + formatSize(originalBytes) + ", embedded: "
+                + formatSize(embeddedBytes) + ", saved: " + formatSize(originalBytes - embeddedBytes) + "\n"
+                + "Encoding time: " + embedStats;
+    }
+}
@@ -0,0 +1,153 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the {@link HtmlLexer} state at the start of every line of a
+ * {@link LineBuffer}, so the tokens of any line can be found by lexing
+ * just that line.
+ * <p>
+ * After an edit, the states before the change are kept and the ones
+ * after it move with their lines. The changed lines are lexed again, and
+ * so are the following lines until their state matches the kept one,
+ * after which nothing further down can change. An edit that changes the
+ * state of everything after it (such as opening a comment) stops being
+ * lexed eagerly after {@link #EAGER_LINES} lines or
+ * {@link #EAGER_CHARS} characters, the rest is lexed when it's first
+ * needed.
+ * <p>
+ * The buffer splits long lines into segments, so lexing a line takes
+ * bounded time even if the whole text is one line. The state carries
+ * over from one segment to the next; a token cut at a segment end, which
+ * the buffer avoids where it can, is lexed as if the line ended there.
+ * <p>
+ * Not thread safe.
+ */
+public final class IncrementalLexer {
+
+    /**
+     * The number of lines after a change that are lexed right away
+     */
+    private static final int EAGER_LINES = 256;
+
+    /**
+     * The number of characters after a change that are lexed right away,
+     * which limits the eager lines when they are long segments
+     */
+    private static final int EAGER_CHARS = 64 << 10;
+
+    private LineBuffer buffer;
+    private int[] states = new int[16];     // the state at the start of each line
+    private int valid = 1;                  // the number of lines whose state is known
+    private long lexedLines;
+
+    /**
+     * Constructs a new IncrementalLexer instance, the lines are lexed
+     * when they're first needed
+     *
+     * @param buffer the text
+     */
+    public IncrementalLexer(LineBuffer buffer) {
+        this.buffer = buffer;
+        states[0] = HtmlLexer.INITIAL;
+    }
+
+    /**
+     * Follows a change of the text
+     *
+     * @param changed the changed text
+     * @param diff    the change from the current text
+     */
+    public void update(LineBuffer changed, TextDiff diff) {
+        LineBuffer old = buffer;
+        buffer = changed;
+        if (diff.isEmpty()) return;
+
+        // a change at the start of a line can join it with the line before
+        int first = Math.max(0, old.getLineOfOffset(diff.getStart()) - 1);
+        if (first + 1 >= valid) {     // nothing known after the change
+            valid = Math.min(valid, first + 1);
+            return;
+        }
+        int oldLast = old.getLineOfOffset(diff.getStart() + diff.getRemoved());
+        int newLast = changed.getLineOfOffset(diff.getStart() + diff.getInserted().length());
+        int delta = changed.getLineCount() - old.getLineCount();
+
+        // move the states after the change along with their lines, they
+        // are only guesses until lexing catches up with them
+        ensureCapacity(changed.getLineCount());
+        int moved = Math.max(0, valid - oldLast - 1);
+        if (moved > 0) System.arraycopy(states, oldLast + 1, states, oldLast + 1 + delta, moved);
+        int guessedFrom = oldLast + 1 + delta, guessed = valid + delta;
+
+        int state = states[first], lines = changed.getLineCount();
+        for (int line = first; line + 1 < lines; line++) {
+            state = lex(line, state, null);
+            if (line + 1 > newLast && line + 1 >= guessedFrom && line + 1 < guessed
+                    && states[line + 1] == state) {
+                valid = guessed;    // back in step, the rest is unchanged
+                return;
+            }
+            states[line + 1] = state;
+            if (line - newLast > EAGER_LINES || line > newLast
+                    && changed.getLineStart(line) - changed.getLineStart(newLast) > EAGER_CHARS) {
+                valid = line + 2;
+                return;
+            }
+        }
+        valid = lines;
+    }
+
+    /**
+     * Returns the lexer state at the start of a line, lexing the lines
+     * before it if needed
+     *
+     * @param line the zero-based line number
+     * @return the state
+     */
+    public int stateAt(int line) {
+        if (line >= valid) {
+            ensureCapacity(buffer.getLineCount());
+            for (; valid <= line; valid++) states[valid] = lex(valid - 1, states[valid - 1], null);
+        }
+        return states[line];
+    }
+
+    /**
+     * Reports the tokens of a line
+     *
+     * @param line the zero-based line number
+     * @param end  the offset where lexing can stop, if only the start of
+     *             the line is needed
+     * @param sink receives the tokens
+     */
+    public void tokens(int line, int end, HtmlLexer.Sink sink) {
+        int state = stateAt(line);
+        HtmlLexer.lexLine(buffer.getText(), buffer.getLineStart(line),
+                Math.min(end, buffer.getLineEnd(line)), state, sink);
+    }
+
+    /**
+     * @return the number of lines whose state is known
+     */
+    public int getValidLines() {
+        return valid;
+    }
+
+    /**
+     * @return the number of lines lexed to find their end state
+     */
+    public long getLexedLines() {
+        return lexedLines;
+    }
+
+    private int lex(int line, int state, HtmlLexer.Sink sink) {
+        lexedLines++;
+        return HtmlLexer.lexLine(buffer.getText(), buffer.getLineStart(line), buffer.getLineEnd(line),
+                state, sink);
+    }
+
+    private void ensureCapacity(int lines) {
+        if (states.length < lines + 1) states = Arrays.copyOf(states, Math.max(lines + 1, states.length * 2));
+    }
+}
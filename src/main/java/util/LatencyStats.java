@@ -0,0 +1,65 @@
+package util;
+
+/**
+ * Collects timing statistics for a repeated operation. Thread-safe.
+ */
+public final class LatencyStats {
+
+    private long count, totalNanos, maxNanos, lastNanos;
+
+    /**
+     * Records a single measurement
+     *
+     * @param nanos the duration in nanoseconds
+     */
+    public synchronized void record(long nanos) {
+        count++;
+        totalNanos += nanos;
+        lastNanos = nanos;
+        if (nanos > maxNanos) maxNanos = nanos;
+    }
+
+    /**
+     * Records the time elapsed since this moment
+     *
+     * @param startNanos the start time, as returned by
+     *                   {@link System#nanoTime()}
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return the number of measurements
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the average duration in milliseconds
+     */
+    public synchronized double getAverageMillis() {
+        return count == 0 ? 0 : totalNanos / 1e6 / count;
+    }
+
+    /**
+     * @return the longest duration in milliseconds
+     */
+    public synchronized double getMaxMillis() {
+        return maxNanos / 1e6;
+    }
+
+    /**
+     * @return the most recent duration in milliseconds
+     */
+    public synchronized double getLastMillis() {
+        return lastNanos / 1e6;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d samples, last %.1f ms, avg %.1f ms, max %.1f ms",
+                count, getLastMillis(), getAverageMillis(), getMaxMillis());
+    }
+}
@@ -0,0 +1,308 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * An immutable text with an index of its line starts, so that any line
+ * can be found in constant time and the line of an offset in logarithmic
+ * time. The index is a single <code>int</code> array, so it adds four
+ * bytes per line to the text.
+ * <p>
+ * Lines end with <code>\n</code>, <code>\r\n</code> or <code>\r</code>;
+ * the returned lines don't include the line ending.
+ * <p>
+ * Lines longer than {@link #SEGMENT_LENGTH} are split into segments that
+ * are indexed as lines of their own, so the work done per line (drawing,
+ * lexing, finding a column) stays bounded even if the whole text is one
+ * line. Segments end before a <code>&lt;</code> or after a space where
+ * possible, so they rarely split a token. An update only re-splits the
+ * changed region, so a segment can grow to twice the length before it's
+ * split again. {@link #getPhysicalLine} maps the indexed lines back to
+ * the lines of the text.
+ */
+public final class LineBuffer {
+
+    /**
+     * The length lines are split into segments at
+     */
+    public static final int SEGMENT_LENGTH = 4096;
+
+    private final String text;
+    private final int[] starts;     // the offset of every line
+    private final int lineCount;
+    private final int[] segments;   // the lines that continue the line before, ascending
+    private final int segmentCount;
+
+    /**
+     * Constructs a new LineBuffer instance
+     *
+     * @param text the text
+     */
+    public LineBuffer(String text) {
+        this.text = text;
+        Builder builder = new Builder(new int[16], 1, new int[0], 0);
+        scan(text, 0, text.length(), builder);
+        this.starts = builder.starts;
+        this.lineCount = builder.count;
+        this.segments = builder.segments;
+        this.segmentCount = builder.segmentCount;
+    }
+
+    private LineBuffer(String text, int[] starts, int lineCount, int[] segments, int segmentCount) {
+        this.text = text;
+        this.starts = starts;
+        this.lineCount = lineCount;
+        this.segments = segments;
+        this.segmentCount = segmentCount;
+    }
+
+    /**
+     * Returns the buffer of a changed text. The index of the lines before
+     * the change is kept and the one of the lines after it is shifted, so
+     * only the changed region needs to be scanned.
+     *
+     * @param newText the changed text
+     * @param diff    the change from this text to the new one
+     * @return the new buffer
+     */
+    public LineBuffer update(String newText, TextDiff diff) {
+        if (diff.isEmpty()) return new LineBuffer(newText, starts, lineCount, segments, segmentCount);
+        int delta = diff.getInserted().length() - diff.getRemoved();
+
+        // rescan from the line before the change, a change at the start of
+        // a line could join its line ending with the one before
+        int line = Math.max(0, getLineOfOffset(diff.getStart()) - 1);
+        int scanEnd = Math.min(newText.length(), diff.getStart() + diff.getInserted().length() + 1);
+        int keptSegments = countSegments(line);
+        Builder builder = new Builder(Arrays.copyOf(starts, lineCount + 16), line + 1,
+                Arrays.copyOf(segments, segmentCount + 16), keptSegments);
+        scan(newText, starts[line], scanEnd, builder);
+
+        // the lines after the change only move
+        int last = Math.max(scanEnd, builder.last());
+        int next = getLineOfOffset(Math.min(text.length(), Math.max(0, last - delta)));
+        while (next < lineCount && starts[next] + delta <= last) next++;
+        int shift = builder.count - next;
+        builder.ensureCapacity(builder.count + lineCount - next);
+        int[] target = builder.starts;
+        for (int i = next, j = builder.count; i < lineCount; i++, j++) target[j] = starts[i] + delta;
+        builder.count += lineCount - next;
+        for (int i = countSegments(next - 1); i < segmentCount; i++) builder.addSegment(segments[i] + shift);
+        return new LineBuffer(newText, builder.starts, builder.count, builder.segments, builder.segmentCount);
+    }
+
+    /**
+     * Collects line starts
+     */
+    private static final class Builder {
+        int[] starts, segments;
+        int count, segmentCount;
+
+        Builder(int[] starts, int count, int[] segments, int segmentCount) {
+            this.starts = starts;
+            this.count = count;
+            this.segments = segments;
+            this.segmentCount = segmentCount;
+        }
+
+        void add(int start) {
+            ensureCapacity(count + 1);
+            starts[count++] = start;
+        }
+
+        /**
+         * Adds the start of a segment that continues the line before
+         */
+        void addSegment(int start) {
+            if (segmentCount == segments.length) segments = Arrays.copyOf(segments, Math.max(16, segmentCount * 2));
+            segments[segmentCount++] = start;
+        }
+
+        void ensureCapacity(int capacity) {
+            if (capacity > starts.length) starts = Arrays.copyOf(starts, Math.max(capacity, starts.length * 2));
+        }
+
+        int last() {
+            return starts[count - 1];
+        }
+    }
+
+    /**
+     * Adds the starts of the lines that begin after a line ending in
+     * this region, and of the segments of the long lines
+     *
+     * @param from the start of a line
+     */
+    private static void scan(String text, int from, int to, Builder builder) {
+        int length = text.length(), segmentStart = from;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c == '\r' && i + 1 < length && text.charAt(i + 1) == '\n') i++;
+            else if (c != '\n' && c != '\r') {
+                if (i - segmentStart >= SEGMENT_LENGTH) {
+                    segmentStart = segmentEnd(text, segmentStart, i);
+                    builder.addSegment(builder.count);
+                    builder.add(segmentStart);
+                }
+                continue;
+            }
+            builder.add(i + 1);
+            segmentStart = i + 1;
+        }
+    }
+
+    /**
+     * Finds where a segment that reached its full length ends: before the
+     * last <code>&lt;</code> or after the last space in its second half,
+     * otherwise at its full length
+     *
+     * @param start the start of the segment
+     * @param full  the offset at the full length
+     */
+    private static int segmentEnd(String text, int start, int full) {
+        int half = start + SEGMENT_LENGTH / 2, space = -1;
+        for (int i = full; i > half; i--) {
+            char c = text.charAt(i - 1);
+            if (text.charAt(i) == '<') return i;
+            if (space < 0 && (c == ' ' || c == '\t')) space = i;
+        }
+        if (space >= 0) return space;
+        return Character.isHighSurrogate(text.charAt(full - 1)) ? full - 1 : full;
+    }
+
+    /**
+     * @return the text
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return the length of the text
+     */
+    public int length() {
+        return text.length();
+    }
+
+    /**
+     * @return the number of lines, at least 1
+     */
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Returns the offset where the line starts
+     *
+     * @param line the zero-based line number
+     * @return the offset of its first character
+     */
+    public int getLineStart(int line) {
+        return starts[line];
+    }
+
+    /**
+     * Returns the offset where the line ends, excluding the line ending
+     *
+     * @param line the zero-based line number
+     * @return the offset after its last character
+     */
+    public int getLineEnd(int line) {
+        if (line + 1 >= lineCount) return text.length();
+        if (isSegment(line + 1)) return starts[line + 1];
+        int end = starts[line + 1] - 1;
+        if (end > starts[line] && text.charAt(end) == '\n' && text.charAt(end - 1) == '\r') end--;
+        return end;
+    }
+
+    /**
+     * Returns a line
+     *
+     * @param line the zero-based line number
+     * @return the line, without the line ending
+     */
+    public String getLine(int line) {
+        return text.substring(starts[line], getLineEnd(line));
+    }
+
+    /**
+     * Returns the line that contains the offset
+     *
+     * @param offset the offset, between 0 and the text length
+     * @return the zero-based line number
+     */
+    public int getLineOfOffset(int offset) {
+        int index = Arrays.binarySearch(starts, 0, lineCount, offset);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    /**
+     * Tells whether a line is a segment that continues the line before,
+     * rather than one that begins after a line ending
+     *
+     * @param line the zero-based line number
+     * @return <code>true</code> for the second and later segments of a
+     * long line
+     */
+    public boolean isSegment(int line) {
+        if (line == 0) return false;
+        char c = text.charAt(starts[line] - 1);
+        return c != '\n' && c != '\r';
+    }
+
+    /**
+     * Returns the line of the text a line of the index belongs to
+     *
+     * @param line the zero-based line number, counting segments
+     * @return the zero-based line number, not counting segments
+     */
+    public int getPhysicalLine(int line) {
+        return line - countSegments(line);
+    }
+
+    /**
+     * Returns the first line of the index of a line of the text, the
+     * inverse of {@link #getPhysicalLine}
+     *
+     * @param physicalLine the zero-based line number, not counting
+     *                     segments
+     * @return the zero-based line number, counting segments
+     */
+    public int getLineOfPhysicalLine(int physicalLine) {
+        // the i-th segment belongs to the physical line segments[i] - i - 1, which never decreases
+        int low = 0, high = segmentCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (segments[middle] - middle <= physicalLine) low = middle + 1;
+            else high = middle;
+        }
+        return physicalLine + low;
+    }
+
+    /**
+     * @return the number of lines of the text, not counting segments
+     */
+    public int getPhysicalLineCount() {
+        return lineCount - segmentCount;
+    }
+
+    /**
+     * @return the number of segments among the lines up to this one
+     */
+    private int countSegments(int line) {
+        int index = Arrays.binarySearch(segments, 0, segmentCount, line);
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+
+    /**
+     * Returns the length of the longest line, found by scanning the index
+     *
+     * @return the length in characters
+     */
+    public int getLongestLine() {
+        int longest = 0;
+        for (int i = 0; i < lineCount; i++)
+            longest = Math.max(longest, (i + 1 < lineCount ? starts[i + 1] : text.length()) - starts[i]);
+        return longest;
+    }
+}
@@ -0,0 +1,473 @@
+package util;
+
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.UnknownHostException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.channels.UnresolvedAddressException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Checks the links of a document. Every <code>href</code> and
+ * <code>src</code> is extracted, web links are checked with a
+ * <code>HEAD</code> request, falling back to <code>GET</code> for servers
+ * that don't support it, and local files are checked for existence.
+ * <p>
+ * The requests are asynchronous, so any number of links is checked
+ * without a thread per request, but at most a few requests go to the
+ * same host at a time. Results are remembered for a while, so checking
+ * the document again after an edit only checks the new links.
+ * <p>
+ * Contains no JavaFX code so it can be used from headless tools.
+ */
+public final class LinkChecker {
+
+    /**
+     * The default maximum number of concurrent requests to the same host
+     */
+    public static final int PER_HOST = 4;
+
+    /**
+     * The default time a result is remembered
+     */
+    public static final Duration TTL = Duration.ofMinutes(10);
+
+    /**
+     * The default timeout of a request
+     */
+    public static final Duration TIMEOUT = Duration.ofSeconds(15);
+
+    /**
+     * The number of remembered results at which the expired ones are
+     * removed
+     */
+    private static final int MAX_RESULTS = 10_000;
+
+    private static final Pattern LINK = Pattern.compile(
+            "(?i)\\b(?:href|src)\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)'|([^\\s\"'>]+))");
+
+    private static final Pattern BASE = Pattern.compile("(?i)<base\\s[^>]*href\\s*=\\s*[\"']?([^\"'\\s>]+)");
+
+    /**
+     * Links that aren't addresses of something that could be missing
+     */
+    private static final Pattern IGNORED = Pattern.compile("(?i)^(?:#|javascript:|mailto:|data:|tel:|about:)");
+
+    private final HttpClient client;
+    private final Duration timeout, ttl;
+    private final int perHost;
+
+    private final Map<URI, Result> results = new ConcurrentHashMap<>();
+    private final Map<URI, Pending> running = new ConcurrentHashMap<>();
+    private final Map<String, Host> hosts = new HashMap<>();
+
+    private final LatencyStats requestStats = new LatencyStats();
+    private long checked, cacheHits, fallbacks, broken;
+
+    /**
+     * The result of checking a link
+     */
+    public static final class Result {
+
+        private final URI uri;
+        private final int status;
+        private final String error;
+        private final long time;
+
+        private Result(URI uri, int status, String error) {
+            this.uri = uri;
+            this.status = status;
+            this.error = error;
+            this.time = System.nanoTime();
+        }
+
+        /**
+         * @return the checked address
+         */
+        public URI getUri() {
+            return uri;
+        }
+
+        /**
+         * @return the HTTP status, 200 for existing local files and 0 if
+         * there was no response
+         */
+        public int getStatus() {
+            return status;
+        }
+
+        /**
+         * @return <code>true</code> if the link doesn't lead anywhere
+         */
+        public boolean isBroken() {
+            return error != null || status >= 400;
+        }
+
+        /**
+         * @return why the link is broken, such as "HTTP 404" or "Timed
+         * out", or "OK"
+         */
+        public String getDescription() {
+            if (error != null) return error;
+            return status >= 400 ? "HTTP " + status : "OK";
+        }
+    }
+
+    /**
+     * The requests to one host
+     */
+    private static final class Host {
+        final Queue<BooleanSupplier> waiting = new ArrayDeque<>();
+        int active;
+    }
+
+    /**
+     * A check of a link that's waiting for its host or running, shared by
+     * every run that wants the result
+     */
+    private static final class Pending {
+        final CompletableFuture<Result> future = new CompletableFuture<>();
+        /**
+         * The runs waiting for the result, only accessed in the
+         * {@link #running} map's compute functions for the link
+         */
+        final List<Run> runs = new ArrayList<>(1);
+
+        /**
+         * @return <code>true</code> if no run needs the result anymore
+         */
+        boolean isCancelled() {
+            for (Run run : runs)
+                if (!run.isCancelled()) return false;
+            return true;
+        }
+    }
+
+    /**
+     * A running check of several links, can be cancelled
+     */
+    public final class Run {
+
+        private final CompletableFuture<List<Result>> done;
+        private final List<CompletableFuture<Result>> checks = new ArrayList<>();
+        private volatile boolean cancelled;
+
+        private Run(Collection<URI> links, Consumer<Result> listener) {
+            List<CompletableFuture<Void>> reported = new ArrayList<>(links.size());
+            for (URI uri : links) {
+                CompletableFuture<Result> check = check(uri, this);
+                reported.add(check.thenAccept(result -> {
+                    if (!cancelled) listener.accept(result);
+                }));
+                checks.add(check);
+            }
+            // completes after the listener got every result
+            done = CompletableFuture.allOf(reported.toArray(CompletableFuture<?>[]::new))
+                    .handle((ignored, e) -> {
+                        List<Result> list = new ArrayList<>(checks.size());
+                        for (CompletableFuture<Result> check : checks)
+                            if (!check.isCompletedExceptionally()) list.add(check.join());
+                        return list;
+                    });
+        }
+
+        /**
+         * Stops checking, the links that are waiting for their host
+         * aren't checked and no more results are reported
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * @return <code>true</code> if the run was cancelled
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * @return completes with the results once every link has been
+         * checked or skipped and its result reported
+         */
+        public CompletableFuture<List<Result>> getDone() {
+            return done;
+        }
+    }
+
+    /**
+     * Constructs a new LinkChecker instance
+     *
+     * @param client  the HTTP client, should follow redirects
+     * @param timeout the timeout of a request
+     * @param perHost the maximum number of concurrent requests to the
+     *                same host
+     * @param ttl     the time a result is remembered
+     */
+    public LinkChecker(HttpClient client, Duration timeout, int perHost, Duration ttl) {
+        this.client = client;
+        this.timeout = timeout;
+        this.perHost = perHost;
+        this.ttl = ttl;
+    }
+
+    /**
+     * Constructs a new LinkChecker instance with the default limits
+     */
+    public LinkChecker() {
+        this(HttpClient.newBuilder()
+                .connectTimeout(TIMEOUT)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build(), TIMEOUT, PER_HOST, TTL);
+    }
+
+    /**
+     * Extracts the links of a document
+     *
+     * @param html the document
+     * @param base the address relative links are resolved against, or
+     *             <code>null</code> to skip relative links; a base
+     *             element in the document takes precedence
+     * @return the absolute links in the order of their first occurrence,
+     * with the number of occurrences
+     */
+    public static Map<URI, Integer> extractLinks(CharSequence html, URI base) {
+        Map<URI, Integer> links = new LinkedHashMap<>();
+        Matcher baseTag = BASE.matcher(html);
+        if (baseTag.find()) {   // the document says where it's from
+            try {
+                URI declared = new URI(baseTag.group(1).trim());
+                if (declared.isAbsolute()) base = declared;
+            } catch (URISyntaxException ignored) { }
+        }
+        Matcher m = LINK.matcher(html);
+        while (m.find()) {
+            String link = m.group(1) != null ? m.group(1) : m.group(2) != null ? m.group(2) : m.group(3);
+            link = link.trim().replace("&amp;", "&");
+            if (link.isEmpty() || IGNORED.matcher(link).find()) continue;
+            URI uri;
+            try {
+                uri = new URI(link.replace(" ", "%20"));
+                if (!uri.isAbsolute()) {
+                    if (base == null || base.isOpaque()) continue;
+                    uri = base.resolve(uri);
+                }
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                continue;
+            }
+            if (uri.getFragment() != null) {
+                try {
+                    uri = new URI(uri.getScheme(), uri.getSchemeSpecificPart(), null);
+                } catch (URISyntaxException e) {
+                    continue;
+                }
+            }
+            links.merge(uri, 1, Integer::sum);
+        }
+        return links;
+    }
+
+    /**
+     * Checks links concurrently
+     *
+     * @param links    the links to check
+     * @param listener receives every result as soon as it's known, on the
+     *                 thread that completed the check
+     * @return the running check
+     */
+    public Run checkAll(Collection<URI> links, Consumer<Result> listener) {
+        return new Run(links, listener);
+    }
+
+    /**
+     * Checks a link, or returns the remembered result
+     */
+    private CompletableFuture<Result> check(URI uri, Run run) {
+        Result known = results.get(uri);
+        if (known != null && System.nanoTime() - known.time < ttl.toNanos()) {
+            synchronized (this) {
+                cacheHits++;
+            }
+            return CompletableFuture.completedFuture(known);
+        }
+        Pending created = new Pending();
+        Pending pending = running.compute(uri, (key, existing) -> {
+            Pending joined = existing != null ? existing : created;
+            joined.runs.add(run);
+            return joined;
+        });
+        if (pending != created) return pending.future;  // already being checked
+
+        String scheme = uri.getScheme() == null ? "" : uri.getScheme().toLowerCase(Locale.ROOT);
+        if (scheme.equals("file")) {
+            boolean exists;
+            try {
+                exists = Files.exists(Paths.get(uri));
+            } catch (RuntimeException e) {
+                exists = false;
+            }
+            finish(pending, new Result(uri, exists ? 200 : 404, exists ? null : "File not found"));
+        } else if (!scheme.equals("http") && !scheme.equals("https") || uri.getHost() == null) {
+            finish(pending, new Result(uri, 0, "Unsupported address"));
+        } else {
+            String host = uri.getHost().toLowerCase(Locale.ROOT);
+            enqueue(host, () -> {
+                // skipped only if every run that joined was cancelled, a run
+                // joining later starts a new check
+                if (running.computeIfPresent(uri, (key, existing) ->
+                        existing == pending && pending.isCancelled() ? null : existing) != pending) {
+                    pending.future.cancel(false);
+                    return false;
+                }
+                request(uri, pending);
+                if (pending.future.isDone()) return false;     // failed at once
+                pending.future.whenComplete((result, e) -> next(host));
+                return true;
+            });
+        }
+        return pending.future;
+    }
+
+    /**
+     * Starts a request once fewer than the limit are running for its host
+     *
+     * @param start starts the request, returns <code>true</code> if the
+     *              request is running and calls {@link #next(String)}
+     *              once it's finished, or <code>false</code> if it was
+     *              skipped or already finished
+     */
+    private void enqueue(String host, BooleanSupplier start) {
+        synchronized (hosts) {
+            Host queue = hosts.computeIfAbsent(host, key -> new Host());
+            if (queue.active >= perHost) {
+                queue.waiting.add(start);
+                return;
+            }
+            queue.active++;
+        }
+        if (!start.getAsBoolean()) next(host);
+    }
+
+    /**
+     * Hands the place of a finished request to the next waiting request
+     * of its host. The skipped requests are passed over in a loop, so
+     * cancelling a run with thousands of waiting links doesn't recurse
+     * once per link.
+     */
+    private void next(String host) {
+        while (true) {
+            BooleanSupplier start;
+            synchronized (hosts) {
+                Host queue = hosts.get(host);
+                start = queue.waiting.poll();
+                if (start == null) {
+                    queue.active--;
+                    if (queue.active == 0) hosts.remove(host);
+                    return;
+                }
+            }
+            if (start.getAsBoolean()) return;
+        }
+    }
+
+    /**
+     * Sends a HEAD request, then a GET request if the server doesn't
+     * answer HEAD properly
+     */
+    private void request(URI uri, Pending pending) {
+        long start = System.nanoTime();
+        CompletableFuture<HttpResponse<Void>> head;
+        try {
+            head = send(uri, "HEAD");
+        } catch (IllegalArgumentException e) {
+            finish(pending, new Result(uri, 0, "Invalid address"));
+            return;
+        }
+        head.thenCompose(response -> {
+            int status = response.statusCode();
+            if (status < 400 || status == 404 || status == 410)
+                return CompletableFuture.completedFuture(response);
+            synchronized (this) {
+                fallbacks++;
+            }
+            return send(uri, "GET");
+        }).whenComplete((response, e) -> {
+            requestStats.recordSince(start);
+            if (e == null) finish(pending, new Result(uri, response.statusCode(), null));
+            else finish(pending, new Result(uri, 0, describe(e)));
+        });
+    }
+
+    private CompletableFuture<HttpResponse<Void>> send(URI uri, String method) {
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .timeout(timeout)
+                .header("User-Agent", "HTMLNotepadFX/" + VersionData.VERSION)
+                .method(method, HttpRequest.BodyPublishers.noBody())
+                .build();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.discarding());
+    }
+
+    private void finish(Pending pending, Result result) {
+        if (results.size() >= MAX_RESULTS)
+            results.values().removeIf(r -> System.nanoTime() - r.time >= ttl.toNanos());
+        results.put(result.uri, result);
+        running.remove(result.uri, pending);
+        synchronized (this) {
+            checked++;
+            if (result.isBroken()) broken++;
+        }
+        pending.future.complete(result);
+    }
+
+    /**
+     * Returns a short description of a failed request
+     */
+    private static String describe(Throwable e) {
+        while (e.getCause() != null && (e instanceof CompletionException || e.getMessage() == null))
+            e = e.getCause();
+        if (e instanceof HttpTimeoutException) return "Timed out";
+        if (e instanceof ConnectException) return "Connection refused";
+        if (e instanceof UnresolvedAddressException || e instanceof UnknownHostException)
+            return "Unknown host";
+        return e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+    }
+
+    /**
+     * Forgets the remembered results
+     */
+    public void clear() {
+        results.clear();
+    }
+
+    /**
+     * @return a summary of the checks
+     */
+    public synchronized String getStatistics() {
+        return "Links checked: " + checked + ", broken: " + broken + ", remembered results used: "
+                + cacheHits + ", GET fallbacks: " + fallbacks + "\n"
+                + "Request time: " + requestStats + "\n"
+                + "Limits: " + perHost + " requests per host, results kept for " + ttl.getSeconds() + " s";
+    }
+}
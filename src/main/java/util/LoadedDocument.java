@@ -0,0 +1,61 @@
+package util;
+
+import java.nio.charset.Charset;
+
+/**
+ * A document read from disk along with the encoding details needed
+ * to write it back unchanged
+ *
+ * @see DocumentLoader
+ */
+public final class LoadedDocument {
+
+    private final String text;
+    private final Charset charset;
+    private final boolean bom;
+    private final long size;
+
+    /**
+     * Constructs a new LoadedDocument instance
+     *
+     * @param text    the decoded file content
+     * @param charset the charset the file was decoded with
+     * @param bom     <code>true</code> if the file started with a
+     *                byte order mark
+     * @param size    the file size in bytes
+     */
+    LoadedDocument(String text, Charset charset, boolean bom, long size) {
+        this.text = text;
+        this.charset = charset;
+        this.bom = bom;
+        this.size = size;
+    }
+
+    /**
+     * @return the decoded file content, with the original line endings
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return the charset the file was decoded with
+     */
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * @return <code>true</code> if the file started with a byte order mark
+     */
+    public boolean hasBom() {
+        return bom;
+    }
+
+    /**
+     * @return the file size in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+}
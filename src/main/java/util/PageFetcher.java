@@ -0,0 +1,291 @@
+package util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Downloads web pages to import them as documents. A download is limited
+ * by a connect timeout and by a timeout for the whole page, reports its
+ * progress and can be cancelled between any two reads.
+ * <p>
+ * With an {@link HttpCache}, a page that was downloaded before is
+ * requested with its validators and the stored copy is used if the
+ * server answers that it didn't change.
+ * <p>
+ * The downloads block the calling thread, they're meant to run on a
+ * background executor. Contains no JavaFX code so it can be used from
+ * headless tools.
+ */
+public final class PageFetcher {
+
+    /**
+     * The default connect timeout
+     */
+    public static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+
+    /**
+     * The default timeout for downloading a whole page
+     */
+    public static final Duration TIMEOUT = Duration.ofSeconds(60);
+
+    /**
+     * The size of the download buffer
+     */
+    private static final int READ_BUFFER = 64 << 10;
+
+    private static final Pattern CHARSET = Pattern.compile("(?i)charset\\s*=\\s*\"?([\\w.:-]+)");
+
+    /**
+     * Closes the response bodies of downloads that take too long
+     */
+    private static final ScheduledExecutorService watchdog =
+            Executors.newSingleThreadScheduledExecutor(Threads.daemonFactory("page-timeout"));
+
+    private final HttpClient client;
+    private final Duration timeout;
+    private final HttpCache cache;
+
+    private final LatencyStats fetchStats = new LatencyStats();
+    private long fetches, notModified, cached, failed, bytes;
+
+    /**
+     * A downloaded page
+     */
+    public static final class Page {
+
+        private final URI uri;
+        private final LoadedDocument document;
+        private final boolean fromCache;
+
+        private Page(URI uri, LoadedDocument document, boolean fromCache) {
+            this.uri = uri;
+            this.document = document;
+            this.fromCache = fromCache;
+        }
+
+        /**
+         * @return the address the page was downloaded from, after
+         * redirects
+         */
+        public URI getUri() {
+            return uri;
+        }
+
+        /**
+         * @return the page
+         */
+        public LoadedDocument getDocument() {
+            return document;
+        }
+
+        /**
+         * @return <code>true</code> if the stored copy was used because
+         * the page didn't change
+         */
+        public boolean isFromCache() {
+            return fromCache;
+        }
+    }
+
+    /**
+     * Constructs a new PageFetcher instance
+     *
+     * @param connectTimeout the maximum time to connect to a server
+     * @param timeout        the maximum time to download a page
+     * @param cache          the cache to use or <code>null</code> to
+     *                       always download the pages
+     */
+    public PageFetcher(Duration connectTimeout, Duration timeout, HttpCache cache) {
+        this(HttpClient.newBuilder()
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build(), timeout, cache);
+    }
+
+    /**
+     * Constructs a new PageFetcher instance with its own HTTP client
+     *
+     * @param client  the HTTP client
+     * @param timeout the maximum time to download a page
+     * @param cache   the cache to use or <code>null</code> to always
+     *                download the pages
+     */
+    public PageFetcher(HttpClient client, Duration timeout, HttpCache cache) {
+        this.client = client;
+        this.timeout = timeout;
+        this.cache = cache;
+    }
+
+    /**
+     * Downloads a page
+     *
+     * @param uri       the address of the page
+     * @param listener  receives the number of bytes downloaded and the
+     *                  page size, or -1 if the server didn't send it; may
+     *                  be <code>null</code>
+     * @param cancelled tells whether to stop, may be <code>null</code>
+     * @return the page
+     * @throws IOException           if the download failed, the server
+     *                               returned an error or a timeout expired
+     * @throws CancellationException if the download was cancelled or the
+     *                               thread was interrupted
+     */
+    public Page fetch(URI uri, DocumentLoader.ProgressListener listener, BooleanSupplier cancelled)
+            throws IOException {
+        long start = System.nanoTime();
+        synchronized (this) {
+            fetches++;
+        }
+        try {
+            Page page = download(uri, listener, cancelled, start + timeout.toNanos());
+            fetchStats.recordSince(start);
+            return page;
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                failed++;
+            }
+            throw e;
+        }
+    }
+
+    private Page download(URI uri, DocumentLoader.ProgressListener listener, BooleanSupplier cancelled,
+                          long deadline) throws IOException {
+        HttpCache.Entry entry = cache == null ? null : cache.lookup(uri);
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+                .timeout(timeout)
+                .header("User-Agent", "HTMLNotepadFX/" + VersionData.VERSION)
+                .GET();
+        if (entry != null && entry.getEtag() != null) request.header("If-None-Match", entry.getEtag());
+        if (entry != null && entry.getLastModified() != null)
+            request.header("If-Modified-Since", entry.getLastModified());
+
+        HttpResponse<InputStream> response;
+        try {
+            response = client.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Downloading " + uri + " was interrupted");
+        }
+
+        if (response.statusCode() == 304 && entry != null) {
+            response.body().close();
+            cache.touch(entry);
+            synchronized (this) {
+                notModified++;
+            }
+            return new Page(response.uri(), load(entry.getBody(), entry.getContentType(), cancelled), true);
+        }
+        if (response.statusCode() != 200) {
+            response.body().close();
+            throw new IOException("The server returned HTTP " + response.statusCode() + " for " + uri);
+        }
+
+        String etag = response.headers().firstValue("ETag").orElse(null),
+                lastModified = response.headers().firstValue("Last-Modified").orElse(null),
+                contentType = response.headers().firstValue("Content-Type").orElse(null);
+        boolean store = cache != null && (etag != null || lastModified != null)
+                && !response.headers().firstValue("Cache-Control").orElse("")
+                .toLowerCase(Locale.ROOT).contains("no-store");
+        long length = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+
+        Path download = store ? cache.createDownloadFile() : Files.createTempFile("page", ".html");
+        try {
+            copy(response.body(), download, length, listener, cancelled, deadline);
+            Path file = download;
+            if (store) {
+                file = cache.store(uri, download, etag, lastModified, contentType).getBody();
+                synchronized (this) {
+                    cached++;
+                }
+            }
+            return new Page(response.uri(), load(file, contentType, cancelled), false);
+        } finally {
+            Files.deleteIfExists(download);     // already moved if it was stored
+        }
+    }
+
+    /**
+     * Copies the response body into the file, closing the body if the
+     * deadline passes
+     */
+    private void copy(InputStream body, Path file, long length, DocumentLoader.ProgressListener listener,
+                      BooleanSupplier cancelled, long deadline) throws IOException {
+        long remaining = deadline - System.nanoTime();
+        AtomicBoolean timedOut = new AtomicBoolean();
+        ScheduledFuture<?> timer = watchdog.schedule(() -> {
+            timedOut.set(true);
+            try {
+                body.close();
+            } catch (IOException ignored) { }
+        }, Math.max(0, remaining), TimeUnit.NANOSECONDS);
+
+        long read = 0;
+        try (InputStream in = body; OutputStream out = Files.newOutputStream(file)) {
+            byte[] buffer = new byte[READ_BUFFER];
+            for (int count; (count = in.read(buffer)) >= 0; ) {
+                out.write(buffer, 0, count);
+                read += count;
+                if (listener != null) listener.progress(read, length);
+                if (Thread.currentThread().isInterrupted()
+                        || (cancelled != null && cancelled.getAsBoolean()))
+                    throw new CancellationException("Downloading was cancelled");
+            }
+        } catch (IOException e) {
+            if (timedOut.get()) throw new HttpTimeoutException("The page took longer than "
+                    + timeout.getSeconds() + " s to download");
+            throw e;
+        } finally {
+            timer.cancel(false);
+            synchronized (this) {
+                bytes += read;
+            }
+        }
+        if (timedOut.get()) throw new HttpTimeoutException("The page took longer than "
+                + timeout.getSeconds() + " s to download");
+    }
+
+    /**
+     * Decodes a downloaded page with the charset the server sent, if any
+     */
+    private static LoadedDocument load(Path file, String contentType, BooleanSupplier cancelled)
+            throws IOException {
+        Charset charset = null;
+        Matcher m = CHARSET.matcher(contentType == null ? "" : contentType);
+        if (m.find()) {
+            try {
+                if (Charset.isSupported(m.group(1))) charset = Charset.forName(m.group(1));
+            } catch (IllegalArgumentException ignored) { }
+        }
+        return DocumentLoader.load(file, charset, null, cancelled);
+    }
+
+    /**
+     * @return a summary of the downloads
+     */
+    public synchronized String getStatistics() {
+        return "Pages: " + fetches + ", unchanged (cached copy used): " + notModified + ", stored: "
+                + cached + ", failed: " + failed + ", downloaded: " + ImageEmbedder.formatSize(bytes)
+                + "\nDownload time: " + fetchStats
+                + "\nCache: " + (cache == null ? "disabled" : cache.getDirectory().toString());
+    }
+}
@@ -0,0 +1,162 @@
+package util;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.font.FontRenderContext;
+import java.awt.print.PageFormat;
+import java.awt.print.Printable;
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleConsumer;
+
+/**
+ * A plain text laid out on pages. The text is wrapped to the printable
+ * width of the page format once, then any page can be printed by drawing
+ * its precomputed lines, so the layout can be shared between the preview
+ * and the printout and printing doesn't redo it for every page.
+ * <p>
+ * The text is printed in a monospaced font, which makes wrapping a
+ * matter of counting characters.
+ */
+public final class PagedText implements Printable {
+
+    /**
+     * The font used for printing
+     */
+    private static final Font FONT = new Font(Font.MONOSPACED, Font.PLAIN, 9);
+
+    private static final int TAB_SIZE = 4;
+
+    /**
+     * How often the progress is reported, in characters
+     */
+    private static final int PROGRESS_STEP = 1 << 16;
+
+    private final String text;
+    private final double x, y, width, height, lineHeight, ascent;
+    private final int[] lines;      // the start and end offset of every printed line
+    private final int lineCount, linesPerPage;
+
+    private PagedText(String text, PageFormat format, int[] lines, int lineCount,
+                      double lineHeight, double ascent) {
+        this.text = text;
+        this.x = format.getImageableX();
+        this.y = format.getImageableY();
+        this.width = format.getImageableWidth();
+        this.height = format.getImageableHeight();
+        this.lines = lines;
+        this.lineCount = lineCount;
+        this.lineHeight = lineHeight;
+        this.ascent = ascent;
+        this.linesPerPage = Math.max(1, (int) (height / lineHeight));
+    }
+
+    /**
+     * Lays out the text on pages
+     *
+     * @param text      the text
+     * @param format    the page format
+     * @param progress  receives the progress between 0 and 1
+     * @param cancelled tells whether to stop
+     * @return the laid out text or <code>null</code> if cancelled
+     */
+    public static PagedText paginate(String text, PageFormat format, DoubleConsumer progress,
+                                     BooleanSupplier cancelled) {
+        FontRenderContext context = new FontRenderContext(null, true, true);
+        double charWidth = FONT.getStringBounds("m", context).getWidth();
+        double lineHeight = Math.ceil(FONT.getLineMetrics("Mg", context).getHeight());
+        double ascent = FONT.getLineMetrics("Mg", context).getAscent();
+        int columns = Math.max(1, (int) (format.getImageableWidth() / charWidth));
+
+        int[] lines = new int[1024];
+        int count = 0, length = text.length(), nextReport = PROGRESS_STEP;
+        for (int start = 0; start < length || count == 0; ) {
+            // find the end of the line, or where it has to be wrapped
+            int column = 0, end = start, lastSpace = -1;
+            while (end < length) {
+                char c = text.charAt(end);
+                if (c == '\n' || c == '\r') break;
+                int next = c == '\t' ? (column / TAB_SIZE + 1) * TAB_SIZE : column + 1;
+                if (next > columns) break;
+                if (c == ' ' || c == '\t') lastSpace = end;
+                column = next;
+                end++;
+            }
+            int resume = end;
+            if (end < length && text.charAt(end) != '\n' && text.charAt(end) != '\r') {
+                if (lastSpace > start) end = resume = lastSpace + 1;     // wrap after a space
+            } else if (end < length) {      // skip the line ending
+                resume = end + (text.charAt(end) == '\r' && end + 1 < length && text.charAt(end + 1) == '\n' ? 2 : 1);
+            }
+            if (count * 2 + 2 > lines.length) lines = Arrays.copyOf(lines, lines.length * 2);
+            lines[count * 2] = start;
+            lines[count * 2 + 1] = end;
+            count++;
+            start = Math.max(resume, start + 1);
+            if (start > length) break;
+
+            if (start >= nextReport) {
+                if (cancelled.getAsBoolean()) return null;
+                progress.accept((double) start / length);
+                nextReport = start + PROGRESS_STEP;
+            }
+        }
+        progress.accept(1);
+        return new PagedText(text, format, lines, count, lineHeight, ascent);
+    }
+
+    /**
+     * Tells whether this layout can be used for a page format
+     *
+     * @param format the page format
+     * @return <code>true</code> if it has the same printable area
+     */
+    public boolean fits(PageFormat format) {
+        return format.getImageableX() == x && format.getImageableY() == y
+                && format.getImageableWidth() == width && format.getImageableHeight() == height;
+    }
+
+    /**
+     * @return the number of pages
+     */
+    public int getPageCount() {
+        return (lineCount + linesPerPage - 1) / linesPerPage;
+    }
+
+    /**
+     * @return the number of printed lines, including wrapped ones
+     */
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Draws a page
+     *
+     * @param graphics the page graphics
+     * @param format   the page format, expected to fit this layout
+     * @param page     the zero-based page index
+     * @return {@link #PAGE_EXISTS} or {@link #NO_SUCH_PAGE}
+     */
+    @Override
+    public int print(Graphics graphics, PageFormat format, int page) {
+        if (page < 0 || page >= getPageCount()) return NO_SUCH_PAGE;
+        Graphics2D g = (Graphics2D) graphics;
+        g.setFont(FONT);
+        g.setColor(Color.BLACK);
+        int first = page * linesPerPage, last = Math.min(lineCount, first + linesPerPage);
+        StringBuilder line = new StringBuilder();
+        for (int i = first; i < last; i++) {
+            line.setLength(0);
+            for (int j = lines[i * 2], end = lines[i * 2 + 1]; j < end; j++) {
+                char c = text.charAt(j);
+                if (c == '\t') do line.append(' '); while (line.length() % TAB_SIZE != 0);
+                else line.append(c);
+            }
+            g.drawString(line.toString(), (float) x, (float) (y + ascent + (i - first) * lineHeight));
+        }
+        return PAGE_EXISTS;
+    }
+}
@@ -1,12 +1,32 @@
 package util;
 
-import javax.swing.JTextPane;
+import javafx.concurrent.Task;
+import javafx.event.ActionEvent;
+import javafx.scene.control.Button;
+import javafx.scene.control.ButtonBar;
+import javafx.scene.control.ButtonType;
+import javafx.scene.control.Dialog;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.layout.GridPane;
+
 import javax.swing.UIManager;
+import java.awt.print.PageFormat;
+import java.awt.print.PrinterAbortException;
 import java.awt.print.PrinterException;
+import java.awt.print.PrinterJob;
 import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Contains utility methods for printing
+ * <p>
+ * Text is printed by a single worker thread, so print jobs queue up
+ * instead of competing. The text is laid out on pages in the background
+ * as soon as printing is requested, while a dialog shows the page count;
+ * the same layout is then printed unless the chosen printer's page
+ * format differs.
  */
 public final class Printing {
 
@@ -16,25 +36,201 @@ public final class Printing {
     private Printing() {
     }
 
+    /**
+     * Paginates and prints the text, one job at a time
+     */
+    private static final ExecutorService worker =
+            Executors.newSingleThreadExecutor(Threads.daemonFactory("print"));
+
+    private static final LatencyStats paginateStats = new LatencyStats(),
+            printStats = new LatencyStats();
+    private static long jobs, printed, cancelled, layoutsReused, pages;
+    private static boolean lookAndFeelSet;
+
+    static {
+        Diagnostics.register("Printing", Printing::getStatistics);
+    }
+
     /**
      * Displays a print dialog and prints this text
      *
      * @param text the text to be printed
      */
     public static void printText(String text) {
-        try {   // use system LaF
-            UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
-        } catch (Exception ignored) { }
+        synchronized (Printing.class) {
+            jobs++;
+        }
+        Paginate layout = new Paginate(text);
+        worker.execute(layout);
+        showPreview(layout);
+    }
+
+    /**
+     * Lays out the text for the default page format
+     */
+    private static final class Paginate extends Task<PagedText> {
+        private final String text;
+
+        Paginate(String text) {
+            this.text = text;
+            updateMessage("Waiting for the previous print job...");
+        }
+
+        @Override
+        protected PagedText call() {
+            updateMessage("Laying out pages...");
+            long start = System.nanoTime();
+            PageFormat format = PrinterJob.getPrinterJob().defaultPage();
+            PagedText paged = PagedText.paginate(text, format,
+                    progress -> updateProgress(progress, 1), this::isCancelled);
+            if (paged == null) return null;
+            paginateStats.recordSince(start);
+            updateMessage(paged.getPageCount() + (paged.getPageCount() == 1 ? " page" : " pages")
+                    + ", " + paged.getLineCount() + " lines");
+            return paged;
+        }
+    }
+
+    /**
+     * Prints the laid out text, laying it out again if the chosen printer
+     * needs a different page format
+     */
+    private static final class Print extends Task<Void> {
+        private final String text;
+        private final PagedText layout;
+        private volatile PrinterJob job;
+
+        Print(String text, PagedText layout) {
+            this.text = text;
+            this.layout = layout;
+        }
+
+        @Override
+        protected Void call() throws PrinterException {
+            setLookAndFeel();
+            PrinterJob job = PrinterJob.getPrinterJob();
+            this.job = job;
+            updateMessage("Choose a printer...");
+            if (!job.printDialog() || isCancelled()) {
+                cancel();
+                return null;
+            }
+
+            PageFormat format = job.defaultPage();
+            PagedText paged = layout;
+            if (paged.fits(format)) {
+                synchronized (Printing.class) {
+                    layoutsReused++;
+                }
+            } else {
+                updateMessage("Laying out pages for this printer...");
+                paged = PagedText.paginate(text, format, progress -> updateProgress(progress, 1),
+                        this::isCancelled);
+                if (paged == null) return null;
+            }
 
-        Thread printThread = new Thread(() -> {
-            JTextPane textPane = new JTextPane();
-            textPane.setText(text);
+            PagedText printable = paged;
+            int count = paged.getPageCount();
+            long start = System.nanoTime();
+            job.setPrintable((graphics, pageFormat, page) -> {
+                if (isCancelled()) return PagedText.NO_SUCH_PAGE;
+                updateMessage("Printing page " + (page + 1) + " of " + count + "...");
+                updateProgress(page, count);
+                return printable.print(graphics, pageFormat, page);
+            }, format);
             try {
-                textPane.print();
-            } catch (PrinterException e) {
-                ErrorHandler.printError(Arrays.toString(e.getStackTrace()));
+                job.print();
+            } catch (PrinterAbortException e) {
+                return null;    // cancelled
+            }
+            printStats.recordSince(start);
+            synchronized (Printing.class) {
+                printed++;
+                pages += count;
+            }
+            return null;
+        }
+
+        @Override
+        protected void cancelled() {
+            PrinterJob job = this.job;
+            if (job != null) job.cancel();
+        }
+    }
+
+    /**
+     * Shows the page count and the progress, with buttons to print and
+     * to cancel
+     */
+    private static void showPreview(Paginate layout) {
+        Dialog<Void> dialog = new Dialog<>();
+        dialog.setTitle("Print");
+        dialog.setHeaderText("Print the source code");
+        ButtonType printType = new ButtonType("Print...", ButtonBar.ButtonData.OK_DONE);
+        dialog.getDialogPane().getButtonTypes().addAll(printType, ButtonType.CANCEL);
+
+        ProgressBar bar = new ProgressBar();
+        bar.setPrefWidth(320);
+        Label message = new Label();
+        GridPane content = new GridPane();
+        content.setVgap(10);
+        content.add(message, 0, 0);
+        content.add(bar, 0, 1);
+        dialog.getDialogPane().setContent(content);
+        track(layout, message, bar);
+
+        Button print = (Button) dialog.getDialogPane().lookupButton(printType);
+        print.disableProperty().bind(layout.stateProperty().isNotEqualTo(Task.State.SUCCEEDED));
+        Task<?>[] current = {layout};
+        print.addEventFilter(ActionEvent.ACTION, e -> {
+            e.consume();    // stay open and show the printing progress
+            Print job = new Print(layout.text, layout.getValue());
+            print.disableProperty().unbind();
+            print.setDisable(true);
+            current[0] = job;
+            track(job, message, bar);
+            job.runningProperty().addListener((obs, oldVal, newVal) -> {
+                if (!newVal && dialog.isShowing()) dialog.close();
+            });
+            worker.execute(job);
+        });
+
+        // closing the dialog cancels whatever is still running
+        dialog.setOnHidden(e -> {
+            Task<?> task = current[0];
+            if (!task.isDone() && task.cancel()) {
+                synchronized (Printing.class) {
+                    cancelled++;
+                }
             }
         });
-        printThread.start();
+        dialog.show();
+    }
+
+    private static void track(Task<?> task, Label message, ProgressBar bar) {
+        message.textProperty().bind(task.messageProperty());
+        bar.progressProperty().bind(task.progressProperty());
+        task.setOnFailed(e -> ErrorHandler.printError(Arrays.toString(task.getException().getStackTrace())));
+    }
+
+    /**
+     * Uses the system look and feel for the print dialog, set once
+     */
+    private static synchronized void setLookAndFeel() {
+        if (lookAndFeelSet) return;
+        lookAndFeelSet = true;
+        try {
+            UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
+        } catch (Exception ignored) { }
+    }
+
+    /**
+     * @return a summary of the print jobs
+     */
+    private static synchronized String getStatistics() {
+        return "Jobs: " + jobs + ", printed: " + printed + " (" + pages + " pages), cancelled: "
+                + cancelled + ", layouts reused: " + layoutsReused + "\n"
+                + "Layout time: " + paginateStats + "\n"
+                + "Print time: " + printStats;
     }
 }
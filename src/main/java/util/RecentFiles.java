@@ -0,0 +1,357 @@
+package util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The most recently used files, at most a fixed number of them. Looking
+ * up and using a file takes constant time, the least recently used file
+ * is dropped once the list is full.
+ * <p>
+ * The details of every file (whether it exists, its size, when it was
+ * modified and the title of the document) are read on a background
+ * thread, so a file on a slow network share never blocks the caller.
+ * The most recently used file that isn't open is also read into memory
+ * in the background, so opening it again takes no time.
+ * <p>
+ * The changes are reported to a listener, called on the background
+ * thread. Contains no JavaFX code so it can be used from headless tools.
+ */
+public final class RecentFiles {
+
+    /**
+     * Only files up to this size are kept in memory
+     */
+    private static final long PREFETCH_LIMIT = 16L << 20;
+
+    /**
+     * How much of a file is searched for its title
+     */
+    private static final int TITLE_PREFIX = 16 << 10;
+
+    private static final int MAX_TITLE = 60;
+
+    private static final Pattern TITLE = Pattern.compile("(?is)<title[^>]*>(.*?)</title>|<h1[^>]*>(.*?)</h1>"),
+            TAG = Pattern.compile("<[^>]*>"),
+            WHITESPACE = Pattern.compile("\\s+");
+
+    /**
+     * Reads the file details and the prefetched documents
+     */
+    private static final ExecutorService reader =
+            Executors.newSingleThreadExecutor(Threads.daemonFactory("recent-files"));
+
+    /**
+     * Checks whether a prefetched document is still current, separately
+     * from the reader so opening a file never waits for the details of
+     * other (possibly unreachable) files
+     */
+    private static final ExecutorService checker =
+            Executors.newCachedThreadPool(Threads.daemonFactory("recent-files-check"));
+
+    private final int capacity;
+    private final Runnable listener;
+
+    // in the order of use, the most recently used file is the last one
+    private final LinkedHashMap<Path, Entry> entries;
+    private Path open;
+
+    // the document kept in memory and the file details it was read with
+    private Path prefetchedPath;
+    private LoadedDocument prefetched;
+    private long prefetchedSize, prefetchedModified;
+
+    private long prefetches, hits, misses;
+
+    /**
+     * A recently used file
+     */
+    public static final class Entry {
+
+        private final Path path;
+        private volatile boolean known, exists;
+        private volatile long size, modified;
+        private volatile String title;
+
+        private Entry(Path path) {
+            this.path = path;
+        }
+
+        /**
+         * @return the file
+         */
+        public Path getPath() {
+            return path;
+        }
+
+        /**
+         * @return <code>true</code> once the details of the file have been
+         * read
+         */
+        public boolean isKnown() {
+            return known;
+        }
+
+        /**
+         * @return <code>true</code> if the file existed when its details
+         * were read
+         */
+        public boolean exists() {
+            return exists;
+        }
+
+        /**
+         * @return the file size in bytes
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return the time the file was last modified, in milliseconds
+         * since the epoch
+         */
+        public long getModified() {
+            return modified;
+        }
+
+        /**
+         * @return the title of the document, or <code>null</code> if it
+         * has none
+         */
+        public String getTitle() {
+            return title;
+        }
+    }
+
+    /**
+     * Constructs a new RecentFiles instance
+     *
+     * @param capacity the maximum number of files
+     * @param listener called on a background thread whenever the list or
+     *                 the details of a file change
+     */
+    public RecentFiles(int capacity, Runnable listener) {
+        this.capacity = capacity;
+        this.listener = listener;
+        entries = new LinkedHashMap<>(capacity * 2) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, Entry> eldest) {
+                return size() > RecentFiles.this.capacity;
+            }
+        };
+        Diagnostics.register("Recent files", this::getStatistics);
+    }
+
+    /**
+     * Replaces the list, reads the details of the files and prefetches
+     * the most recently used one
+     *
+     * @param paths the files, the most recently used first
+     */
+    public void setAll(List<Path> paths) {
+        synchronized (this) {
+            entries.clear();
+            for (int i = Math.min(paths.size(), capacity) - 1; i >= 0; i--)
+                entries.put(paths.get(i), new Entry(paths.get(i)));
+            for (Entry entry : entries.values())
+                reader.execute(() -> readDetails(entry));
+        }
+        schedulePrefetch();
+        listener.run();
+    }
+
+    /**
+     * Moves a file to the top of the list after it was opened or saved,
+     * and reads its details again
+     *
+     * @param path the file, it's considered to be the open document
+     */
+    public void use(Path path) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.remove(path);
+            if (entry == null) entry = new Entry(path);
+            entries.put(path, entry);
+            open = path;
+            if (path.equals(prefetchedPath)) dropPrefetched();
+        }
+        Entry used = entry;
+        reader.execute(() -> readDetails(used));
+        schedulePrefetch();
+        listener.run();
+    }
+
+    /**
+     * Forgets all the files
+     */
+    public void clear() {
+        synchronized (this) {
+            entries.clear();
+            dropPrefetched();
+        }
+        listener.run();
+    }
+
+    /**
+     * @param path a file
+     * @return the entry of the file or <code>null</code> if it isn't on
+     * the list
+     */
+    public synchronized Entry get(Path path) {
+        return entries.get(path);
+    }
+
+    /**
+     * @return the files, the most recently used first
+     */
+    public synchronized List<Entry> getEntries() {
+        List<Entry> list = new ArrayList<>(entries.values());
+        Collections.reverse(list);
+        return list;
+    }
+
+    /**
+     * @return the paths of the files, the most recently used first
+     */
+    public List<String> getPaths() {
+        List<String> paths = new ArrayList<>();
+        for (Entry entry : getEntries())
+            paths.add(entry.path.toString());
+        return paths;
+    }
+
+    /**
+     * Returns the document read into memory if it's this file and the
+     * file didn't change since. Files that weren't prefetched complete
+     * right away, the prefetched one is checked on a background thread.
+     *
+     * @param path the file to open
+     * @return completes with the document, or with <code>null</code> if
+     * the file has to be read
+     */
+    public CompletableFuture<LoadedDocument> takePrefetched(Path path) {
+        LoadedDocument document;
+        long size, modified;
+        synchronized (this) {
+            if (!path.equals(prefetchedPath) || prefetched == null) {
+                misses++;
+                return CompletableFuture.completedFuture(null);
+            }
+            document = prefetched;
+            size = prefetchedSize;
+            modified = prefetchedModified;
+            dropPrefetched();
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                if (attributes.size() == size && attributes.lastModifiedTime().toMillis() == modified) {
+                    synchronized (this) {
+                        hits++;
+                    }
+                    return document;
+                }
+            } catch (IOException ignored) { }
+            synchronized (this) {
+                misses++;
+            }
+            return null;
+        }, checker);
+    }
+
+    /**
+     * Reads the most recently used file that isn't open into memory,
+     * after the details queued before
+     */
+    private void schedulePrefetch() {
+        reader.execute(() -> {
+            Entry target = null;
+            synchronized (this) {
+                for (Entry entry : getEntries()) {
+                    if (!entry.path.equals(open)) {
+                        target = entry;
+                        break;
+                    }
+                }
+                if (target == null || target.path.equals(prefetchedPath)) return;
+                dropPrefetched();
+            }
+            if (!target.exists || target.size > PREFETCH_LIMIT) return;
+            try {
+                LoadedDocument document = DocumentLoader.load(target.path);
+                synchronized (this) {
+                    if (!entries.containsKey(target.path) || target.path.equals(open)) return;
+                    prefetchedPath = target.path;
+                    prefetched = document;
+                    prefetchedSize = target.size;
+                    prefetchedModified = target.modified;
+                    prefetches++;
+                }
+            } catch (IOException ignored) { }
+        });
+    }
+
+    private void dropPrefetched() {
+        prefetchedPath = null;
+        prefetched = null;
+    }
+
+    /**
+     * Reads the details of a file, on the background thread
+     */
+    private void readDetails(Entry entry) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(entry.path, BasicFileAttributes.class);
+            entry.size = attributes.size();
+            entry.modified = attributes.lastModifiedTime().toMillis();
+            entry.exists = true;
+            entry.title = readTitle(entry.path);
+        } catch (IOException e) {
+            entry.exists = false;
+        }
+        entry.known = true;
+        listener.run();
+    }
+
+    /**
+     * Finds the title of a document, or its first heading if it has no
+     * title, in the beginning of the file
+     */
+    private static String readTitle(Path path) throws IOException {
+        byte[] prefix;
+        try (InputStream in = Files.newInputStream(path)) {
+            prefix = in.readNBytes(TITLE_PREFIX);
+        }
+        Matcher m = TITLE.matcher(new String(prefix, StandardCharsets.UTF_8));
+        if (!m.find()) return null;
+        String title = m.group(1) != null ? m.group(1) : m.group(2);
+        title = WHITESPACE.matcher(TAG.matcher(title).replaceAll("")).replaceAll(" ").trim();
+        if (title.isEmpty()) return null;
+        return title.length() > MAX_TITLE ? title.substring(0, MAX_TITLE - 3) + "..." : title;
+    }
+
+    /**
+     * @return a summary of the list and the prefetched documents
+     */
+    public synchronized String getStatistics() {
+        return "Files: " + entries.size() + " of " + capacity
+                + "\nPrefetched: " + (prefetchedPath == null ? "none" : prefetchedPath + " ("
+                + ImageEmbedder.formatSize(prefetched.getSize()) + ")")
+                + "\nPrefetches: " + prefetches + ", used: " + hits + ", missed: " + misses;
+    }
+}
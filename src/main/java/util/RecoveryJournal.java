@@ -0,0 +1,454 @@
+package util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only crash recovery journals for the open documents, one file
+ * per document. The first snapshot of a document is stored in full, every
+ * later one only as the difference to the previous snapshot. Snapshots
+ * are written on a background thread; if several of a document arrive
+ * while a write is in progress, only the latest one is written.
+ * <p>
+ * The journal files are named after the process and the document, so
+ * several running programs can share the directory, and the journals of
+ * a program that didn't exit properly can be told apart from those of
+ * one that is still running.
+ * <p>
+ * Every record carries a checksum, so a journal cut short by a crash
+ * replays up to the last complete record. A new base snapshot is written
+ * to a temporary file that replaces the journal once it's on disk, so a
+ * crash while compacting leaves the previous journal intact.
+ *
+ * @see VersionData#JOURNAL_LOCATION
+ */
+public final class RecoveryJournal {
+
+    /**
+     * The journal file header ("HNJ1")
+     */
+    private static final int MAGIC = 0x484E4A31;
+
+    /**
+     * Record types
+     */
+    private static final byte BASE = 'B', EDIT = 'E';
+
+    /**
+     * The journal is rewritten from a fresh snapshot once it grows past
+     * this size and twice the document size
+     */
+    private static final long COMPACT_THRESHOLD = 8L << 20;
+
+    /**
+     * The journal file name extension
+     */
+    private static final String EXTENSION = ".journal";
+
+    /**
+     * A recovered document
+     */
+    public static final class Recovery {
+
+        private final File journal;
+        private final String path, text;
+
+        private Recovery(File journal, String path, String text) {
+            this.journal = journal;
+            this.path = path;
+            this.text = text;
+        }
+
+        /**
+         * @return the path of the file the document was opened from or
+         * <code>null</code> if it was never saved
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return the recovered document text
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * Deletes the journal the document was recovered from, called
+         * once it has been restored or declined
+         */
+        public void discard() {
+            delete(journal);
+        }
+    }
+
+    /**
+     * A snapshot waiting to be written
+     */
+    private static final class Snapshot {
+        final String path, text;
+
+        Snapshot(String path, String text) {
+            this.path = path;
+            this.text = text;
+        }
+    }
+
+    /**
+     * The journal of a document, only accessed on the worker thread
+     */
+    private static final class Journal {
+        final File file;
+        DataOutputStream out;
+        FileOutputStream fileOut;
+        String lastPath, lastText;
+        long size;
+
+        Journal(File file) {
+            this.file = file;
+        }
+    }
+
+    private final File directory;
+    private final long process;
+    private final ExecutorService worker =
+            Executors.newSingleThreadExecutor(Threads.daemonFactory("recovery-journal"));
+    private final Map<Long, Snapshot> pending = new ConcurrentHashMap<>();
+    private final Map<Long, Journal> journals = new HashMap<>();   // only accessed on the worker thread
+
+    private final LatencyStats writeStats = new LatencyStats();
+    private volatile long records, bytes;
+
+    /**
+     * Constructs a new RecoveryJournal instance
+     *
+     * @param directory the directory of the journal files
+     */
+    public RecoveryJournal(File directory) {
+        this(directory, ProcessHandle.current().pid());
+        Diagnostics.register("Recovery journal", this::getStatistics);
+    }
+
+    /**
+     * Constructs a new RecoveryJournal instance
+     *
+     * @param directory the directory of the journal files
+     * @param process   the process the journal files are named after
+     */
+    RecoveryJournal(File directory, long process) {
+        this.directory = directory;
+        this.process = process;
+    }
+
+    /**
+     * Queues a snapshot of a document. Only the difference to the
+     * previous snapshot of the same document is written.
+     *
+     * @param document the document, e.g. the id of its tab
+     * @param path     the path of the file the document belongs to or
+     *                 <code>null</code> if it hasn't been saved yet
+     * @param text     the current document text
+     */
+    public void record(long document, String path, String text) {
+        if (pending.put(document, new Snapshot(path == null ? "" : path, text)) == null)
+            worker.execute(() -> writePending(document));
+    }
+
+    /**
+     * Journals a recovered document under its new id, then deletes the
+     * journal it was recovered from
+     *
+     * @param document the document the recovered one is restored as
+     * @param recovery the recovered document
+     */
+    public void restore(long document, Recovery recovery) {
+        record(document, recovery.path, recovery.text);
+        worker.execute(recovery::discard);
+    }
+
+    /**
+     * Deletes the journal of a document, called once it has been saved,
+     * replaced or closed
+     *
+     * @param document the document
+     */
+    public void discard(long document) {
+        pending.remove(document);
+        worker.execute(() -> {
+            Journal journal = journals.remove(document);
+            if (journal != null) close(journal);
+            delete(journalFile(document));
+        });
+    }
+
+    /**
+     * Deletes the journals of all the documents, called before the
+     * program exits
+     */
+    public void discardAll() {
+        pending.clear();
+        worker.execute(() -> {
+            for (Journal journal : journals.values()) {
+                close(journal);
+                delete(journal.file);
+            }
+            journals.clear();
+        });
+    }
+
+    /**
+     * Finishes the queued work and stops the journal thread, called
+     * before the program exits
+     *
+     * @param timeoutSeconds the maximum time to wait
+     */
+    public void shutdown(long timeoutSeconds) {
+        worker.shutdown();
+        try {
+            worker.awaitTermination(timeoutSeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the journal file of a document
+     */
+    private File journalFile(long document) {
+        return new File(directory, process + "-" + document + EXTENSION);
+    }
+
+    /**
+     * Writes the most recent queued snapshot of a document
+     */
+    private void writePending(long document) {
+        Snapshot snapshot = pending.remove(document);
+        if (snapshot == null) return;
+        Journal journal = journals.computeIfAbsent(document, id -> new Journal(journalFile(id)));
+        long start = System.nanoTime();
+        try {
+            if (journal.out == null || !snapshot.path.equals(journal.lastPath)
+                    || journal.size > Math.max(COMPACT_THRESHOLD, 2L * snapshot.text.length())) {
+                writeBase(journal, snapshot);
+            } else {
+                TextDiff diff = TextDiff.compute(journal.lastText, snapshot.text);
+                if (diff.isEmpty()) return;
+                ByteArrayOutputStream payload = new ByteArrayOutputStream();
+                DataOutputStream data = new DataOutputStream(payload);
+                data.writeInt(diff.getStart());
+                data.writeInt(diff.getRemoved());
+                writeString(data, diff.getInserted());
+                writeRecord(journal, EDIT, payload.toByteArray());
+            }
+            journal.out.flush();
+            journal.fileOut.getFD().sync();
+            journal.lastText = snapshot.text;
+            writeStats.recordSince(start);
+        } catch (IOException e) {
+            System.err.println("Writing the recovery journal failed: " + e.getMessage());
+            close(journal);
+        }
+    }
+
+    /**
+     * Starts a new journal with a full snapshot of the document. The
+     * snapshot is written to a temporary file first, which then
+     * atomically replaces the journal and is kept open for appending.
+     */
+    private void writeBase(Journal journal, Snapshot snapshot) throws IOException {
+        close(journal);
+        Path target = journal.file.toPath().toAbsolutePath();
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), "." + target.getFileName() + ".", ".tmp");
+        try {
+            journal.fileOut = new FileOutputStream(temp.toFile());
+            journal.out = new DataOutputStream(new BufferedOutputStream(journal.fileOut, 64 << 10));
+            journal.out.writeInt(MAGIC);
+            journal.size = 4;
+
+            ByteArrayOutputStream payload = new ByteArrayOutputStream(snapshot.text.length() + 64);
+            DataOutputStream data = new DataOutputStream(payload);
+            writeString(data, snapshot.path);
+            writeString(data, snapshot.text);
+            writeRecord(journal, BASE, payload.toByteArray());
+            journal.out.flush();
+            journal.fileOut.getFD().sync();
+            close(journal);
+
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            DocumentWriter.syncDirectory(target.getParent());
+        } finally {
+            close(journal);
+            Files.deleteIfExists(temp);
+        }
+        journal.fileOut = new FileOutputStream(journal.file, true);
+        journal.out = new DataOutputStream(new BufferedOutputStream(journal.fileOut, 64 << 10));
+        journal.lastPath = snapshot.path;
+    }
+
+    /**
+     * Appends a checksummed record to a journal
+     */
+    private void writeRecord(Journal journal, byte type, byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        journal.out.writeByte(type);
+        journal.out.writeInt(payload.length);
+        journal.out.write(payload);
+        journal.out.writeInt((int) crc.getValue());
+        journal.size += payload.length + 9;
+        bytes += payload.length + 9;
+        records++;
+    }
+
+    /**
+     * Closes a journal file
+     */
+    private static void close(Journal journal) {
+        try {
+            if (journal.out != null) journal.out.close();
+        } catch (IOException ignored) { }
+        journal.out = null;
+        journal.fileOut = null;
+        journal.lastText = null;
+    }
+
+    /**
+     * Deletes a journal file
+     */
+    private static void delete(File journal) {
+        if (journal.exists() && !journal.delete())
+            System.err.println("Deleting the recovery journal failed");
+    }
+
+    /**
+     * @return a summary of the journal activity
+     */
+    private String getStatistics() {
+        return "Records written: " + records + " (" + bytes + " bytes)\n"
+                + "Write time: " + writeStats;
+    }
+
+    /**
+     * Reads the journals left behind by programs that didn't exit
+     * properly. Journals of programs that are still running are skipped;
+     * journals that can't be read are deleted.
+     *
+     * @param directory the directory of the journal files
+     * @return the recovered documents, in the order they were opened
+     */
+    public static List<Recovery> recoverAbandoned(File directory) {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        List<Recovery> recovered = new ArrayList<>();
+        if (files == null) return recovered;
+        List<long[]> keys = new ArrayList<>();
+        for (File file : files) {
+            String name = file.getName();
+            int dash = name.indexOf('-');
+            try {
+                long process = Long.parseLong(name.substring(0, dash)),
+                        document = Long.parseLong(name.substring(dash + 1, name.length() - EXTENSION.length()));
+                if (process != ProcessHandle.current().pid() && !ProcessHandle.of(process).isPresent())
+                    keys.add(new long[]{process, document});
+            } catch (RuntimeException ignored) {
+                // not a journal
+            }
+        }
+        keys.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        for (long[] key : keys) {
+            File file = new File(directory, key[0] + "-" + key[1] + EXTENSION);
+            Recovery recovery = recover(file);
+            if (recovery != null) recovered.add(recovery);
+            else delete(file);
+        }
+        return recovered;
+    }
+
+    /**
+     * Reads a journal left behind by a previous session
+     *
+     * @param journal the journal file
+     * @return the recovered document or <code>null</code> if there is
+     * nothing to recover
+     */
+    static Recovery recover(File journal) {
+        if (!journal.isFile() || journal.length() == 0) return null;
+        String path = null;
+        StringBuilder text = null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(journal), 64 << 10))) {
+            if (in.readInt() != MAGIC) return null;
+            while (true) {
+                byte type = in.readByte();
+                byte[] payload = new byte[in.readInt()];
+                in.readFully(payload);
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if (in.readInt() != (int) crc.getValue()) break;
+
+                DataInputStream data = new DataInputStream(new ByteArrayInputStream(payload));
+                if (type == BASE) {
+                    path = readString(data);
+                    text = new StringBuilder(readString(data));
+                } else if (type == EDIT && text != null) {
+                    int start = data.readInt(), removed = data.readInt();
+                    new TextDiff(start, removed, readString(data)).applyTo(text);
+                } else break;
+            }
+        } catch (EOFException ignored) {
+            // the last record was cut short
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Reading the recovery journal failed: " + e.getMessage());
+        }
+        if (text == null) return null;
+        return new Recovery(journal, path == null || path.isEmpty() ? null : path, text.toString());
+    }
+
+    /**
+     * Writes a length-prefixed UTF-8 string (unlike writeUTF, not
+     * limited to 64 KB)
+     */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] data = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString}
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,219 @@
+package util;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Saves documents on a single background thread. Requests for a file
+ * that arrive while an earlier save is still in flight are coalesced:
+ * only the most recent text is written once the current save finishes.
+ * Every write goes through {@link DocumentWriter#writeAtomically}.
+ * <p>
+ * Contains no JavaFX code so it can be used from headless tools.
+ */
+public final class SaveEngine {
+
+    /**
+     * The outcome of a single write
+     */
+    public static final class Result {
+
+        private final Path path;
+        private final long bytes, writeNanos, latencyNanos;
+        private final int requests;
+        private final IOException error;
+
+        private Result(Path path, long bytes, long writeNanos, long latencyNanos,
+                       int requests, IOException error) {
+            this.path = path;
+            this.bytes = bytes;
+            this.writeNanos = writeNanos;
+            this.latencyNanos = latencyNanos;
+            this.requests = requests;
+            this.error = error;
+        }
+
+        /**
+         * @return the saved file
+         */
+        public Path getPath() {
+            return path;
+        }
+
+        /**
+         * @return the number of bytes written
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return the time spent writing and syncing the file
+         */
+        public long getWriteNanos() {
+            return writeNanos;
+        }
+
+        /**
+         * @return the time from the oldest coalesced request until the
+         * data was durable
+         */
+        public long getLatencyNanos() {
+            return latencyNanos;
+        }
+
+        /**
+         * @return the number of save requests this write covered
+         */
+        public int getRequests() {
+            return requests;
+        }
+
+        /**
+         * @return the error that made the save fail or <code>null</code>
+         * if it succeeded
+         */
+        public IOException getError() {
+            return error;
+        }
+    }
+
+    /**
+     * A queued save request
+     */
+    private static final class Request {
+        final Path path;
+        final String contents;
+        final Charset charset;
+        final boolean bom;
+        final Consumer<Result> callback;
+        long firstSubmitted;
+        int requests = 1;
+
+        Request(Path path, String contents, Charset charset, boolean bom, Consumer<Result> callback) {
+            this.path = path;
+            this.contents = contents;
+            this.charset = charset;
+            this.bom = bom;
+            this.callback = callback;
+            this.firstSubmitted = System.nanoTime();
+        }
+    }
+
+    private final ExecutorService worker =
+            Executors.newSingleThreadExecutor(Threads.daemonFactory("save-engine"));
+    private final Map<Path, Request> pending = new LinkedHashMap<>();
+    private boolean draining;
+
+    private final LatencyStats writeStats = new LatencyStats(), latencyStats = new LatencyStats();
+    private final AtomicLong bytesWritten = new AtomicLong(), requestCount = new AtomicLong(),
+            coalescedCount = new AtomicLong(), failureCount = new AtomicLong();
+
+    /**
+     * Queues this text to be saved. If a save of the same file is
+     * already waiting, it's replaced and its callback is never called;
+     * the final write reports how many requests it covered.
+     *
+     * @param path     the file to save
+     * @param contents the text to save
+     * @param charset  the charset to encode the text with
+     * @param bom      <code>true</code> to write a byte order mark
+     * @param callback receives the result on the saving thread once the
+     *                 data is durable or the save has failed
+     */
+    public void submit(Path path, String contents, Charset charset, boolean bom,
+                       Consumer<Result> callback) {
+        Path key = path.toAbsolutePath();
+        Request request = new Request(key, contents, charset, bom, callback);
+        requestCount.incrementAndGet();
+        synchronized (this) {
+            Request replaced = pending.remove(key);
+            if (replaced != null) {
+                request.firstSubmitted = replaced.firstSubmitted;
+                request.requests += replaced.requests;
+                coalescedCount.incrementAndGet();
+            }
+            pending.put(key, request);
+            if (draining) return;
+            draining = true;
+        }
+        worker.execute(this::drain);
+    }
+
+    /**
+     * Writes queued requests until there are none left
+     */
+    private void drain() {
+        while (true) {
+            Request request;
+            synchronized (this) {
+                Iterator<Request> it = pending.values().iterator();
+                if (!it.hasNext()) {
+                    draining = false;
+                    return;
+                }
+                request = it.next();
+                it.remove();
+            }
+            write(request);
+        }
+    }
+
+    /**
+     * Writes a single request and reports the result
+     */
+    private void write(Request request) {
+        long start = System.nanoTime(), bytes = 0;
+        IOException error = null;
+        try {
+            bytes = DocumentWriter.writeAtomically(request.path, request.contents,
+                    request.charset, request.bom);
+        } catch (IOException e) {
+            error = e;
+            failureCount.incrementAndGet();
+        }
+        long end = System.nanoTime();
+        if (error == null) {
+            writeStats.record(end - start);
+            latencyStats.record(end - request.firstSubmitted);
+            bytesWritten.addAndGet(bytes);
+        }
+        if (request.callback != null) request.callback.accept(new Result(request.path, bytes,
+                end - start, end - request.firstSubmitted, request.requests, error));
+    }
+
+    /**
+     * Waits for all queued saves to finish and stops the saving thread.
+     * Called before the program exits.
+     *
+     * @param timeoutSeconds the maximum time to wait
+     */
+    public void shutdown(long timeoutSeconds) {
+        worker.shutdown();
+        try {
+            worker.awaitTermination(timeoutSeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return a summary of the saves performed so far
+     */
+    public String getStatistics() {
+        return "Save requests: " + requestCount.get() + " (" + coalescedCount.get()
+                + " coalesced, " + failureCount.get() + " failed)\n"
+                + "Bytes written: " + bytesWritten.get() + "\n"
+                + "Write time: " + writeStats + "\n"
+                + "Request to durable: " + latencyStats;
+    }
+}
@@ -0,0 +1,493 @@
+package util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * The program settings. The settings are kept in memory as typed values
+ * and written to the config file on a background thread once they stop
+ * changing for a moment, so a burst of changes is written once. While
+ * changes keep coming the file is still written every few seconds, so a
+ * crash loses at most the last {@link #MAX_WRITE_DELAY} of changes.
+ * <p>
+ * The config file is a UTF-8 text file with one <code>name=value</code>
+ * entry per line, starting with the {@link VersionData#CONFIG_VERSION} it
+ * was written with. Files written by older versions are brought up to
+ * date by the migrations registered for the newer versions, the old
+ * Properties XML file included. Every entry is parsed on its own: an
+ * invalid entry is reported and replaced by its default value, unknown
+ * entries are kept as they are.
+ * <p>
+ * Contains no JavaFX code so it can be used from headless tools.
+ */
+public final class Settings {
+
+    /**
+     * The time to wait for more changes before writing the file, in
+     * milliseconds
+     */
+    private static final long WRITE_DELAY = 1000;
+
+    /**
+     * The longest time changes wait to be written while more changes
+     * keep coming, in milliseconds
+     */
+    private static final long MAX_WRITE_DELAY = 5000;
+
+    /**
+     * The file version of the Properties XML config file
+     */
+    private static final double LEGACY_VERSION = 15012;
+
+    /**
+     * The known settings by name
+     */
+    private static final Map<String, Key<?>> keys = new HashMap<>();
+
+    /**
+     * Brings the entries of a file written by an older version up to
+     * date, by the version that introduced the change
+     */
+    private static final NavigableMap<Double, UnaryOperator<Map<String, String>>> migrations = new TreeMap<>();
+
+    /**
+     * Writes the config files
+     */
+    private static final ScheduledExecutorService writer =
+            Executors.newSingleThreadScheduledExecutor(Threads.daemonFactory("settings"));
+
+    /**
+     * A setting with its type and default value
+     *
+     * @param <T> the type of the value
+     */
+    public static final class Key<T> {
+
+        private final String name;
+        private final T defaultValue;
+        private final Function<String, T> parser;
+        private final Function<T, String> formatter;
+
+        private Key(String name, T defaultValue, Function<String, T> parser, Function<T, String> formatter) {
+            this.name = name;
+            this.defaultValue = defaultValue;
+            this.parser = parser;
+            this.formatter = formatter;
+            keys.put(name, this);
+        }
+
+        /**
+         * @return the name of the entry in the config file
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the value used when the setting isn't set
+         */
+        public T getDefaultValue() {
+            return defaultValue;
+        }
+    }
+
+    /// SETTINGS ////////////////////////////////////////////////////////////////////////
+
+    public static final Key<Boolean> MOUSE_DISABLED = booleanKey("mouse_disabled", false);
+    public static final Key<Double> OPACITY = new Key<>("opacity", 1.0, Double::valueOf, String::valueOf);
+    public static final Key<Boolean> OLD_UI = booleanKey("old_ui", false);
+    public static final Key<Long> LARGE_DOC_THRESHOLD = longKey("large_doc_threshold", 8L << 20);
+    public static final Key<Long> LARGE_DOC_BUDGET = longKey("large_doc_budget", 8L << 20);
+    public static final Key<Long> TAB_MEMORY_BUDGET = longKey("tab_memory_budget", 256L << 20);
+    public static final Key<Boolean> IMAGE_DISK_CACHE = booleanKey("image_disk_cache", false);
+    public static final Key<Long> IMPORT_CONNECT_TIMEOUT =
+            longKey("import_connect_timeout", PageFetcher.CONNECT_TIMEOUT.getSeconds());
+    public static final Key<Long> IMPORT_TIMEOUT = longKey("import_timeout", PageFetcher.TIMEOUT.getSeconds());
+    public static final Key<Boolean> RELOAD_LAST = booleanKey("reload_last", true);
+    public static final Key<String> LAST_FILE = new Key<>("last_file", null, Settings::unescape, Settings::escape);
+    public static final Key<List<String>> RECENT_FILES = new Key<>("recent_files", Collections.emptyList(),
+            Settings::parseList, Settings::formatList);
+
+    static {
+        // 15013: the text format, the recent files are separated by tabs instead of semicolons and
+        // reloading the last file has its own setting instead of depending on whether there's one
+        migrations.put(15013.0, entries -> {
+            entries.put("reload_last", String.valueOf(entries.containsKey("last_file")));
+            String recent = entries.remove("recent_files");
+            if (recent == null) return entries;
+            List<String> files = new ArrayList<>();
+            for (String s : recent.split(";"))
+                if (!s.isEmpty()) files.add(unescape(s));
+            entries.put("recent_files", formatList(files));
+            return entries;
+        });
+    }
+
+    private final Path file, legacy;
+    private final Map<String, Object> values = new HashMap<>();
+    private final Map<String, String> unknown = new TreeMap<>();
+    private final List<String> invalid = new ArrayList<>();
+    private final double fileVersion;
+    private final long loadNanos;
+
+    private final Object fileLock = new Object();
+    private final LatencyStats writeStats = new LatencyStats();
+    private ScheduledFuture<?> pendingWrite;
+    private boolean dirty;
+    private long firstChange, lastChange;   // of the changes not yet written
+    private long writes;
+    private String lastError;
+
+    private Settings(Path file, Path legacy, Map<String, String> entries, double fileVersion,
+                     long startNanos) {
+        this.file = file;
+        this.legacy = legacy;
+        this.fileVersion = fileVersion;
+        if (fileVersion <= VersionData.CONFIG_VERSION) {
+            entries.forEach((name, text) -> {
+                Key<?> key = keys.get(name);
+                if (key == null) {
+                    unknown.put(name, text);
+                    return;
+                }
+                try {
+                    values.put(name, Objects.requireNonNull(key.parser.apply(text)));
+                } catch (RuntimeException e) {
+                    invalid.add(name + "=" + text);
+                    System.err.println("Ignoring the invalid setting " + name + "=" + text);
+                }
+            });
+        }
+        loadNanos = System.nanoTime() - startNanos;
+        Diagnostics.register("Settings", this::getStatistics);
+    }
+
+    /**
+     * Reads the settings from the config file. If it doesn't exist yet
+     * the settings are taken over from the old Properties XML file, and
+     * if neither exists the defaults are used.
+     *
+     * @param file   the config file
+     * @param legacy the old Properties XML config file or
+     *               <code>null</code>
+     * @return the settings
+     */
+    public static Settings load(Path file, Path legacy) {
+        long start = System.nanoTime();
+        Map<String, String> entries = new LinkedHashMap<>();
+        try {
+            read(file, entries);
+        } catch (NoSuchFileException e) {
+            if (legacy != null) readLegacy(legacy, entries);
+        } catch (IOException e) {
+            System.err.println("Loading settings failed: " + e.getMessage());
+        }
+
+        double version = LEGACY_VERSION;
+        String versionText = entries.remove("config_version");
+        if (versionText != null) {
+            try {
+                version = Double.parseDouble(versionText);
+            } catch (NumberFormatException e) {
+                System.err.println("Ignoring the invalid setting config_version=" + versionText);
+            }
+        }
+        if (version < VersionData.CONFIG_VERSION)
+            for (UnaryOperator<Map<String, String>> migration :
+                    migrations.subMap(version, false, VersionData.CONFIG_VERSION, true).values())
+                entries = migration.apply(entries);
+        return new Settings(file, legacy, entries, version, start);
+    }
+
+    /**
+     * Reads the entries of a config file
+     */
+    private static void read(Path file, Map<String, String> entries) throws IOException {
+        String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        for (int start = 0, end; start < text.length(); start = end + 1) {
+            end = text.indexOf('\n', start);
+            if (end < 0) end = text.length();
+            int equals = text.indexOf('=', start);
+            if (text.startsWith("#", start) || start == end) continue;
+            if (equals < 0 || equals > end) {
+                System.err.println("Ignoring the invalid setting " + text.substring(start, end));
+                continue;
+            }
+            int valueEnd = end > equals && text.charAt(end - 1) == '\r' ? end - 1 : end;
+            entries.put(text.substring(start, equals).trim(), text.substring(equals + 1, valueEnd));
+        }
+    }
+
+    /**
+     * Reads the entries of the old Properties XML config file
+     */
+    private static void readLegacy(Path legacy, Map<String, String> entries) {
+        if (!Files.isRegularFile(legacy)) return;
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(legacy)) {
+            properties.loadFromXML(in);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Loading settings failed: " + e.getMessage());
+            return;
+        }
+        for (String name : properties.stringPropertyNames())
+            entries.put(name, escape(properties.getProperty(name)));
+    }
+
+    /**
+     * Returns the value of a setting
+     *
+     * @param key the setting
+     * @param <T> the type of the value
+     * @return the value, or the default value if it isn't set or the
+     * config file has an invalid value
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> T get(Key<T> key) {
+        return (T) values.getOrDefault(key.name, key.defaultValue);
+    }
+
+    /**
+     * Changes a setting, the config file is written once the settings
+     * stop changing for a moment
+     *
+     * @param key   the setting
+     * @param value the new value, <code>null</code> to use the default
+     * @param <T>   the type of the value
+     */
+    public synchronized <T> void set(Key<T> key, T value) {
+        Object old = values.get(key.name);
+        if (Objects.equals(old, value)) return;
+        if (value == null) values.remove(key.name);
+        else values.put(key.name, value);
+        if (isNewerVersion()) return;
+        long now = System.nanoTime();
+        if (!dirty) firstChange = now;
+        dirty = true;
+        lastChange = now;
+        if (pendingWrite == null)
+            pendingWrite = writer.schedule(this::writeWhenIdle, WRITE_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes the config file unless the settings changed again in the
+     * meantime, in which case the write is postponed until they stop
+     * changing or the changes have waited for {@link #MAX_WRITE_DELAY}
+     */
+    private void writeWhenIdle() {
+        synchronized (this) {
+            long due = Math.min(lastChange + TimeUnit.MILLISECONDS.toNanos(WRITE_DELAY),
+                    firstChange + TimeUnit.MILLISECONDS.toNanos(MAX_WRITE_DELAY));
+            long wait = due - System.nanoTime();
+            if (pendingWrite != null && dirty && wait > 0) {
+                pendingWrite = writer.schedule(this::writeWhenIdle, wait, TimeUnit.NANOSECONDS);
+                return;
+            }
+        }
+        write();
+    }
+
+    /**
+     * Writes the pending changes now, waiting for the file to be written
+     */
+    public void flush() {
+        synchronized (this) {
+            if (pendingWrite != null) pendingWrite.cancel(false);
+            pendingWrite = null;
+        }
+        write();
+    }
+
+    /**
+     * Forgets the pending changes and deletes the config file, the old
+     * Properties XML file included
+     *
+     * @return <code>true</code> if the file was deleted
+     */
+    public boolean delete() {
+        synchronized (this) {
+            if (pendingWrite != null) pendingWrite.cancel(false);
+            pendingWrite = null;
+            dirty = false;
+        }
+        synchronized (fileLock) {
+            try {
+                if (legacy != null) Files.deleteIfExists(legacy);
+                return Files.deleteIfExists(file);
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Writes the config file if the settings changed since it was last
+     * written
+     */
+    private void write() {
+        synchronized (fileLock) {
+            String text;
+            synchronized (this) {
+                pendingWrite = null;
+                if (!dirty || isNewerVersion()) return;
+                dirty = false;
+                text = format();
+            }
+            long start = System.nanoTime();
+            try {
+                DocumentWriter.writeAtomically(file, text);
+                // manually hide the config file on windows
+                if (System.getProperty("os.name").toLowerCase().contains("win"))
+                    Files.setAttribute(file, "dos:hidden", true);
+                writeStats.recordSince(start);
+                synchronized (this) {
+                    writes++;
+                    lastError = null;
+                }
+            } catch (IOException e) {
+                System.err.println("Saving settings failed: " + e.getMessage());
+                synchronized (this) {
+                    lastError = e.getMessage();
+                    dirty = true;   // retried with the next change
+                }
+            }
+        }
+    }
+
+    /**
+     * Formats the settings as the contents of a config file
+     */
+    @SuppressWarnings("unchecked")
+    private String format() {
+        StringBuilder sb = new StringBuilder(1024);
+        sb.append("# HTMLNotepadFX ").append(VersionData.VERSION).append(" settings\n");
+        sb.append("config_version=").append(VersionData.CONFIG_VERSION).append('\n');
+        Map<String, String> entries = new TreeMap<>(unknown);
+        values.forEach((name, value) ->
+                entries.put(name, ((Key<Object>) keys.get(name)).formatter.apply(value)));
+        entries.forEach((name, text) -> sb.append(name).append('=').append(text).append('\n'));
+        return sb.toString();
+    }
+
+    /**
+     * @return <code>true</code> if the config file was written by a newer
+     * version, its settings are ignored and it's never overwritten then
+     */
+    public boolean isNewerVersion() {
+        return fileVersion > VersionData.CONFIG_VERSION;
+    }
+
+    /**
+     * @return the version the config file was written with
+     */
+    public double getFileVersion() {
+        return fileVersion;
+    }
+
+    /**
+     * @return a summary of loading and writing the config file
+     */
+    public synchronized String getStatistics() {
+        return "File: " + file + " (version " + fileVersion + ")"
+                + String.format("\nLoaded in %.3f ms, %d invalid entries ignored", loadNanos / 1e6, invalid.size())
+                + (invalid.isEmpty() ? "" : ": " + String.join(", ", invalid))
+                + "\nWrites: " + writes + ", pending: " + dirty + ", write time: " + writeStats
+                + (lastError == null ? "" : "\nLast write failed: " + lastError);
+    }
+
+    /// VALUE FORMATS ///////////////////////////////////////////////////////////////////
+
+    private static Key<Boolean> booleanKey(String name, boolean defaultValue) {
+        return new Key<>(name, defaultValue, text -> {
+            if (text.equals("true")) return true;
+            if (text.equals("false")) return false;
+            throw new IllegalArgumentException(text);
+        }, String::valueOf);
+    }
+
+    private static Key<Long> longKey(String name, long defaultValue) {
+        return new Key<>(name, defaultValue, Long::valueOf, String::valueOf);
+    }
+
+    /**
+     * Escapes the backslashes and the line break and tab characters
+     */
+    private static String escape(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String unescape(String text) {
+        if (text.indexOf('\\') < 0) return text;
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c != '\\' || i + 1 == text.length()) {
+                sb.append(c);
+                continue;
+            }
+            c = text.charAt(++i);
+            sb.append(c == 'n' ? '\n' : c == 'r' ? '\r' : c == 't' ? '\t' : c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Parses a list of escaped values separated by tabs
+     */
+    private static List<String> parseList(String text) {
+        if (text.isEmpty()) return Collections.emptyList();
+        List<String> list = new ArrayList<>();
+        for (String s : text.split("\t"))
+            list.add(unescape(s));
+        return Collections.unmodifiableList(list);
+    }
+
+    private static String formatList(List<String> list) {
+        StringBuilder sb = new StringBuilder();
+        for (String s : list) {
+            if (sb.length() > 0) sb.append('\t');
+            sb.append(escape(s));
+        }
+        return sb.toString();
+    }
+}
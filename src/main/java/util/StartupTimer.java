@@ -0,0 +1,93 @@
+package util;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Records how long the startup phases take, measured from the moment the
+ * process was started. The phases are displayed in the Diagnostics window
+ * and, with <code>-Dhtmlnotepad.startup.log=true</code>, printed to the
+ * standard error once startup is finished, one
+ * <code>startup: phase=milliseconds</code> line per phase.
+ * <p>
+ * With <code>-Dhtmlnotepad.startup.exit=true</code> the program exits as
+ * soon as startup is finished, which is how the startup benchmark and the
+ * class data sharing archive build run it. Contains no JavaFX code so it
+ * can be used from headless tools.
+ */
+public final class StartupTimer {
+
+    /**
+     * Non-instantiable
+     */
+    private StartupTimer() {
+    }
+
+    /**
+     * The system property that prints the phases once startup is finished
+     */
+    public static final String LOG_PROPERTY = "htmlnotepad.startup.log";
+
+    /**
+     * The system property that exits the program once startup is finished
+     */
+    public static final String EXIT_PROPERTY = "htmlnotepad.startup.exit";
+
+    /**
+     * The time the process was started, in milliseconds since the epoch
+     */
+    private static final long origin = ProcessHandle.current().info().startInstant()
+            .map(Instant::toEpochMilli).orElse(System.currentTimeMillis());
+
+    /**
+     * The phases in the order they finished, in milliseconds since the
+     * process was started
+     */
+    private static final Map<String, Long> phases = new LinkedHashMap<>();
+
+    private static boolean finished;
+
+    static {
+        Diagnostics.register("Startup", StartupTimer::report);
+    }
+
+    /**
+     * Records the end of a startup phase, only the first time it's called
+     * for the phase
+     *
+     * @param phase the phase name
+     */
+    public static synchronized void mark(String phase) {
+        if (!finished) phases.putIfAbsent(phase, System.currentTimeMillis() - origin);
+    }
+
+    /**
+     * Marks the startup as finished and prints the phases if requested
+     *
+     * @return <code>true</code> if the program should exit now
+     */
+    public static synchronized boolean finish() {
+        if (finished) return false;
+        finished = true;
+        if (Boolean.getBoolean(LOG_PROPERTY))
+            phases.forEach((phase, millis) -> System.err.println("startup: " + phase + "=" + millis));
+        return Boolean.getBoolean(EXIT_PROPERTY);
+    }
+
+    /**
+     * @return a summary of the startup phases
+     */
+    public static synchronized String report() {
+        StringBuilder sb = new StringBuilder();
+        long previous = 0;
+        for (Map.Entry<String, Long> phase : phases.entrySet()) {
+            if (sb.length() > 0) sb.append('\n');
+            sb.append(String.format("%-16s %,6d ms (+%,d ms)", phase.getKey() + ":",
+                    phase.getValue(), phase.getValue() - previous));
+            previous = phase.getValue();
+        }
+        if (!finished) sb.append(sb.length() > 0 ? "\n" : "").append("Starting...");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,85 @@
+package util;
+
+/**
+ * A single replace operation that turns one text into another, found by
+ * trimming the common prefix and suffix. Edits made by typing or pasting
+ * are usually local, so the replaced region is small even when the
+ * document is huge.
+ */
+public final class TextDiff {
+
+    private final int start, removed;
+    private final String inserted;
+
+    /**
+     * Constructs a new TextDiff instance
+     *
+     * @param start    the offset of the replaced region
+     * @param removed  the length of the replaced region in the old text
+     * @param inserted the text that replaces it
+     */
+    public TextDiff(int start, int removed, String inserted) {
+        this.start = start;
+        this.removed = removed;
+        this.inserted = inserted;
+    }
+
+    /**
+     * Computes the replace operation that turns the old text into the
+     * new one
+     *
+     * @param oldText the old text
+     * @param newText the new text
+     * @return the difference, {@link #isEmpty()} if the texts are equal
+     */
+    public static TextDiff compute(CharSequence oldText, CharSequence newText) {
+        int oldLength = oldText.length(), newLength = newText.length();
+        int limit = Math.min(oldLength, newLength), prefix = 0;
+        while (prefix < limit && oldText.charAt(prefix) == newText.charAt(prefix)) prefix++;
+
+        int suffix = 0;
+        limit -= prefix;
+        while (suffix < limit && oldText.charAt(oldLength - 1 - suffix)
+                == newText.charAt(newLength - 1 - suffix)) suffix++;
+
+        return new TextDiff(prefix, oldLength - prefix - suffix,
+                newText.subSequence(prefix, newLength - suffix).toString());
+    }
+
+    /**
+     * Applies this difference to the text
+     *
+     * @param text the text to modify
+     */
+    public void applyTo(StringBuilder text) {
+        text.replace(start, start + removed, inserted);
+    }
+
+    /**
+     * @return the offset of the replaced region
+     */
+    public int getStart() {
+        return start;
+    }
+
+    /**
+     * @return the length of the replaced region in the old text
+     */
+    public int getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return the text that replaces the region
+     */
+    public String getInserted() {
+        return inserted;
+    }
+
+    /**
+     * @return <code>true</code> if there is no difference
+     */
+    public boolean isEmpty() {
+        return removed == 0 && inserted.isEmpty();
+    }
+}
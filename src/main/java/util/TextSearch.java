@@ -0,0 +1,507 @@
+package util;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds and replaces text in large documents on a background thread.
+ * Literal queries are found with the Boyer-Moore-Horspool algorithm,
+ * which skips over most of the text, ignoring the case if asked to
+ * (characters whose case folding changes the length, like "ß", only
+ * match themselves). Regular expressions use {@link Pattern}.
+ * <p>
+ * The matches are reported in batches while the search runs, so they
+ * can be shown before the whole document is searched, and a search can
+ * be cancelled at any time, even in the middle of a slow regular
+ * expression. Contains no JavaFX code so it can be used from headless
+ * tools.
+ */
+public final class TextSearch {
+
+    /**
+     * Non-instantiable
+     */
+    private TextSearch() {
+    }
+
+    /**
+     * The number of matches reported at once
+     */
+    private static final int BATCH = 4096;
+
+    /**
+     * Reported matches are also passed on after this many characters
+     * were searched, and that's when the search checks if it was
+     * cancelled
+     */
+    private static final int CHUNK = 1 << 20;
+
+    /**
+     * Searches stop after this many matches
+     */
+    public static final int MAX_MATCHES = 1_000_000;
+
+    /**
+     * Runs the searches and replacements, one at a time
+     */
+    private static final ExecutorService searcher =
+            Executors.newSingleThreadExecutor(Threads.daemonFactory("search"));
+
+    private static final LatencyStats searchStats = new LatencyStats(), replaceStats = new LatencyStats();
+    private static long searches, cancelled, searchedChars, replacements;
+
+    static {
+        Diagnostics.register("Search", TextSearch::getStatistics);
+    }
+
+    /**
+     * What to search for
+     */
+    public static final class Query {
+
+        private final String text;
+        private final boolean matchCase;
+        private final Pattern pattern;
+
+        /**
+         * Constructs a new Query instance
+         *
+         * @param text      the text or the regular expression to find, not
+         *                  empty
+         * @param matchCase <code>false</code> to ignore the case
+         * @param regex     <code>true</code> if the text is a regular
+         *                  expression
+         * @throws java.util.regex.PatternSyntaxException if the regular
+         *                                                expression is
+         *                                                invalid
+         */
+        public Query(String text, boolean matchCase, boolean regex) {
+            if (text.isEmpty()) throw new IllegalArgumentException("Empty query");
+            this.text = text;
+            this.matchCase = matchCase;
+            pattern = regex ? Pattern.compile(text, Pattern.MULTILINE
+                    | (matchCase ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE)) : null;
+        }
+
+        /**
+         * @return <code>true</code> if the query is a regular expression
+         */
+        public boolean isRegex() {
+            return pattern != null;
+        }
+
+        private Finder finder(CharSequence text, Search search) {
+            return pattern != null ? new RegexFinder(pattern, text, search)
+                    : new LiteralFinder(this.text, matchCase, text);
+        }
+    }
+
+    /**
+     * Receives the matches of a search, on the search thread
+     */
+    public interface Listener {
+
+        /**
+         * Called with the next matches, in the order of the text
+         *
+         * @param matches the start and the end offset of every match
+         */
+        void found(int[] matches);
+
+        /**
+         * Called once the search ended, unless it was cancelled
+         *
+         * @param total    the number of matches
+         * @param complete <code>false</code> if the search stopped at
+         *                 {@link #MAX_MATCHES}
+         */
+        void finished(int total, boolean complete);
+
+        /**
+         * Called instead of {@link #finished(int, boolean)} if the regular
+         * expression couldn't be matched
+         *
+         * @param reason what went wrong
+         */
+        void failed(String reason);
+    }
+
+    /**
+     * A running search or replacement, can be cancelled
+     */
+    public static final class Search {
+
+        private volatile boolean cancelled;
+
+        /**
+         * Stops the search, no more matches are reported
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * @return <code>true</code> if the search was cancelled
+         */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        private void check() {
+            if (cancelled) throw new CancellationException();
+        }
+    }
+
+    /**
+     * The text with every match replaced
+     */
+    public static final class Replacement {
+
+        private final String text;
+        private final int count;
+
+        private Replacement(String text, int count) {
+            this.text = text;
+            this.count = count;
+        }
+
+        /**
+         * @return the new text
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * @return the number of replaced matches
+         */
+        public int getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * Starts searching in the background
+     *
+     * @param text     the text to search
+     * @param query    what to find
+     * @param listener receives the matches
+     * @return the search, to cancel it
+     */
+    public static Search start(CharSequence text, Query query, Listener listener) {
+        Search search = new Search();
+        searcher.execute(() -> {
+            try {
+                find(text, query, search, listener);
+            } catch (CancellationException ignored) { }
+        });
+        return search;
+    }
+
+    /**
+     * Finds the matches right away, on the calling thread
+     *
+     * @param text     the text to search
+     * @param query    what to find
+     * @param search   cancels the search
+     * @param listener receives the matches
+     * @throws CancellationException if the search was cancelled
+     */
+    public static void find(CharSequence text, Query query, Search search, Listener listener) {
+        long start = System.nanoTime();
+        Finder finder = query.finder(text, search);
+        int[] batch = new int[BATCH * 2];
+        int count = 0, total = 0, limit = Math.min(text.length(), CHUNK);
+        try {
+            while (total < MAX_MATCHES) {
+                search.check();
+                int found = finder.next(limit);
+                if (found < 0) {
+                    // the matches found so far are shown while the next chunk is searched
+                    if (count > 0) listener.found(Arrays.copyOf(batch, count * 2));
+                    count = 0;
+                    if (limit == text.length()) break;
+                    limit = Math.min(text.length(), limit + CHUNK);
+                    continue;
+                }
+                if (finder.end() == found) continue;    // empty matches aren't shown
+                batch[count * 2] = found;
+                batch[count * 2 + 1] = finder.end();
+                total++;
+                if (++count == BATCH) {
+                    listener.found(batch.clone());
+                    count = 0;
+                }
+            }
+            search.check();
+            if (count > 0) listener.found(Arrays.copyOf(batch, count * 2));
+            listener.finished(total, total < MAX_MATCHES);
+        } catch (CancellationException e) {
+            synchronized (TextSearch.class) {
+                cancelled++;
+            }
+            throw e;
+        } catch (StackOverflowError e) {
+            // the matcher recurses for every repetition of some groups
+            listener.failed("The expression is too complex for this text");
+        } finally {
+            searchStats.recordSince(start);
+            synchronized (TextSearch.class) {
+                searches++;
+                searchedChars += limit;
+            }
+        }
+    }
+
+    /**
+     * Replaces every match in the background, building the new text in
+     * one pass
+     *
+     * @param text        the text
+     * @param query       what to replace
+     * @param replacement the replacement; for regular expressions, $1 or
+     *                    ${name} refer to the groups
+     * @param search      cancels the replacement
+     * @return completes with the new text, or exceptionally with a
+     * {@link CancellationException} if it was cancelled
+     */
+    public static CompletableFuture<Replacement> replaceAll(CharSequence text, Query query, String replacement,
+                                                            Search search) {
+        return CompletableFuture.supplyAsync(() -> replace(text, query, replacement, search), searcher);
+    }
+
+    /**
+     * Replaces every match right away, on the calling thread
+     *
+     * @param text        the text
+     * @param query       what to replace
+     * @param replacement the replacement
+     * @param search      cancels the replacement
+     * @return the new text
+     * @throws CancellationException if it was cancelled
+     */
+    public static Replacement replace(CharSequence text, Query query, String replacement, Search search) {
+        long start = System.nanoTime();
+        Finder finder = query.finder(text, search);
+        StringBuilder out = new StringBuilder(text.length());
+        int count = 0;
+        while (finder.next(text.length() + 1) >= 0) {
+            search.check();
+            finder.appendReplacement(out, replacement);
+            count++;
+        }
+        search.check();
+        finder.appendTail(out);
+        replaceStats.recordSince(start);
+        synchronized (TextSearch.class) {
+            replacements += count;
+        }
+        return new Replacement(count == 0 ? text.toString() : out.toString(), count);
+    }
+
+    /**
+     * @return a summary of the searches
+     */
+    private static synchronized String getStatistics() {
+        return "Searches: " + searches + " (cancelled: " + cancelled + "), searched "
+                + ImageEmbedder.formatSize(searchedChars * 2) + ", replaced matches: " + replacements + "\n"
+                + "Search time: " + searchStats + "\n"
+                + "Replace time: " + replaceStats;
+    }
+
+    /// FINDERS /////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Finds the matches one after another, from the start of the text
+     */
+    private interface Finder {
+
+        /**
+         * Finds the next match, if it starts before the limit
+         *
+         * @param limit the offset the match has to start before; once
+         *              nothing was found, the next call has to use a
+         *              higher limit
+         * @return the start of the match, or -1 if there is none before
+         * the limit
+         */
+        int next(int limit);
+
+        /**
+         * @return the end of the last match
+         */
+        int end();
+
+        /**
+         * Appends the text since the previous match and the replacement
+         * of the last match
+         */
+        void appendReplacement(StringBuilder out, String replacement);
+
+        /**
+         * Appends the text after the last match
+         */
+        void appendTail(StringBuilder out);
+    }
+
+    /**
+     * Boyer-Moore-Horspool: compares the pattern from its end and shifts
+     * it by the distance of the compared text character from the end of
+     * the pattern. The shift table is indexed by the low byte of the
+     * character, characters sharing it take the smallest shift.
+     */
+    private static final class LiteralFinder implements Finder {
+
+        private final CharSequence text;
+        private final char[] pattern;
+        private final boolean matchCase;
+        private final int[] shift = new int[256];
+        private int position, start, appended;
+
+        LiteralFinder(String query, boolean matchCase, CharSequence text) {
+            this.text = text;
+            this.matchCase = matchCase;
+            pattern = new char[query.length()];
+            for (int i = 0; i < pattern.length; i++)
+                pattern[i] = matchCase ? query.charAt(i) : fold(query.charAt(i));
+            int m = pattern.length;
+            Arrays.fill(shift, m);
+            for (int i = 0; i < m - 1; i++) shift[pattern[i] & 0xFF] = m - 1 - i;
+        }
+
+        @Override
+        public int next(int limit) {
+            int m = pattern.length, last = m - 1, end = Math.min(limit, text.length() - m + 1);
+            char tail = pattern[last];
+            int i = position;
+            while (i < end) {
+                char c = text.charAt(i + last);
+                if (!matchCase) c = fold(c);
+                if (c == tail) {
+                    int j = last - 1;
+                    while (j >= 0 && (matchCase ? text.charAt(i + j) : fold(text.charAt(i + j))) == pattern[j]) j--;
+                    if (j < 0) {
+                        start = i;
+                        position = i + m;
+                        return i;
+                    }
+                }
+                i += shift[c & 0xFF];
+            }
+            position = i;
+            return -1;
+        }
+
+        @Override
+        public int end() {
+            return start + pattern.length;
+        }
+
+        @Override
+        public void appendReplacement(StringBuilder out, String replacement) {
+            out.append(text, appended, start).append(replacement);
+            appended = end();
+        }
+
+        @Override
+        public void appendTail(StringBuilder out) {
+            out.append(text, appended, text.length());
+        }
+
+        private static char fold(char c) {
+            if (c < 128) return c >= 'A' && c <= 'Z' ? (char) (c + 32) : c;
+            return Character.toLowerCase(Character.toUpperCase(c));
+        }
+    }
+
+    /**
+     * Finds the matches of a regular expression. The text is read
+     * through a wrapper that checks every now and then whether the
+     * search was cancelled, so even a pattern that backtracks for a
+     * long time stops.
+     */
+    private static final class RegexFinder implements Finder {
+
+        private static final int UNKNOWN = -2, NONE = -1;
+
+        private final Matcher matcher;
+        private int next = UNKNOWN;     // the start of the match found ahead
+
+        RegexFinder(Pattern pattern, CharSequence text, Search search) {
+            matcher = pattern.matcher(new Cancellable(text, search));
+        }
+
+        @Override
+        public int next(int limit) {
+            // a match may end after the limit, so it's found ahead and kept until
+            // the limit reaches it
+            if (next == UNKNOWN) next = matcher.find() ? matcher.start() : NONE;
+            if (next == NONE || next >= limit) return -1;
+            int start = next;
+            next = UNKNOWN;
+            return start;
+        }
+
+        @Override
+        public int end() {
+            return matcher.end();
+        }
+
+        @Override
+        public void appendReplacement(StringBuilder out, String replacement) {
+            matcher.appendReplacement(out, replacement);
+        }
+
+        @Override
+        public void appendTail(StringBuilder out) {
+            matcher.appendTail(out);
+        }
+    }
+
+    /**
+     * The text of a regular expression search, checks for cancellation
+     * on every {@link #CHECK_INTERVAL}th character read
+     */
+    private static final class Cancellable implements CharSequence {
+
+        private static final int CHECK_INTERVAL = 1 << 16;
+
+        private final CharSequence text;
+        private final Search search;
+        private int reads;
+
+        Cancellable(CharSequence text, Search search) {
+            this.text = text;
+            this.search = search;
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (++reads == CHECK_INTERVAL) {
+                reads = 0;
+                search.check();
+            }
+            return text.charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return text.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return text.toString();
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Contains utility methods for creating background threads
+ */
+public final class Threads {
+
+    /**
+     * Non-instantiable
+     */
+    private Threads() {
+    }
+
+    /**
+     * Returns a thread factory that creates named daemon threads, so
+     * that background work never keeps the program from exiting
+     *
+     * @param name the base thread name
+     * @return the thread factory
+     */
+    public static ThreadFactory daemonFactory(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
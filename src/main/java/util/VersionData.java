@@ -34,21 +34,61 @@ public final class VersionData {
     /**
      * The location of the config file, depends on the OS used
      */
-    public static final String CONFIG_LOCATION = getConfigFileLocation();
+    public static final String CONFIG_LOCATION = getConfigFileLocation(".conf");
+
+    /**
+     * The location of the Properties XML config file written by the
+     * older versions, its settings are taken over on the first start
+     */
+    public static final String LEGACY_CONFIG_LOCATION = getConfigFileLocation(".xml");
+
+    /**
+     * The location of the crash recovery journal directory, next to the
+     * config file
+     */
+    public static final String JOURNAL_LOCATION = getJournalLocation();
+
+    /**
+     * The location of the image cache directory, next to the config file
+     */
+    public static final String CACHE_LOCATION = getCacheLocation();
 
     /**
      * The config file version magic number
      */
-    public static final double CONFIG_VERSION = 15012;
+    public static final double CONFIG_VERSION = 15013;
 
     /**
      * Gets the location of the config file
      *
+     * @param extension the file name extension
      * @return the config file location, based on the OS
      */
-    private static String getConfigFileLocation() {
+    private static String getConfigFileLocation(String extension) {
+        String os = System.getProperty("os.name").toLowerCase();
+        return System.getProperty("user.home") + (os.contains("win")
+                ? "\\HTMLNotepadFX_settings" : "/.HTMLNotepadFX_settings") + extension;
+    }
+
+    /**
+     * Gets the location of the crash recovery journal directory
+     *
+     * @return the journal directory location, based on the OS
+     */
+    private static String getJournalLocation() {
+        String os = System.getProperty("os.name").toLowerCase();
+        return System.getProperty("user.home") + (os.contains("win")
+                ? "\\HTMLNotepadFX_recovery" : "/.HTMLNotepadFX_recovery");
+    }
+
+    /**
+     * Gets the location of the image cache directory
+     *
+     * @return the cache directory location, based on the OS
+     */
+    private static String getCacheLocation() {
         String os = System.getProperty("os.name").toLowerCase();
         return System.getProperty("user.home") + (os.contains("win")
-                ? "\\HTMLNotepadFX_settings.xml" : "/.HTMLNotepadFX_settings.xml");
+                ? "\\HTMLNotepadFX_cache" : "/.HTMLNotepadFX_cache");
     }
 }
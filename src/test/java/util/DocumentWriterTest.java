@@ -0,0 +1,48 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Writes documents into a temporary directory
+ */
+class DocumentWriterTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void writesInCharset() throws Exception {
+        Path file = directory.resolve("page.html");
+        long written = DocumentWriter.writeAtomically(file, "<p>café</p>", StandardCharsets.ISO_8859_1, false);
+        assertEquals(11, written);
+        assertArrayEquals("<p>café</p>".getBytes(StandardCharsets.ISO_8859_1), Files.readAllBytes(file));
+    }
+
+    @Test
+    void refusesUnencodableText() throws Exception {
+        Path file = directory.resolve("page.html");
+        Files.write(file, "<p>old</p>".getBytes(StandardCharsets.ISO_8859_1));
+        DocumentWriter.UnencodableException e = assertThrows(DocumentWriter.UnencodableException.class,
+                () -> DocumentWriter.writeAtomically(file, "<p>€</p>", StandardCharsets.ISO_8859_1, false));
+        assertEquals(StandardCharsets.ISO_8859_1, e.getCharset());
+        assertEquals("<p>old</p>", new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1));
+        assertEquals(1, directory.toFile().list().length);     // no temporary file left
+    }
+
+    @Test
+    void refusesUnencodableStream() {
+        Path file = directory.resolve("page.html");
+        assertThrows(DocumentWriter.UnencodableException.class, () -> DocumentWriter.writeAtomically(file,
+                out -> out.write("<p>€</p>"), StandardCharsets.US_ASCII, false));
+        assertEquals(0, directory.toFile().list().length);
+    }
+}
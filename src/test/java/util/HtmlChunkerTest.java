@@ -0,0 +1,69 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Splits generated documents
+ */
+class HtmlChunkerTest {
+
+    private static String paragraphs(int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) sb.append("<p>Paragraph ").append(i).append(" <b>bold</b></p>");
+        return sb.toString();
+    }
+
+    private static String join(HtmlChunker.ChunkedDocument document) {
+        return document.getHead() + document.getWrapperStart() + String.join("", document.getChunks())
+                + document.getWrapperEnd() + document.getTail();
+    }
+
+    @Test
+    void splitsTopLevelBlocks() {
+        String html = "<html><head><title>T</title></head><body>" + paragraphs(100) + "</body></html>";
+        HtmlChunker.ChunkedDocument document = HtmlChunker.split(html, 300);
+        assertEquals("<html><head><title>T</title></head><body>", document.getHead());
+        assertEquals("</body></html>", document.getTail());
+        assertEquals("", document.getWrapperStart());
+        assertTrue(document.getChunks().size() > 1);
+        for (String chunk : document.getChunks()) assertTrue(chunk.startsWith("<p>") && chunk.endsWith("</p>"));
+        assertEquals(html, join(document));
+    }
+
+    @Test
+    void descendsIntoWrappers() {
+        String html = "<html><body>\n<div class=\"page\"><main>" + paragraphs(100) + "</main></div>\n</body></html>";
+        HtmlChunker.ChunkedDocument document = HtmlChunker.split(html, 300);
+        assertEquals("\n<div class=\"page\"><main>", document.getWrapperStart());
+        assertEquals("</main></div>\n", document.getWrapperEnd());
+        assertTrue(document.getChunks().size() > 1);
+        assertEquals(html, join(document));
+    }
+
+    @Test
+    void keepsWrappersWithSiblings() {
+        String html = "<body><div>" + paragraphs(100) + "</div><p>After</p></body>";
+        HtmlChunker.ChunkedDocument document = HtmlChunker.split(html, 300);
+        assertEquals("", document.getWrapperStart());
+        assertEquals(html, join(document));
+    }
+
+    @Test
+    void keepsTables() {
+        String html = "<body><table>" + "<tr><td>Cell</td></tr>".repeat(100) + "</table></body>";
+        HtmlChunker.ChunkedDocument document = HtmlChunker.split(html, 300);
+        assertEquals("", document.getWrapperStart());
+        assertEquals(1, document.getChunks().size());
+    }
+
+    @Test
+    void keepsSmallWrappers() {
+        String html = "<body><div><p>Short</p><p>Text</p></div></body>";
+        HtmlChunker.ChunkedDocument document = HtmlChunker.split(html, 300);
+        assertEquals("", document.getWrapperStart());
+        assertEquals(html, join(document));
+    }
+}
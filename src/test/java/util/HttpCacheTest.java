@@ -0,0 +1,79 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Stores and finds pages in a temporary cache directory
+ */
+class HttpCacheTest {
+
+    @TempDir
+    Path directory;
+
+    private static HttpCache.Entry store(HttpCache cache, URI uri, String body, String etag) throws Exception {
+        Path download = cache.createDownloadFile();
+        Files.write(download, body.getBytes(StandardCharsets.UTF_8));
+        return cache.store(uri, download, etag, null, "text/html");
+    }
+
+    @Test
+    void findsStoredPage() throws Exception {
+        HttpCache cache = new HttpCache(directory);
+        URI uri = URI.create("http://example.com/page");
+        assertNull(cache.lookup(uri));
+        store(cache, uri, "<p>One</p>", "\"1\"");
+
+        HttpCache.Entry entry = cache.lookup(uri);
+        assertNotNull(entry);
+        assertEquals("\"1\"", entry.getEtag());
+        assertNull(entry.getLastModified());
+        assertEquals("text/html", entry.getContentType());
+        assertEquals("<p>One</p>", new String(Files.readAllBytes(entry.getBody()), StandardCharsets.UTF_8));
+        assertNull(cache.lookup(URI.create("http://example.com/other")));
+    }
+
+    @Test
+    void replacesStoredPage() throws Exception {
+        HttpCache cache = new HttpCache(directory);
+        URI uri = URI.create("http://example.com/page");
+        store(cache, uri, "<p>One</p>", "\"1\"");
+        store(cache, uri, "<p>Two</p>", "\"2\"");
+
+        HttpCache.Entry entry = cache.lookup(uri);
+        assertEquals("\"2\"", entry.getEtag());
+        assertEquals("<p>Two</p>", new String(Files.readAllBytes(entry.getBody()), StandardCharsets.UTF_8));
+        assertEquals(2, directory.toFile().list().length);
+    }
+
+    @Test
+    void deletesLeastRecentlyUsed() throws Exception {
+        HttpCache cache = new HttpCache(directory, 25);
+        URI first = URI.create("http://example.com/1"), second = URI.create("http://example.com/2"),
+                third = URI.create("http://example.com/3");
+        HttpCache.Entry old = store(cache, first, "0123456789", "\"1\"");
+        Files.setLastModifiedTime(old.getBody(), FileTime.fromMillis(System.currentTimeMillis() - 60_000));
+        HttpCache.Entry used = store(cache, second, "0123456789", "\"2\"");
+        Files.setLastModifiedTime(used.getBody(), FileTime.fromMillis(System.currentTimeMillis() - 120_000));
+        cache.touch(used);      // now used more recently than the first one
+
+        store(cache, third, "0123456789", "\"3\"");
+        assertNull(cache.lookup(first));
+        assertNotNull(cache.lookup(second));
+        assertNotNull(cache.lookup(third));
+        assertFalse(Files.exists(old.getBody()));
+        assertTrue(Files.exists(used.getBody()));
+    }
+}
@@ -0,0 +1,44 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Lexes generated single-line documents
+ */
+class IncrementalLexerTest {
+
+    private static final String BLOCK = "<p class=\"a\">Text &amp; more</p><!-- note --><script>var x = 1;"
+            + " /* c */ f(`t`);</script><style>p { margin: 0 }</style>";
+
+    @Test
+    void followsEditsOfOneLine() {
+        Random random = new Random(7);
+        String text = BLOCK.repeat(2_000);
+        LineBuffer buffer = new LineBuffer(text);
+        IncrementalLexer lexer = new IncrementalLexer(buffer);
+        lexer.stateAt(buffer.getLineCount() - 1);
+        String[] inserts = {"x", "<!--", "-->", "\"", "<script>", "</script>", " ", ""};
+        for (int i = 0; i < 200; i++) {
+            int start = random.nextInt(text.length() + 1);
+            int removed = random.nextInt(Math.min(text.length() - start, 20) + 1);
+            String newText = text.substring(0, start) + inserts[random.nextInt(inserts.length)]
+                    + text.substring(start + removed);
+            TextDiff diff = TextDiff.compute(text, newText);
+            LineBuffer changed = buffer.update(newText, diff);
+            long lexed = lexer.getLexedLines();
+            lexer.update(changed, diff);
+            assertTrue(lexer.getLexedLines() - lexed <= 300);   // no more than the eager lines
+            buffer = changed;
+            text = newText;
+
+            IncrementalLexer fresh = new IncrementalLexer(buffer);
+            for (int line = 0; line < buffer.getLineCount(); line++)
+                assertEquals(fresh.stateAt(line), lexer.stateAt(line), "line " + line);
+        }
+    }
+}
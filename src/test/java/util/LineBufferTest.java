@@ -0,0 +1,90 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Indexes generated texts with long lines
+ */
+class LineBufferTest {
+
+    private static String longLine(int length) {
+        StringBuilder sb = new StringBuilder(length + 64);
+        for (int i = 0; sb.length() < length; i++) sb.append("<p class=\"c").append(i).append("\">word word</p>");
+        return sb.toString();
+    }
+
+    /**
+     * @return the text of a line of the text, joined from its segments
+     */
+    private static String physicalLine(LineBuffer buffer, int physicalLine) {
+        int line = buffer.getLineOfPhysicalLine(physicalLine);
+        StringBuilder sb = new StringBuilder(buffer.getLine(line));
+        while (++line < buffer.getLineCount() && buffer.isSegment(line)) sb.append(buffer.getLine(line));
+        return sb.toString();
+    }
+
+    @Test
+    void splitsLongLines() {
+        String text = longLine(50_000);
+        LineBuffer buffer = new LineBuffer(text);
+        assertEquals(1, buffer.getPhysicalLineCount());
+        assertTrue(buffer.getLineCount() > 10);
+        StringBuilder joined = new StringBuilder();
+        for (int line = 0; line < buffer.getLineCount(); line++) {
+            String segment = buffer.getLine(line);
+            assertTrue(segment.length() <= LineBuffer.SEGMENT_LENGTH);
+            if (line > 0) assertTrue(segment.startsWith("<"));
+            assertEquals(line > 0, buffer.isSegment(line));
+            assertEquals(0, buffer.getPhysicalLine(line));
+            joined.append(segment);
+        }
+        assertEquals(text, joined.toString());
+    }
+
+    @Test
+    void countsPhysicalLines() {
+        String text = "first\r\n" + longLine(20_000) + "\nthird\n" + "x".repeat(10_000) + "\rlast";
+        LineBuffer buffer = new LineBuffer(text);
+        assertEquals(5, buffer.getPhysicalLineCount());
+        assertEquals("first", physicalLine(buffer, 0));
+        assertEquals("third", physicalLine(buffer, 2));
+        assertEquals("x".repeat(10_000), physicalLine(buffer, 3));
+        assertEquals("last", physicalLine(buffer, 4));
+        int last = buffer.getLineCount() - 1;
+        assertEquals(4, buffer.getPhysicalLine(last));
+        assertEquals(last, buffer.getLineOfPhysicalLine(4));
+        assertFalse(buffer.isSegment(last));
+    }
+
+    @Test
+    void followsEdits() {
+        Random random = new Random(42);
+        String text = longLine(30_000) + "\n" + longLine(200) + "\n" + longLine(12_000);
+        LineBuffer buffer = new LineBuffer(text);
+        String[] inserts = {"x", "\n", "\r\n", " ", "<b>", longLine(6_000), ""};
+        for (int i = 0; i < 300; i++) {
+            int start = random.nextInt(text.length() + 1);
+            int removed = random.nextInt(Math.min(text.length() - start, 50) + 1);
+            String newText = text.substring(0, start) + inserts[random.nextInt(inserts.length)]
+                    + text.substring(start + removed);
+            buffer = buffer.update(newText, TextDiff.compute(text, newText));
+            text = newText;
+
+            LineBuffer fresh = new LineBuffer(text);
+            assertEquals(fresh.getPhysicalLineCount(), buffer.getPhysicalLineCount());
+            for (int line = 0; line < buffer.getLineCount(); line++)
+                assertTrue(buffer.getLine(line).length() <= 2 * LineBuffer.SEGMENT_LENGTH);
+            for (int physical = 0; physical < fresh.getPhysicalLineCount(); physical++) {
+                assertEquals(fresh.getLineStart(fresh.getLineOfPhysicalLine(physical)),
+                        buffer.getLineStart(buffer.getLineOfPhysicalLine(physical)));
+                assertEquals(physicalLine(fresh, physical), physicalLine(buffer, physical));
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks links against a local HTTP server
+ */
+class LinkCheckerTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private final Map<String, AtomicInteger> hits = new ConcurrentHashMap<>();
+    private final AtomicInteger active = new AtomicInteger(), maxActive = new AtomicInteger();
+    private volatile CountDownLatch release = new CountDownLatch(0);
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        release.countDown();
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Answers 200, or 404 for paths starting with /missing, and 405 to
+     * HEAD requests for paths starting with /nohead; waits for
+     * {@link #release} first
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        hits.computeIfAbsent(exchange.getRequestMethod() + " " + path, key -> new AtomicInteger()).incrementAndGet();
+        maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+        try {
+            release.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+            int status = 200;
+            if (path.startsWith("/missing")) status = 404;
+            else if (path.startsWith("/nohead") && exchange.getRequestMethod().equals("HEAD")) status = 405;
+            exchange.sendResponseHeaders(status, -1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            active.decrementAndGet();
+            exchange.close();
+        }
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + path);
+    }
+
+    private List<URI> uris(String prefix, int count) {
+        List<URI> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) list.add(uri(prefix + i));
+        return list;
+    }
+
+    private int hits(String method, String path) {
+        AtomicInteger count = hits.get(method + " " + path);
+        return count == null ? 0 : count.get();
+    }
+
+    private static LinkChecker checker(int perHost, Duration ttl) {
+        return new LinkChecker(HttpClient.newBuilder()
+                .connectTimeout(TIMEOUT)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build(), TIMEOUT, perHost, ttl);
+    }
+
+    private static List<LinkChecker.Result> await(LinkChecker.Run run) throws Exception {
+        return run.getDone().get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    void reportsStatus() throws Exception {
+        LinkChecker checker = checker(LinkChecker.PER_HOST, LinkChecker.TTL);
+        List<LinkChecker.Result> results = await(checker.checkAll(
+                List.of(uri("/ok"), uri("/missing")), result -> { }));
+        assertEquals(2, results.size());
+        assertFalse(results.get(0).isBroken());
+        assertTrue(results.get(1).isBroken());
+        assertEquals("HTTP 404", results.get(1).getDescription());
+        assertEquals(0, hits("GET", "/missing"));
+    }
+
+    @Test
+    void limitsRequestsPerHost() throws Exception {
+        release = new CountDownLatch(1);
+        LinkChecker checker = checker(2, LinkChecker.TTL);
+        LinkChecker.Run run = checker.checkAll(uris("/page", 10), result -> { });
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (active.get() < 2 && System.nanoTime() < deadline) Thread.sleep(10);
+        Thread.sleep(200);      // a third request would have arrived by now
+        assertEquals(2, active.get());
+        release.countDown();
+        assertEquals(10, await(run).size());
+        assertEquals(2, maxActive.get());
+    }
+
+    @Test
+    void fallsBackToGet() throws Exception {
+        LinkChecker checker = checker(LinkChecker.PER_HOST, LinkChecker.TTL);
+        List<LinkChecker.Result> results = await(checker.checkAll(List.of(uri("/nohead")), result -> { }));
+        assertEquals(200, results.get(0).getStatus());
+        assertEquals(1, hits("HEAD", "/nohead"));
+        assertEquals(1, hits("GET", "/nohead"));
+        assertTrue(checker.getStatistics().contains("GET fallbacks: 1"));
+    }
+
+    @Test
+    void remembersResults() throws Exception {
+        LinkChecker checker = checker(LinkChecker.PER_HOST, LinkChecker.TTL);
+        await(checker.checkAll(List.of(uri("/ok")), result -> { }));
+        List<LinkChecker.Result> again = await(checker.checkAll(List.of(uri("/ok")), result -> { }));
+        assertEquals(200, again.get(0).getStatus());
+        assertEquals(1, hits("HEAD", "/ok"));
+
+        checker.clear();
+        await(checker.checkAll(List.of(uri("/ok")), result -> { }));
+        assertEquals(2, hits("HEAD", "/ok"));
+    }
+
+    @Test
+    void forgetsExpiredResults() throws Exception {
+        LinkChecker checker = checker(LinkChecker.PER_HOST, Duration.ZERO);
+        await(checker.checkAll(List.of(uri("/ok")), result -> { }));
+        await(checker.checkAll(List.of(uri("/ok")), result -> { }));
+        assertEquals(2, hits("HEAD", "/ok"));
+    }
+
+    @Test
+    void cancelSkipsWaitingLinks() throws Exception {
+        release = new CountDownLatch(1);
+        LinkChecker checker = checker(1, LinkChecker.TTL);
+        List<LinkChecker.Result> reported = new CopyOnWriteArrayList<>();
+        LinkChecker.Run run = checker.checkAll(uris("/page", 8), reported::add);
+        Thread.sleep(300);
+        run.cancel();
+        release.countDown();
+        assertTrue(await(run).size() <= 1);
+        assertTrue(reported.isEmpty());
+        int requests = 0;
+        for (int i = 0; i < 8; i++) requests += hits("HEAD", "/page" + i);
+        assertEquals(1, requests);
+    }
+
+    @Test
+    void newRunGetsLinksOfCancelledRun() throws Exception {
+        release = new CountDownLatch(1);
+        LinkChecker checker = checker(1, LinkChecker.TTL);
+        List<URI> links = uris("/page", 8);
+        LinkChecker.Run old = checker.checkAll(links, result -> { });
+        Thread.sleep(300);
+        old.cancel();
+
+        List<LinkChecker.Result> reported = new CopyOnWriteArrayList<>();
+        LinkChecker.Run run = checker.checkAll(links, reported::add);
+        release.countDown();
+        assertEquals(8, await(run).size());
+        assertEquals(8, reported.size());
+        await(old);
+        for (URI link : links) assertEquals(1, hits("HEAD", link.getPath()));
+    }
+
+    @Test
+    void cancelsThousandsOfWaitingLinks() throws Exception {
+        release = new CountDownLatch(1);
+        LinkChecker checker = checker(LinkChecker.PER_HOST, LinkChecker.TTL);
+        LinkChecker.Run old = checker.checkAll(uris("/page", 5000), result -> { });
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (active.get() < LinkChecker.PER_HOST && System.nanoTime() < deadline) Thread.sleep(10);
+        old.cancel();
+        release.countDown();
+        assertTrue(await(old).size() <= LinkChecker.PER_HOST);
+
+        List<LinkChecker.Result> results = await(checker.checkAll(uris("/other", 8), result -> { }));
+        assertEquals(8, results.size());
+    }
+}
@@ -0,0 +1,195 @@
+package util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Downloads pages from a local HTTP server
+ */
+class PageFetcherTest {
+
+    private static final String PAGE = "<html><body><p>Page</p></body></html>";
+    private static final String ETAG = "\"v1\"", LAST_MODIFIED = "Wed, 21 Oct 2015 07:28:00 GMT";
+
+    @TempDir
+    Path directory;
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private HttpCache cache;
+    private final List<String> conditions = new CopyOnWriteArrayList<>();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/etag", exchange -> {
+            exchange.getResponseHeaders().set("ETag", ETAG);
+            respond(exchange, ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match")));
+        });
+        server.createContext("/modified", exchange -> {
+            exchange.getResponseHeaders().set("Last-Modified", LAST_MODIFIED);
+            respond(exchange, LAST_MODIFIED.equals(exchange.getRequestHeaders().getFirst("If-Modified-Since")));
+        });
+        server.createContext("/nostore", exchange -> {
+            exchange.getResponseHeaders().set("ETag", ETAG);
+            exchange.getResponseHeaders().set("Cache-Control", "no-store");
+            respond(exchange, false);
+        });
+        server.createContext("/missing", exchange -> {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        server.createContext("/stalled", exchange -> {     // sends part of the page, then stops
+            exchange.getResponseHeaders().set("ETag", ETAG);
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = exchange.getResponseBody();
+            out.write("<html><body>".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.close();
+        });
+        server.start();
+        cache = new HttpCache(directory.resolve("cache"));
+    }
+
+    @AfterEach
+    void stopServer() {
+        release.countDown();
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Sends the page, or 304 if it's unchanged
+     */
+    private void respond(HttpExchange exchange, boolean unchanged) throws IOException {
+        String condition = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (condition == null) condition = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+        conditions.add(condition == null ? "" : condition);
+        if (unchanged) {
+            exchange.sendResponseHeaders(304, -1);
+        } else {
+            byte[] body = PAGE.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/html; charset=UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+        }
+        exchange.close();
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + path);
+    }
+
+    private PageFetcher fetcher(Duration timeout) {
+        return new PageFetcher(Duration.ofSeconds(5), timeout, cache);
+    }
+
+    private List<Path> cached() throws IOException {
+        try (Stream<Path> list = Files.list(cache.getDirectory())) {
+            return list.collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    void reusesPageWithSameEtag() throws Exception {
+        PageFetcher fetcher = fetcher(PageFetcher.TIMEOUT);
+        PageFetcher.Page first = fetcher.fetch(uri("/etag"), null, null);
+        assertFalse(first.isFromCache());
+        assertEquals(PAGE, first.getDocument().getText());
+        assertNotNull(cache.lookup(uri("/etag")));
+
+        PageFetcher.Page second = fetcher.fetch(uri("/etag"), null, null);
+        assertTrue(second.isFromCache());
+        assertEquals(PAGE, second.getDocument().getText());
+        assertEquals(List.of("", ETAG), conditions);
+    }
+
+    @Test
+    void reusesUnmodifiedPage() throws Exception {
+        PageFetcher fetcher = fetcher(PageFetcher.TIMEOUT);
+        assertFalse(fetcher.fetch(uri("/modified"), null, null).isFromCache());
+        PageFetcher.Page second = fetcher.fetch(uri("/modified"), null, null);
+        assertTrue(second.isFromCache());
+        assertEquals(PAGE, second.getDocument().getText());
+        assertEquals(List.of("", LAST_MODIFIED), conditions);
+    }
+
+    @Test
+    void doesNotStoreNoStorePages() throws Exception {
+        PageFetcher fetcher = fetcher(PageFetcher.TIMEOUT);
+        assertEquals(PAGE, fetcher.fetch(uri("/nostore"), null, null).getDocument().getText());
+        assertNull(cache.lookup(uri("/nostore")));
+        assertFalse(fetcher.fetch(uri("/nostore"), null, null).isFromCache());
+        assertEquals(List.of("", ""), conditions);
+        assertTrue(cached().isEmpty());
+    }
+
+    @Test
+    void reportsErrors() {
+        PageFetcher fetcher = fetcher(PageFetcher.TIMEOUT);
+        IOException e = assertThrows(IOException.class, () -> fetcher.fetch(uri("/missing"), null, null));
+        assertTrue(e.getMessage().contains("HTTP 404"));
+    }
+
+    @Test
+    void timesOutWholePage() throws Exception {
+        PageFetcher fetcher = fetcher(Duration.ofMillis(500));
+        long start = System.nanoTime();
+        assertThrows(HttpTimeoutException.class, () -> fetcher.fetch(uri("/stalled"), null, null));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertNull(cache.lookup(uri("/stalled")));
+        assertTrue(cached().isEmpty());
+    }
+
+    @Test
+    void cancelsDuringBody() throws Exception {
+        PageFetcher fetcher = fetcher(PageFetcher.TIMEOUT);
+        AtomicBoolean received = new AtomicBoolean();
+        long start = System.nanoTime();
+        assertThrows(CancellationException.class, () -> fetcher.fetch(uri("/stalled"),
+                (read, size) -> received.set(true), received::get));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertNull(cache.lookup(uri("/stalled")));
+        assertTrue(cached().isEmpty());
+    }
+}
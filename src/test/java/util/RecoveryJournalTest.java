@@ -0,0 +1,77 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Journals documents into a temporary directory
+ */
+class RecoveryJournalTest {
+
+    // not a running process
+    private static final long CRASHED = Long.MAX_VALUE;
+
+    @TempDir
+    File directory;
+
+    @Test
+    void journalsDocumentsSeparately() {
+        RecoveryJournal journal = new RecoveryJournal(directory, CRASHED);
+        journal.record(1, "/docs/a.html", "<p>A</p>");
+        journal.record(2, null, "<p>B</p>");
+        journal.record(1, "/docs/a.html", "<p>A edited</p>");
+        journal.shutdown(5);
+
+        List<RecoveryJournal.Recovery> recovered = RecoveryJournal.recoverAbandoned(directory);
+        assertEquals(2, recovered.size());
+        assertEquals("/docs/a.html", recovered.get(0).getPath());
+        assertEquals("<p>A edited</p>", recovered.get(0).getText());
+        assertNull(recovered.get(1).getPath());
+        assertEquals("<p>B</p>", recovered.get(1).getText());
+    }
+
+    @Test
+    void discardsOneDocument() {
+        RecoveryJournal journal = new RecoveryJournal(directory, CRASHED);
+        journal.record(1, "/docs/a.html", "<p>A</p>");
+        journal.record(2, "/docs/b.html", "<p>B</p>");
+        journal.discard(1);
+        journal.shutdown(5);
+
+        List<RecoveryJournal.Recovery> recovered = RecoveryJournal.recoverAbandoned(directory);
+        assertEquals(1, recovered.size());
+        assertEquals("/docs/b.html", recovered.get(0).getPath());
+    }
+
+    @Test
+    void skipsRunningPrograms() {
+        RecoveryJournal journal = new RecoveryJournal(directory, ProcessHandle.current().pid());
+        journal.record(1, null, "<p>A</p>");
+        journal.shutdown(5);
+        assertTrue(RecoveryJournal.recoverAbandoned(directory).isEmpty());
+        assertEquals(1, directory.list().length);
+    }
+
+    @Test
+    void restoresUnderNewId() {
+        RecoveryJournal crashed = new RecoveryJournal(directory, CRASHED);
+        crashed.record(7, "/docs/a.html", "<p>A</p>");
+        crashed.shutdown(5);
+
+        RecoveryJournal journal = new RecoveryJournal(directory, CRASHED - 1);
+        for (RecoveryJournal.Recovery recovery : RecoveryJournal.recoverAbandoned(directory))
+            journal.restore(1, recovery);
+        journal.shutdown(5);
+
+        assertEquals(List.of((CRASHED - 1) + "-1.journal"), List.of(directory.list()));
+        List<RecoveryJournal.Recovery> recovered = RecoveryJournal.recoverAbandoned(directory);
+        assertEquals("<p>A</p>", recovered.get(0).getText());
+    }
+}